@@ -0,0 +1,84 @@
+-- Latency of the message_map table with a million rows.
+--
+-- Run against a scratch database:
+--   psql -d mjjb_bench -f benchmarks/sql/message_map.sql
+--
+-- The script creates the same schema as db/04.sql in a separate schema and loads 1 000 000 mappings, one every 2 seconds
+-- (about 23 days). It prints the plans of the event lookup and of the retention page, then the average latency of 10 000
+-- random event lookups and of 10 000 mapping inserts (MessageMapDao.map) of the new and of the already bridged events.
+-- The results of the last run are in message_map.txt.
+
+\set ON_ERROR_STOP on
+\timing on
+
+DROP SCHEMA IF EXISTS "mjjb_bench" CASCADE;
+CREATE SCHEMA "mjjb_bench";
+SET search_path TO "mjjb_bench";
+
+CREATE TABLE "message_map" (
+  "event_hash" BIGINT PRIMARY KEY,
+  "stanza_hash" BIGINT NOT NULL,
+  "created" TIMESTAMP WITH TIME ZONE NOT NULL
+);
+
+CREATE INDEX "message_map_created_idx" ON "message_map" ("created");
+
+-- Same hashing as MessageHash: the first 8 bytes of SHA-256.
+CREATE FUNCTION "message_hash"(id TEXT) RETURNS BIGINT AS $$
+  SELECT ('x' || substr(encode(sha256(convert_to(id, 'UTF8')), 'hex'), 1, 16))::bit(64)::bigint
+$$ LANGUAGE SQL IMMUTABLE;
+
+INSERT INTO "message_map"("event_hash", "stanza_hash", "created")
+SELECT message_hash('$event' || n || ':localhost'), message_hash('stanza-' || n), now() - n * INTERVAL '2 seconds'
+FROM generate_series(1, 1000000) AS n
+ON CONFLICT DO NOTHING;
+
+VACUUM ANALYZE "message_map";
+
+SELECT pg_size_pretty(pg_relation_size('message_map')) AS "table",
+       pg_size_pretty(pg_indexes_size('message_map')) AS "indexes";
+
+-- The event lookup must be an Index Only Scan with Heap Fetches: 0.
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT count(*) FROM (SELECT 1 FROM "message_map" WHERE "event_hash" = message_hash('$event500000:localhost') LIMIT 1) m;
+
+-- The retention page (MessageMapDao.findExpired) of the oldest 6 400 rows must scan the created index.
+EXPLAIN (ANALYZE, BUFFERS)
+SELECT "event_hash" FROM "message_map" WHERE "created" < now() - INTERVAL '23 days' LIMIT 1000;
+
+DO $$
+DECLARE
+  iterations CONSTANT INTEGER := 10000;
+  started TIMESTAMP WITH TIME ZONE;
+  found INTEGER;
+  hashes BIGINT[];
+  h BIGINT;
+BEGIN
+  SELECT array_agg(message_hash('$event' || (random() * 999999 + 1)::INTEGER || ':localhost'))
+    INTO hashes FROM generate_series(1, iterations);
+  started := clock_timestamp();
+  FOREACH h IN ARRAY hashes LOOP
+    SELECT count(*) INTO found FROM (SELECT 1 FROM "message_map" WHERE "event_hash" = h LIMIT 1) m;
+  END LOOP;
+  RAISE NOTICE 'event lookup: % us/op',
+    round(extract(EPOCH FROM clock_timestamp() - started) * 1000000 / iterations, 2);
+
+  started := clock_timestamp();
+  FOREACH h IN ARRAY hashes LOOP
+    INSERT INTO "message_map"("event_hash", "stanza_hash", "created") VALUES (h, h, now()) ON CONFLICT DO NOTHING;
+  END LOOP;
+  RAISE NOTICE 'map of a bridged event: % us/op',
+    round(extract(EPOCH FROM clock_timestamp() - started) * 1000000 / iterations, 2);
+
+  SELECT array_agg(message_hash('$new' || n || ':localhost'))
+    INTO hashes FROM generate_series(1, iterations) AS n;
+  started := clock_timestamp();
+  FOREACH h IN ARRAY hashes LOOP
+    INSERT INTO "message_map"("event_hash", "stanza_hash", "created") VALUES (h, h, now()) ON CONFLICT DO NOTHING;
+  END LOOP;
+  RAISE NOTICE 'map of a new event: % us/op',
+    round(extract(EPOCH FROM clock_timestamp() - started) * 1000000 / iterations, 2);
+END
+$$;
+
+DROP SCHEMA "mjjb_bench" CASCADE;
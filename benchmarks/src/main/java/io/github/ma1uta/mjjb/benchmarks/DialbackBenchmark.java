@@ -0,0 +1,107 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks;
+
+import io.github.ma1uta.mjjb.xmpp.dialback.ServerDialback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dialback key generation and verification.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DialbackBenchmark {
+
+    private static final int CONTENDED_THREADS = 4;
+
+    /**
+     * Dialback caches are registered by name, so there is one instance per JVM.
+     */
+    private static final ServerDialback DIALBACK = new ServerDialback(Servers.xmpp());
+
+    private final String streamId = UUID.randomUUID().toString();
+    private final String key = DIALBACK.newKey(Stanzas.REMOTE, Stanzas.LOCAL, streamId);
+    private final String wrongKey = DIALBACK.newKey(Stanzas.REMOTE, Stanzas.LOCAL, UUID.randomUUID().toString());
+
+    /**
+     * Generate the key of the stream.
+     *
+     * @return key.
+     */
+    @Benchmark
+    public String newKey() {
+        return DIALBACK.newKey(Stanzas.REMOTE, Stanzas.LOCAL, streamId);
+    }
+
+    /**
+     * Generate the key of the stream from the concurrent event loops.
+     *
+     * @return key.
+     */
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public String newKeyContended() {
+        return DIALBACK.newKey(Stanzas.REMOTE, Stanzas.LOCAL, streamId);
+    }
+
+    /**
+     * Verify the valid key.
+     *
+     * @return verification result.
+     */
+    @Benchmark
+    public boolean verify() {
+        return DIALBACK.verify(Stanzas.REMOTE, Stanzas.LOCAL, streamId, key);
+    }
+
+    /**
+     * Verify the valid key from the concurrent event loops.
+     *
+     * @return verification result.
+     */
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public boolean verifyContended() {
+        return DIALBACK.verify(Stanzas.REMOTE, Stanzas.LOCAL, streamId, key);
+    }
+
+    /**
+     * Verify the forged key.
+     *
+     * @return verification result.
+     */
+    @Benchmark
+    public boolean verifyInvalid() {
+        return DIALBACK.verify(Stanzas.REMOTE, Stanzas.LOCAL, streamId, wrongKey);
+    }
+}
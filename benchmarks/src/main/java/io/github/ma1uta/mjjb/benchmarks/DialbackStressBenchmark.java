@@ -0,0 +1,267 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.benchmarks;
+
+import io.github.ma1uta.mjjb.config.BackpressureConfig;
+import io.github.ma1uta.mjjb.config.XmppConfig;
+import io.github.ma1uta.mjjb.xmpp.IncomingSession;
+import io.github.ma1uta.mjjb.xmpp.OutgoingSession;
+import io.github.ma1uta.mjjb.xmpp.XmppServer;
+import io.github.ma1uta.mjjb.xmpp.dialback.DialbackElement;
+import io.github.ma1uta.mjjb.xmpp.dialback.DialbackNegotiationResult;
+import io.github.ma1uta.mjjb.xmpp.dialback.Result;
+import io.github.ma1uta.mjjb.xmpp.dialback.ServerDialback;
+import io.github.ma1uta.mjjb.xmpp.dialback.Verify;
+import io.github.ma1uta.mjjb.xmpp.queue.Backpressure;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.net.ConnectionConfiguration;
+import rocks.xmpp.core.net.TcpBinding;
+import rocks.xmpp.core.session.model.SessionOpen;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamError;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Many concurrent dialback verifications.
+ * <br/>
+ * Each invocation receives {@code handshakes} &lt;db:result/&gt; on the different incoming connections before the first
+ * answer of the authoritative server, so all verifications are pending at the same time. The verify requests are piggybacked
+ * on the one authenticated outgoing session. The invocation fails if any handshake doesn't complete, e.g. was evicted from
+ * the pending cache.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DialbackStressBenchmark {
+
+    private static final String VALID = DialbackElement.DialbackType.valid.name();
+    private static final Jid LOCAL = Jid.of(Stanzas.LOCAL);
+    private static final Jid REMOTE = Jid.of(Stanzas.REMOTE);
+
+    /**
+     * Concurrent handshakes.
+     */
+    @Param("10000")
+    private int handshakes;
+
+    private XmppServer server;
+    private OutgoingSession authoritative;
+    private final FakeConnection outgoingConnection = new FakeConnection(0);
+    private final List<IncomingSession> incoming = new ArrayList<>();
+
+    /**
+     * Create the server with the authenticated session to the authoritative server.
+     *
+     * @throws Exception when failed to create the session.
+     */
+    @Setup
+    public void setUp() throws Exception {
+        XmppConfig config = new XmppConfig();
+        config.setDomain(Stanzas.LOCAL);
+        config.getDialback().setSecret("secret");
+        server = new XmppServer(null, new Backpressure(new BackpressureConfig())) {
+
+            private final ServerDialback dialback = new ServerDialback(this);
+
+            @Override
+            public XmppConfig getConfig() {
+                return config;
+            }
+
+            @Override
+            public ServerDialback dialback() {
+                return dialback;
+            }
+        };
+        // the session without dialback is initialized by the first stream element. Without the egress scheduler the queued
+        // requests are written by the executor, so they are sent before the answers are received.
+        authoritative = new OutgoingSession(server, Stanzas.REMOTE, false);
+        authoritative.setExecutor(Runnable::run);
+        authoritative.setConnection(outgoingConnection);
+        server.newOutgoingSession(authoritative);
+        authoritative.handleStream(new Object());
+    }
+
+    /**
+     * Open the incoming connections.
+     *
+     * @throws Exception when failed to create the session.
+     */
+    @Setup(Level.Invocation)
+    public void connect() throws Exception {
+        for (int i = 0; i < handshakes; i++) {
+            IncomingSession session = new IncomingSession(server);
+            session.setExecutor(Runnable::run);
+            session.setConnection(new FakeConnection(i + 1));
+            server.newIncomingSession(session);
+            incoming.add(session);
+        }
+    }
+
+    /**
+     * Close the incoming connections.
+     */
+    @TearDown(Level.Invocation)
+    public void disconnect() {
+        incoming.forEach(server::remove);
+        incoming.clear();
+        outgoingConnection.sent.clear();
+    }
+
+    /**
+     * Receive all keys, then all answers.
+     *
+     * @return count of the verified connections.
+     */
+    @Benchmark
+    public int handshakes() {
+        ServerDialback dialback = server.dialback();
+        for (IncomingSession session : incoming) {
+            Result result = new Result(null, LOCAL, REMOTE, "key", null);
+            if (dialback.negotiateIncoming(session.getConnection(), result) != DialbackNegotiationResult.IN_PROCESS) {
+                throw new IllegalStateException("The key wasn't sent to verification.");
+            }
+        }
+        StreamElement element;
+        while ((element = outgoingConnection.sent.poll()) != null) {
+            Verify request = (Verify) element;
+            dialback.negotiateOutgoing(authoritative, new Verify(request.getId(), request.getFrom(), request.getTo(), null, VALID));
+        }
+        int verified = 0;
+        for (IncomingSession session : incoming) {
+            Result answer = (Result) ((FakeConnection) session.getConnection()).sent.poll();
+            if (answer != null && VALID.equals(answer.getType())) {
+                verified++;
+            }
+        }
+        if (verified != handshakes) {
+            throw new IllegalStateException(String.format("Verified %d of %d handshakes.", verified, handshakes));
+        }
+        return verified;
+    }
+
+    /**
+     * Connection which keeps the sent elements.
+     */
+    private static final class FakeConnection implements TcpBinding {
+
+        private final InetSocketAddress address;
+        private final Queue<StreamElement> sent = new ConcurrentLinkedQueue<>();
+
+        private FakeConnection(int port) {
+            this.address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return address;
+        }
+
+        @Override
+        public CompletionStage<Void> send(StreamElement streamElement) {
+            sent.offer(streamElement);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletionStage<Void> write(StreamElement streamElement) {
+            return send(streamElement);
+        }
+
+        @Override
+        public void secureConnection() {
+        }
+
+        @Override
+        public void compressConnection(String method, Runnable onSuccess) {
+        }
+
+        @Override
+        public ConnectionConfiguration getConfiguration() {
+            return null;
+        }
+
+        @Override
+        public boolean isUsingAcknowledgements() {
+            return false;
+        }
+
+        @Override
+        public CompletionStage<Void> open(SessionOpen sessionOpen) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public boolean isSecure() {
+            return false;
+        }
+
+        @Override
+        public String getStreamId() {
+            return null;
+        }
+
+        @Override
+        public CompletionStage<Void> closeAsync() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletionStage<Void> closeAsync(StreamError streamError) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public CompletionStage<Void> closeFuture() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
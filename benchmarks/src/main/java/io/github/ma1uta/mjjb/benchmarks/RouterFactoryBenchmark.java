@@ -0,0 +1,199 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import io.github.ma1uta.matrix.event.RoomMessage;
+import io.github.ma1uta.matrix.event.content.RoomMessageContent;
+import io.github.ma1uta.matrix.event.message.Text;
+import io.github.ma1uta.mjjb.AbstractRouter;
+import io.github.ma1uta.mjjb.RouterFactory;
+import io.github.ma1uta.mjjb.config.AppConfig;
+import io.github.ma1uta.mjjb.config.OutboxConfig;
+import io.github.ma1uta.mjjb.db.MessageHash;
+import io.github.ma1uta.mjjb.db.RoomDao;
+import io.github.ma1uta.mjjb.matrix.MatrixServer;
+import io.github.ma1uta.mjjb.matrix.converter.TextConverter;
+import io.github.ma1uta.mjjb.matrix.router.MessageRouter;
+import io.github.ma1uta.mjjb.outbox.OutboxRelay;
+import io.github.ma1uta.mjjb.xmpp.XmppServer;
+import io.github.ma1uta.mjjb.xmpp.router.DirectInviteRouter;
+import liquibase.Contexts;
+import liquibase.LabelExpression;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.jdbi.v3.core.Jdbi;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+
+import java.sql.Connection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Routing of the matrix events and xmpp stanzas through the {@link RouterFactory} with the real routers.
+ * <br/>
+ * Routers work with the in-memory H2 database. The outbox relay is not started, so the routed messages stay in the outbox
+ * table until the end of the iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RouterFactoryBenchmark {
+
+    private static final String URL = "jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE"
+        + ";DEFAULT_NULL_ORDERING=HIGH";
+
+    private static final String MATRIX_USER = "@romeo:" + Stanzas.LOCAL;
+    private static final String XMPP_USER = "juliet@" + Stanzas.REMOTE;
+    private static final String ROOM_ID = "!direct:" + Stanzas.LOCAL;
+
+    private HikariDataSource dataSource;
+    private RouterFactory routerFactory;
+    private OutboxRelay outbox;
+    private RoomMessage<Text> duplicate;
+    private Presence presence;
+    private long eventCounter;
+
+    /**
+     * Create the database and the routers.
+     *
+     * @throws Exception when failed to create the database.
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setJdbcUrl(URL);
+        dataSource = new HikariDataSource(hikariConfig);
+        try (Connection connection = dataSource.getConnection()) {
+            Database database = DatabaseFactory.getInstance().findCorrectDatabaseImplementation(new JdbcConnection(connection));
+            new Liquibase("migrations.xml", new ClassLoaderResourceAccessor(), database).update(new Contexts(), new LabelExpression());
+        }
+
+        Jdbi jdbi = Jdbi.create(dataSource);
+        jdbi.installPlugin(new SqlObjectPlugin());
+        jdbi.useExtension(RoomDao.class, dao -> dao.createDirectRoom(ROOM_ID, MATRIX_USER, XMPP_USER));
+
+        outbox = new OutboxRelay(jdbi, new OutboxConfig()) {
+            @Override
+            public void wakeUp() {
+                // the relay isn't started.
+            }
+        };
+        XmppServer xmppServer = Servers.xmpp();
+        MatrixServer matrixServer = Servers.matrix();
+
+        routerFactory = new RouterFactory(new AppConfig(), jdbi);
+        MessageRouter messageRouter = new MessageRouter();
+        Map<Class<? extends RoomMessageContent>, BiFunction<Jid, RoomMessage<?>, Message>> converters = Collections
+            .singletonMap(Text.class, new TextConverter());
+        messageRouter.setConverters(converters);
+        routerFactory.addMatrixRouter(RoomMessage.class, messageRouter);
+        routerFactory.addXmppRouter(new DirectInviteRouter());
+        for (AbstractRouter<?> router : routerFactory.getMatrixRouters().values()) {
+            router.init(jdbi, xmppServer, matrixServer, outbox);
+        }
+        for (AbstractRouter<?> router : routerFactory.getXmppRouters().values()) {
+            router.init(jdbi, xmppServer, matrixServer, outbox);
+        }
+
+        duplicate = message("$duplicate:" + Stanzas.LOCAL);
+        routerFactory.process(duplicate);
+        presence = new Presence(Jid.of("_xmpp_romeo@" + Stanzas.LOCAL), Presence.Type.UNAVAILABLE, null);
+        presence.setFrom(Jid.of(XMPP_USER));
+    }
+
+    /**
+     * Clean the routed messages.
+     */
+    @TearDown(Level.Iteration)
+    public void clean() {
+        routerFactory.getJdbi().useHandle(h -> {
+            h.execute("delete from outbox");
+            h.execute("delete from message_map where event_hash <> ?", MessageHash.of(duplicate.getEventId()));
+        });
+    }
+
+    /**
+     * Close the database.
+     *
+     * @throws Exception when failed to stop the outbox relay.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        outbox.close();
+        dataSource.close();
+    }
+
+    /**
+     * Route the new matrix message to the outbox.
+     */
+    @Benchmark
+    public void routeMessage() {
+        routerFactory.process(message("$" + (eventCounter++) + ":" + Stanzas.LOCAL));
+    }
+
+    /**
+     * Route the already bridged matrix message.
+     */
+    @Benchmark
+    public void routeDuplicate() {
+        routerFactory.process(duplicate);
+    }
+
+    /**
+     * Pass the presence through the xmpp routers which skip it.
+     */
+    @Benchmark
+    public void routePresence() {
+        routerFactory.process(presence);
+    }
+
+    private RoomMessage<Text> message(String eventId) {
+        Text text = new Text();
+        text.setBody("Wherefore art thou, Romeo?");
+        RoomMessage<Text> message = new RoomMessage<>();
+        message.setEventId(eventId);
+        message.setRoomId(ROOM_ID);
+        message.setSender(MATRIX_USER);
+        message.setContent(text);
+        return message;
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks;
+
+import io.github.ma1uta.mjjb.AbstractRouter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Identifier mapping of the {@link AbstractRouter}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class RouterMappingBenchmark {
+
+    /**
+     * Plain ascii JID or JID with the characters to escape.
+     */
+    @Param( {"juliet@example.org", "o'brien+résumé@xn--e1afmkfd.xn--p1ai"})
+    @SuppressWarnings("checkstyle:visibilitymodifier")
+    public String jid;
+
+    private final MappingRouter router = new MappingRouter();
+    private String mxid;
+    private String puppet;
+
+    /**
+     * Init the router and prepare the identifiers.
+     */
+    @Setup
+    public void setUp() {
+        router.init(null, Servers.xmpp(), Servers.matrix(), null);
+        puppet = router.encodeJidToMxid(jid);
+        mxid = "@romeo:" + Stanzas.LOCAL;
+    }
+
+    /**
+     * JID to the puppet MXID.
+     *
+     * @return MXID.
+     */
+    @Benchmark
+    public String encodeJidToMxid() {
+        return router.encodeJidToMxid(jid);
+    }
+
+    /**
+     * Puppet MXID to the JID.
+     *
+     * @return JID.
+     */
+    @Benchmark
+    public String extractJidFromMxid() {
+        return router.extractJidFromMxid(puppet);
+    }
+
+    /**
+     * JID to the MXID.
+     *
+     * @return MXID.
+     */
+    @Benchmark
+    public String extractMxidFromJid() {
+        return router.extractMxidFromJid(jid);
+    }
+
+    /**
+     * MXID to the double-puppet JID.
+     *
+     * @return JID.
+     */
+    @Benchmark
+    public String encodeMxidToJid() {
+        return router.encodeMxidToJid(mxid);
+    }
+
+    /**
+     * Router with the mapping methods only.
+     */
+    private static final class MappingRouter extends AbstractRouter<Object> {
+
+        @Override
+        public Boolean apply(Object message) {
+            return false;
+        }
+    }
+}
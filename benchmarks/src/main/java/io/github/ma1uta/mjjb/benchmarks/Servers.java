@@ -0,0 +1,72 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks;
+
+import io.github.ma1uta.mjjb.config.BackpressureConfig;
+import io.github.ma1uta.mjjb.config.MatrixConfig;
+import io.github.ma1uta.mjjb.config.XmppConfig;
+import io.github.ma1uta.mjjb.matrix.MatrixServer;
+import io.github.ma1uta.mjjb.xmpp.XmppServer;
+import io.github.ma1uta.mjjb.xmpp.queue.Backpressure;
+
+/**
+ * Configured but not started servers for the routers.
+ */
+final class Servers {
+
+    /**
+     * Puppet prefix.
+     */
+    static final String PREFIX = "_xmpp_";
+
+    private Servers() {
+        // singleton.
+    }
+
+    /**
+     * Matrix server with the configuration only.
+     *
+     * @return matrix server.
+     */
+    static MatrixServer matrix() {
+        MatrixConfig config = new MatrixConfig();
+        config.setPrefix(PREFIX);
+        config.setHomeserver(Stanzas.LOCAL);
+        return new MatrixServer(null, null, null) {
+            @Override
+            public MatrixConfig getConfig() {
+                return config;
+            }
+        };
+    }
+
+    /**
+     * XMPP server with the configuration only.
+     *
+     * @return xmpp server.
+     */
+    static XmppServer xmpp() {
+        XmppConfig config = new XmppConfig();
+        config.setDomain(Stanzas.LOCAL);
+        return new XmppServer(null, new Backpressure(new BackpressureConfig())) {
+            @Override
+            public XmppConfig getConfig() {
+                return config;
+            }
+        };
+    }
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks;
+
+import io.github.ma1uta.mjjb.xmpp.ServerConfiguration;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stanza.model.server.ServerIQ;
+import rocks.xmpp.core.stanza.model.server.ServerMessage;
+import rocks.xmpp.core.stanza.model.server.ServerPresence;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamHeader;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Stanzas of the federation traffic.
+ */
+public final class Stanzas {
+
+    /**
+     * Remote server.
+     */
+    static final String REMOTE = "example.org";
+
+    /**
+     * Bridge domain.
+     */
+    static final String LOCAL = "localhost";
+
+    /**
+     * Stanzas in the one batch.
+     */
+    static final int BATCH = 20;
+
+    /**
+     * Incoming stream header.
+     */
+    static final String STREAM_HEADER = "<stream:stream xmlns='jabber:server' xmlns:stream='http://etherx.jabber.org/streams'"
+        + " xmlns:db='jabber:server:dialback' from='" + REMOTE + "' to='" + LOCAL + "' version='1.0' id='c2s-bench'>";
+
+    private static final int LARGE_BODY = 4096;
+    private static final byte PRIORITY = 5;
+
+    private static final String BODY = "Wherefore art thou, Romeo? Deny thy father and refuse thy name.";
+
+    private static final String MESSAGE_XML = "<message from='juliet@" + REMOTE + "/balcony' to='_xmpp_romeo@" + LOCAL + "' id='%d'"
+        + " type='chat'><body>" + BODY + "</body><active xmlns='http://jabber.org/protocol/chatstates'/></message>";
+
+    private static final String LARGE_MESSAGE_XML = "<message from='juliet@" + REMOTE + "/balcony' to='_xmpp_romeo@" + LOCAL + "'"
+        + " id='%d' type='chat'><body>" + largeBody() + "</body></message>";
+
+    private static final String PRESENCE_XML = "<presence from='juliet@" + REMOTE + "/balcony' to='_xmpp_romeo@" + LOCAL + "' id='%d'>"
+        + "<show>away</show><status>On the balcony</status><priority>5</priority></presence>";
+
+    private static final String IQ_XML = "<iq from='" + REMOTE + "' to='" + LOCAL + "' id='%d' type='get'>"
+        + "<ping xmlns='urn:xmpp:ping'/></iq>";
+
+    private static final String DIALBACK_XML = "<db:result from='" + REMOTE + "' to='" + LOCAL + "'>"
+        + "b4835385f37fe2895af6c196b59097b16862406db80559900d353fcdf0a8b8e4</db:result>";
+
+    private static final ThreadLocal<Unmarshaller> UNMARSHALLER = ThreadLocal.withInitial(() -> {
+        try {
+            return ServerConfiguration.JAXB_CONTEXT.createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private static final ThreadLocal<Marshaller> MARSHALLER = ThreadLocal.withInitial(() -> {
+        try {
+            return ServerConfiguration.JAXB_CONTEXT.createMarshaller();
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        }
+    });
+
+    private Stanzas() {
+        // singleton.
+    }
+
+    /**
+     * Stanza mixes.
+     */
+    public enum Mix {
+
+        /**
+         * Chat messages only.
+         */
+        MESSAGE(MESSAGE_XML),
+
+        /**
+         * Presences only.
+         */
+        PRESENCE(PRESENCE_XML),
+
+        /**
+         * IQ pings only.
+         */
+        IQ(IQ_XML),
+
+        /**
+         * Federation traffic: mostly messages and presences with a few pings, dialback keys and large messages.
+         */
+        MIXED(MESSAGE_XML, PRESENCE_XML, MESSAGE_XML, PRESENCE_XML, MESSAGE_XML, IQ_XML, MESSAGE_XML, PRESENCE_XML, MESSAGE_XML,
+            MESSAGE_XML, PRESENCE_XML, MESSAGE_XML, DIALBACK_XML, MESSAGE_XML, PRESENCE_XML, MESSAGE_XML, IQ_XML, MESSAGE_XML,
+            PRESENCE_XML, LARGE_MESSAGE_XML);
+
+        private final List<String> templates;
+
+        Mix(String... templates) {
+            this.templates = Arrays.asList(templates);
+        }
+
+        /**
+         * Build the batch of the stanzas.
+         *
+         * @return stanzas as the one byte array.
+         */
+        byte[] batch() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < BATCH; i++) {
+                builder.append(String.format(templates.get(i % templates.size()), i));
+            }
+            return builder.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * How the bytes of the stream are split between the reads.
+     */
+    public enum Fragmentation {
+
+        /**
+         * All stanzas of the batch were read at once.
+         */
+        COALESCED(Integer.MAX_VALUE),
+
+        /**
+         * Reads of the ethernet MSS.
+         */
+        SEGMENT(1460),
+
+        /**
+         * Small reads, the most of the stanzas are split.
+         */
+        SMALL(64);
+
+        private final int size;
+
+        Fragmentation(int size) {
+            this.size = size;
+        }
+
+        /**
+         * Split the bytes to the read buffers.
+         *
+         * @param bytes stream bytes.
+         * @return read buffers.
+         */
+        ByteBuffer[] split(byte[] bytes) {
+            List<ByteBuffer> buffers = new ArrayList<>();
+            for (int offset = 0; offset < bytes.length; offset += size) {
+                buffers.add(ByteBuffer.wrap(Arrays.copyOfRange(bytes, offset, Math.min(bytes.length, offset + size))));
+            }
+            return buffers.toArray(new ByteBuffer[0]);
+        }
+    }
+
+    /**
+     * Outgoing stanza kinds.
+     */
+    public enum Kind {
+
+        /**
+         * Chat message.
+         */
+        MESSAGE,
+
+        /**
+         * Chat message with the 4KiB body.
+         */
+        LARGE_MESSAGE,
+
+        /**
+         * Presence.
+         */
+        PRESENCE,
+
+        /**
+         * IQ result.
+         */
+        IQ;
+
+        /**
+         * Create the stanza.
+         *
+         * @return stanza.
+         */
+        StreamElement stanza() {
+            Jid from = Jid.of("romeo@" + LOCAL);
+            Jid to = Jid.of("juliet@" + REMOTE + "/balcony");
+            switch (this) {
+                case LARGE_MESSAGE:
+                    Message large = new Message(to, Message.Type.CHAT, largeBody());
+                    large.setFrom(from);
+                    large.setId("m2");
+                    return ServerMessage.from(large);
+                case PRESENCE:
+                    Presence presence = new Presence(to, Presence.Show.AWAY, "On the balcony");
+                    presence.setFrom(from);
+                    presence.setPriority(PRIORITY);
+                    return ServerPresence.from(presence);
+                case IQ:
+                    IQ iq = new IQ(to, rocks.xmpp.core.stanza.model.IQ.Type.RESULT, null, "p1");
+                    iq.setFrom(from);
+                    return ServerIQ.from(iq);
+                case MESSAGE:
+                default:
+                    Message message = new Message(to, Message.Type.CHAT, BODY);
+                    message.setFrom(from);
+                    message.setId("m1");
+                    return ServerMessage.from(message);
+            }
+        }
+    }
+
+    /**
+     * Outgoing stream header.
+     *
+     * @return stream header.
+     */
+    static StreamHeader outgoingHeader() {
+        return StreamHeader.initialServerToServer(Jid.of(LOCAL), Jid.of(REMOTE), Locale.ENGLISH);
+    }
+
+    static Unmarshaller unmarshaller() {
+        return UNMARSHALLER.get();
+    }
+
+    static Marshaller marshaller() {
+        return MARSHALLER.get();
+    }
+
+    private static String largeBody() {
+        StringBuilder builder = new StringBuilder(LARGE_BODY);
+        while (builder.length() < LARGE_BODY) {
+            builder.append(BODY).append(' ');
+        }
+        return builder.toString();
+    }
+}
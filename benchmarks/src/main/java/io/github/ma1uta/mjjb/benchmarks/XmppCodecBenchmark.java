@@ -0,0 +1,155 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks;
+
+import io.github.ma1uta.mjjb.xmpp.babbler.xml.XmppStreamDecoder;
+import io.github.ma1uta.mjjb.xmpp.babbler.xml.XmppStreamEncoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamErrorException;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import javax.xml.stream.XMLOutputFactory;
+
+/**
+ * XMPP stream codec.
+ * <br/>
+ * The decoder is fed with the batch of {@link Stanzas#BATCH} stanzas split to the reads, the score is the time per stanza.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XmppCodecBenchmark {
+
+    /**
+     * Decoder state.
+     */
+    @State(Scope.Thread)
+    public static class DecoderState {
+
+        /**
+         * Stanza mix.
+         */
+        @Param
+        @SuppressWarnings("checkstyle:visibilitymodifier")
+        public Stanzas.Mix mix;
+
+        /**
+         * Splitting of the stream to the reads.
+         */
+        @Param
+        @SuppressWarnings("checkstyle:visibilitymodifier")
+        public Stanzas.Fragmentation fragmentation;
+
+        private XmppStreamDecoder decoder;
+        private ByteBuffer[] reads;
+
+        /**
+         * Open the stream and prepare the reads.
+         *
+         * @throws StreamErrorException when the stream header is invalid.
+         */
+        @Setup
+        public void setUp() throws StreamErrorException {
+            decoder = new XmppStreamDecoder(Stanzas::unmarshaller);
+            decoder.decode(ByteBuffer.wrap(Stanzas.STREAM_HEADER.getBytes(StandardCharsets.UTF_8)), (xml, element) -> {
+            });
+            reads = fragmentation.split(mix.batch());
+        }
+    }
+
+    /**
+     * Encoder state.
+     */
+    @State(Scope.Thread)
+    public static class EncoderState {
+
+        /**
+         * Encoded stanza.
+         */
+        @Param
+        @SuppressWarnings("checkstyle:visibilitymodifier")
+        public Stanzas.Kind kind;
+
+        private XmppStreamEncoder encoder;
+        private StreamElement stanza;
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        /**
+         * Open the stream and create the stanza.
+         *
+         * @throws StreamErrorException when failed to write the stream header.
+         */
+        @Setup
+        public void setUp() throws StreamErrorException {
+            encoder = new XmppStreamEncoder(XMLOutputFactory.newFactory(), Stanzas::marshaller, Function.identity());
+            encoder.encode(Stanzas.outgoingHeader(), output);
+            stanza = kind.stanza();
+        }
+    }
+
+    /**
+     * Decode the batch of the stanzas.
+     *
+     * @param state     decoder state.
+     * @param blackhole consumer of the decoded elements.
+     * @throws StreamErrorException when the stream is invalid.
+     */
+    @Benchmark
+    @OperationsPerInvocation(Stanzas.BATCH)
+    public void decode(DecoderState state, Blackhole blackhole) throws StreamErrorException {
+        for (ByteBuffer read : state.reads) {
+            read.rewind();
+            state.decoder.decode(read, (xml, element) -> {
+                blackhole.consume(xml);
+                blackhole.consume(element);
+            });
+        }
+    }
+
+    /**
+     * Encode the stanza.
+     *
+     * @param state encoder state.
+     * @return encoded bytes count.
+     * @throws StreamErrorException when failed to encode the stanza.
+     */
+    @Benchmark
+    public int encode(EncoderState state) throws StreamErrorException {
+        state.output.reset();
+        state.encoder.encode(state.stanza, state.output);
+        return state.output.size();
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufInputStream;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * In-process homeserver.
+ * <br>
+ * Answers the client-server requests of the bridge with the minimal valid responses and pushes the application service
+ * transactions to the bridge.
+ */
+final class FakeHomeserver implements AutoCloseable {
+
+    /**
+     * Server name of the homeserver users.
+     */
+    static final String SERVER_NAME = "localhost";
+
+    private static final int MAX_REQUEST_SIZE = 1024 * 1024;
+    private static final int HTTP_OK = 200;
+
+    /**
+     * Target user of the load presences: {@code @load<seq>:localhost}.
+     */
+    private static final Pattern LOAD_USER = Pattern.compile("^@load(\\d+):");
+    private static final Pattern ROOM_ID = Pattern.compile("(![^/]+)");
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final LoadStats stats;
+    private final AtomicLong rooms = new AtomicLong();
+    private final AtomicLong transactions = new AtomicLong();
+    private final Map<String, Long> pendingJoins = new ConcurrentHashMap<>();
+    private final EventLoopGroup group = new NioEventLoopGroup();
+    private Channel channel;
+    private String appService;
+    private String hsToken;
+
+    FakeHomeserver(LoadStats stats) {
+        this.stats = stats;
+    }
+
+    /**
+     * Start the homeserver on the ephemeral port.
+     *
+     * @return bound port.
+     * @throws InterruptedException when interrupted.
+     */
+    int start() throws InterruptedException {
+        this.channel = new ServerBootstrap().group(group)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(new HttpServerCodec())
+                        .addLast(new HttpObjectAggregator(MAX_REQUEST_SIZE))
+                        .addLast(new ClientApiHandler());
+                }
+            })
+            .bind("127.0.0.1", 0).sync().channel();
+        return ((InetSocketAddress) channel.localAddress()).getPort();
+    }
+
+    /**
+     * Set the application service to push transactions to.
+     *
+     * @param url     application service url.
+     * @param hsToken homeserver token.
+     */
+    void appService(String url, String hsToken) {
+        this.appService = url;
+        this.hsToken = hsToken;
+    }
+
+    /**
+     * Push the transaction to the application service.
+     *
+     * @param events transaction events.
+     * @throws IOException when the transaction is rejected.
+     */
+    void push(List<ObjectNode> events) throws IOException {
+        ObjectNode body = mapper.createObjectNode();
+        body.putArray("events").addAll(events);
+        URL url = new URL(appService + "/transactions/" + transactions.incrementAndGet() + "?access_token="
+            + URLEncoder.encode(hsToken, StandardCharsets.UTF_8.name()));
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("PUT");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/json");
+        try (OutputStream output = connection.getOutputStream()) {
+            mapper.writeValue(output, body);
+        }
+        int status = connection.getResponseCode();
+        try (InputStream input = status == HTTP_OK ? connection.getInputStream() : connection.getErrorStream()) {
+            if (input != null) {
+                while (input.read() != -1) {
+                    // drain the response to reuse the connection.
+                }
+            }
+        }
+        if (status != HTTP_OK) {
+            throw new IOException("Transaction rejected: " + status);
+        }
+    }
+
+    /**
+     * Build the {@code m.room.message} event.
+     *
+     * @param seq    event sequence number.
+     * @param sender matrix user.
+     * @param roomId room id.
+     * @param body   message body.
+     * @return event.
+     */
+    ObjectNode message(long seq, String sender, String roomId, String body) {
+        ObjectNode event = mapper.createObjectNode();
+        event.put("type", "m.room.message");
+        event.put("event_id", "$" + seq + ":" + SERVER_NAME);
+        event.put("room_id", roomId);
+        event.put("sender", sender);
+        event.put("origin_server_ts", System.currentTimeMillis());
+        event.putObject("content").put("msgtype", "m.text").put("body", body);
+        return event;
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (channel != null) {
+            channel.close().sync();
+        }
+        group.shutdownGracefully();
+    }
+
+    private JsonNode answer(String path, FullHttpRequest request) throws IOException {
+        ObjectNode response = mapper.createObjectNode();
+        if (path.endsWith("/register")) {
+            JsonNode body = read(request);
+            String username = body.path("username").asText();
+            response.put("user_id", "@" + username + ":" + SERVER_NAME);
+            response.put("access_token", username);
+            response.put("device_id", "LOAD");
+        } else if (path.endsWith("/createRoom")) {
+            String roomId = "!" + rooms.incrementAndGet() + ":" + SERVER_NAME;
+            for (JsonNode invite : read(request).path("invite")) {
+                Matcher matcher = LOAD_USER.matcher(invite.asText());
+                if (matcher.find()) {
+                    pendingJoins.put(roomId, Long.parseLong(matcher.group(1)));
+                }
+            }
+            response.put("room_id", roomId);
+        } else if (path.contains("/join")) {
+            Matcher matcher = ROOM_ID.matcher(path);
+            String roomId = matcher.find() ? matcher.group(1) : "";
+            Long seq = pendingJoins.remove(roomId);
+            if (seq != null) {
+                stats.delivered(seq);
+            }
+            response.put("room_id", roomId);
+        }
+        return response;
+    }
+
+    private JsonNode read(FullHttpRequest request) throws IOException {
+        if (!request.content().isReadable()) {
+            return mapper.createObjectNode();
+        }
+        try (InputStream input = new ByteBufInputStream(request.content().retainedDuplicate(), true)) {
+            return mapper.readTree(input);
+        }
+    }
+
+    private class ClientApiHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+            String path = new QueryStringDecoder(request.uri()).path();
+            byte[] content = mapper.writeValueAsBytes(answer(path, request));
+            FullHttpResponse response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK,
+                Unpooled.wrappedBuffer(content));
+            response.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.APPLICATION_JSON);
+            HttpUtil.setContentLength(response, content.length);
+            if (HttpUtil.isKeepAlive(request)) {
+                HttpUtil.setKeepAlive(response, true);
+                ctx.writeAndFlush(response);
+            } else {
+                ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks.load;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import io.github.ma1uta.mjjb.Bridge;
+import io.github.ma1uta.mjjb.config.AppConfig;
+import io.github.ma1uta.mjjb.config.DatabaseBackend;
+import io.github.ma1uta.mjjb.config.DatabaseConfig;
+import io.github.ma1uta.mjjb.config.MatrixConfig;
+import io.github.ma1uta.mjjb.config.MetricsConfig;
+import io.github.ma1uta.mjjb.config.XmppConfig;
+import io.github.ma1uta.mjjb.db.RoomDao;
+import org.HdrHistogram.Histogram;
+import org.jdbi.v3.core.Jdbi;
+import io.github.ma1uta.mjjb.Loggers;
+import org.jdbi.v3.sqlobject.SqlObjectPlugin;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Synthetic federation load.
+ * <br>
+ * Runs the bridge with the in-memory database between the in-process homeserver and the in-process XMPP server and
+ * increases the offered rate step by step until the bridge falls behind.
+ */
+@CommandLine.Command(name = "java -cp benchmarks.jar io.github.ma1uta.mjjb.benchmarks.load.LoadGenerator")
+public class LoadGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    private static final String LOCALHOST = "localhost";
+    private static final String HS_TOKEN = "load_hs_token";
+    private static final String AS_TOKEN = "load_as_token";
+    private static final String PREFIX = "_xmpp_";
+
+    /**
+     * The in-memory database of the bridge, see {@link Bridge}.
+     */
+    private static final String DATABASE_URL = "jdbc:h2:mem:mjjb;DB_CLOSE_DELAY=-1;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;"
+        + "DEFAULT_NULL_ORDERING=HIGH";
+
+    private static final double SATURATION = 0.95D;
+    private static final double NANOS_PER_SECOND = 1e9D;
+    private static final double NANOS_PER_MILLI = 1e6D;
+    private static final long WARM_UP_SECONDS = 30L;
+    private static final long DIALBACK_SECONDS = 10L;
+    private static final long POLL_MILLIS = 10L;
+    private static final double P50 = 50D;
+    private static final double P99 = 99D;
+    private static final double P999 = 99.9D;
+    private static final int MEGABYTE = 1024 * 1024;
+
+    @CommandLine.Option(names = {"-s", "--scenario"}, description = "traffic direction: ${COMPLETION-CANDIDATES}", defaultValue = "MATRIX")
+    private Scenario scenario;
+
+    @CommandLine.Option(names = {"-r", "--rate"}, description = "initial offered rate, messages per second", defaultValue = "100")
+    private double rate;
+
+    @CommandLine.Option(names = {"--factor"}, description = "rate multiplier of the next step", defaultValue = "2")
+    private double factor;
+
+    @CommandLine.Option(names = {"--max-rate"}, description = "maximum offered rate, messages per second", defaultValue = "100000")
+    private double maxRate;
+
+    @CommandLine.Option(names = {"-d", "--step"}, description = "step duration, seconds", defaultValue = "10")
+    private long step;
+
+    @CommandLine.Option(names = {"-b", "--batch"}, description = "events per transaction or stanzas per flush", defaultValue = "10")
+    private int batch;
+
+    @CommandLine.Option(names = {"-u", "--users"}, description = "matrix users sending messages", defaultValue = "100")
+    private int users;
+
+    @CommandLine.Option(names = {"-p", "--pushers"}, description = "concurrent transactions", defaultValue = "4")
+    private int pushers;
+
+    @CommandLine.Option(names = {"--max-p99"}, description = "p99 latency limit, milliseconds", defaultValue = "1000")
+    private double maxP99;
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "display a help message")
+    private boolean helpRequested = false;
+
+    private final LoadStats stats = new LoadStats();
+    private final AtomicLong sequence = new AtomicLong();
+    private FakeHomeserver homeserver;
+    private XmppPeer peer;
+    private ExecutorService transactions;
+
+    /**
+     * Traffic direction.
+     */
+    public enum Scenario {
+
+        /**
+         * Matrix messages pushed with the transactions are delivered to the XMPP peer.
+         */
+        MATRIX,
+
+        /**
+         * XMPP subscriptions create the direct rooms and are delivered as joins to the homeserver.
+         */
+        XMPP
+    }
+
+    /**
+     * Main entry point.
+     *
+     * @param args command line arguments.
+     * @throws Exception when failed to run the load.
+     */
+    public static void main(String[] args) throws Exception {
+        LoadGenerator generator = CommandLine.populateCommand(new LoadGenerator(), args);
+        if (generator.helpRequested) {
+            CommandLine.usage(generator, System.out);
+            return;
+        }
+        generator.run();
+    }
+
+    /**
+     * Start the bridge with the peers and ramp the load.
+     *
+     * @throws Exception when failed to run the load.
+     */
+    public void run() throws Exception {
+        homeserver = new FakeHomeserver(stats);
+        int homeserverPort = homeserver.start();
+        peer = new XmppPeer(LOCALHOST, stats);
+        int peerPort = peer.listen();
+        int appServicePort = freePort();
+        int xmppPort = freePort();
+
+        homeserver.appService("http://" + LOCALHOST + ":" + appServicePort, HS_TOKEN);
+        try (Bridge bridge = new Bridge()) {
+            bridge.run(config(homeserverPort, appServicePort, xmppPort, peerPort));
+            seed();
+
+            peer.connect(LOCALHOST, xmppPort);
+            if (!peer.awaitDialback(DIALBACK_SECONDS, TimeUnit.SECONDS)) {
+                System.out.println("Peer stream is unconfirmed, proceeding anyway.");
+            }
+
+            transactions = Executors.newFixedThreadPool(pushers);
+            try {
+                warmUp();
+                ramp();
+            } finally {
+                transactions.shutdownNow();
+            }
+        } finally {
+            peer.close();
+            homeserver.close();
+        }
+    }
+
+    private AppConfig config(int homeserverPort, int appServicePort, int xmppPort, int peerPort) {
+        MatrixConfig matrix = new MatrixConfig();
+        matrix.setUrl("http://" + LOCALHOST + ":" + appServicePort);
+        matrix.setHomeserver("http://127.0.0.1:" + homeserverPort);
+        matrix.setAsToken(AS_TOKEN);
+        matrix.setHsToken(HS_TOKEN);
+        matrix.setPrefix(PREFIX);
+        matrix.setMasterUserId("@" + PREFIX + "master:" + FakeHomeserver.SERVER_NAME);
+
+        XmppConfig xmpp = new XmppConfig();
+        xmpp.setDomain(LOCALHOST);
+        xmpp.setPort(xmppPort);
+        xmpp.setRoutes(Collections.singletonMap(XmppPeer.DOMAIN, "127.0.0.1:" + peerPort));
+
+        DatabaseConfig database = new DatabaseConfig();
+        database.setBackend(DatabaseBackend.H2_MEMORY);
+
+        MetricsConfig metrics = new MetricsConfig();
+        metrics.setEnabled(false);
+
+        AppConfig config = new AppConfig();
+        config.setMatrix(matrix);
+        config.setXmpp(xmpp);
+        config.setDatabase(database);
+        config.setMetrics(metrics);
+        return config;
+    }
+
+    /**
+     * Create the direct rooms of the message senders.
+     */
+    private void seed() {
+        DatabaseConfig defaults = new DatabaseConfig();
+        Jdbi jdbi = Jdbi.create(DATABASE_URL, defaults.getUsername(), defaults.getPassword());
+        jdbi.installPlugin(new SqlObjectPlugin());
+        jdbi.useTransaction(h -> {
+            RoomDao roomDao = h.attach(RoomDao.class);
+            for (int user = 0; user < users; user++) {
+                roomDao.createDirectRoom(roomId(user), sender(user), "user" + user + "@" + XmppPeer.DOMAIN);
+            }
+        });
+    }
+
+    /**
+     * Send one message and wait for it to establish the streams before measuring.
+     */
+    private void warmUp() throws Exception {
+        offer(1, System.nanoTime());
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(WARM_UP_SECONDS);
+        while (stats.count() == 0) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("The warm-up message wasn't delivered.");
+            }
+            TimeUnit.MILLISECONDS.sleep(POLL_MILLIS);
+        }
+        stats.interval();
+    }
+
+    private void ramp() throws Exception {
+        System.out.printf("%-8s %10s %10s %10s %10s %10s %10s %10s %10s %8s %8s%n", "scenario", "offered/s", "delivered/s",
+            "failed txn", "p50 ms", "p99 ms", "p999 ms", "heap MB", "commit MB", "gc", "gc ms");
+        for (double offered = rate; offered <= maxRate; offered *= factor) {
+            long delivered = stats.count();
+            long failed = stats.failures();
+            long gcCount = gcCount();
+            long gcTime = gcTime();
+            long start = System.nanoTime();
+
+            drive(offered, start + TimeUnit.SECONDS.toNanos(step));
+
+            double seconds = (System.nanoTime() - start) / NANOS_PER_SECOND;
+            double throughput = (stats.count() - delivered) / seconds;
+            Histogram latency = stats.interval();
+            MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+            double p99 = latency.getValueAtPercentile(P99) / NANOS_PER_MILLI;
+            System.out.printf("%-8s %10.0f %10.0f %10d %10.2f %10.2f %10.2f %10d %10d %8d %8d%n", scenario, offered, throughput,
+                stats.failures() - failed, latency.getValueAtPercentile(P50) / NANOS_PER_MILLI, p99,
+                latency.getValueAtPercentile(P999) / NANOS_PER_MILLI, heap.getUsed() / MEGABYTE, heap.getCommitted() / MEGABYTE, gcCount() - gcCount, gcTime() - gcTime);
+
+            if (throughput < offered * SATURATION || p99 > maxP99) {
+                System.out.printf("Saturated at %.0f messages per second.%n", offered);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Offer batches at the fixed rate until the deadline.
+     * <br>
+     * Every batch is stamped with its scheduled time, so the latency includes the time the batch waited for the sender.
+     */
+    private void drive(double offered, long deadline) throws Exception {
+        long period = (long) (NANOS_PER_SECOND * batch / offered);
+        long next = System.nanoTime();
+        while (next < deadline) {
+            offer(batch, next);
+            next += period;
+            long delay = next - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+        }
+    }
+
+    private void offer(int count, long intended) throws IOException {
+        switch (scenario) {
+            case XMPP:
+                for (int i = 0; i < count; i++) {
+                    long seq = sequence.incrementAndGet();
+                    stats.expect(seq, intended);
+                    peer.subscribe(seq);
+                }
+                peer.flush();
+                break;
+            case MATRIX:
+            default:
+                List<ObjectNode> events = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    long seq = sequence.incrementAndGet();
+                    int user = (int) (seq % users);
+                    events.add(homeserver.message(seq, sender(user), roomId(user), seq + " " + intended));
+                }
+                transactions.execute(() -> {
+                    try {
+                        homeserver.push(events);
+                    } catch (IOException e) {
+                        // the events aren't delivered, the failed transactions are reported apart from the throughput.
+                        stats.failed();
+                        LOGGER.warn("Failed to push the transaction.", e);
+                    }
+                });
+        }
+    }
+
+    private static String sender(int user) {
+        return "@load" + user + ":" + FakeHomeserver.SERVER_NAME;
+    }
+
+    private static String roomId(int user) {
+        return "!load" + user + ":" + FakeHomeserver.SERVER_NAME;
+    }
+
+    private static long gcCount() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionCount).sum();
+    }
+
+    private static long gcTime() {
+        return ManagementFactory.getGarbageCollectorMXBeans().stream().mapToLong(GarbageCollectorMXBean::getCollectionTime).sum();
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks.load;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivery latencies and counters of the load run.
+ * <br>
+ * The latency is measured from the intended send time, not from the actual one, so a stalled sender doesn't hide the queueing
+ * delay (coordinated omission).
+ */
+final class LoadStats {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Recorder latency = new Recorder(SIGNIFICANT_DIGITS);
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final Map<Long, Long> expected = new ConcurrentHashMap<>();
+
+    /**
+     * Remember the intended send time of the message which delivery is detected without the payload.
+     *
+     * @param seq      message sequence number.
+     * @param intended intended send time, {@link System#nanoTime()}.
+     */
+    void expect(long seq, long intended) {
+        expected.put(seq, intended);
+    }
+
+    /**
+     * Record the delivery of the expected message.
+     *
+     * @param seq message sequence number.
+     */
+    void delivered(long seq) {
+        Long intended = expected.remove(seq);
+        if (intended != null) {
+            deliveredAt(intended);
+        }
+    }
+
+    /**
+     * Record the delivery of the message.
+     *
+     * @param intended intended send time, {@link System#nanoTime()}.
+     */
+    void deliveredAt(long intended) {
+        latency.recordValue(Math.max(0L, System.nanoTime() - intended));
+        delivered.increment();
+    }
+
+    /**
+     * Record the transaction which the bridge rejected or which wasn't sent.
+     */
+    void failed() {
+        failed.increment();
+    }
+
+    /**
+     * Failed transactions since the start.
+     *
+     * @return failed transactions.
+     */
+    long failures() {
+        return failed.sum();
+    }
+
+    /**
+     * Delivered messages since the start.
+     *
+     * @return delivered messages.
+     */
+    long count() {
+        return delivered.sum();
+    }
+
+    /**
+     * Latencies since the previous call.
+     *
+     * @return latency histogram in nanoseconds.
+     */
+    Histogram interval() {
+        return latency.getIntervalHistogram();
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks.load;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.xmpp.ServerConfiguration;
+import io.github.ma1uta.mjjb.xmpp.babbler.xml.XmppStreamDecoder;
+import io.github.ma1uta.mjjb.xmpp.dialback.Result;
+import io.github.ma1uta.mjjb.xmpp.dialback.Verify;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.string.StringEncoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamFeatures;
+import rocks.xmpp.core.stream.model.StreamHeader;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * In-process XMPP server of the remote domain.
+ * <br>
+ * Accepts the streams of the bridge and opens one stream to the bridge, both are authenticated with the server dialback.
+ * Outgoing stanzas are pre-rendered to keep the peer cheaper than the bridge under test.
+ */
+final class XmppPeer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    /**
+     * Peer domain.
+     */
+    static final String DOMAIN = "peer.example";
+
+    private static final String STREAM = "<stream:stream xmlns='jabber:server' xmlns:stream='http://etherx.jabber.org/streams'"
+        + " xmlns:db='jabber:server:dialback' from='" + DOMAIN + "' to='%s' version='1.0'%s>";
+    private static final String CLOSE_STREAM = "</stream:stream>";
+    private static final String FEATURES = "<stream:features><dialback xmlns='urn:xmpp:features:dialback'/></stream:features>";
+    private static final String RESULT_KEY = "<db:result from='" + DOMAIN + "' to='%s'>%s</db:result>";
+    private static final String RESULT_TYPE = "<db:result from='" + DOMAIN + "' to='%s' type='%s'/>";
+    private static final String VERIFY_KEY = "<db:verify from='" + DOMAIN + "' to='%s' id='%s'>%s</db:verify>";
+    private static final String VERIFY_TYPE = "<db:verify from='" + DOMAIN + "' to='%s' id='%s' type='%s'/>";
+    private static final String PRESENCE = "<presence from='user%d@" + DOMAIN + "' to='%%40load%d%%3A" + FakeHomeserver.SERVER_NAME
+        + "@%s' id='p%d' type='subscribe'/>";
+    private static final String VALID = "valid";
+
+    private final String bridgeDomain;
+    private final LoadStats stats;
+    private final EventLoopGroup group = new NioEventLoopGroup();
+    private final Set<String> issuedKeys = ConcurrentHashMap.newKeySet();
+    private final Map<String, Channel> verifying = new ConcurrentHashMap<>();
+    private final CompletableFuture<Boolean> dialback = new CompletableFuture<>();
+    private Channel server;
+    private Channel outbound;
+
+    XmppPeer(String bridgeDomain, LoadStats stats) {
+        this.bridgeDomain = bridgeDomain;
+        this.stats = stats;
+    }
+
+    /**
+     * Listen the streams of the bridge on the ephemeral port.
+     *
+     * @return bound port.
+     * @throws InterruptedException when interrupted.
+     */
+    int listen() throws InterruptedException {
+        this.server = new ServerBootstrap().group(group)
+            .channel(NioServerSocketChannel.class)
+            .childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) throws Exception {
+                    ch.pipeline().addLast(new StringEncoder(StandardCharsets.UTF_8), new StreamDecoder(), new InboundHandler());
+                }
+            })
+            .bind("127.0.0.1", 0).sync().channel();
+        return ((InetSocketAddress) server.localAddress()).getPort();
+    }
+
+    /**
+     * Open the stream to the bridge.
+     *
+     * @param host bridge host.
+     * @param port bridge port.
+     * @throws InterruptedException when interrupted.
+     */
+    void connect(String host, int port) throws InterruptedException {
+        this.outbound = new Bootstrap().group(group)
+            .channel(NioSocketChannel.class)
+            .handler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) throws Exception {
+                    ch.pipeline().addLast(new StringEncoder(StandardCharsets.UTF_8), new StreamDecoder(), new OutboundHandler());
+                }
+            })
+            .connect(host, port).sync().channel();
+    }
+
+    /**
+     * Wait until the bridge has verified the peer stream.
+     *
+     * @param timeout maximum time to wait.
+     * @param unit    time unit.
+     * @return {@code true} if the stream was verified, {@code false} if it was rejected or unconfirmed.
+     * @throws Exception when failed to wait.
+     */
+    boolean awaitDialback(long timeout, TimeUnit unit) throws Exception {
+        try {
+            return dialback.get(timeout, unit);
+        } catch (TimeoutException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Write the subscription presence to the {@code @load<seq>:localhost} user without flushing.
+     *
+     * @param seq presence sequence number.
+     */
+    void subscribe(long seq) {
+        outbound.write(String.format(PRESENCE, seq, seq, bridgeDomain, seq));
+    }
+
+    /**
+     * Flush the written stanzas.
+     */
+    void flush() {
+        outbound.flush();
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (outbound != null) {
+            outbound.writeAndFlush(CLOSE_STREAM).addListener(ChannelFutureListener.CLOSE);
+        }
+        if (server != null) {
+            server.close().sync();
+        }
+        group.shutdownGracefully();
+    }
+
+    /**
+     * Streams from the bridge: sends the header, authorizes the bridge and receives stanzas.
+     */
+    private class InboundHandler extends SimpleChannelInboundHandler<StreamElement> {
+
+        private final String streamId = UUID.randomUUID().toString();
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, StreamElement element) {
+            if (element instanceof Message) {
+                String body = ((Message) element).getBody();
+                stats.deliveredAt(Long.parseLong(body.substring(body.indexOf(' ') + 1)));
+            } else if (StreamHeader.CLOSING_STREAM_TAG.equals(element)) {
+                ctx.writeAndFlush(CLOSE_STREAM).addListener(ChannelFutureListener.CLOSE);
+            } else if (element instanceof StreamHeader) {
+                ctx.writeAndFlush(String.format(STREAM, bridgeDomain, " id='" + streamId + "'") + FEATURES);
+            } else if (element instanceof Result) {
+                // ask the authoritative server (the bridge) over the peer stream.
+                verifying.put(streamId, ctx.channel());
+                outbound.writeAndFlush(String.format(VERIFY_KEY, bridgeDomain, streamId, ((Result) element).getText()));
+            } else if (element instanceof Verify) {
+                // the bridge checks the key of the peer stream.
+                Verify verify = (Verify) element;
+                String type = issuedKeys.contains(verify.getText()) ? VALID : "invalid";
+                ctx.writeAndFlush(String.format(VERIFY_TYPE, bridgeDomain, verify.getId(), type));
+            }
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.error("Peer stream failed.", cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * Stream to the bridge: authenticates the peer and checks the keys of the bridge streams.
+     */
+    private class OutboundHandler extends SimpleChannelInboundHandler<StreamElement> {
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            ctx.writeAndFlush(String.format(STREAM, bridgeDomain, ""));
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, StreamElement element) {
+            if (element instanceof StreamFeatures) {
+                String key = UUID.randomUUID().toString();
+                issuedKeys.add(key);
+                ctx.writeAndFlush(String.format(RESULT_KEY, bridgeDomain, key));
+            } else if (element instanceof Verify) {
+                Verify verify = (Verify) element;
+                Channel inbound = verifying.remove(verify.getId());
+                if (inbound != null) {
+                    inbound.writeAndFlush(String.format(RESULT_TYPE, bridgeDomain, verify.getType()));
+                }
+            } else if (element instanceof Result) {
+                dialback.complete(VALID.equals(((Result) element).getType()));
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) {
+            dialback.complete(false);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.error("Peer stream failed.", cause);
+            ctx.close();
+        }
+    }
+
+    /**
+     * Decodes the stream with the bridge decoder.
+     */
+    private static final class StreamDecoder extends ByteToMessageDecoder {
+
+        private final XmppStreamDecoder decoder;
+
+        StreamDecoder() throws JAXBException {
+            Unmarshaller unmarshaller = ServerConfiguration.JAXB_CONTEXT.createUnmarshaller();
+            this.decoder = new XmppStreamDecoder(() -> unmarshaller);
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+            decoder.decode(in.nioBuffer(), (xml, element) -> out.add(element));
+            in.skipBytes(in.readableBytes());
+        }
+    }
+}
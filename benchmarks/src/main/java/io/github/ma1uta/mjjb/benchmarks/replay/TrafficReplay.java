@@ -0,0 +1,306 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.benchmarks.replay;
+
+import io.github.ma1uta.mjjb.capture.CaptureReader;
+import io.github.ma1uta.mjjb.capture.CaptureRecord;
+import picocli.CommandLine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the traffic capture against the running bridge.
+ * <br>
+ * Every captured XMPP connection is opened to the bridge and gets the same bytes at the captured time divided by the speed.
+ * The captured bytes are the plain stream (after TLS and compression), so the stream restart (a new stream header) is
+ * replayed on a new plain connection. The transactions are pushed in the captured order with the homeserver token.
+ * The answers of the bridge are read and discarded.
+ * <br>
+ * The connections marked as CORRUPTED by the capture (some of their bytes were dropped) are skipped entirely, the capture is
+ * scanned for them before the replay.
+ * <br>
+ * The replay isn't deterministic and reproduces the load rather than the outcome:
+ * <ul>
+ * <li>the dialback keys are bound to the stream id and the secret of the captured bridge, so the replayed db:result is
+ * rejected unless the target bridge runs with the same secret and the same stream ids;</li>
+ * <li>the target bridge dials back to the originating domain to verify the key, so the replayed streams are authorized only
+ * when that domain is reachable and answers as it did during the capture;</li>
+ * <li>the bytes are replayed over plain connections, so a target configured to require STARTTLS rejects them.</li>
+ * </ul>
+ * The capture holds the plain stanzas and the dialback keys, keep it private.
+ */
+@CommandLine.Command(name = "java -cp benchmarks.jar io.github.ma1uta.mjjb.benchmarks.replay.TrafficReplay")
+public class TrafficReplay {
+
+    private static final byte[] STREAM_HEADER = "<stream:stream".getBytes(StandardCharsets.US_ASCII);
+    private static final int BUFFER_SIZE = 8192;
+    private static final int HTTP_OK = 200;
+    private static final double NANOS_PER_MILLI = 1e6D;
+
+    @CommandLine.Option(names = {"-f", "--file"}, description = "capture file", defaultValue = "mjjb.capture")
+    private String file;
+
+    @CommandLine.Option(names = {"--xmpp-host"}, description = "bridge XMPP host", defaultValue = "localhost")
+    private String xmppHost;
+
+    @CommandLine.Option(names = {"--xmpp-port"}, description = "bridge XMPP port", defaultValue = "5269")
+    private int xmppPort;
+
+    @CommandLine.Option(names = {"--url"}, description = "bridge application service url", defaultValue = "http://localhost:8448")
+    private String url;
+
+    @CommandLine.Option(names = {"--hs-token"}, description = "homeserver token", defaultValue = "hs_token")
+    private String hsToken;
+
+    @CommandLine.Option(names = {"--txn-prefix"}, description = "prefix of the replayed transaction ids", defaultValue = "")
+    private String txnPrefix;
+
+    @CommandLine.Option(names = {"-s", "--speed"}, description = "time acceleration, 0 - as fast as possible", defaultValue = "1")
+    private double speed;
+
+    @CommandLine.Option(names = {"-h", "--help"}, usageHelp = true, description = "display a help message")
+    private boolean helpRequested = false;
+
+    private final Map<Integer, Replayed> connections = new HashMap<>();
+    private final Set<Integer> corrupted = new HashSet<>();
+    private final AtomicLong failedTransactions = new AtomicLong();
+    private ExecutorService transactions;
+    private long records;
+    private long connectionCount;
+    private long bytes;
+    private long pushed;
+    private long maxLag;
+
+    /**
+     * Main entry point.
+     *
+     * @param args command line arguments.
+     * @throws Exception when failed to replay.
+     */
+    public static void main(String[] args) throws Exception {
+        TrafficReplay replay = CommandLine.populateCommand(new TrafficReplay(), args);
+        if (replay.helpRequested) {
+            CommandLine.usage(replay, System.out);
+            return;
+        }
+        replay.run();
+    }
+
+    /**
+     * Replay the capture.
+     *
+     * @throws Exception when failed to replay.
+     */
+    public void run() throws Exception {
+        // the homeserver sends the transactions one by one.
+        transactions = Executors.newSingleThreadExecutor();
+        scan();
+        long start = System.nanoTime();
+        try (CaptureReader reader = new CaptureReader(Paths.get(file))) {
+            CaptureRecord record;
+            while ((record = reader.next()) != null) {
+                await(start, record.getTime());
+                replay(record);
+                records++;
+            }
+        } finally {
+            for (Replayed connection : connections.values()) {
+                connection.close();
+            }
+            transactions.shutdown();
+            transactions.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        System.out.printf("Replayed %d records in %.1f ms: %d connections (%d corrupted skipped), %d bytes, %d transactions "
+                + "(%d failed), max lag %.1f ms%n", records, (System.nanoTime() - start) / NANOS_PER_MILLI, connectionCount,
+            corrupted.size(), bytes, pushed, failedTransactions.get(), maxLag / NANOS_PER_MILLI);
+    }
+
+    /**
+     * Collect the corrupted connections, the CORRUPTED record follows the bytes which were already replayed.
+     */
+    private void scan() throws IOException {
+        try (CaptureReader reader = new CaptureReader(Paths.get(file))) {
+            CaptureRecord record;
+            while ((record = reader.next()) != null) {
+                if (record.getType() == CaptureRecord.Type.CORRUPTED) {
+                    corrupted.add(record.getConnection());
+                }
+            }
+        }
+    }
+
+    private void await(long start, long time) {
+        if (speed <= 0D) {
+            return;
+        }
+        long due = start + (long) (time / speed);
+        long delay = due - System.nanoTime();
+        if (delay > 0) {
+            LockSupport.parkNanos(delay);
+        } else {
+            maxLag = Math.max(maxLag, -delay);
+        }
+    }
+
+    private void replay(CaptureRecord record) throws IOException {
+        if (record.getType() != CaptureRecord.Type.TRANSACTION && corrupted.contains(record.getConnection())) {
+            return;
+        }
+        switch (record.getType()) {
+            case OPEN:
+                connections.put(record.getConnection(), new Replayed());
+                break;
+            case DATA:
+                Replayed connection = connections.get(record.getConnection());
+                if (connection == null) {
+                    connection = new Replayed();
+                    connections.put(record.getConnection(), connection);
+                }
+                connection.write(record.getPayload());
+                bytes += record.getPayload().length;
+                break;
+            case CLOSE:
+                Replayed closed = connections.remove(record.getConnection());
+                if (closed != null) {
+                    closed.close();
+                }
+                break;
+            case CORRUPTED:
+                break;
+            case TRANSACTION:
+            default:
+                pushed++;
+                transactions.execute(() -> push(txnPrefix + record.getName(), record.getPayload()));
+        }
+    }
+
+    private void push(String txnId, byte[] body) {
+        try {
+            URL target = new URL(url + "/transactions/" + URLEncoder.encode(txnId, StandardCharsets.UTF_8.name()) + "?access_token="
+                + URLEncoder.encode(hsToken, StandardCharsets.UTF_8.name()));
+            HttpURLConnection connection = (HttpURLConnection) target.openConnection();
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(body);
+            }
+            int status = connection.getResponseCode();
+            try (InputStream input = status == HTTP_OK ? connection.getInputStream() : connection.getErrorStream()) {
+                drain(input);
+            }
+            if (status != HTTP_OK) {
+                failedTransactions.incrementAndGet();
+            }
+        } catch (IOException e) {
+            failedTransactions.incrementAndGet();
+        }
+    }
+
+    private static void drain(InputStream input) throws IOException {
+        if (input == null) {
+            return;
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        while (input.read(buffer) != -1) {
+            // discard.
+        }
+    }
+
+    private static int indexOf(byte[] data, byte[] pattern, int from) {
+        for (int i = from; i <= data.length - pattern.length; i++) {
+            int matched = 0;
+            while (matched < pattern.length && data[i + matched] == pattern[matched]) {
+                matched++;
+            }
+            if (matched == pattern.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Replayed connection, reopened on every stream restart.
+     */
+    private final class Replayed {
+
+        private Socket socket;
+        private boolean header;
+
+        void write(byte[] data) throws IOException {
+            int offset = 0;
+            int found = indexOf(data, STREAM_HEADER, 0);
+            while (found != -1) {
+                if (header) {
+                    send(data, offset, found - offset);
+                    close();
+                    offset = found;
+                }
+                header = true;
+                found = indexOf(data, STREAM_HEADER, found + STREAM_HEADER.length);
+            }
+            send(data, offset, data.length - offset);
+        }
+
+        private void send(byte[] data, int offset, int length) throws IOException {
+            if (length == 0) {
+                return;
+            }
+            if (socket == null) {
+                socket = new Socket(xmppHost, xmppPort);
+                connectionCount++;
+                Socket opened = socket;
+                Thread reader = new Thread(() -> {
+                    try {
+                        drain(opened.getInputStream());
+                    } catch (IOException e) {
+                        // closed.
+                    }
+                }, "replay-reader");
+                reader.setDaemon(true);
+                reader.start();
+            }
+            socket.getOutputStream().write(data, offset, length);
+        }
+
+        void close() throws IOException {
+            if (socket != null) {
+                socket.close();
+                socket = null;
+            }
+            header = false;
+        }
+    }
+}
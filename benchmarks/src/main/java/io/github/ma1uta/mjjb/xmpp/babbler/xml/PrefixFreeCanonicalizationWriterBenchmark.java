@@ -0,0 +1,112 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.xmpp.babbler.xml;
+
+import io.github.ma1uta.mjjb.xmpp.ServerConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rocks.xmpp.addr.Jid;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.server.ServerMessage;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Overhead of the {@link PrefixFreeCanonicalizationWriter} against the plain {@link XMLStreamWriter}.
+ * <br/>
+ * The writer is package-private, so the benchmark lives in the same package.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PrefixFreeCanonicalizationWriterBenchmark {
+
+    private static final String CONTENT_NAMESPACE = "jabber:server";
+
+    private final XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+    private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+    private Marshaller marshaller;
+    private ServerMessage message;
+
+    /**
+     * Create the marshaller and the message.
+     *
+     * @throws JAXBException when failed to create the marshaller.
+     */
+    @Setup
+    public void setUp() throws JAXBException {
+        marshaller = ServerConfiguration.JAXB_CONTEXT.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+        Message chat = new Message(Jid.of("juliet@example.org/balcony"), Message.Type.CHAT, "Wherefore art thou, Romeo?");
+        chat.setFrom(Jid.of("romeo@localhost"));
+        chat.setId("m1");
+        message = ServerMessage.from(chat);
+    }
+
+    /**
+     * Marshal the message through the canonicalization writer as the encoder does.
+     *
+     * @return written bytes count.
+     * @throws XMLStreamException when failed to write the message.
+     * @throws JAXBException      when failed to marshal the message.
+     */
+    @Benchmark
+    public int canonicalized() throws XMLStreamException, JAXBException {
+        output.reset();
+        XMLStreamWriter writer = new PrefixFreeCanonicalizationWriter(
+            outputFactory.createXMLStreamWriter(output, StandardCharsets.UTF_8.name()), false);
+        return marshal(writer);
+    }
+
+    /**
+     * Marshal the message directly to the stream writer.
+     *
+     * @return written bytes count.
+     * @throws XMLStreamException when failed to write the message.
+     * @throws JAXBException      when failed to marshal the message.
+     */
+    @Benchmark
+    public int plain() throws XMLStreamException, JAXBException {
+        output.reset();
+        return marshal(outputFactory.createXMLStreamWriter(output, StandardCharsets.UTF_8.name()));
+    }
+
+    private int marshal(XMLStreamWriter writer) throws XMLStreamException, JAXBException {
+        writer.setDefaultNamespace(CONTENT_NAMESPACE);
+        marshaller.marshal(message, writer);
+        writer.flush();
+        return output.size();
+    }
+}
@@ -19,7 +19,11 @@ package io.github.ma1uta.mjjb;
 import io.github.ma1uta.matrix.Id;
 import io.github.ma1uta.mjjb.config.MatrixConfig;
 import io.github.ma1uta.mjjb.matrix.MatrixServer;
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import io.github.ma1uta.mjjb.outbox.OutboxRelay;
 import io.github.ma1uta.mjjb.xmpp.XmppServer;
+import io.prometheus.client.Histogram;
+import org.jdbi.v3.core.HandleCallback;
 import org.jdbi.v3.core.Jdbi;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -41,6 +45,8 @@ public abstract class AbstractRouter<T> implements Function<T, Boolean> {
     private Jdbi jdbi;
     private XmppServer xmppServer;
     private MatrixServer matrixServer;
+    private OutboxRelay outbox;
+    private Histogram.Child timer;
 
     public Jdbi getJdbi() {
         return jdbi;
@@ -54,17 +60,43 @@ public abstract class AbstractRouter<T> implements Function<T, Boolean> {
         return matrixServer;
     }
 
+    public OutboxRelay getOutbox() {
+        return outbox;
+    }
+
+    public Histogram.Child getTimer() {
+        return timer;
+    }
+
     /**
      * Init router.
      *
      * @param jdbi         persistence service.
      * @param xmppServer   xmpp server.
      * @param matrixServer matrix server.
+     * @param outbox       outbox relay.
      */
-    public void init(Jdbi jdbi, XmppServer xmppServer, MatrixServer matrixServer) {
+    public void init(Jdbi jdbi, XmppServer xmppServer, MatrixServer matrixServer, OutboxRelay outbox) {
         this.jdbi = jdbi;
         this.xmppServer = xmppServer;
         this.matrixServer = matrixServer;
+        this.outbox = outbox;
+        this.timer = Metrics.ROUTER_TIME.labels(getClass().getName());
+    }
+
+    /**
+     * Run the callback in the transaction and wake up the outbox relay after the commit.
+     *
+     * @param callback transaction callback.
+     * @param <R>      result type.
+     * @param <X>      exception type.
+     * @return callback result.
+     * @throws X when callback failed.
+     */
+    protected <R, X extends Exception> R inTransaction(HandleCallback<R, X> callback) throws X {
+        R result = getJdbi().inTransaction(callback);
+        getOutbox().wakeUp();
+        return result;
     }
 
     /**
@@ -2,32 +2,56 @@ package io.github.ma1uta.mjjb;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.prometheus.PrometheusMetricsTrackerFactory;
+import io.github.ma1uta.mjjb.capture.TrafficCapture;
 import io.github.ma1uta.mjjb.config.AppConfig;
+import io.github.ma1uta.mjjb.config.DatabaseBackend;
 import io.github.ma1uta.mjjb.config.DatabaseConfig;
 import io.github.ma1uta.mjjb.config.MatrixConfig;
+import io.github.ma1uta.mjjb.config.MetricsConfig;
+import io.github.ma1uta.mjjb.config.OutboxConfig;
 import io.github.ma1uta.mjjb.config.XmppConfig;
+import io.github.ma1uta.mjjb.db.GroupCommitWriter;
+import io.github.ma1uta.mjjb.db.MessageMapDao;
+import io.github.ma1uta.mjjb.db.RetentionJob;
+import io.github.ma1uta.mjjb.db.TransactionDao;
 import io.github.ma1uta.mjjb.matrix.MatrixServer;
+import io.github.ma1uta.mjjb.metrics.MetricsServer;
+import io.github.ma1uta.mjjb.outbox.OutboxRelay;
+import io.github.ma1uta.mjjb.trace.Tracer;
 import io.github.ma1uta.mjjb.xmpp.XmppServer;
+import io.github.ma1uta.mjjb.xmpp.queue.Backpressure;
 import liquibase.Contexts;
 import liquibase.LabelExpression;
 import liquibase.Liquibase;
 import liquibase.database.Database;
 import liquibase.database.DatabaseFactory;
 import liquibase.database.jvm.JdbcConnection;
-import liquibase.resource.FileSystemResourceAccessor;
+import liquibase.resource.ClassLoaderResourceAccessor;
 import org.jdbi.v3.core.Jdbi;
 import org.jdbi.v3.postgres.PostgresPlugin;
 import org.jdbi.v3.sqlobject.SqlObjectPlugin;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * Matrix-XMPP bridge.
  */
-public class Bridge {
+public class Bridge implements AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
 
+    private static final String H2_DRIVER = "org.h2.Driver";
+    private static final String H2_URL_PREFIX = "jdbc:h2:";
+    private static final String H2_DEFAULT_URL = "jdbc:h2:./mjjb";
+    private static final String H2_MEMORY_URL = "jdbc:h2:mem:mjjb;DB_CLOSE_DELAY=-1";
+    /**
+     * The bridge queries are written for PostgreSQL, so H2 runs in the PostgreSQL compatibility mode.
+     */
+    private static final String H2_OPTIONS = ";MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DEFAULT_NULL_ORDERING=HIGH";
+
     private MatrixServer matrixServer;
     private XmppServer xmppServer;
 
@@ -35,6 +59,22 @@ public class Bridge {
 
     private Jdbi jdbi;
 
+    private GroupCommitWriter writer;
+
+    private RetentionJob retention;
+
+    private RetentionJob messageRetention;
+
+    private MetricsServer metricsServer;
+
+    private OutboxRelay outbox;
+
+    private TrafficCapture capture;
+
+    private Backpressure backpressure;
+
+    private final AtomicBoolean closed = new AtomicBoolean(false);
+
     /**
      * Run bridge with the specified configuration.
      *
@@ -43,31 +83,59 @@ public class Bridge {
      */
     public void run(AppConfig config) throws Exception {
         initDatabase(config.getDatabase());
+        initMetrics(config.getMetrics());
+        Tracer.init(config.getTrace());
+        this.capture = new TrafficCapture(config.getCapture());
+        this.backpressure = new Backpressure(config.getBackpressure());
 
         RouterFactory routerFactory = initRouters(config);
 
         initMatrix(config.getMatrix(), routerFactory);
         initXmpp(config.getXmpp(), routerFactory);
+        initOutbox(config.getOutbox());
 
         for (AbstractRouter<?> router : routerFactory.getXmppRouters().values()) {
-            router.init(jdbi, xmppServer, matrixServer);
+            router.init(jdbi, xmppServer, matrixServer, outbox);
         }
         for (AbstractRouter<?> router : routerFactory.getMatrixRouters().values()) {
-            router.init(jdbi, xmppServer, matrixServer);
+            router.init(jdbi, xmppServer, matrixServer, outbox);
         }
 
         this.matrixServer.run();
         this.xmppServer.run();
+        this.outbox.run();
+        this.retention.run();
+        this.messageRetention.run();
+        this.metricsServer.run();
+
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
 
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            try {
-                this.matrixServer.close();
-                this.xmppServer.close();
-            } catch (Exception e) {
-                LOGGER.error("Failed to stop bridge", e);
-            }
+    /**
+     * Stop the bridge. Only the first call stops it, the next calls do nothing.
+     */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.retention.close();
+            this.messageRetention.close();
+            this.outbox.close();
+            this.matrixServer.close();
+            this.xmppServer.close();
+            this.writer.close();
+            this.metricsServer.close();
+            Tracer.close();
+            this.capture.close();
+            this.backpressure.close();
+        } catch (Exception e) {
+            LOGGER.error("Failed to stop bridge", e);
+        }
+        if (dataSource != null) {
             dataSource.close();
-        }));
+        }
     }
 
     private RouterFactory initRouters(AppConfig config) {
@@ -76,34 +144,65 @@ public class Bridge {
 
     private void initDatabase(DatabaseConfig config) throws Exception {
         HikariConfig hikariConfig = new HikariConfig();
-        hikariConfig.setDriverClassName(config.getDriverClass());
-        hikariConfig.setJdbcUrl(config.getUrl());
+        switch (config.getBackend()) {
+            case H2:
+                hikariConfig.setDriverClassName(H2_DRIVER);
+                String url = config.getUrl() != null && config.getUrl().startsWith(H2_URL_PREFIX) ? config.getUrl() : H2_DEFAULT_URL;
+                hikariConfig.setJdbcUrl(url + H2_OPTIONS);
+                break;
+            case H2_MEMORY:
+                hikariConfig.setDriverClassName(H2_DRIVER);
+                hikariConfig.setJdbcUrl(H2_MEMORY_URL + H2_OPTIONS);
+                break;
+            case POSTGRESQL:
+            default:
+                hikariConfig.setDriverClassName(config.getDriverClass());
+                hikariConfig.setJdbcUrl(config.getUrl());
+        }
+        hikariConfig.setMetricsTrackerFactory(new PrometheusMetricsTrackerFactory());
         hikariConfig.setUsername(config.getUsername());
         hikariConfig.setPassword(config.getPassword());
-        config.getProperties().forEach(hikariConfig::addDataSourceProperty);
+        if (config.getProperties() != null) {
+            config.getProperties().forEach(hikariConfig::addDataSourceProperty);
+        }
 
         dataSource = new HikariDataSource(hikariConfig);
         jdbi = Jdbi.create(dataSource);
         jdbi.installPlugin(new SqlObjectPlugin());
-        jdbi.installPlugin(new PostgresPlugin());
+        if (config.getBackend() == DatabaseBackend.POSTGRESQL) {
+            jdbi.installPlugin(new PostgresPlugin());
+        }
         updateSchema();
+        writer = new GroupCommitWriter(jdbi, config);
+        retention = new RetentionJob("transaction", jdbi, config.getRetention(),
+            (h, horizon, limit) -> h.attach(TransactionDao.class).purge(horizon, limit));
+        messageRetention = new RetentionJob("message_map", jdbi, config.getMessageRetention(),
+            (h, horizon, limit) -> h.attach(MessageMapDao.class).purge(horizon, limit));
     }
 
     private void updateSchema() throws Exception {
         Database database = DatabaseFactory.getInstance()
             .findCorrectDatabaseImplementation(new JdbcConnection(dataSource.getConnection()));
-        Liquibase liquibase = new Liquibase(getClass().getResource("/migrations.xml").getFile(), new FileSystemResourceAccessor(),
-            database);
+        Liquibase liquibase = new Liquibase("migrations.xml", new ClassLoaderResourceAccessor(getClass().getClassLoader()), database);
         liquibase.update(new Contexts(), new LabelExpression());
     }
 
     private void initMatrix(MatrixConfig config, RouterFactory routerFactory) throws Exception {
-        this.matrixServer = new MatrixServer();
+        this.matrixServer = new MatrixServer(writer, capture, backpressure);
         this.matrixServer.init(jdbi, config, routerFactory);
     }
 
     private void initXmpp(XmppConfig config, RouterFactory routerFactory) throws Exception {
-        this.xmppServer = new XmppServer();
+        this.xmppServer = new XmppServer(capture, backpressure);
         this.xmppServer.init(jdbi, config, routerFactory);
     }
+
+    private void initMetrics(MetricsConfig config) {
+        this.metricsServer = new MetricsServer(config);
+    }
+
+    private void initOutbox(OutboxConfig config) {
+        this.outbox = new OutboxRelay(jdbi, config);
+        this.outbox.init(xmppServer, matrixServer);
+    }
 }
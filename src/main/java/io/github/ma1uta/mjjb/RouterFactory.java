@@ -18,6 +18,9 @@ package io.github.ma1uta.mjjb;
 
 import io.github.ma1uta.matrix.event.Event;
 import io.github.ma1uta.mjjb.config.AppConfig;
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import io.github.ma1uta.mjjb.trace.Stage;
+import io.github.ma1uta.mjjb.trace.Tracer;
 import org.apache.commons.collections4.MultiValuedMap;
 import org.apache.commons.collections4.multimap.ArrayListValuedHashMap;
 import org.jdbi.v3.core.Jdbi;
@@ -26,6 +29,8 @@ import org.slf4j.LoggerFactory;
 import rocks.xmpp.core.stanza.model.Stanza;
 
 import java.lang.reflect.ParameterizedType;
+import java.util.Collection;
+import java.util.Collections;
 
 /**
  * Router factory.
@@ -90,7 +95,7 @@ public class RouterFactory {
      */
     public void process(Event event) {
         for (AbstractRouter<Event> router : getMatrixRouters().get(event.getClass())) {
-            if (router.apply(event)) {
+            if (apply(router, event)) {
                 break;
             }
         }
@@ -98,14 +103,31 @@ public class RouterFactory {
 
     /**
      * Process Xmpp stanza.
+     * <br>
+     * Stanzas are unmarshalled as the server subclasses (ServerMessage, ServerPresence, ...), so the routers are looked up
+     * along the superclass chain.
      *
      * @param stanza stanza.
      */
     public void process(Stanza stanza) {
-        for (AbstractRouter<Stanza> router : getXmppRouters().get(stanza.getClass())) {
-            if (router.apply(stanza)) {
+        Collection<AbstractRouter<Stanza>> routers = Collections.emptyList();
+        for (Class<?> type = stanza.getClass(); routers.isEmpty() && type != null; type = type.getSuperclass()) {
+            routers = getXmppRouters().get(type);
+        }
+        for (AbstractRouter<Stanza> router : routers) {
+            if (apply(router, stanza)) {
                 break;
             }
         }
     }
+
+    private <T> boolean apply(AbstractRouter<T> router, T message) {
+        long start = System.nanoTime();
+        Tracer.mark(Stage.ROUTED);
+        try {
+            return router.apply(message);
+        } finally {
+            router.getTimer().observe(Metrics.since(start));
+        }
+    }
 }
@@ -0,0 +1,175 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.audit;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.AuditConfig;
+import io.prometheus.client.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stanza audit.
+ * <p/>
+ * Event loops only put the captured stanzas (the string from the decoder or the copy of the encoded bytes) to the bounded
+ * buffer. The background writer formats them and writes to the {@link Loggers#STANZA_LOGGER}. When the buffer is full
+ * the stanza is dropped and counted. When the audit is disabled the sessions check one final field and capture nothing.
+ */
+public class StanzaAudit implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+    private static final Logger STANZA_LOGGER = LoggerFactory.getLogger(Loggers.STANZA_LOGGER);
+
+    private static final Counter DROPPED = Counter.build()
+        .name("mjjb_audit_dropped_total")
+        .help("Stanzas dropped by the audit because the buffer was full.")
+        .register();
+
+    private static final long POLL_TIMEOUT = 1000L;
+
+    private final boolean enabled;
+    private final double sampleRate;
+    private final Set<String> domains;
+    private final BlockingQueue<Record> buffer;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public StanzaAudit(AuditConfig config) {
+        this.enabled = config.isEnabled();
+        this.sampleRate = config.getSampleRate();
+        this.domains = config.getDomains() != null ? new HashSet<>(config.getDomains()) : Collections.emptySet();
+        if (enabled) {
+            this.buffer = new ArrayBlockingQueue<>(config.getBufferSize());
+            this.writer = new Thread(this::drain, "stanza-audit");
+            this.writer.setDaemon(true);
+            this.writer.start();
+        } else {
+            this.buffer = null;
+            this.writer = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Check that the stanza of the remote domain should be audited.
+     *
+     * @param domain remote domain.
+     * @return {@code true} to capture the stanza.
+     */
+    public boolean accept(String domain) {
+        return enabled
+            && (domains.isEmpty() || domains.contains(domain))
+            && (sampleRate >= 1D || ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /**
+     * Audit the received stanza.
+     *
+     * @param direction session direction.
+     * @param domain    remote domain.
+     * @param streamId  stream id.
+     * @param xml       decoded stanza.
+     */
+    public void read(String direction, String domain, String streamId, String xml) {
+        offer(new Record(direction, domain, streamId, " IN", xml, null));
+    }
+
+    /**
+     * Audit the sent stanza.
+     *
+     * @param direction session direction.
+     * @param domain    remote domain.
+     * @param streamId  stream id.
+     * @param bytes     copy of the encoded stanza.
+     */
+    public void write(String direction, String domain, String streamId, byte[] bytes) {
+        offer(new Record(direction, domain, streamId, "OUT", null, bytes));
+    }
+
+    private void offer(Record record) {
+        if (!buffer.offer(record)) {
+            DROPPED.inc();
+        }
+    }
+
+    private void drain() {
+        List<Record> batch = new ArrayList<>();
+        while (running || !buffer.isEmpty()) {
+            try {
+                Record first = buffer.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch);
+                for (Record record : batch) {
+                    String xml = record.xml != null ? record.xml : new String(record.bytes, StandardCharsets.UTF_8);
+                    STANZA_LOGGER.info("[{} : {} : {}] {}: {}", record.direction, record.domain, record.streamId, record.action, xml);
+                }
+            } catch (InterruptedException e) {
+                LOGGER.warn("Stanza audit was interrupted.");
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOGGER.error("Failed to write stanza audit.", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        running = false;
+        if (writer != null) {
+            writer.join();
+        }
+    }
+
+    private static final class Record {
+
+        private final String direction;
+        private final String domain;
+        private final String streamId;
+        private final String action;
+        private final String xml;
+        private final byte[] bytes;
+
+        private Record(String direction, String domain, String streamId, String action, String xml, byte[] bytes) {
+            this.direction = direction;
+            this.domain = domain;
+            this.streamId = streamId;
+            this.action = action;
+            this.xml = xml;
+            this.bytes = bytes;
+        }
+    }
+}
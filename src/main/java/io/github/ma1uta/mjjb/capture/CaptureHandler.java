@@ -0,0 +1,58 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.capture;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+
+/**
+ * Captures the bytes received by the XMPP connection.
+ * <br>
+ * Must be added before the XMPP decoder and after the TLS and compression handlers.
+ */
+public class CaptureHandler extends ChannelInboundHandlerAdapter {
+
+    private final TrafficCapture capture;
+    private final int connection;
+
+    public CaptureHandler(TrafficCapture capture) {
+        this.capture = capture;
+        this.connection = capture.nextConnection();
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception {
+        capture.opened(connection, String.valueOf(ctx.channel().remoteAddress()));
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        if (msg instanceof ByteBuf) {
+            capture.received(connection, ByteBufUtil.getBytes((ByteBuf) msg));
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        capture.closed(connection);
+        super.channelInactive(ctx);
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.capture;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reads the capture of the {@link TrafficCapture}.
+ */
+public class CaptureReader implements AutoCloseable {
+
+    private final DataInputStream in;
+    private long previous = 0L;
+
+    public CaptureReader(Path file) throws IOException {
+        InputStream input = new BufferedInputStream(Files.newInputStream(file));
+        byte[] magic = new byte[TrafficCapture.MAGIC.length];
+        if (input.read(magic) != magic.length || !Arrays.equals(magic, TrafficCapture.MAGIC)) {
+            input.close();
+            throw new IOException("Not a capture file: " + file);
+        }
+        // the version 1 captures have no CORRUPTED records and are read as is.
+        int version = input.read();
+        if (version < 1 || version > TrafficCapture.VERSION) {
+            input.close();
+            throw new IOException("Unsupported capture version: " + version);
+        }
+        this.in = new DataInputStream(new InflaterInputStream(input));
+    }
+
+    /**
+     * Read the next record.
+     * <br>
+     * The truncated record at the end of the capture (the bridge was killed while writing) is treated as the end.
+     *
+     * @return the next record or {@code null} at the end of the capture.
+     * @throws IOException when failed to read.
+     */
+    public CaptureRecord next() throws IOException {
+        try {
+            CaptureRecord record = CaptureRecord.read(in, previous);
+            previous = record.getTime();
+            return record;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.capture;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Captured record.
+ * <p/>
+ * Binary layout: the type code (1 byte), the time since the previous record in microseconds (varint), then
+ * <ul>
+ * <li>OPEN: the connection number (varint) and the remote address (length-prefixed UTF-8).</li>
+ * <li>DATA: the connection number (varint) and the received bytes (length-prefixed).</li>
+ * <li>CLOSE and CORRUPTED: the connection number (varint).</li>
+ * <li>TRANSACTION: the transaction id (length-prefixed UTF-8) and the request body (length-prefixed).</li>
+ * </ul>
+ */
+public final class CaptureRecord {
+
+    private static final int SEVEN_BITS = 0x7F;
+    private static final int CONTINUATION = 0x80;
+    private static final int SHIFT = 7;
+
+    private final Type type;
+    private final long time;
+    private final int connection;
+    private final String name;
+    private final byte[] payload;
+
+    public CaptureRecord(Type type, long time, int connection, String name, byte[] payload) {
+        this.type = type;
+        this.time = time;
+        this.connection = connection;
+        this.name = name;
+        this.payload = payload;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Time since the capture start.
+     *
+     * @return nanoseconds.
+     */
+    public long getTime() {
+        return time;
+    }
+
+    public int getConnection() {
+        return connection;
+    }
+
+    /**
+     * The remote address of the OPEN record or the transaction id of the TRANSACTION record.
+     *
+     * @return name.
+     */
+    public String getName() {
+        return name;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Write the record.
+     *
+     * @param out      capture stream.
+     * @param previous time of the previous record, nanoseconds.
+     * @throws IOException when failed to write.
+     */
+    public void write(DataOutputStream out, long previous) throws IOException {
+        out.writeByte(type.ordinal());
+        writeVarLong(out, TimeUnit.NANOSECONDS.toMicros(Math.max(0L, time - previous)));
+        switch (type) {
+            case OPEN:
+                writeVarLong(out, connection);
+                writeBytes(out, name.getBytes(StandardCharsets.UTF_8));
+                break;
+            case DATA:
+                writeVarLong(out, connection);
+                writeBytes(out, payload);
+                break;
+            case CLOSE:
+            case CORRUPTED:
+                writeVarLong(out, connection);
+                break;
+            case TRANSACTION:
+            default:
+                writeBytes(out, name.getBytes(StandardCharsets.UTF_8));
+                writeBytes(out, payload);
+        }
+    }
+
+    /**
+     * Read the record.
+     *
+     * @param in       capture stream.
+     * @param previous time of the previous record, nanoseconds.
+     * @return record.
+     * @throws IOException when failed to read or the stream is corrupted.
+     */
+    public static CaptureRecord read(DataInputStream in, long previous) throws IOException {
+        int code = in.readUnsignedByte();
+        if (code >= Type.values().length) {
+            throw new IOException("Unknown record: " + code);
+        }
+        Type type = Type.values()[code];
+        long time = previous + TimeUnit.MICROSECONDS.toNanos(readVarLong(in));
+        switch (type) {
+            case OPEN:
+                int opened = (int) readVarLong(in);
+                return new CaptureRecord(type, time, opened, new String(readBytes(in), StandardCharsets.UTF_8), null);
+            case DATA:
+                int connection = (int) readVarLong(in);
+                return new CaptureRecord(type, time, connection, null, readBytes(in));
+            case CLOSE:
+            case CORRUPTED:
+                return new CaptureRecord(type, time, (int) readVarLong(in), null, null);
+            case TRANSACTION:
+            default:
+                String txnId = new String(readBytes(in), StandardCharsets.UTF_8);
+                return new CaptureRecord(type, time, 0, txnId, readBytes(in));
+        }
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        writeVarLong(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        long rest = value;
+        while ((rest & ~SEVEN_BITS) != 0) {
+            out.writeByte((int) (rest & SEVEN_BITS) | CONTINUATION);
+            rest >>>= SHIFT;
+        }
+        out.writeByte((int) rest);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0L;
+        int shift = 0;
+        int current = in.readUnsignedByte();
+        while ((current & CONTINUATION) != 0) {
+            value |= (long) (current & SEVEN_BITS) << shift;
+            shift += SHIFT;
+            current = in.readUnsignedByte();
+        }
+        return value | (long) current << shift;
+    }
+
+    /**
+     * Record types, the ordinal is the type code.
+     */
+    public enum Type {
+
+        /**
+         * Incoming XMPP connection was accepted.
+         */
+        OPEN,
+
+        /**
+         * Bytes were received from the XMPP connection.
+         */
+        DATA,
+
+        /**
+         * XMPP connection was closed.
+         */
+        CLOSE,
+
+        /**
+         * Application service transaction was received.
+         */
+        TRANSACTION,
+
+        /**
+         * Received bytes of the XMPP connection were dropped, the connection can't be replayed.
+         */
+        CORRUPTED
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.capture;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.CaptureConfig;
+import io.prometheus.client.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Traffic capture.
+ * <p/>
+ * Records the raw bytes of the incoming XMPP connections (as they reach the XMPP decoder, after TLS and compression) and
+ * the bodies of the application service transactions with their time, so the traffic can be replayed against another build.
+ * <p/>
+ * Event loops only put the records to the bounded buffer, the background writer appends them to the file. When the buffer
+ * is full the record is dropped and counted. A connection which lost the received bytes can't be replayed, so its next bytes
+ * aren't captured and the writer appends the CORRUPTED record of it. The file starts with the {@link #MAGIC} and
+ * the {@link #VERSION}, the records (see {@link CaptureRecord}) are deflated and flushed every time the buffer is drained,
+ * so a crashed bridge leaves a readable capture.
+ * <p/>
+ * The capture isn't encrypted and holds the plain stanzas, the dialback keys and the transaction bodies with the message
+ * contents. Treat the file as the secret and delete it after the replay.
+ */
+public class TrafficCapture implements AutoCloseable {
+
+    /**
+     * File signature.
+     */
+    public static final byte[] MAGIC = "MJJBCAP".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Format version.
+     */
+    public static final int VERSION = 2;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    private static final Counter DROPPED = Counter.build()
+        .name("mjjb_capture_dropped_total")
+        .help("Records dropped by the traffic capture because the buffer was full.")
+        .register();
+
+    private static final long POLL_TIMEOUT = 1000L;
+    private static final int FILE_BUFFER = 64 * 1024;
+
+    private final boolean xmpp;
+    private final boolean matrix;
+    private final long start = System.nanoTime();
+    private final AtomicInteger connections = new AtomicInteger();
+    private final BlockingQueue<CaptureRecord> buffer;
+    private final Set<Integer> corrupted = ConcurrentHashMap.newKeySet();
+    private final Queue<Integer> lost = new ConcurrentLinkedQueue<>();
+    private final DataOutputStream out;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    public TrafficCapture(CaptureConfig config) throws IOException {
+        this.xmpp = config.isEnabled() && config.isXmpp();
+        this.matrix = config.isEnabled() && config.isMatrix();
+        if (config.isEnabled()) {
+            OutputStream file = new BufferedOutputStream(Files.newOutputStream(Paths.get(config.getFile())), FILE_BUFFER);
+            file.write(MAGIC);
+            file.write(VERSION);
+            this.out = new DataOutputStream(new DeflaterOutputStream(file, new Deflater(Deflater.BEST_SPEED), FILE_BUFFER, true));
+            this.buffer = new ArrayBlockingQueue<>(config.getBufferSize());
+            this.writer = new Thread(this::drain, "traffic-capture");
+            this.writer.setDaemon(true);
+            this.writer.start();
+            LOGGER.info("Capture traffic to the {}", config.getFile());
+        } else {
+            this.out = null;
+            this.buffer = null;
+            this.writer = null;
+        }
+    }
+
+    /**
+     * Capture the incoming XMPP connections.
+     *
+     * @return {@code true} if enabled.
+     */
+    public boolean isXmpp() {
+        return xmpp;
+    }
+
+    /**
+     * Capture the application service transactions.
+     *
+     * @return {@code true} if enabled.
+     */
+    public boolean isMatrix() {
+        return matrix;
+    }
+
+    /**
+     * Allocate the number of the new connection.
+     *
+     * @return connection number.
+     */
+    public int nextConnection() {
+        return connections.incrementAndGet();
+    }
+
+    /**
+     * Capture the accepted connection.
+     *
+     * @param connection    connection number.
+     * @param remoteAddress remote address.
+     */
+    public void opened(int connection, String remoteAddress) {
+        offer(new CaptureRecord(CaptureRecord.Type.OPEN, now(), connection, remoteAddress, null));
+    }
+
+    /**
+     * Capture the received bytes.
+     *
+     * @param connection connection number.
+     * @param bytes      copy of the received bytes.
+     */
+    public void received(int connection, byte[] bytes) {
+        if (!corrupted.contains(connection) && !offer(new CaptureRecord(CaptureRecord.Type.DATA, now(), connection, null, bytes))
+            && corrupted.add(connection)) {
+            lost.add(connection);
+        }
+    }
+
+    /**
+     * Capture the closed connection.
+     *
+     * @param connection connection number.
+     */
+    public void closed(int connection) {
+        offer(new CaptureRecord(CaptureRecord.Type.CLOSE, now(), connection, null, null));
+        corrupted.remove(connection);
+    }
+
+    /**
+     * Capture the application service transaction.
+     *
+     * @param txnId transaction id.
+     * @param body  request body.
+     */
+    public void transaction(String txnId, byte[] body) {
+        offer(new CaptureRecord(CaptureRecord.Type.TRANSACTION, now(), 0, txnId, body));
+    }
+
+    private long now() {
+        return System.nanoTime() - start;
+    }
+
+    private boolean offer(CaptureRecord record) {
+        if (!buffer.offer(record)) {
+            DROPPED.inc();
+            return false;
+        }
+        return true;
+    }
+
+    private void drain() {
+        List<CaptureRecord> batch = new ArrayList<>();
+        long previous = 0L;
+        while (running || !buffer.isEmpty() || !lost.isEmpty()) {
+            try {
+                CaptureRecord first = buffer.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    buffer.drainTo(batch);
+                }
+                Integer connection;
+                while ((connection = lost.poll()) != null) {
+                    batch.add(new CaptureRecord(CaptureRecord.Type.CORRUPTED, now(), connection, null, null));
+                }
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                for (CaptureRecord record : batch) {
+                    record.write(out, previous);
+                    previous = Math.max(previous, record.getTime());
+                }
+                out.flush();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Traffic capture was interrupted.");
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOGGER.error("Failed to write traffic capture.", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        running = false;
+        if (writer != null) {
+            writer.join();
+            out.close();
+        }
+    }
+}
@@ -11,6 +11,16 @@ public class AppConfig {
 
     private DatabaseConfig database;
 
+    private OutboxConfig outbox = new OutboxConfig();
+
+    private MetricsConfig metrics = new MetricsConfig();
+
+    private TraceConfig trace = new TraceConfig();
+
+    private CaptureConfig capture = new CaptureConfig();
+
+    private BackpressureConfig backpressure = new BackpressureConfig();
+
     public MatrixConfig getMatrix() {
         return matrix;
     }
@@ -34,4 +44,44 @@ public class AppConfig {
     public void setDatabase(DatabaseConfig database) {
         this.database = database;
     }
+
+    public OutboxConfig getOutbox() {
+        return outbox;
+    }
+
+    public void setOutbox(OutboxConfig outbox) {
+        this.outbox = outbox;
+    }
+
+    public MetricsConfig getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(MetricsConfig metrics) {
+        this.metrics = metrics;
+    }
+
+    public TraceConfig getTrace() {
+        return trace;
+    }
+
+    public void setTrace(TraceConfig trace) {
+        this.trace = trace;
+    }
+
+    public CaptureConfig getCapture() {
+        return capture;
+    }
+
+    public void setCapture(CaptureConfig capture) {
+        this.capture = capture;
+    }
+
+    public BackpressureConfig getBackpressure() {
+        return backpressure;
+    }
+
+    public void setBackpressure(BackpressureConfig backpressure) {
+        this.backpressure = backpressure;
+    }
 }
@@ -0,0 +1,81 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stanza audit configuration.
+ */
+public class AuditConfig {
+
+    /**
+     * Default capacity of the audit buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    private boolean enabled = false;
+
+    /**
+     * Part of the stanzas to audit, from 0 to 1.
+     */
+    @JsonProperty("sample_rate")
+    private double sampleRate = 1D;
+
+    /**
+     * Audit only stanzas of these remote domains. All domains if empty.
+     */
+    private List<String> domains = new ArrayList<>();
+
+    @JsonProperty("buffer_size")
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public List<String> getDomains() {
+        return domains;
+    }
+
+    public void setDomains(List<String> domains) {
+        this.domains = domains;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+}
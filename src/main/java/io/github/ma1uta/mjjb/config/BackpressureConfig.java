@@ -0,0 +1,98 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Backpressure from the XMPP egress to the appservice endpoint. The water marks are in the queued stream elements of the connected
+ * outgoing sessions, the times are in milliseconds.
+ */
+public class BackpressureConfig {
+
+    /**
+     * Default count of the queued elements which saturates the bridge.
+     */
+    public static final long DEFAULT_HIGH_WATER = 50_000L;
+
+    /**
+     * Default count of the queued elements which releases the saturated bridge.
+     */
+    public static final long DEFAULT_LOW_WATER = 25_000L;
+
+    /**
+     * Default time to hold the transaction of the saturated bridge.
+     */
+    public static final long DEFAULT_DEFER_TIMEOUT = 10_000L;
+
+    /**
+     * Default retry delay suggested to the homeserver.
+     */
+    public static final long DEFAULT_RETRY_AFTER = 5_000L;
+
+    /**
+     * The outbox relay pauses and the new transactions wait when the queued elements reach the high water mark. 0 disables
+     * the backpressure.
+     */
+    @JsonProperty("high_water")
+    private long highWater = DEFAULT_HIGH_WATER;
+
+    @JsonProperty("low_water")
+    private long lowWater = DEFAULT_LOW_WATER;
+
+    /**
+     * The transaction still waiting after this time is rejected with M_LIMIT_EXCEEDED, the homeserver sends it again later.
+     */
+    @JsonProperty("defer_timeout")
+    private long deferTimeout = DEFAULT_DEFER_TIMEOUT;
+
+    @JsonProperty("retry_after")
+    private long retryAfter = DEFAULT_RETRY_AFTER;
+
+    public long getHighWater() {
+        return highWater;
+    }
+
+    public void setHighWater(long highWater) {
+        this.highWater = highWater;
+    }
+
+    public long getLowWater() {
+        return lowWater;
+    }
+
+    public void setLowWater(long lowWater) {
+        this.lowWater = lowWater;
+    }
+
+    public long getDeferTimeout() {
+        return deferTimeout;
+    }
+
+    public void setDeferTimeout(long deferTimeout) {
+        this.deferTimeout = deferTimeout;
+    }
+
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Traffic capture configuration.
+ */
+public class CaptureConfig {
+
+    /**
+     * Default capture file.
+     */
+    public static final String DEFAULT_FILE = "mjjb.capture";
+
+    /**
+     * Default capacity of the capture buffer.
+     */
+    public static final int DEFAULT_BUFFER_SIZE = 65_536;
+
+    private boolean enabled = false;
+
+    private String file = DEFAULT_FILE;
+
+    /**
+     * Capture the raw bytes of the incoming XMPP connections.
+     */
+    private boolean xmpp = true;
+
+    /**
+     * Capture the bodies of the application service transactions.
+     */
+    private boolean matrix = true;
+
+    @JsonProperty("buffer_size")
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public boolean isXmpp() {
+        return xmpp;
+    }
+
+    public void setXmpp(boolean xmpp) {
+        this.xmpp = xmpp;
+    }
+
+    public boolean isMatrix() {
+        return matrix;
+    }
+
+    public void setMatrix(boolean matrix) {
+        this.matrix = matrix;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+}
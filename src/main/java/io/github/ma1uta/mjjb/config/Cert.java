@@ -19,7 +19,14 @@ package io.github.ma1uta.mjjb.config;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonSubTypes;
 import com.fasterxml.jackson.annotation.JsonTypeInfo;
+import io.github.ma1uta.mjjb.Loggers;
+import io.netty.handler.ssl.OpenSsl;
 import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.SslProvider;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.security.GeneralSecurityException;
@@ -27,8 +34,10 @@ import java.security.KeyStore;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.KeyManagerFactory;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLException;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.TrustManagerFactory;
 import javax.net.ssl.X509TrustManager;
@@ -60,9 +69,35 @@ public abstract class Cert {
         }
     };
 
+    /**
+     * Default count of the cached TLS sessions.
+     */
+    public static final long DEFAULT_SESSION_CACHE_SIZE = 10_000L;
+
+    /**
+     * Default lifetime of the cached TLS session in milliseconds.
+     */
+    public static final long DEFAULT_SESSION_TIMEOUT = 3_600_000L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
     @JsonProperty("disable_ssl_validation")
     private boolean disableValidation = false;
 
+    /**
+     * TLS implementation.
+     */
+    private TlsProvider provider = TlsProvider.AUTO;
+
+    /**
+     * Cached sessions which can be resumed with the session id or the session ticket. The provider default if 0.
+     */
+    @JsonProperty("session_cache_size")
+    private long sessionCacheSize = DEFAULT_SESSION_CACHE_SIZE;
+
+    @JsonProperty("session_timeout")
+    private long sessionTimeout = DEFAULT_SESSION_TIMEOUT;
+
     public boolean isDisableValidation() {
         return disableValidation;
     }
@@ -71,14 +106,64 @@ public abstract class Cert {
         this.disableValidation = disableValidation;
     }
 
+    public TlsProvider getProvider() {
+        return provider;
+    }
+
+    public void setProvider(TlsProvider provider) {
+        this.provider = provider;
+    }
+
+    public long getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public void setSessionCacheSize(long sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    public long getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    public void setSessionTimeout(long sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
     /**
-     * Create Netty SSL context.
+     * Create Netty SSL context of the server side.
+     * <br/>
+     * The context is created once and shared by the all connections, so the sessions can be resumed.
      *
      * @return Netty SSL context.
      * @throws IOException              when cannot load certificate.
      * @throws GeneralSecurityException when cannot create netty context.
      */
-    public abstract SslContext createNettyContext() throws IOException, GeneralSecurityException;
+    public SslContext createNettyContext() throws IOException, GeneralSecurityException {
+        return configure(SslContextBuilder.forServer(keyManagerFactory()), false);
+    }
+
+    /**
+     * Create Netty SSL context of the client side.
+     * <br/>
+     * The certificate is presented to the remote servers, they are validated with the same key store unless the validation
+     * is disabled.
+     *
+     * @return Netty SSL context.
+     * @throws IOException              when cannot load certificate.
+     * @throws GeneralSecurityException when cannot create netty context.
+     */
+    public SslContext createNettyClientContext() throws IOException, GeneralSecurityException {
+        SslContextBuilder builder = SslContextBuilder.forClient().keyManager(keyManagerFactory());
+        if (isDisableValidation()) {
+            builder.trustManager(InsecureTrustManagerFactory.INSTANCE);
+        } else {
+            TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            tmf.init(loadKeyStore());
+            builder.trustManager(tmf);
+        }
+        return configure(builder, true);
+    }
 
     /**
      * Create Java SSL context.
@@ -87,7 +172,25 @@ public abstract class Cert {
      * @throws IOException              when cannot load certificate.
      * @throws GeneralSecurityException when cannot create jdk context.
      */
-    public abstract SSLContext createJavaContext() throws IOException, GeneralSecurityException;
+    public SSLContext createJavaContext() throws IOException, GeneralSecurityException {
+        return load(loadKeyStore(), keyStorePassword());
+    }
+
+    /**
+     * Load the key store with the private key and the certificate chain.
+     *
+     * @return key store.
+     * @throws IOException              when cannot load certificate.
+     * @throws GeneralSecurityException when cannot create the key store.
+     */
+    protected abstract KeyStore loadKeyStore() throws IOException, GeneralSecurityException;
+
+    /**
+     * Password of the private key in the key store.
+     *
+     * @return password.
+     */
+    protected abstract char[] keyStorePassword();
 
     /**
      * Provide certificate type.
@@ -96,6 +199,43 @@ public abstract class Cert {
      */
     public abstract CertificateType getType();
 
+    private KeyManagerFactory keyManagerFactory() throws IOException, GeneralSecurityException {
+        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        kmf.init(loadKeyStore(), keyStorePassword());
+        return kmf;
+    }
+
+    private SslContext configure(SslContextBuilder builder, boolean client) throws SSLException {
+        SslProvider sslProvider = sslProvider(client);
+        LOGGER.info("TLS provider of the {} side: {}", client ? "client" : "server", sslProvider);
+        return builder
+            .sslProvider(sslProvider)
+            .sessionCacheSize(getSessionCacheSize())
+            .sessionTimeout(TimeUnit.MILLISECONDS.toSeconds(getSessionTimeout()))
+            .build();
+    }
+
+    /**
+     * Choose the TLS implementation.
+     * <br/>
+     * OpenSSL is chosen automatically only for the server side if it is available and can use the key manager of the JDK.
+     * The OpenSSL client context of this Netty version has no session cache, so the JDK client is used to resume the sessions.
+     *
+     * @param client {@code true} for the client side.
+     * @return TLS provider.
+     */
+    private SslProvider sslProvider(boolean client) {
+        switch (getProvider()) {
+            case OPENSSL:
+                return SslProvider.OPENSSL;
+            case JDK:
+                return SslProvider.JDK;
+            case AUTO:
+            default:
+                return !client && OpenSsl.isAvailable() && OpenSsl.supportsKeyManagerFactory() ? SslProvider.OPENSSL : SslProvider.JDK;
+        }
+    }
+
     protected SSLContext load(KeyStore keyStore, char[] password) throws GeneralSecurityException {
         TrustManagerFactory tmf = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
         tmf.init(keyStore);
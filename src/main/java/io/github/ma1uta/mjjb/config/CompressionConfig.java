@@ -0,0 +1,197 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stream compression (XEP-0138) configuration.
+ */
+public class CompressionConfig {
+
+    /**
+     * Default deflate level, the zlib default.
+     */
+    public static final int DEFAULT_LEVEL = 6;
+
+    /**
+     * Default deflate window (32 KiB), the zlib default.
+     */
+    public static final int DEFAULT_WINDOW_BITS = 15;
+
+    /**
+     * Default deflate memory level (128 KiB of the internal state), the zlib default.
+     */
+    public static final int DEFAULT_MEM_LEVEL = 8;
+
+    /**
+     * Default minimal ratio of the uncompressed bytes to the compressed ones.
+     */
+    public static final double DEFAULT_MIN_RATIO = 1.5D;
+
+    /**
+     * Default count of the uncompressed bytes after which the ratio is checked.
+     */
+    public static final long DEFAULT_PROBE_BYTES = 64 * 1024L;
+
+    /**
+     * Default time to not compress the streams of the domain with the poor ratio in milliseconds.
+     */
+    public static final long DEFAULT_POOR_RATIO_TTL = 3_600_000L;
+
+    /**
+     * Default max count of the bytes inflated from a received buffer (4 MiB).
+     */
+    public static final int DEFAULT_MAX_INFLATED_SIZE = 4 * 1024 * 1024;
+
+    private boolean enabled = true;
+
+    /**
+     * Supported methods by the preference: zlib, gzip and deflate.
+     */
+    private List<String> methods = new ArrayList<>(Arrays.asList("zlib", "gzip"));
+
+    private int level = DEFAULT_LEVEL;
+
+    @JsonProperty("window_bits")
+    private int windowBits = DEFAULT_WINDOW_BITS;
+
+    @JsonProperty("mem_level")
+    private int memLevel = DEFAULT_MEM_LEVEL;
+
+    /**
+     * Compress the TLS streams too. Disabled by default: the records are already encrypted and padded, the gain is small.
+     */
+    @JsonProperty("over_tls")
+    private boolean overTls = false;
+
+    /**
+     * Enable or disable the compression of the remote domains ({@code domain: true|false}), the {@code enabled} is used for the
+     * other ones.
+     */
+    private Map<String, Boolean> domains = new HashMap<>();
+
+    @JsonProperty("min_ratio")
+    private double minRatio = DEFAULT_MIN_RATIO;
+
+    @JsonProperty("probe_bytes")
+    private long probeBytes = DEFAULT_PROBE_BYTES;
+
+    @JsonProperty("poor_ratio_ttl")
+    private long poorRatioTtl = DEFAULT_POOR_RATIO_TTL;
+
+    /**
+     * Max count of the bytes inflated from a received buffer, the larger output closes the stream. 0 disables the limit.
+     */
+    @JsonProperty("max_inflated_size")
+    private int maxInflatedSize = DEFAULT_MAX_INFLATED_SIZE;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public List<String> getMethods() {
+        return methods;
+    }
+
+    public void setMethods(List<String> methods) {
+        this.methods = methods;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    public int getWindowBits() {
+        return windowBits;
+    }
+
+    public void setWindowBits(int windowBits) {
+        this.windowBits = windowBits;
+    }
+
+    public int getMemLevel() {
+        return memLevel;
+    }
+
+    public void setMemLevel(int memLevel) {
+        this.memLevel = memLevel;
+    }
+
+    public boolean isOverTls() {
+        return overTls;
+    }
+
+    public void setOverTls(boolean overTls) {
+        this.overTls = overTls;
+    }
+
+    public Map<String, Boolean> getDomains() {
+        return domains;
+    }
+
+    public void setDomains(Map<String, Boolean> domains) {
+        this.domains = domains;
+    }
+
+    public double getMinRatio() {
+        return minRatio;
+    }
+
+    public void setMinRatio(double minRatio) {
+        this.minRatio = minRatio;
+    }
+
+    public long getProbeBytes() {
+        return probeBytes;
+    }
+
+    public void setProbeBytes(long probeBytes) {
+        this.probeBytes = probeBytes;
+    }
+
+    public long getPoorRatioTtl() {
+        return poorRatioTtl;
+    }
+
+    public void setPoorRatioTtl(long poorRatioTtl) {
+        this.poorRatioTtl = poorRatioTtl;
+    }
+
+    public int getMaxInflatedSize() {
+        return maxInflatedSize;
+    }
+
+    public void setMaxInflatedSize(int maxInflatedSize) {
+        this.maxInflatedSize = maxInflatedSize;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Supported database backends.
+ */
+public enum DatabaseBackend {
+
+    /**
+     * PostgreSQL server.
+     */
+    @JsonProperty("postgresql")
+    POSTGRESQL,
+
+    /**
+     * Embedded H2 database stored in the file.
+     */
+    @JsonProperty("h2")
+    H2,
+
+    /**
+     * Embedded in-memory H2 database. All data is lost on exit.
+     */
+    @JsonProperty("h2_mem")
+    H2_MEMORY
+}
@@ -9,6 +9,18 @@ import java.util.Map;
  */
 public class DatabaseConfig {
 
+    /**
+     * Default time in milliseconds to collect the bookkeeping writes before the commit.
+     */
+    public static final long DEFAULT_COMMIT_DELAY = 5L;
+
+    /**
+     * Default max count of the bookkeeping writes in the one commit.
+     */
+    public static final int DEFAULT_COMMIT_BATCH_SIZE = 256;
+
+    private DatabaseBackend backend = DatabaseBackend.POSTGRESQL;
+
     @JsonProperty("driver_class")
     private String driverClass = "org.postgresql.Driver";
 
@@ -20,6 +32,25 @@ public class DatabaseConfig {
 
     private Map<String, String> properties;
 
+    @JsonProperty("commit_delay")
+    private long commitDelay = DEFAULT_COMMIT_DELAY;
+
+    @JsonProperty("commit_batch_size")
+    private int commitBatchSize = DEFAULT_COMMIT_BATCH_SIZE;
+
+    private RetentionConfig retention = new RetentionConfig();
+
+    @JsonProperty("message_retention")
+    private RetentionConfig messageRetention = new RetentionConfig();
+
+    public DatabaseBackend getBackend() {
+        return backend;
+    }
+
+    public void setBackend(DatabaseBackend backend) {
+        this.backend = backend;
+    }
+
     public String getDriverClass() {
         return driverClass;
     }
@@ -59,4 +90,36 @@ public class DatabaseConfig {
     public void setProperties(Map<String, String> properties) {
         this.properties = properties;
     }
+
+    public long getCommitDelay() {
+        return commitDelay;
+    }
+
+    public void setCommitDelay(long commitDelay) {
+        this.commitDelay = commitDelay;
+    }
+
+    public int getCommitBatchSize() {
+        return commitBatchSize;
+    }
+
+    public void setCommitBatchSize(int commitBatchSize) {
+        this.commitBatchSize = commitBatchSize;
+    }
+
+    public RetentionConfig getRetention() {
+        return retention;
+    }
+
+    public void setRetention(RetentionConfig retention) {
+        this.retention = retention;
+    }
+
+    public RetentionConfig getMessageRetention() {
+        return messageRetention;
+    }
+
+    public void setMessageRetention(RetentionConfig messageRetention) {
+        this.messageRetention = messageRetention;
+    }
 }
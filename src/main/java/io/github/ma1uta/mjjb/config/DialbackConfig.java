@@ -0,0 +1,109 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Server dialback configuration.
+ */
+public class DialbackConfig {
+
+    /**
+     * Default count of the concurrent verifications.
+     */
+    public static final long DEFAULT_PENDING_CAPACITY = 10_000L;
+
+    /**
+     * Default time to wait the answer of the authoritative server in milliseconds.
+     */
+    public static final long DEFAULT_PENDING_TTL = 30_000L;
+
+    /**
+     * Default count of the cached verified keys.
+     */
+    public static final long DEFAULT_VERIFIED_CAPACITY = 10_000L;
+
+    /**
+     * Default lifetime of the verified key in milliseconds.
+     */
+    public static final long DEFAULT_VERIFIED_TTL = 600_000L;
+
+    /**
+     * Secret of the dialback keys (XEP-0185). Must be the same on the all nodes of the domain. Random if empty.
+     */
+    private String secret;
+
+    /**
+     * Incoming connections waiting for the answer of the authoritative server.
+     */
+    @JsonProperty("pending_capacity")
+    private long pendingCapacity = DEFAULT_PENDING_CAPACITY;
+
+    @JsonProperty("pending_ttl")
+    private long pendingTtl = DEFAULT_PENDING_TTL;
+
+    /**
+     * Keys which were verified by the authoritative server.
+     */
+    @JsonProperty("verified_capacity")
+    private long verifiedCapacity = DEFAULT_VERIFIED_CAPACITY;
+
+    @JsonProperty("verified_ttl")
+    private long verifiedTtl = DEFAULT_VERIFIED_TTL;
+
+    public String getSecret() {
+        return secret;
+    }
+
+    public void setSecret(String secret) {
+        this.secret = secret;
+    }
+
+    public long getPendingCapacity() {
+        return pendingCapacity;
+    }
+
+    public void setPendingCapacity(long pendingCapacity) {
+        this.pendingCapacity = pendingCapacity;
+    }
+
+    public long getPendingTtl() {
+        return pendingTtl;
+    }
+
+    public void setPendingTtl(long pendingTtl) {
+        this.pendingTtl = pendingTtl;
+    }
+
+    public long getVerifiedCapacity() {
+        return verifiedCapacity;
+    }
+
+    public void setVerifiedCapacity(long verifiedCapacity) {
+        this.verifiedCapacity = verifiedCapacity;
+    }
+
+    public long getVerifiedTtl() {
+        return verifiedTtl;
+    }
+
+    public void setVerifiedTtl(long verifiedTtl) {
+        this.verifiedTtl = verifiedTtl;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Egress scheduler configuration: the budget of an outgoing session per turn on the shared event loop.
+ */
+public class EgressConfig {
+
+    /**
+     * Default bytes added to the deficit of the session per turn.
+     */
+    public static final int DEFAULT_QUANTUM_BYTES = 16 * 1024;
+
+    /**
+     * Default max count of the stream elements sent by the session per turn.
+     */
+    public static final int DEFAULT_TURN_STANZAS = 64;
+
+    /**
+     * The session sends while its deficit is positive, the overdraft of a large stanza is paid by the next turns.
+     */
+    @JsonProperty("quantum_bytes")
+    private int quantumBytes = DEFAULT_QUANTUM_BYTES;
+
+    @JsonProperty("turn_stanzas")
+    private int turnStanzas = DEFAULT_TURN_STANZAS;
+
+    public int getQuantumBytes() {
+        return quantumBytes;
+    }
+
+    public void setQuantumBytes(int quantumBytes) {
+        this.quantumBytes = quantumBytes;
+    }
+
+    public int getTurnStanzas() {
+        return turnStanzas;
+    }
+
+    public void setTurnStanzas(int turnStanzas) {
+        this.turnStanzas = turnStanzas;
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Idle S2S connections configuration. All timeouts are in milliseconds, 0 disables the corresponding check.
+ */
+public class IdleConfig {
+
+    /**
+     * Default interval of the whitespace keepalives.
+     */
+    public static final long DEFAULT_KEEPALIVE_INTERVAL = 60_000L;
+
+    /**
+     * Default time without stanzas after which the outgoing session is closed.
+     */
+    public static final long DEFAULT_OUTGOING_TIMEOUT = 600_000L;
+
+    /**
+     * Default time without any received byte after which the incoming session is closed.
+     */
+    public static final long DEFAULT_INCOMING_TIMEOUT = 900_000L;
+
+    /**
+     * A whitespace is sent when nothing was written for this time.
+     */
+    @JsonProperty("keepalive_interval")
+    private long keepaliveInterval = DEFAULT_KEEPALIVE_INTERVAL;
+
+    /**
+     * The keepalives don't count, the pending stanzas are sent over a new session.
+     */
+    @JsonProperty("outgoing_timeout")
+    private long outgoingTimeout = DEFAULT_OUTGOING_TIMEOUT;
+
+    /**
+     * The keepalives of the remote server count.
+     */
+    @JsonProperty("incoming_timeout")
+    private long incomingTimeout = DEFAULT_INCOMING_TIMEOUT;
+
+    public long getKeepaliveInterval() {
+        return keepaliveInterval;
+    }
+
+    public void setKeepaliveInterval(long keepaliveInterval) {
+        this.keepaliveInterval = keepaliveInterval;
+    }
+
+    public long getOutgoingTimeout() {
+        return outgoingTimeout;
+    }
+
+    public void setOutgoingTimeout(long outgoingTimeout) {
+        this.outgoingTimeout = outgoingTimeout;
+    }
+
+    public long getIncomingTimeout() {
+        return incomingTimeout;
+    }
+
+    public void setIncomingTimeout(long incomingTimeout) {
+        this.incomingTimeout = incomingTimeout;
+    }
+}
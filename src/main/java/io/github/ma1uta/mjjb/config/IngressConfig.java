@@ -0,0 +1,80 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Ingress limits of the S2S streams: the received bytes and stanzas of a connection. 0 disables the corresponding limit.
+ */
+public class IngressConfig {
+
+    /**
+     * Default max size of a top-level stream element in bytes.
+     */
+    public static final int DEFAULT_MAX_STANZA_SIZE = 512 * 1024;
+
+    /**
+     * Default received bytes per second.
+     */
+    public static final int DEFAULT_BYTES_PER_SECOND = 1024 * 1024;
+
+    /**
+     * Default received stanzas per second.
+     */
+    public static final int DEFAULT_STANZAS_PER_SECOND = 500;
+
+    /**
+     * A larger element is answered with the policy-violation stream error and the connection is closed.
+     */
+    @JsonProperty("max_stanza_size")
+    private int maxStanzaSize = DEFAULT_MAX_STANZA_SIZE;
+
+    /**
+     * When the rate is exceeded the reading of the connection is paused until the debt is paid, the burst is a second of the rate.
+     */
+    @JsonProperty("bytes_per_second")
+    private int bytesPerSecond = DEFAULT_BYTES_PER_SECOND;
+
+    @JsonProperty("stanzas_per_second")
+    private int stanzasPerSecond = DEFAULT_STANZAS_PER_SECOND;
+
+    public int getMaxStanzaSize() {
+        return maxStanzaSize;
+    }
+
+    public void setMaxStanzaSize(int maxStanzaSize) {
+        this.maxStanzaSize = maxStanzaSize;
+    }
+
+    public int getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public void setBytesPerSecond(int bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public int getStanzasPerSecond() {
+        return stanzasPerSecond;
+    }
+
+    public void setStanzasPerSecond(int stanzasPerSecond) {
+        this.stanzasPerSecond = stanzasPerSecond;
+    }
+}
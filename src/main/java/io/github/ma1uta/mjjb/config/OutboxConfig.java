@@ -0,0 +1,127 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Outbox relay configuration.
+ */
+public class OutboxConfig {
+
+    /**
+     * Default interval between outbox polls in milliseconds.
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 1000L;
+
+    /**
+     * Default count of messages delivered in the one database transaction.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    /**
+     * Default count of delivery attempts before the message is left in the outbox.
+     */
+    public static final int DEFAULT_MAX_ATTEMPTS = 10;
+
+    /**
+     * Default time of the claim of the delivered messages in milliseconds.
+     */
+    public static final long DEFAULT_CLAIM_TIMEOUT = 60_000L;
+
+    /**
+     * Default time to keep the undelivered messages in milliseconds (7 days).
+     */
+    public static final long DEFAULT_DEAD_LETTER_TTL = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Default interval between the purges of the undelivered messages in milliseconds (1 hour).
+     */
+    public static final long DEFAULT_PURGE_INTERVAL = 60L * 60 * 1000;
+
+    @JsonProperty("poll_interval")
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    @JsonProperty("batch_size")
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    @JsonProperty("max_attempts")
+    private int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+    /**
+     * The claimed messages are skipped by the other relays, the claim of the crashed relay expires after this time.
+     */
+    @JsonProperty("claim_timeout")
+    private long claimTimeout = DEFAULT_CLAIM_TIMEOUT;
+
+    /**
+     * The messages which exhausted the attempts are removed after this time since the creation. Zero or negative value keeps them.
+     */
+    @JsonProperty("dead_letter_ttl")
+    private long deadLetterTtl = DEFAULT_DEAD_LETTER_TTL;
+
+    @JsonProperty("purge_interval")
+    private long purgeInterval = DEFAULT_PURGE_INTERVAL;
+
+    public long getPollInterval() {
+        return pollInterval;
+    }
+
+    public void setPollInterval(long pollInterval) {
+        this.pollInterval = pollInterval;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getClaimTimeout() {
+        return claimTimeout;
+    }
+
+    public void setClaimTimeout(long claimTimeout) {
+        this.claimTimeout = claimTimeout;
+    }
+
+    public long getDeadLetterTtl() {
+        return deadLetterTtl;
+    }
+
+    public void setDeadLetterTtl(long deadLetterTtl) {
+        this.deadLetterTtl = deadLetterTtl;
+    }
+
+    public long getPurgeInterval() {
+        return purgeInterval;
+    }
+
+    public void setPurgeInterval(long purgeInterval) {
+        this.purgeInterval = purgeInterval;
+    }
+}
@@ -18,19 +18,13 @@ package io.github.ma1uta.mjjb.config;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
-import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.security.GeneralSecurityException;
 import java.security.KeyStore;
-import java.security.KeyStoreException;
-import java.security.NoSuchAlgorithmException;
-import java.security.cert.CertificateException;
-import javax.net.ssl.KeyManagerFactory;
-import javax.net.ssl.SSLContext;
 
 /**
  * PKCS12 certificate info.
@@ -45,21 +39,17 @@ public class PKCS12Cert extends Cert {
     private String keyStorePassword;
 
     @Override
-    public SslContext createNettyContext() throws IOException, GeneralSecurityException {
-        KeyManagerFactory kmf = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
-        kmf.init(loadKeyStore(), getKeyStorePassword().toCharArray());
-        return SslContextBuilder.forServer(kmf).build();
+    protected KeyStore loadKeyStore() throws IOException, GeneralSecurityException {
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream input = Files.newInputStream(Paths.get(getKeyStore()))) {
+            keyStore.load(input, keyStorePassword());
+        }
+        return keyStore;
     }
 
     @Override
-    public SSLContext createJavaContext() throws IOException, GeneralSecurityException {
-        return load(loadKeyStore(), getKeyStorePassword().toCharArray());
-    }
-
-    private KeyStore loadKeyStore() throws KeyStoreException, IOException, CertificateException, NoSuchAlgorithmException {
-        KeyStore keyStore = KeyStore.getInstance("PKCS12");
-        keyStore.load(Files.newInputStream(Paths.get(getKeyStore())), getKeyStorePassword().toCharArray());
-        return keyStore;
+    protected char[] keyStorePassword() {
+        return getKeyStorePassword().toCharArray();
     }
 
     @Override
@@ -18,8 +18,6 @@ package io.github.ma1uta.mjjb.config;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonTypeName;
-import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslContextBuilder;
 
 import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
@@ -41,7 +39,6 @@ import java.util.Base64;
 import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import javax.net.ssl.SSLContext;
 
 /**
  * PEM certificate info.
@@ -58,16 +55,7 @@ public class PemCert extends Cert {
     private String keyCertChainFile;
 
     @Override
-    public SslContext createNettyContext() throws IOException, GeneralSecurityException {
-        CertAndPrivKey certAndPrivKey = readBothFiles();
-        PrivateKey privateKey = certAndPrivKey.getPrivateKey();
-        List<X509Certificate> certificates = certAndPrivKey.getCertificates();
-
-        return SslContextBuilder.forServer(privateKey, certificates.toArray(new X509Certificate[0])).build();
-    }
-
-    @Override
-    public SSLContext createJavaContext() throws IOException, GeneralSecurityException {
+    protected KeyStore loadKeyStore() throws IOException, GeneralSecurityException {
         CertAndPrivKey certAndPrivKey = readBothFiles();
         PrivateKey privateKey = certAndPrivKey.getPrivateKey();
         List<X509Certificate> certificates = certAndPrivKey.getCertificates();
@@ -76,8 +64,6 @@ public class PemCert extends Cert {
             throw new RuntimeException("RSA private key not found in PEM file");
         }
 
-        char[] keyStorePassword = new char[0];
-
         KeyStore keyStore = KeyStore.getInstance("PKCS12");
         keyStore.load(null, null);
 
@@ -87,9 +73,14 @@ public class PemCert extends Cert {
             count++;
         }
         Certificate[] chain = certificates.toArray(new Certificate[0]);
-        keyStore.setKeyEntry("key", privateKey, keyStorePassword, chain);
+        keyStore.setKeyEntry("key", privateKey, keyStorePassword(), chain);
 
-        return load(keyStore, keyStorePassword);
+        return keyStore;
+    }
+
+    @Override
+    protected char[] keyStorePassword() {
+        return new char[0];
     }
 
     private CertAndPrivKey readBothFiles() throws IOException, GeneralSecurityException {
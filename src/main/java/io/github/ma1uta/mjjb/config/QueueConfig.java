@@ -0,0 +1,129 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Outgoing queue configuration: the weights and the limits of the stanza classes. The stream control elements are sent first
+ * and aren't limited.
+ */
+public class QueueConfig {
+
+    /**
+     * Default weight of the IQs.
+     */
+    public static final int DEFAULT_IQ_WEIGHT = 4;
+
+    /**
+     * Default weight of the messages.
+     */
+    public static final int DEFAULT_MESSAGE_WEIGHT = 2;
+
+    /**
+     * Default weight of the presences and the chat states.
+     */
+    public static final int DEFAULT_PRESENCE_WEIGHT = 1;
+
+    /**
+     * Default limit of the queued IQs.
+     */
+    public static final int DEFAULT_IQ_LIMIT = 1000;
+
+    /**
+     * Default limit of the queued messages.
+     */
+    public static final int DEFAULT_MESSAGE_LIMIT = 10_000;
+
+    /**
+     * Default limit of the queued presences and chat states.
+     */
+    public static final int DEFAULT_PRESENCE_LIMIT = 5000;
+
+    /**
+     * Count of the IQs sent in a round of the weighted draining.
+     */
+    @JsonProperty("iq_weight")
+    private int iqWeight = DEFAULT_IQ_WEIGHT;
+
+    @JsonProperty("message_weight")
+    private int messageWeight = DEFAULT_MESSAGE_WEIGHT;
+
+    @JsonProperty("presence_weight")
+    private int presenceWeight = DEFAULT_PRESENCE_WEIGHT;
+
+    /**
+     * Count of the queued IQs of a session, the next ones are rejected.
+     */
+    @JsonProperty("iq_limit")
+    private int iqLimit = DEFAULT_IQ_LIMIT;
+
+    @JsonProperty("message_limit")
+    private int messageLimit = DEFAULT_MESSAGE_LIMIT;
+
+    @JsonProperty("presence_limit")
+    private int presenceLimit = DEFAULT_PRESENCE_LIMIT;
+
+    public int getIqWeight() {
+        return iqWeight;
+    }
+
+    public void setIqWeight(int iqWeight) {
+        this.iqWeight = iqWeight;
+    }
+
+    public int getMessageWeight() {
+        return messageWeight;
+    }
+
+    public void setMessageWeight(int messageWeight) {
+        this.messageWeight = messageWeight;
+    }
+
+    public int getPresenceWeight() {
+        return presenceWeight;
+    }
+
+    public void setPresenceWeight(int presenceWeight) {
+        this.presenceWeight = presenceWeight;
+    }
+
+    public int getIqLimit() {
+        return iqLimit;
+    }
+
+    public void setIqLimit(int iqLimit) {
+        this.iqLimit = iqLimit;
+    }
+
+    public int getMessageLimit() {
+        return messageLimit;
+    }
+
+    public void setMessageLimit(int messageLimit) {
+        this.messageLimit = messageLimit;
+    }
+
+    public int getPresenceLimit() {
+        return presenceLimit;
+    }
+
+    public void setPresenceLimit(int presenceLimit) {
+        this.presenceLimit = presenceLimit;
+    }
+}
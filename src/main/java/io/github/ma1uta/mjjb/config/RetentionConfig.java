@@ -0,0 +1,74 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Retention configuration of the processed transactions and the message mappings.
+ */
+public class RetentionConfig {
+
+    /**
+     * Default retention horizon in milliseconds (7 days).
+     */
+    public static final long DEFAULT_HORIZON = 7L * 24 * 60 * 60 * 1000;
+
+    /**
+     * Default interval between the cleanups in milliseconds (1 hour).
+     */
+    public static final long DEFAULT_INTERVAL = 60L * 60 * 1000;
+
+    /**
+     * Default count of the rows deleted in the one database transaction.
+     */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * Keep rows which were created less than horizon milliseconds ago. Zero or negative value disables the cleanup.
+     */
+    private long horizon = DEFAULT_HORIZON;
+
+    private long interval = DEFAULT_INTERVAL;
+
+    @JsonProperty("batch_size")
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    public long getHorizon() {
+        return horizon;
+    }
+
+    public void setHorizon(long horizon) {
+        this.horizon = horizon;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+}
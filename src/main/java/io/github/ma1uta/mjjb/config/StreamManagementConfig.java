@@ -0,0 +1,103 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Stream management (XEP-0198) configuration.
+ */
+public class StreamManagementConfig {
+
+    /**
+     * Default count of the sent stanzas after which the ack is requested.
+     */
+    public static final int DEFAULT_ACK_INTERVAL = 10;
+
+    /**
+     * Default count of the unacknowledged stanzas, the sending is paused when it is reached.
+     */
+    public static final int DEFAULT_MAX_UNACKED = 1000;
+
+    /**
+     * Default time to keep the state of the closed incoming stream for the resumption in milliseconds.
+     */
+    public static final long DEFAULT_RESUME_TIMEOUT = 300_000L;
+
+    /**
+     * Default count of the closed incoming streams which can be resumed.
+     */
+    public static final long DEFAULT_RESUME_CAPACITY = 10_000L;
+
+    private boolean enabled = true;
+
+    @JsonProperty("ack_interval")
+    private int ackInterval = DEFAULT_ACK_INTERVAL;
+
+    /**
+     * Size of the resend buffer of the outgoing sessions.
+     */
+    @JsonProperty("max_unacked")
+    private int maxUnacked = DEFAULT_MAX_UNACKED;
+
+    @JsonProperty("resume_timeout")
+    private long resumeTimeout = DEFAULT_RESUME_TIMEOUT;
+
+    @JsonProperty("resume_capacity")
+    private long resumeCapacity = DEFAULT_RESUME_CAPACITY;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getAckInterval() {
+        return ackInterval;
+    }
+
+    public void setAckInterval(int ackInterval) {
+        this.ackInterval = ackInterval;
+    }
+
+    public int getMaxUnacked() {
+        return maxUnacked;
+    }
+
+    public void setMaxUnacked(int maxUnacked) {
+        this.maxUnacked = maxUnacked;
+    }
+
+    public long getResumeTimeout() {
+        return resumeTimeout;
+    }
+
+    public void setResumeTimeout(long resumeTimeout) {
+        this.resumeTimeout = resumeTimeout;
+    }
+
+    public long getResumeCapacity() {
+        return resumeCapacity;
+    }
+
+    public void setResumeCapacity(long resumeCapacity) {
+        this.resumeCapacity = resumeCapacity;
+    }
+}
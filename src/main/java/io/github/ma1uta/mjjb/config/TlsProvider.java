@@ -0,0 +1,44 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * TLS implementations.
+ */
+public enum TlsProvider {
+
+    /**
+     * OpenSSL (netty-tcnative) for the server side if it is available, else JDK.
+     */
+    @JsonProperty("auto")
+    AUTO,
+
+    /**
+     * OpenSSL (netty-tcnative). Fails if the native library isn't available.
+     */
+    @JsonProperty("openssl")
+    OPENSSL,
+
+    /**
+     * JDK implementation.
+     */
+    @JsonProperty("jdk")
+    JDK
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.config;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Latency tracing configuration.
+ */
+public class TraceConfig {
+
+    /**
+     * Default part of the traced messages.
+     */
+    public static final double DEFAULT_SAMPLE_RATE = 0.01D;
+
+    /**
+     * Default max count of the traces in flight.
+     */
+    public static final int DEFAULT_MAX_ACTIVE = 10_000;
+
+    /**
+     * Default time in milliseconds after which the unfinished trace is dropped.
+     */
+    public static final long DEFAULT_TIMEOUT = 60_000L;
+
+    private boolean enabled = false;
+
+    @JsonProperty("sample_rate")
+    private double sampleRate = DEFAULT_SAMPLE_RATE;
+
+    /**
+     * File to export finished traces (one json object per line). Traces aren't exported if the file is missing.
+     */
+    private String file;
+
+    @JsonProperty("max_active")
+    private int maxActive = DEFAULT_MAX_ACTIVE;
+
+    private long timeout = DEFAULT_TIMEOUT;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = sampleRate;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    public int getMaxActive() {
+        return maxActive;
+    }
+
+    public void setMaxActive(int maxActive) {
+        this.maxActive = maxActive;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+}
@@ -16,6 +16,11 @@
 
 package io.github.ma1uta.mjjb.config;
 
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * XMPP side config.
  */
@@ -30,8 +35,41 @@ public class XmppConfig {
 
     private int port = DEFAULT_S2S_PORT;
 
+    /**
+     * Port of the direct TLS (XEP-0368) listener, disabled if 0.
+     */
+    @JsonProperty("direct_tls_port")
+    private int directTlsPort;
+
     private Cert ssl;
 
+    private AuditConfig audit = new AuditConfig();
+
+    /**
+     * Static routes of the remote domains ({@code domain: host[:port]}), which are used instead of the SRV lookup.
+     */
+    private Map<String, String> routes = new HashMap<>();
+
+    /**
+     * Bidirectional streams (XEP-0288): one secured stream carries the stanzas of the both directions.
+     */
+    private boolean bidi = true;
+
+    private DialbackConfig dialback = new DialbackConfig();
+
+    private CompressionConfig compression = new CompressionConfig();
+
+    @JsonProperty("stream_management")
+    private StreamManagementConfig streamManagement = new StreamManagementConfig();
+
+    private IdleConfig idle = new IdleConfig();
+
+    private QueueConfig queue = new QueueConfig();
+
+    private EgressConfig egress = new EgressConfig();
+
+    private IngressConfig ingress = new IngressConfig();
+
     public String getDomain() {
         return domain;
     }
@@ -48,6 +86,14 @@ public class XmppConfig {
         this.port = port;
     }
 
+    public int getDirectTlsPort() {
+        return directTlsPort;
+    }
+
+    public void setDirectTlsPort(int directTlsPort) {
+        this.directTlsPort = directTlsPort;
+    }
+
     public Cert getSsl() {
         return ssl;
     }
@@ -55,4 +101,84 @@ public class XmppConfig {
     public void setSsl(Cert ssl) {
         this.ssl = ssl;
     }
+
+    public AuditConfig getAudit() {
+        return audit;
+    }
+
+    public void setAudit(AuditConfig audit) {
+        this.audit = audit;
+    }
+
+    public Map<String, String> getRoutes() {
+        return routes;
+    }
+
+    public void setRoutes(Map<String, String> routes) {
+        this.routes = routes;
+    }
+
+    public boolean isBidi() {
+        return bidi;
+    }
+
+    public void setBidi(boolean bidi) {
+        this.bidi = bidi;
+    }
+
+    public DialbackConfig getDialback() {
+        return dialback;
+    }
+
+    public void setDialback(DialbackConfig dialback) {
+        this.dialback = dialback;
+    }
+
+    public CompressionConfig getCompression() {
+        return compression;
+    }
+
+    public void setCompression(CompressionConfig compression) {
+        this.compression = compression;
+    }
+
+    public StreamManagementConfig getStreamManagement() {
+        return streamManagement;
+    }
+
+    public void setStreamManagement(StreamManagementConfig streamManagement) {
+        this.streamManagement = streamManagement;
+    }
+
+    public IdleConfig getIdle() {
+        return idle;
+    }
+
+    public void setIdle(IdleConfig idle) {
+        this.idle = idle;
+    }
+
+    public QueueConfig getQueue() {
+        return queue;
+    }
+
+    public void setQueue(QueueConfig queue) {
+        this.queue = queue;
+    }
+
+    public EgressConfig getEgress() {
+        return egress;
+    }
+
+    public void setEgress(EgressConfig egress) {
+        this.egress = egress;
+    }
+
+    public IngressConfig getIngress() {
+        return ingress;
+    }
+
+    public void setIngress(IngressConfig ingress) {
+        this.ingress = ingress;
+    }
 }
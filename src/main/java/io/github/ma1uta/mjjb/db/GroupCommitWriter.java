@@ -0,0 +1,218 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.db;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.DatabaseConfig;
+import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Group-commit writer of the bookkeeping rows.
+ * <p/>
+ * Collects transaction and appuser writes from the concurrent requests during the commit delay and saves them
+ * with batches in the one database transaction. Each returned future completes after the commit.
+ * <p/>
+ * The start of the transaction tells whether the row was inserted by the ids returned from the inserted rows, so only one of
+ * the concurrent retries of the same transaction starts it.
+ */
+public class GroupCommitWriter implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    private static final long POLL_TIMEOUT = 100L;
+
+    private final Jdbi jdbi;
+    private final long commitDelay;
+    private final int batchSize;
+    private final BlockingQueue<Write> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private volatile boolean running = true;
+
+    public GroupCommitWriter(Jdbi jdbi, DatabaseConfig config) {
+        this.jdbi = jdbi;
+        this.commitDelay = TimeUnit.MILLISECONDS.toNanos(config.getCommitDelay());
+        this.batchSize = config.getCommitBatchSize();
+        this.flusher = new Thread(this::flushLoop, "group-commit-writer");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    /**
+     * Start transaction process.
+     *
+     * @param txnId   transaction id.
+     * @param started start date time.
+     * @return future which completes after the commit with {@code true} if the transaction is started by this call.
+     */
+    public CompletableFuture<Boolean> start(String txnId, LocalDateTime started) {
+        return submit(new Write(WriteType.START, txnId, started));
+    }
+
+    /**
+     * Finish transaction process.
+     *
+     * @param txnId     transaction id.
+     * @param processed finish date time.
+     * @return future which completes after the commit.
+     */
+    public CompletableFuture<Void> finish(String txnId, LocalDateTime processed) {
+        return submit(new Write(WriteType.FINISH, txnId, processed)).thenApply(inserted -> null);
+    }
+
+    /**
+     * Save info about new appuser.
+     *
+     * @param localpart appuser's username.
+     * @return future which completes after the commit.
+     */
+    public CompletableFuture<Void> createUser(String localpart) {
+        return submit(new Write(WriteType.CREATE_USER, localpart, null)).thenApply(inserted -> null);
+    }
+
+    private CompletableFuture<Boolean> submit(Write write) {
+        if (!running) {
+            write.future.completeExceptionally(new IllegalStateException("Writer is closed."));
+        } else {
+            queue.add(write);
+        }
+        return write.future;
+    }
+
+    private void flushLoop() {
+        List<Write> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Write first = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + commitDelay;
+                while (batch.size() < batchSize) {
+                    Write next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                LOGGER.warn("Group-commit writer was interrupted.");
+                queue.drainTo(batch);
+                flush(batch);
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<Write> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        List<String> users = new ArrayList<>();
+        List<Write> startWrites = new ArrayList<>();
+        List<String> startIds = new ArrayList<>();
+        List<LocalDateTime> starts = new ArrayList<>();
+        List<String> finishIds = new ArrayList<>();
+        List<LocalDateTime> finishes = new ArrayList<>();
+        for (Write write : batch) {
+            switch (write.type) {
+                case START:
+                    startWrites.add(write);
+                    startIds.add(write.key);
+                    starts.add(write.time);
+                    break;
+                case FINISH:
+                    finishIds.add(write.key);
+                    finishes.add(write.time);
+                    break;
+                case CREATE_USER:
+                    users.add(write.key);
+                    break;
+                default:
+                    throw new IllegalStateException(String.format("Unknown write type: %s", write.type));
+            }
+        }
+
+        try {
+            List<String> inserted = jdbi.inTransaction(h -> {
+                if (!users.isEmpty()) {
+                    h.attach(UserDao.class).createAll(users);
+                }
+                TransactionDao transactionDao = h.attach(TransactionDao.class);
+                List<String> started = startIds.isEmpty() ? Collections.emptyList() : transactionDao.startAll(startIds, starts);
+                if (!finishIds.isEmpty()) {
+                    transactionDao.finishAll(finishIds, finishes);
+                }
+                return started;
+            });
+            // the same transaction may be started twice in the batch, the first write gets the inserted row.
+            Set<String> started = new HashSet<>(inserted);
+            for (Write write : startWrites) {
+                write.future.complete(started.remove(write.key));
+            }
+            batch.forEach(write -> write.future.complete(true));
+        } catch (Exception e) {
+            LOGGER.error(String.format("Failed to commit %d bookkeeping writes.", batch.size()), e);
+            batch.forEach(write -> write.future.completeExceptionally(e));
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        running = false;
+        flusher.join();
+        List<Write> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        flush(rest);
+    }
+
+    private enum WriteType {
+        START, FINISH, CREATE_USER
+    }
+
+    private static final class Write {
+
+        private final WriteType type;
+        private final String key;
+        private final LocalDateTime time;
+        private final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        private Write(WriteType type, String key, LocalDateTime time) {
+            this.type = type;
+            this.key = key;
+            this.time = time;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.db;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 64-bit hashes of the message ids.
+ * <p/>
+ * The first 8 bytes of the SHA-256 digest. With a million mapped messages the collision probability is about 10^-8.
+ */
+public final class MessageHash {
+
+    private static final int HASH_SIZE = 8;
+
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Your JRE doesn't have SHA-256", e);
+        }
+    });
+
+    private MessageHash() {
+        // singleton.
+    }
+
+    /**
+     * Hash the message id.
+     *
+     * @param id message id.
+     * @return 64-bit hash.
+     */
+    public static long of(String id) {
+        byte[] digest = DIGEST.get().digest(id.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest, 0, HASH_SIZE).getLong();
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.db;
+
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+import java.time.LocalDateTime;
+
+/**
+ * Mapping between matrix events and xmpp stanzas.
+ * <p/>
+ * Ids are stored as 64-bit hashes (see {@link MessageHash}). Each event is mapped once, so the insert tells whether
+ * the event has already been bridged.
+ */
+public interface MessageMapDao {
+
+    /**
+     * Save the mapping.
+     *
+     * @param eventHash  hash of the matrix event id.
+     * @param stanzaHash hash of the xmpp stanza id.
+     * @param created    create date time.
+     * @return {@code 1} if the mapping was saved, {@code 0} if the event has already been mapped.
+     */
+    @SqlUpdate("insert into message_map(event_hash, stanza_hash, created) values(:eventHash, :stanzaHash, :created) "
+        + "on conflict do nothing")
+    int map(@Bind("eventHash") long eventHash, @Bind("stanzaHash") long stanzaHash, @Bind("created") LocalDateTime created);
+
+    /**
+     * Delete the first page of the mappings created before the horizon in the order of the created index.
+     *
+     * @param horizon retention horizon.
+     * @param limit   page size.
+     * @return count of the deleted mappings.
+     */
+    @SqlUpdate("delete from message_map where event_hash in (select event_hash from message_map where created < :horizon "
+        + "order by created limit :limit)")
+    int purge(@Bind("horizon") LocalDateTime horizon, @Bind("limit") int limit);
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.db;
+
+import org.jdbi.v3.sqlobject.config.RegisterRowMapper;
+import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.customizer.BindList;
+import org.jdbi.v3.sqlobject.statement.SqlQuery;
+import org.jdbi.v3.sqlobject.statement.SqlUpdate;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Outbox DAO.
+ */
+public interface OutboxDao {
+
+    /**
+     * Save a new outbox message.
+     *
+     * @param id        message id.
+     * @param kind      message kind.
+     * @param recipient message recipient.
+     * @param payload   message payload.
+     * @param created   creation date time.
+     */
+    @SqlUpdate("insert into outbox(id, kind, recipient, payload, created) values(:id, :kind, :recipient, :payload, :created)")
+    void enqueue(@Bind("id") String id, @Bind("kind") OutboxMessage.Kind kind, @Bind("recipient") String recipient,
+                 @Bind("payload") String payload, @Bind("created") LocalDateTime created);
+
+    /**
+     * Lock the oldest pending messages.
+     * <br>
+     * Messages which are locked or claimed by the another relay are skipped.
+     *
+     * @param limit       max count of the messages.
+     * @param maxAttempts skip messages which were failed more or equal times.
+     * @param now         current date time, the expired claims are taken again.
+     * @return pending messages.
+     */
+    @SqlQuery("select * from outbox where attempts < :maxAttempts and (claimed_until is null or claimed_until < :now) "
+        + "order by created limit :limit for update skip locked")
+    @RegisterRowMapper(OutboxMessageMapper.class)
+    List<OutboxMessage> lock(@Bind("limit") int limit, @Bind("maxAttempts") int maxAttempts, @Bind("now") LocalDateTime now);
+
+    /**
+     * Claim the locked messages, so they are delivered after the commit without holding the locks.
+     *
+     * @param ids   message ids.
+     * @param until the claim expires at this date time, e.g. the relay crashed.
+     */
+    @SqlUpdate("update outbox set claimed_until = :until where id in (<ids>)")
+    void claim(@BindList("ids") List<String> ids, @Bind("until") LocalDateTime until);
+
+    /**
+     * Remove delivered messages.
+     *
+     * @param ids message ids.
+     */
+    @SqlUpdate("delete from outbox where id in (<ids>)")
+    void delivered(@BindList("ids") List<String> ids);
+
+    /**
+     * Increment the attempt counter of the failed messages.
+     *
+     * @param ids message ids.
+     */
+    @SqlUpdate("update outbox set attempts = attempts + 1, claimed_until = null where id in (<ids>)")
+    void failed(@BindList("ids") List<String> ids);
+
+    /**
+     * Remove the messages which exhausted the delivery attempts.
+     *
+     * @param maxAttempts max count of the attempts.
+     * @param before      remove the messages created before this date time.
+     * @return count of the removed messages.
+     */
+    @SqlUpdate("delete from outbox where attempts >= :maxAttempts and created < :before")
+    int purge(@Bind("maxAttempts") int maxAttempts, @Bind("before") LocalDateTime before);
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.db;
+
+import java.time.LocalDateTime;
+
+/**
+ * Pending side effect which should be delivered to the one of the networks.
+ */
+public class OutboxMessage {
+
+    private String id;
+
+    private Kind kind;
+
+    private String recipient;
+
+    private String payload;
+
+    private int attempts;
+
+    private LocalDateTime created;
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        this.id = id;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public void setKind(Kind kind) {
+        this.kind = kind;
+    }
+
+    public String getRecipient() {
+        return recipient;
+    }
+
+    public void setRecipient(String recipient) {
+        this.recipient = recipient;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(int attempts) {
+        this.attempts = attempts;
+    }
+
+    public LocalDateTime getCreated() {
+        return created;
+    }
+
+    public void setCreated(LocalDateTime created) {
+        this.created = created;
+    }
+
+    /**
+     * Outbox message kinds.
+     */
+    public enum Kind {
+
+        /**
+         * Xmpp stanza. The recipient is a remote domain, the payload is a serialized stanza.
+         */
+        STANZA,
+
+        /**
+         * Join the matrix room. The recipient is a puppet user, the payload is a room id.
+         */
+        JOIN
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.db;
+
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * OutboxMessage Row mapper.
+ */
+public class OutboxMessageMapper implements RowMapper<OutboxMessage> {
+
+    @Override
+    public OutboxMessage map(ResultSet rs, StatementContext ctx) throws SQLException {
+        OutboxMessage message = new OutboxMessage();
+        message.setId(rs.getString("id"));
+        message.setKind(OutboxMessage.Kind.valueOf(rs.getString("kind")));
+        message.setRecipient(rs.getString("recipient"));
+        message.setPayload(rs.getString("payload"));
+        message.setAttempts(rs.getInt("attempts"));
+        Timestamp created = rs.getTimestamp("created");
+        message.setCreated(created != null ? created.toLocalDateTime() : null);
+        return message;
+    }
+}
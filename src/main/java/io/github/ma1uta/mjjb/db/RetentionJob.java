@@ -0,0 +1,132 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.db;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.RetentionConfig;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background cleanup of the old rows of a table.
+ * <p/>
+ * Deletes the rows older than the horizon in small batches, each batch in own database transaction, so the cleanup doesn't
+ * hold long locks. The batch query deletes the first page of the expired rows in the order of an index, so the next batch
+ * continues from the key where the previous one stopped.
+ */
+public class RetentionJob implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    /**
+     * Time to stop the current batch on close in milliseconds.
+     */
+    private static final long CLOSE_TIMEOUT = 5_000L;
+
+    private final String table;
+    private final Jdbi jdbi;
+    private final RetentionConfig config;
+    private final Batch batch;
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Constructs the job.
+     *
+     * @param table  table name.
+     * @param jdbi   database.
+     * @param config horizon, interval and batch size.
+     * @param batch  query which deletes a batch of the expired rows.
+     */
+    public RetentionJob(String table, Jdbi jdbi, RetentionConfig config, Batch batch) {
+        this.table = table;
+        this.jdbi = jdbi;
+        this.config = config;
+        this.batch = batch;
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, table + "-retention");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Start the periodical cleanup.
+     */
+    public void run() {
+        if (config.getHorizon() <= 0) {
+            LOGGER.info("Retention of the {} table is disabled.", table);
+            return;
+        }
+        executor.scheduleWithFixedDelay(this::purge, config.getInterval(), config.getInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Delete rows older than the retention horizon.
+     *
+     * @return count of the deleted rows.
+     */
+    public int purge() {
+        LocalDateTime horizon = LocalDateTime.now().minus(config.getHorizon(), ChronoUnit.MILLIS);
+        int total = 0;
+        try {
+            while (true) {
+                int deleted = jdbi.inTransaction(h -> batch.delete(h, horizon, config.getBatchSize()));
+                total += deleted;
+                if (deleted < config.getBatchSize()) {
+                    break;
+                }
+            }
+            LOGGER.debug("Deleted {} rows of the {} table older than {}", total, table, horizon);
+        } catch (Exception e) {
+            LOGGER.error(String.format("Failed to delete old rows of the %s table.", table), e);
+        }
+        return total;
+    }
+
+    @Override
+    public void close() throws Exception {
+        executor.shutdownNow();
+        if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            LOGGER.warn("Retention of the {} table didn't stop, the rest of the old rows are deleted on the next start.", table);
+        }
+    }
+
+    /**
+     * Query which deletes a batch of the expired rows.
+     */
+    @FunctionalInterface
+    public interface Batch {
+
+        /**
+         * Delete the batch.
+         *
+         * @param handle  database transaction of the batch.
+         * @param horizon retention horizon.
+         * @param limit   batch size.
+         * @return count of the deleted rows.
+         */
+        int delete(Handle handle, LocalDateTime horizon, int limit);
+    }
+}
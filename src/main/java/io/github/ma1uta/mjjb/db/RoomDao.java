@@ -56,7 +56,7 @@ public interface RoomDao {
      * @return saved info.
      */
     @SqlUpdate("insert into direct_room(room_id, matrix_user, xmpp_user) values(:roomId, :matrixUser, :xmppUser)")
-    @GetGeneratedKeys
+    @GetGeneratedKeys({"room_id", "matrix_user", "xmpp_user"})
     @RegisterRowMapper(DirectRoomMapper.class)
     DirectRoom createDirectRoom(@Bind("roomId") String roomId, @Bind("matrixUser") String matrixUser, @Bind("xmppUser") String xmppUser);
 
@@ -17,10 +17,13 @@
 package io.github.ma1uta.mjjb.db;
 
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.statement.GetGeneratedKeys;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
 import java.time.LocalDateTime;
+import java.util.List;
 
 /**
  * Transaction DAO.
@@ -36,6 +39,15 @@ public interface TransactionDao {
     @SqlQuery("select count(*) from transaction where id = :txnId")
     int exist(@Bind("txnId") String txnId);
 
+    /**
+     * Check that specified transaction was finished.
+     *
+     * @param txnId transaction id.
+     * @return {@code 1} if the events of the transaction were routed, else {@code 0}.
+     */
+    @SqlQuery("select count(*) from transaction where id = :txnId and processed is not null")
+    int finished(@Bind("txnId") String txnId);
+
     /**
      * Start transaction process.
      *
@@ -53,4 +65,38 @@ public interface TransactionDao {
      */
     @SqlUpdate("update transaction set processed = :processed where id = :txnId")
     void finish(@Bind("txnId") String txnid, @Bind("processed") LocalDateTime processed);
+
+    /**
+     * Start processing of the several transactions.
+     * <p/>
+     * Already started transactions are skipped. The ids are returned by the inserted rows only, so the result doesn't depend on
+     * the batch counts of the driver.
+     *
+     * @param txnIds  transaction ids.
+     * @param started start date times.
+     * @return ids of the started transactions.
+     */
+    @SqlBatch("insert into transaction(id, started) values(:txnId, :started) on conflict do nothing")
+    @GetGeneratedKeys("id")
+    List<String> startAll(@Bind("txnId") List<String> txnIds, @Bind("started") List<LocalDateTime> started);
+
+    /**
+     * Finish processing of the several transactions.
+     *
+     * @param txnIds    transaction ids.
+     * @param processed finish date times.
+     */
+    @SqlBatch("update transaction set processed = :processed where id = :txnId")
+    void finishAll(@Bind("txnId") List<String> txnIds, @Bind("processed") List<LocalDateTime> processed);
+
+    /**
+     * Delete the first page of the transactions started before the horizon in the order of the (started, id) index.
+     *
+     * @param horizon retention horizon.
+     * @param limit   page size.
+     * @return count of the deleted transactions.
+     */
+    @SqlUpdate("delete from transaction where id in (select id from transaction where started < :horizon order by started, id "
+        + "limit :limit)")
+    int purge(@Bind("horizon") LocalDateTime horizon, @Bind("limit") int limit);
 }
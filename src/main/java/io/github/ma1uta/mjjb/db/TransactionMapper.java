@@ -0,0 +1,45 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.db;
+
+import org.jdbi.v3.core.mapper.RowMapper;
+import org.jdbi.v3.core.statement.StatementContext;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+
+/**
+ * Transaction Row mapper.
+ */
+public class TransactionMapper implements RowMapper<Transaction> {
+
+    @Override
+    public Transaction map(ResultSet rs, StatementContext ctx) throws SQLException {
+        Transaction transaction = new Transaction();
+        transaction.setId(rs.getString("id"));
+        Timestamp started = rs.getTimestamp("started");
+        if (started != null) {
+            transaction.setStarted(started.toLocalDateTime());
+        }
+        Timestamp processed = rs.getTimestamp("processed");
+        if (processed != null) {
+            transaction.setProcessed(processed.toLocalDateTime());
+        }
+        return transaction;
+    }
+}
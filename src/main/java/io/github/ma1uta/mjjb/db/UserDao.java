@@ -17,9 +17,12 @@
 package io.github.ma1uta.mjjb.db;
 
 import org.jdbi.v3.sqlobject.customizer.Bind;
+import org.jdbi.v3.sqlobject.statement.SqlBatch;
 import org.jdbi.v3.sqlobject.statement.SqlQuery;
 import org.jdbi.v3.sqlobject.statement.SqlUpdate;
 
+import java.util.List;
+
 /**
  * User DAO.
  */
@@ -33,6 +36,16 @@ public interface UserDao {
     @SqlUpdate("insert into app_user(localpart) values(:localpart)")
     void create(@Bind("localpart") String localpart);
 
+    /**
+     * Save info about several new appusers.
+     * <p/>
+     * Already saved appusers are skipped.
+     *
+     * @param localparts appusers' usernames.
+     */
+    @SqlBatch("insert into app_user(localpart) values(:localpart) on conflict do nothing")
+    void createAll(@Bind("localpart") List<String> localparts);
+
     /**
      * Check appuser availability.
      *
@@ -0,0 +1,65 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.matrix;
+
+import io.github.ma1uta.mjjb.capture.TrafficCapture;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * Capture filter.
+ * <p/>
+ * Captures the raw bodies of the transactions and gives the same bytes to the resource.
+ */
+@Provider
+public class CaptureFilter implements ContainerRequestFilter {
+
+    private static final String TXN_ID = "txnId";
+    private static final int BUFFER_SIZE = 8192;
+
+    private final TrafficCapture capture;
+
+    public CaptureFilter(TrafficCapture capture) {
+        this.capture = capture;
+    }
+
+    @Override
+    public void filter(ContainerRequestContext requestContext) throws IOException {
+        String txnId = requestContext.getUriInfo().getPathParameters().getFirst(TXN_ID);
+        if (txnId == null || !HttpMethod.PUT.equals(requestContext.getMethod())) {
+            return;
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream entity = requestContext.getEntityStream()) {
+            int read;
+            while ((read = entity.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+        byte[] bytes = body.toByteArray();
+        capture.transaction(txnId, bytes);
+        requestContext.setEntityStream(new ByteArrayInputStream(bytes));
+    }
+}
@@ -25,23 +25,37 @@ import io.github.ma1uta.matrix.client.MatrixClient;
 import io.github.ma1uta.matrix.client.model.account.RegisterRequest;
 import io.github.ma1uta.matrix.impl.exception.MatrixException;
 import io.github.ma1uta.mjjb.RouterFactory;
+import io.github.ma1uta.mjjb.db.GroupCommitWriter;
 import io.github.ma1uta.mjjb.db.TransactionDao;
 import io.github.ma1uta.mjjb.db.UserDao;
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import io.github.ma1uta.mjjb.trace.Trace;
+import io.github.ma1uta.mjjb.trace.Tracer;
+import io.github.ma1uta.mjjb.xmpp.queue.Backpressure;
 import org.jdbi.v3.core.Jdbi;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 import javax.ws.rs.core.UriInfo;
 import javax.ws.rs.ext.Provider;
 
 /**
  * Application API endpoint.
+ * <p/>
+ * The transaction is acknowledged after its finish is committed. The transaction which was started and isn't finished (e.g. the
+ * bridge crashed while routing it) is routed again when the homeserver retries it, the message mapping skips the events which
+ * have been already bridged. The failed bookkeeping write is answered with an error, so the homeserver retries the transaction.
+ * <p/>
+ * The transactions received by the saturated bridge wait for the release of the XMPP egress, the transaction still waiting after
+ * the timeout is rejected with M_LIMIT_EXCEEDED, so the homeserver slows down and sends it again.
  */
 @Provider
 public class MatrixAppResource implements ApplicationApi {
@@ -51,11 +65,16 @@ public class MatrixAppResource implements ApplicationApi {
     private final Jdbi jdbi;
     private final RouterFactory routerFactory;
     private final MatrixClient matrixClient;
+    private final GroupCommitWriter writer;
+    private final Backpressure backpressure;
 
-    public MatrixAppResource(Jdbi jdbi, RouterFactory routerFactory, MatrixClient matrixClient) {
+    public MatrixAppResource(Jdbi jdbi, RouterFactory routerFactory, MatrixClient matrixClient, GroupCommitWriter writer,
+                             Backpressure backpressure) {
         this.jdbi = jdbi;
         this.routerFactory = routerFactory;
         this.matrixClient = matrixClient;
+        this.writer = writer;
+        this.backpressure = backpressure;
     }
 
     public RouterFactory getRouterFactory() {
@@ -70,31 +89,70 @@ public class MatrixAppResource implements ApplicationApi {
         return matrixClient;
     }
 
+    public GroupCommitWriter getWriter() {
+        return writer;
+    }
+
     @Override
     public void transaction(String txnId, TransactionRequest request, UriInfo uriInfo, HttpHeaders httpHeaders,
                             @Suspended AsyncResponse asyncResponse) {
+        long start = System.nanoTime();
+        if (backpressure == null || !backpressure.isSaturated()) {
+            process(txnId, request, asyncResponse, start);
+            return;
+        }
+        LOGGER.debug("The bridge is saturated, transaction {} is deferred.", txnId);
+        backpressure.await(backpressure.getConfig().getDeferTimeout()).thenAccept(released -> {
+            if (released) {
+                Metrics.TRANSACTIONS_DEFERRED.labels("processed").inc();
+                process(txnId, request, asyncResponse, start);
+            } else {
+                Metrics.TRANSACTIONS_DEFERRED.labels("rejected").inc();
+                asyncResponse.resume(limitExceeded());
+            }
+        });
+    }
+
+    private Response limitExceeded() {
+        long retryAfter = backpressure.getConfig().getRetryAfter();
+        return Response.status(Status.TOO_MANY_REQUESTS)
+            .header(HttpHeaders.RETRY_AFTER, Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(retryAfter)))
+            .entity(new ErrorResponse(ErrorResponse.Code.M_LIMIT_EXCEEDED, "The bridge is saturated.", retryAfter))
+            .build();
+    }
+
+    private void process(String txnId, TransactionRequest request, AsyncResponse asyncResponse, long start) {
         CompletableFuture.runAsync(() -> {
+            Response response;
             try {
-                getJdbi().useTransaction(h -> {
-                    TransactionDao dao = h.attach(TransactionDao.class);
-                    if (dao.exist(txnId) == 0) {
-                        dao.start(txnId, LocalDateTime.now());
-
-                        request.getEvents().parallelStream().forEach(event -> {
-                            try {
-                                getRouterFactory().process(event);
-                            } catch (Exception e) {
-                                LOGGER.error("Failed process event.", e);
-                            }
-                        });
-
-                        dao.finish(txnId, LocalDateTime.now());
+                Metrics.TRANSACTION_EVENTS.inc(request.getEvents().size());
+                if (getJdbi().withExtension(TransactionDao.class, dao -> dao.finished(txnId)) == 0) {
+                    if (!getWriter().start(txnId, LocalDateTime.now()).join()) {
+                        LOGGER.warn("Transaction {} was started and isn't finished, routing its events again.", txnId);
                     }
-                });
+
+                    request.getEvents().parallelStream().forEach(event -> {
+                        Tracer.start(Trace.Direction.MATRIX_TO_XMPP, start);
+                        try {
+                            getRouterFactory().process(event);
+                        } catch (Exception e) {
+                            LOGGER.error("Failed process event.", e);
+                        } finally {
+                            Tracer.clear();
+                        }
+                    });
+
+                    getWriter().finish(txnId, LocalDateTime.now()).join();
+                }
+                response = Response.ok(new EmptyResponse()).build();
             } catch (Exception e) {
                 LOGGER.error(String.format("Failed process transaction %s", txnId), e);
+                response = Response.status(Status.INTERNAL_SERVER_ERROR)
+                    .entity(new ErrorResponse(ErrorResponse.Code.M_UNKNOWN, "Failed to save the transaction."))
+                    .build();
             }
-            asyncResponse.resume(Response.ok(new EmptyResponse()).build());
+            Metrics.TRANSACTION_LATENCY.observe(Metrics.since(start));
+            asyncResponse.resume(response);
         });
     }
 
@@ -118,26 +176,22 @@ public class MatrixAppResource implements ApplicationApi {
     }
 
     private void createUser(String userId) {
-        getJdbi().useTransaction(h -> {
-            UserDao userDao = h.attach(UserDao.class);
-
-            String localpart = Id.localPart(userId)
-                .orElseThrow(() -> new MatrixException(ErrorResponse.Code.M_INVALID_USERNAME, "Missing localpart."));
-            if (userDao.exist(localpart) > 0) {
-                return;
-            }
-
-            RegisterRequest request = new RegisterRequest();
-            request.setUsername(localpart);
-            request.setInhibitLogin(false);
-
-            getMatrixClient().account().register(request).whenCompleteAsync((resp, exc) -> {
+        String localpart = Id.localPart(userId)
+            .orElseThrow(() -> new MatrixException(ErrorResponse.Code.M_INVALID_USERNAME, "Missing localpart."));
+        if (getJdbi().withExtension(UserDao.class, dao -> dao.exist(localpart)) > 0) {
+            return;
+        }
+
+        RegisterRequest request = new RegisterRequest();
+        request.setUsername(localpart);
+        request.setInhibitLogin(false);
+
+        getMatrixClient().account().register(request).thenCompose(resp -> getWriter().createUser(Id.localPart(resp.getUserId()).orElse("")))
+            .whenComplete((resp, exc) -> {
                 if (exc != null) {
                     LOGGER.error(String.format("Failed create new user: %s", userId), exc);
                     throw new MatrixException(ErrorResponse.Code.M_UNKNOWN, exc.getMessage());
                 }
-                userDao.create(Id.localPart(resp.getUserId()).orElse(""));
             }).join();
-        });
     }
 }
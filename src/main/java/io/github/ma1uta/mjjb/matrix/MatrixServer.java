@@ -28,15 +28,19 @@ import io.github.ma1uta.matrix.support.jackson.JacksonContextResolver;
 import io.github.ma1uta.mjjb.Loggers;
 import io.github.ma1uta.mjjb.NetworkServer;
 import io.github.ma1uta.mjjb.RouterFactory;
+import io.github.ma1uta.mjjb.capture.TrafficCapture;
 import io.github.ma1uta.mjjb.config.Cert;
 import io.github.ma1uta.mjjb.config.MatrixConfig;
+import io.github.ma1uta.mjjb.db.GroupCommitWriter;
 import io.github.ma1uta.mjjb.db.UserDao;
 import io.github.ma1uta.mjjb.matrix.converter.TextConverter;
 import io.github.ma1uta.mjjb.matrix.netty.JerseyServerInitializer;
 import io.github.ma1uta.mjjb.matrix.netty.NettyHttpContainer;
 import io.github.ma1uta.mjjb.matrix.router.DirectInviteRouter;
 import io.github.ma1uta.mjjb.matrix.router.MessageRouter;
+import io.github.ma1uta.mjjb.metrics.HomeserverMetricsFilter;
 import io.github.ma1uta.mjjb.netty.NettyBuilder;
+import io.github.ma1uta.mjjb.xmpp.queue.Backpressure;
 import io.netty.channel.Channel;
 import io.netty.handler.ssl.SslContext;
 import org.jdbi.v3.core.Jdbi;
@@ -66,6 +70,15 @@ public class MatrixServer implements NetworkServer<MatrixConfig> {
     private Jdbi jdbi;
     private RouterFactory routerFactory;
     private Channel channel;
+    private final GroupCommitWriter writer;
+    private final TrafficCapture capture;
+    private final Backpressure backpressure;
+
+    public MatrixServer(GroupCommitWriter writer, TrafficCapture capture, Backpressure backpressure) {
+        this.writer = writer;
+        this.capture = capture;
+        this.backpressure = backpressure;
+    }
 
     @Override
     public void init(Jdbi jdbi, MatrixConfig config, RouterFactory routerFactory) throws Exception {
@@ -81,7 +94,8 @@ public class MatrixServer implements NetworkServer<MatrixConfig> {
     }
 
     private void initMatrixClient() throws Exception {
-        ClientBuilder clientBuilder = ClientBuilder.newBuilder().register(new JacksonContextResolver());
+        ClientBuilder clientBuilder = ClientBuilder.newBuilder().register(new JacksonContextResolver())
+            .register(new HomeserverMetricsFilter());
         MatrixConfig config = getConfig();
         if (config.isDisableSslValidation()) {
             SSLContext sslContext = SSLContext.getInstance("TLS");
@@ -115,7 +129,7 @@ public class MatrixServer implements NetworkServer<MatrixConfig> {
     }
 
     private void initRestAPI() {
-        MatrixAppResource appResource = new MatrixAppResource(jdbi, routerFactory, matrixClient);
+        MatrixAppResource appResource = new MatrixAppResource(jdbi, routerFactory, matrixClient, writer, backpressure);
         Set<Object> resources = new HashSet<>();
         resources.add(appResource);
         resources.add(new LegacyMatrixAppResource(appResource));
@@ -125,6 +139,9 @@ public class MatrixServer implements NetworkServer<MatrixConfig> {
         if (LoggerFactory.getLogger(Loggers.REQUEST_LOGGER).isDebugEnabled()) {
             resources.add(new LoggingFilter());
         }
+        if (capture != null && capture.isMatrix()) {
+            resources.add(new CaptureFilter(capture));
+        }
         this.matrixApp = new MatrixApp(resources);
     }
 
@@ -16,6 +16,7 @@
 
 package io.github.ma1uta.mjjb.matrix.netty;
 
+import io.github.ma1uta.mjjb.netty.TlsHandlers;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
@@ -53,7 +54,7 @@ public class JerseyServerInitializer extends ChannelInitializer<SocketChannel> {
     public void initChannel(SocketChannel ch) {
         ChannelPipeline pipeline = ch.pipeline();
         if (sslCtx != null) {
-            pipeline.addLast(sslCtx.newHandler(ch.alloc()));
+            pipeline.addLast(TlsHandlers.newHandler(sslCtx, ch, TlsHandlers.MATRIX_SERVER, false));
         }
         pipeline.addLast(new HttpServerCodec())
             .addLast(new ChunkedWriteHandler())
@@ -48,7 +48,7 @@ public class DirectInviteRouter extends AbstractRouter<RoomMember> {
             return false;
         }
 
-        return getJdbi().inTransaction(h -> {
+        return inTransaction(h -> {
             RoomDao roomDao = h.attach(RoomDao.class);
             DirectRoom room = roomDao.findDirectRoomByUserId(roomMember.getSender());
             String jid = extractJidFromMxid(invitedUser);
@@ -58,14 +58,9 @@ public class DirectInviteRouter extends AbstractRouter<RoomMember> {
             }
             roomDao.updateMatrixSubscription(roomId, true);
 
-            try {
-                Presence presence = new Presence(Jid.of(jid), Presence.Type.SUBSCRIBE, null);
-                presence.setFrom(Jid.of(encodeMxidToJid(roomMember.getSender())));
-                getXmppServer().send(ServerPresence.from(presence));
-            } catch (Exception e) {
-                LOGGER.error("Unable to send message.", e);
-                return false;
-            }
+            Presence presence = new Presence(Jid.of(jid), Presence.Type.SUBSCRIBE, null);
+            presence.setFrom(Jid.of(encodeMxidToJid(roomMember.getSender())));
+            getOutbox().stanza(h, ServerPresence.from(presence));
             return true;
         });
     }
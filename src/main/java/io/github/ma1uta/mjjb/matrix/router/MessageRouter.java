@@ -20,13 +20,17 @@ import io.github.ma1uta.matrix.event.RoomMessage;
 import io.github.ma1uta.matrix.event.content.RoomMessageContent;
 import io.github.ma1uta.mjjb.AbstractRouter;
 import io.github.ma1uta.mjjb.db.DirectRoom;
+import io.github.ma1uta.mjjb.db.MessageHash;
+import io.github.ma1uta.mjjb.db.MessageMapDao;
 import io.github.ma1uta.mjjb.db.RoomDao;
 import rocks.xmpp.addr.Jid;
 import rocks.xmpp.core.stanza.model.Message;
 import rocks.xmpp.core.stanza.model.server.ServerMessage;
 
+import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 import java.util.function.BiFunction;
 
 /**
@@ -57,7 +61,7 @@ public class MessageRouter extends AbstractRouter<RoomMessage<?>> {
             return false;
         }
 
-        return getJdbi().inTransaction(h -> {
+        return inTransaction(h -> {
             RoomDao roomDao = h.attach(RoomDao.class);
             DirectRoom room = roomDao.findDirectRoomByUserId(message.getSender());
             if (room == null) {
@@ -66,14 +70,18 @@ public class MessageRouter extends AbstractRouter<RoomMessage<?>> {
 
             ServerMessage xmppMessage = ServerMessage.from(converter.apply(room.getXmppJid(), message));
             xmppMessage.setFrom(Jid.of(extractJidFromMxid(message.getSender())));
+            if (xmppMessage.getId() == null) {
+                xmppMessage.setId(UUID.randomUUID().toString());
+            }
 
-            try {
-                getXmppServer().send(xmppMessage);
+            long eventHash = MessageHash.of(message.getEventId());
+            if (h.attach(MessageMapDao.class).map(eventHash, MessageHash.of(xmppMessage.getId()), LocalDateTime.now()) == 0) {
+                LOGGER.debug("Event {} has already been bridged.", message.getEventId());
                 return true;
-            } catch (Exception e) {
-                LOGGER.error("Unable to send message.", e);
-                return false;
             }
+
+            getOutbox().stanza(h, xmppMessage);
+            return true;
         });
     }
 }
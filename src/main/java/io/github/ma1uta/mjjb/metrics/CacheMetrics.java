@@ -0,0 +1,84 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.metrics;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.CounterMetricFamily;
+import io.prometheus.client.GaugeMetricFamily;
+import org.cache2k.Cache;
+import org.cache2k.core.InternalCache;
+import org.cache2k.core.InternalCacheInfo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Statistics of the cache2k caches.
+ * <p/>
+ * The caches keep own counters, so they are read only on the scrape instead of counting every access twice.
+ */
+public final class CacheMetrics extends Collector {
+
+    private static final CacheMetrics INSTANCE = new CacheMetrics().register();
+    private static final List<String> LABELS = Collections.singletonList("cache");
+
+    private final List<Cache<?, ?>> caches = new CopyOnWriteArrayList<>();
+
+    private CacheMetrics() {
+        // singleton.
+    }
+
+    /**
+     * Export the statistics of the cache. The closed caches are skipped.
+     *
+     * @param cache cache.
+     */
+    public static void monitor(Cache<?, ?> cache) {
+        INSTANCE.caches.add(cache);
+    }
+
+    @Override
+    public List<MetricFamilySamples> collect() {
+        GaugeMetricFamily size = new GaugeMetricFamily("mjjb_cache_size", "Entries in the cache.", LABELS);
+        GaugeMetricFamily capacity = new GaugeMetricFamily("mjjb_cache_capacity", "Maximum entries in the cache.", LABELS);
+        CounterMetricFamily hits = new CounterMetricFamily("mjjb_cache_hits_total", "Cache lookups which found the entry.", LABELS);
+        CounterMetricFamily misses = new CounterMetricFamily("mjjb_cache_misses_total", "Cache lookups which didn't find the entry.",
+            LABELS);
+        CounterMetricFamily evictions = new CounterMetricFamily("mjjb_cache_evictions_total",
+            "Entries evicted because the cache was full.", LABELS);
+        CounterMetricFamily expirations = new CounterMetricFamily("mjjb_cache_expirations_total", "Entries expired by the ttl.",
+            LABELS);
+        for (Cache<?, ?> cache : caches) {
+            if (cache.isClosed()) {
+                caches.remove(cache);
+                continue;
+            }
+            InternalCacheInfo info = cache.requestInterface(InternalCache.class).getInfo();
+            List<String> name = Collections.singletonList(info.getName());
+            size.addMetric(name, info.getSize());
+            capacity.addMetric(name, info.getHeapCapacity());
+            hits.addMetric(name, info.getGetCount() - info.getMissCount());
+            misses.addMetric(name, info.getMissCount());
+            evictions.addMetric(name, info.getEvictedCount());
+            expirations.addMetric(name, info.getExpiredCount());
+        }
+        return Arrays.asList(size, capacity, hits, misses, evictions, expirations);
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.metrics;
+
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.client.ClientResponseContext;
+import javax.ws.rs.client.ClientResponseFilter;
+
+/**
+ * Measures the latency of the requests to the homeserver.
+ */
+public class HomeserverMetricsFilter implements ClientRequestFilter, ClientResponseFilter {
+
+    private static final String START_PROPERTY = HomeserverMetricsFilter.class.getName() + ".start";
+
+    @Override
+    public void filter(ClientRequestContext requestContext) {
+        requestContext.setProperty(START_PROPERTY, System.nanoTime());
+    }
+
+    @Override
+    public void filter(ClientRequestContext requestContext, ClientResponseContext responseContext) {
+        Object start = requestContext.getProperty(START_PROPERTY);
+        if (start instanceof Long) {
+            Metrics.HOMESERVER_LATENCY.labels(requestContext.getMethod(), Integer.toString(responseContext.getStatus()))
+                .observe(Metrics.since((Long) start));
+        }
+    }
+}
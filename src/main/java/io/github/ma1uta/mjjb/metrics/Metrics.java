@@ -0,0 +1,324 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.metrics;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+
+/**
+ * Bridge metrics.
+ * <p/>
+ * All collectors are registered in the default Prometheus registry. Labeled collectors should be resolved to the children
+ * once (per session, per router) and the children should be kept, so the hot path doesn't look up and allocate label values.
+ */
+public final class Metrics {
+
+    /**
+     * Nanoseconds in the second.
+     */
+    public static final double NANOS_PER_SECOND = 1_000_000_000D;
+
+    /**
+     * Buckets for the codec timings: from 10 microseconds to 50 milliseconds.
+     */
+    private static final double[] CODEC_BUCKETS = {0.00001, 0.00005, 0.0001, 0.0005, 0.001, 0.005, 0.01, 0.05};
+
+    /**
+     * XMPP stanzas.
+     */
+    public static final Counter STANZAS = Counter.build()
+        .name("mjjb_xmpp_stanzas_total")
+        .help("XMPP stanzas by direction (in, out), remote domain and type (message, presence, iq).")
+        .labelNames("direction", "domain", "type")
+        .register();
+
+    /**
+     * XMPP decode time.
+     */
+    public static final Histogram DECODE_TIME = Histogram.build()
+        .name("mjjb_xmpp_decode_seconds")
+        .help("Time to decode the received bytes to stream elements.")
+        .buckets(CODEC_BUCKETS)
+        .register();
+
+    /**
+     * XMPP encode time.
+     */
+    public static final Histogram ENCODE_TIME = Histogram.build()
+        .name("mjjb_xmpp_encode_seconds")
+        .help("Time to encode the stream element.")
+        .buckets(CODEC_BUCKETS)
+        .register();
+
+    /**
+     * Outgoing queue depth.
+     */
+    public static final Gauge OUTGOING_QUEUE = Gauge.build()
+        .name("mjjb_xmpp_outgoing_queue")
+        .help("Stream elements waiting in the outgoing sessions by remote domain.")
+        .labelNames("domain")
+        .register();
+
+    /**
+     * Outgoing queue delay.
+     */
+    public static final Histogram QUEUE_DELAY = Histogram.build()
+        .name("mjjb_xmpp_queue_delay_seconds")
+        .help("Time in the outgoing queue by the class (control, iq, message, presence).")
+        .labelNames("class")
+        .register();
+
+    /**
+     * Rejected stream elements.
+     */
+    public static final Counter QUEUE_REJECTED = Counter.build()
+        .name("mjjb_xmpp_queue_rejected_total")
+        .help("Stream elements rejected by the full outgoing queue by the class (iq, message, presence).")
+        .labelNames("class")
+        .register();
+
+    /**
+     * Deferred egress turns.
+     */
+    public static final Counter EGRESS_DEFERRED = Counter.build()
+        .name("mjjb_xmpp_egress_deferred_total")
+        .help("Turns of the outgoing sessions ended by the egress budget with the stanzas left for the next turn.")
+        .register();
+
+    /**
+     * Throttled connections.
+     */
+    public static final Counter INGRESS_THROTTLED = Counter.build()
+        .name("mjjb_xmpp_ingress_throttled_total")
+        .help("Pauses of the reading by the ingress rate limits by authenticated remote domain and limit (bytes, stanzas).")
+        .labelNames("domain", "limit")
+        .register();
+
+    /**
+     * Time of the throttled connections.
+     */
+    public static final Counter INGRESS_PAUSE_TIME = Counter.build()
+        .name("mjjb_xmpp_ingress_paused_seconds_total")
+        .help("Time of the connections paused by the ingress rate limits by authenticated remote domain.")
+        .labelNames("domain")
+        .register();
+
+    /**
+     * Ingress policy violations.
+     */
+    public static final Counter INGRESS_VIOLATIONS = Counter.build()
+        .name("mjjb_xmpp_ingress_violations_total")
+        .help("Streams closed with the policy-violation error by authenticated remote domain and reason (size).")
+        .labelNames("domain", "reason")
+        .register();
+
+    /**
+     * Queued stream elements of the all outgoing sessions.
+     */
+    public static final Gauge BACKPRESSURE_QUEUED = Gauge.build()
+        .name("mjjb_backpressure_queued")
+        .help("Stream elements queued by the connected sessions, the backpressure water marks are compared with it.")
+        .register();
+
+    /**
+     * Saturated bridge.
+     */
+    public static final Gauge BACKPRESSURE_SATURATED = Gauge.build()
+        .name("mjjb_backpressure_saturated")
+        .help("1 while the XMPP egress is saturated and the transactions are deferred, else 0.")
+        .register();
+
+    /**
+     * Saturations of the bridge.
+     */
+    public static final Counter BACKPRESSURE_SATURATIONS = Counter.build()
+        .name("mjjb_backpressure_saturations_total")
+        .help("Times the XMPP egress reached the high water mark.")
+        .register();
+
+    /**
+     * Not writable outgoing connections.
+     */
+    public static final Gauge BACKPRESSURE_UNWRITABLE = Gauge.build()
+        .name("mjjb_backpressure_unwritable")
+        .help("Outgoing connections which aren't writable, their sessions keep the stanzas queued.")
+        .register();
+
+    /**
+     * Registered XMPP sessions.
+     */
+    public static final Gauge SESSIONS = Gauge.build()
+        .name("mjjb_xmpp_sessions")
+        .help("Registered XMPP sessions by direction (income, outcome).")
+        .labelNames("direction")
+        .register();
+
+    /**
+     * Authenticated XMPP sessions.
+     */
+    public static final Gauge AUTHENTICATED_SESSIONS = Gauge.build()
+        .name("mjjb_xmpp_authenticated_sessions")
+        .help("XMPP sessions with at least one authenticated domain pair by direction (income, outcome).")
+        .labelNames("direction")
+        .register();
+
+    /**
+     * Open XMPP connections.
+     */
+    public static final Gauge CONNECTIONS = Gauge.build()
+        .name("mjjb_xmpp_connections")
+        .help("Open S2S connections by direction (income, outcome), including the verifying ones.")
+        .labelNames("direction")
+        .register();
+
+    /**
+     * Opened XMPP sessions.
+     */
+    public static final Counter SESSIONS_OPENED = Counter.build()
+        .name("mjjb_xmpp_sessions_opened_total")
+        .help("XMPP sessions registered since the start by direction (income, outcome).")
+        .labelNames("direction")
+        .register();
+
+    /**
+     * Bytes passed through the stream compression.
+     */
+    public static final Counter COMPRESSION_BYTES = Counter.build()
+        .name("mjjb_xmpp_compression_bytes_total")
+        .help("Bytes of the compressed streams by direction (in, out) and form (raw, compressed).")
+        .labelNames("direction", "form")
+        .register();
+
+    /**
+     * Time spent in the stream compression.
+     */
+    public static final Counter COMPRESSION_TIME = Counter.build()
+        .name("mjjb_xmpp_compression_seconds_total")
+        .help("Time to deflate (out) and inflate (in) the compressed streams.")
+        .labelNames("direction")
+        .register();
+
+    /**
+     * Streams without the compression.
+     */
+    public static final Counter COMPRESSION_SKIPPED = Counter.build()
+        .name("mjjb_xmpp_compression_skipped_total")
+        .help("Streams which weren't compressed by the policy by reason (disabled, domain, tls, ratio, method).")
+        .labelNames("reason")
+        .register();
+
+    /**
+     * Stream resumptions.
+     */
+    public static final Counter SM_RESUMPTIONS = Counter.build()
+        .name("mjjb_xmpp_sm_resumptions_total")
+        .help("Stream resumptions (XEP-0198) by direction (income, outcome) and result (resumed, failed).")
+        .labelNames("direction", "result")
+        .register();
+
+    /**
+     * Unacknowledged stanzas.
+     */
+    public static final Gauge SM_UNACKED = Gauge.build()
+        .name("mjjb_xmpp_sm_unacked")
+        .help("Stanzas sent by the outgoing sessions and not acknowledged by the remote servers yet.")
+        .register();
+
+    /**
+     * Resent stanzas.
+     */
+    public static final Counter SM_RESENT = Counter.build()
+        .name("mjjb_xmpp_sm_resent_total")
+        .help("Unacknowledged stanzas sent again after the stream was resumed or renegotiated.")
+        .register();
+
+    /**
+     * TLS handshakes.
+     */
+    public static final Counter TLS_HANDSHAKES = Counter.build()
+        .name("mjjb_tls_handshakes_total")
+        .help("TLS handshakes by role (xmpp_server, xmpp_client, matrix_server) and result (full, resumed, failed).")
+        .labelNames("role", "result")
+        .register();
+
+    /**
+     * TLS handshake time.
+     */
+    public static final Histogram TLS_HANDSHAKE_TIME = Histogram.build()
+        .name("mjjb_tls_handshake_seconds")
+        .help("Time of the successful TLS handshakes by role.")
+        .labelNames("role")
+        .register();
+
+    /**
+     * Appservice transaction latency.
+     */
+    public static final Histogram TRANSACTION_LATENCY = Histogram.build()
+        .name("mjjb_matrix_transaction_seconds")
+        .help("Time to process the appservice transaction.")
+        .register();
+
+    /**
+     * Deferred appservice transactions.
+     */
+    public static final Counter TRANSACTIONS_DEFERRED = Counter.build()
+        .name("mjjb_matrix_transactions_deferred_total")
+        .help("Transactions received by the saturated bridge by result (processed, rejected).")
+        .labelNames("result")
+        .register();
+
+    /**
+     * Appservice transaction events.
+     */
+    public static final Counter TRANSACTION_EVENTS = Counter.build()
+        .name("mjjb_matrix_transaction_events_total")
+        .help("Events received in the appservice transactions.")
+        .register();
+
+    /**
+     * Router timings.
+     */
+    public static final Histogram ROUTER_TIME = Histogram.build()
+        .name("mjjb_router_seconds")
+        .help("Time to process the event or stanza by the router.")
+        .labelNames("router")
+        .register();
+
+    /**
+     * Homeserver client latency.
+     */
+    public static final Histogram HOMESERVER_LATENCY = Histogram.build()
+        .name("mjjb_homeserver_request_seconds")
+        .help("Latency of the requests to the homeserver by method and status.")
+        .labelNames("method", "status")
+        .register();
+
+    private Metrics() {
+        // singleton.
+    }
+
+    /**
+     * Time since the start.
+     *
+     * @param start start time from {@link System#nanoTime()}.
+     * @return elapsed time in seconds.
+     */
+    public static double since(long start) {
+        return (System.nanoTime() - start) / NANOS_PER_SECOND;
+    }
+}
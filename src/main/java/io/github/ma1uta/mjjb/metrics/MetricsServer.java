@@ -0,0 +1,136 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.metrics;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.MetricsConfig;
+import io.github.ma1uta.mjjb.netty.NettyBuilder;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufOutputStream;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpVersion;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import io.prometheus.client.hotspot.DefaultExports;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Admin http server with the Prometheus scrape endpoint.
+ */
+public class MetricsServer implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    /**
+     * Scrape path.
+     */
+    public static final String PATH = "/metrics";
+
+    private static final int MAX_REQUEST_SIZE = 8192;
+
+    private final MetricsConfig config;
+    private final CollectorRegistry registry;
+    private Channel channel;
+
+    public MetricsServer(MetricsConfig config) {
+        this(config, CollectorRegistry.defaultRegistry);
+    }
+
+    public MetricsServer(MetricsConfig config, CollectorRegistry registry) {
+        this.config = config;
+        this.registry = registry;
+    }
+
+    /**
+     * Run the server.
+     */
+    public void run() {
+        if (!config.isEnabled()) {
+            LOGGER.info("Metrics endpoint is disabled.");
+            return;
+        }
+        DefaultExports.initialize();
+        this.channel = NettyBuilder.createServer(config.getHost(), config.getPort(), new ChannelInitializer<SocketChannel>() {
+            @Override
+            protected void initChannel(SocketChannel ch) {
+                ch.pipeline().addLast(new HttpServerCodec())
+                    .addLast(new HttpObjectAggregator(MAX_REQUEST_SIZE))
+                    .addLast(new ScrapeHandler());
+            }
+        }, null);
+        LOGGER.info("Metrics endpoint: http://{}:{}{}", config.getHost(), config.getPort(), PATH);
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (channel != null) {
+            channel.close().sync();
+        }
+    }
+
+    private class ScrapeHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, FullHttpRequest request) throws Exception {
+            QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
+            FullHttpResponse response;
+            if (PATH.equals(decoder.path())) {
+                ByteBuf content = ctx.alloc().buffer();
+                try (Writer writer = new OutputStreamWriter(new ByteBufOutputStream(content), StandardCharsets.UTF_8)) {
+                    List<String> names = decoder.parameters().get("name[]");
+                    Set<String> included = names != null ? new HashSet<>(names) : Collections.emptySet();
+                    TextFormat.write004(writer, registry.filteredMetricFamilySamples(included));
+                }
+                response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.OK, content);
+                response.headers().set(HttpHeaderNames.CONTENT_TYPE, TextFormat.CONTENT_TYPE_004);
+            } else {
+                response = new DefaultFullHttpResponse(HttpVersion.HTTP_1_1, HttpResponseStatus.NOT_FOUND);
+            }
+            HttpUtil.setContentLength(response, response.content().readableBytes());
+            ctx.writeAndFlush(response).addListener(ChannelFutureListener.CLOSE);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            LOGGER.error("Failed to serve metrics.", cause);
+            ctx.close();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.metrics;
+
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import rocks.xmpp.core.stanza.model.IQ;
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Presence;
+import rocks.xmpp.core.stream.model.StreamElement;
+
+/**
+ * Metrics of the one XMPP session.
+ * <p/>
+ * The remote domain is known only after the stream header, so the children are resolved on the first stanza
+ * and again only if the domain changes.
+ */
+public class SessionMetrics {
+
+    private static final String UNKNOWN = "unknown";
+
+    private volatile Children children;
+
+    /**
+     * Count the received stanza.
+     *
+     * @param remoteDomain remote domain.
+     * @param element      stream element.
+     */
+    public void read(String remoteDomain, StreamElement element) {
+        Children current = resolve(remoteDomain);
+        count(element, current.inMessages, current.inPresences, current.inIqs);
+    }
+
+    /**
+     * Count the sent stanza.
+     *
+     * @param remoteDomain remote domain.
+     * @param element      stream element.
+     */
+    public void write(String remoteDomain, StreamElement element) {
+        Children current = resolve(remoteDomain);
+        count(element, current.outMessages, current.outPresences, current.outIqs);
+    }
+
+    /**
+     * Provide the outgoing queue depth of the domain.
+     *
+     * @param remoteDomain remote domain.
+     * @return queue depth gauge.
+     */
+    public Gauge.Child queue(String remoteDomain) {
+        return resolve(remoteDomain).queue;
+    }
+
+    private void count(StreamElement element, Counter.Child messages, Counter.Child presences, Counter.Child iqs) {
+        if (element instanceof Message) {
+            messages.inc();
+        } else if (element instanceof Presence) {
+            presences.inc();
+        } else if (element instanceof IQ) {
+            iqs.inc();
+        }
+    }
+
+    private Children resolve(String remoteDomain) {
+        String domain = remoteDomain != null ? remoteDomain : UNKNOWN;
+        Children current = children;
+        if (current == null || !current.domain.equals(domain)) {
+            current = new Children(domain);
+            children = current;
+        }
+        return current;
+    }
+
+    private static final class Children {
+
+        private final String domain;
+        private final Counter.Child inMessages;
+        private final Counter.Child inPresences;
+        private final Counter.Child inIqs;
+        private final Counter.Child outMessages;
+        private final Counter.Child outPresences;
+        private final Counter.Child outIqs;
+        private final Gauge.Child queue;
+
+        private Children(String domain) {
+            this.domain = domain;
+            this.inMessages = Metrics.STANZAS.labels("in", domain, "message");
+            this.inPresences = Metrics.STANZAS.labels("in", domain, "presence");
+            this.inIqs = Metrics.STANZAS.labels("in", domain, "iq");
+            this.outMessages = Metrics.STANZAS.labels("out", domain, "message");
+            this.outPresences = Metrics.STANZAS.labels("out", domain, "presence");
+            this.outIqs = Metrics.STANZAS.labels("out", domain, "iq");
+            this.queue = Metrics.OUTGOING_QUEUE.labels(domain);
+        }
+    }
+}
@@ -101,6 +101,7 @@ public class NettyBuilder {
     /**
      * Create and start Netty client.
      *
+     * @param group         Event loops shared by the clients, it isn't shut down when the channel is closed.
      * @param inetHost      Host to connecting.
      * @param port          Port to connecting.
      * @param initializer   Channel initializer.
@@ -108,27 +109,20 @@ public class NettyBuilder {
      * @return Netty channel instance.
      * @throws ProcessingException when there is an issue with creating new client.
      */
-    public static Channel createClient(String inetHost, int port, ChannelInitializer<?> initializer,
+    public static Channel createClient(EventLoopGroup group, String inetHost, int port, ChannelInitializer<?> initializer,
                                        Consumer<Future<? super Void>> closeListener) {
-
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
-
         try {
             Bootstrap bootstrap = new Bootstrap();
-            bootstrap.group(workerGroup)
+            bootstrap.group(group)
                 .channel(NioSocketChannel.class)
                 .option(ChannelOption.SO_KEEPALIVE, true)
                 .handler(initializer);
 
             Channel ch = bootstrap.connect(inetHost, port).sync().channel();
 
-            ch.closeFuture().addListener(future -> {
-                if (closeListener != null) {
-                    closeListener.accept(future);
-                }
-
-                workerGroup.shutdownGracefully();
-            });
+            if (closeListener != null) {
+                ch.closeFuture().addListener(closeListener::accept);
+            }
 
             return ch;
         } catch (InterruptedException e) {
@@ -0,0 +1,114 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.netty;
+
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import io.netty.channel.Channel;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslHandler;
+
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import javax.net.ssl.SSLEngine;
+
+/**
+ * TLS handlers of the shared contexts.
+ */
+public final class TlsHandlers {
+
+    /**
+     * Role of the XMPP incoming connections.
+     */
+    public static final String XMPP_SERVER = "xmpp_server";
+
+    /**
+     * Role of the XMPP outgoing connections.
+     */
+    public static final String XMPP_CLIENT = "xmpp_client";
+
+    /**
+     * Role of the appservice listener.
+     */
+    public static final String MATRIX_SERVER = "matrix_server";
+
+    /**
+     * OpenSSL keeps the session creation time in seconds.
+     */
+    private static final long CREATION_TIME_GRANULARITY = 1000L;
+
+    private TlsHandlers() {
+        // singleton.
+    }
+
+    /**
+     * Create the TLS handler which counts the handshakes.
+     * <br/>
+     * The client engines are bound to the remote host and port, so the client side session cache can resume the session on
+     * the next connection to the same server.
+     *
+     * @param context  shared TLS context.
+     * @param channel  channel.
+     * @param role     connection role for the metrics.
+     * @param startTls {@code true} if the first write must not be encrypted (the STARTTLS answer of the server).
+     * @return TLS handler.
+     */
+    public static SslHandler newHandler(SslContext context, Channel channel, String role, boolean startTls) {
+        SocketAddress remoteAddress = channel.remoteAddress();
+        SSLEngine engine;
+        if (context.isClient() && remoteAddress instanceof InetSocketAddress) {
+            InetSocketAddress address = (InetSocketAddress) remoteAddress;
+            engine = context.newEngine(channel.alloc(), address.getHostString(), address.getPort());
+        } else {
+            engine = context.newEngine(channel.alloc());
+        }
+        return count(new SslHandler(engine, startTls), role);
+    }
+
+    /**
+     * Create the client TLS handler of the not connected yet channel.
+     * <br/>
+     * The peer host is sent in the SNI extension and is the key of the client side session cache.
+     *
+     * @param context  shared client TLS context.
+     * @param channel  channel.
+     * @param role     connection role for the metrics.
+     * @param peerHost remote host name.
+     * @param peerPort remote port.
+     * @return TLS handler.
+     */
+    public static SslHandler newClientHandler(SslContext context, Channel channel, String role, String peerHost, int peerPort) {
+        return count(new SslHandler(context.newEngine(channel.alloc(), peerHost, peerPort), false), role);
+    }
+
+    private static SslHandler count(SslHandler handler, String role) {
+        SSLEngine engine = handler.engine();
+        long startMillis = System.currentTimeMillis();
+        long start = System.nanoTime();
+        handler.handshakeFuture().addListener(future -> {
+            if (future.isSuccess()) {
+                // the resumed session was created by the previous handshake.
+                boolean resumed = startMillis - engine.getSession().getCreationTime() > CREATION_TIME_GRANULARITY;
+                Metrics.TLS_HANDSHAKES.labels(role, resumed ? "resumed" : "full").inc();
+                Metrics.TLS_HANDSHAKE_TIME.labels(role).observe(Metrics.since(start));
+            } else {
+                Metrics.TLS_HANDSHAKES.labels(role, "failed").inc();
+            }
+        });
+        return handler;
+    }
+}
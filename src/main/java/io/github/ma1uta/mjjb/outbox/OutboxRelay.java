@@ -0,0 +1,270 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.outbox;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.OutboxConfig;
+import io.github.ma1uta.mjjb.db.OutboxDao;
+import io.github.ma1uta.mjjb.db.OutboxMessage;
+import io.github.ma1uta.mjjb.matrix.MatrixServer;
+import io.github.ma1uta.mjjb.trace.Stage;
+import io.github.ma1uta.mjjb.trace.Tracer;
+import io.github.ma1uta.mjjb.xmpp.ServerConfiguration;
+import io.github.ma1uta.mjjb.xmpp.XmppServer;
+import io.github.ma1uta.mjjb.xmpp.queue.Backpressure;
+import org.jdbi.v3.core.Handle;
+import org.jdbi.v3.core.Jdbi;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rocks.xmpp.core.stanza.model.Stanza;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import javax.xml.bind.DataBindingException;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+
+/**
+ * Transactional outbox relay.
+ * <p/>
+ * Routers save outgoing stanzas and matrix requests in the same database transaction as the state changes.
+ * The relay claims them in batches in a short transaction, delivers them after the commit and removes the delivered messages.
+ * Undelivered messages stay in the outbox and will be retried, the messages which exhausted the attempts are purged after
+ * the dead letter ttl. Stanzas keep the outbox id as the stanza id, so a redelivered stanza
+ * has the same id as the first one.
+ * <p/>
+ * The relay pauses while the XMPP egress is saturated and continues when it is released.
+ */
+public class OutboxRelay implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    /**
+     * Time to finish the current batch on close in milliseconds.
+     */
+    private static final long CLOSE_TIMEOUT = 30_000L;
+
+    private final Jdbi jdbi;
+    private final OutboxConfig config;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "outbox-relay"));
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final ThreadLocal<Marshaller> marshaller = ThreadLocal.withInitial(() -> {
+        try {
+            Marshaller marshaller = ServerConfiguration.JAXB_CONTEXT.createMarshaller();
+            marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            return marshaller;
+        } catch (JAXBException e) {
+            throw new DataBindingException(e);
+        }
+    });
+    private final ThreadLocal<Unmarshaller> unmarshaller = ThreadLocal.withInitial(() -> {
+        try {
+            return ServerConfiguration.JAXB_CONTEXT.createUnmarshaller();
+        } catch (JAXBException e) {
+            throw new DataBindingException(e);
+        }
+    });
+
+    private XmppServer xmppServer;
+    private MatrixServer matrixServer;
+    private Backpressure backpressure;
+
+    public OutboxRelay(Jdbi jdbi, OutboxConfig config) {
+        this.jdbi = jdbi;
+        this.config = config;
+    }
+
+    /**
+     * Init relay.
+     *
+     * @param xmppServer   xmpp server.
+     * @param matrixServer matrix server.
+     */
+    public void init(XmppServer xmppServer, MatrixServer matrixServer) {
+        this.xmppServer = xmppServer;
+        this.matrixServer = matrixServer;
+        this.backpressure = xmppServer.getBackpressure();
+        if (backpressure != null) {
+            backpressure.onRelease(this::wakeUp);
+        }
+    }
+
+    /**
+     * Start the periodical delivery.
+     */
+    public void run() {
+        executor.scheduleWithFixedDelay(this::relay, 0L, config.getPollInterval(), TimeUnit.MILLISECONDS);
+        if (config.getDeadLetterTtl() > 0) {
+            executor.scheduleWithFixedDelay(this::purge, config.getPurgeInterval(), config.getPurgeInterval(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Save the stanza in the outbox.
+     *
+     * @param handle database handle with the opened transaction.
+     * @param stanza outgoing stanza.
+     */
+    public void stanza(Handle handle, Stanza stanza) {
+        String id = UUID.randomUUID().toString();
+        if (stanza.getId() == null) {
+            stanza.setId(id);
+        }
+        handle.attach(OutboxDao.class).enqueue(id, OutboxMessage.Kind.STANZA, stanza.getTo().getDomain(), marshal(stanza),
+            LocalDateTime.now());
+        Tracer.bind(stanza.getId(), Stage.ENQUEUED);
+    }
+
+    /**
+     * Save the join request in the outbox.
+     *
+     * @param handle database handle with the opened transaction.
+     * @param userId puppet user.
+     * @param roomId room to join.
+     */
+    public void join(Handle handle, String userId, String roomId) {
+        String id = UUID.randomUUID().toString();
+        handle.attach(OutboxDao.class).enqueue(id, OutboxMessage.Kind.JOIN, userId, roomId, LocalDateTime.now());
+        Tracer.bind(id, Stage.ENQUEUED);
+    }
+
+    /**
+     * Deliver the pending messages without waiting for the next poll.
+     */
+    public void wakeUp() {
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                scheduled.set(false);
+                relay();
+            });
+        }
+    }
+
+    protected void relay() {
+        try {
+            boolean full = true;
+            while (full && !saturated()) {
+                List<OutboxMessage> claimed = jdbi.inTransaction(h -> claim(h.attach(OutboxDao.class)));
+                full = deliver(claimed) >= config.getBatchSize();
+            }
+        } catch (Exception e) {
+            LOGGER.error("Failed to relay the outbox.", e);
+        }
+    }
+
+    /**
+     * Remove the messages which exhausted the delivery attempts.
+     */
+    protected void purge() {
+        try {
+            LocalDateTime before = LocalDateTime.now().minus(config.getDeadLetterTtl(), ChronoUnit.MILLIS);
+            int purged = jdbi.withExtension(OutboxDao.class, dao -> dao.purge(config.getMaxAttempts(), before));
+            if (purged > 0) {
+                LOGGER.warn("Removed {} undelivered outbox messages created before {}", purged, before);
+            }
+        } catch (Exception e) {
+            LOGGER.error("Failed to purge the outbox.", e);
+        }
+    }
+
+    private List<OutboxMessage> claim(OutboxDao dao) {
+        LocalDateTime now = LocalDateTime.now();
+        List<OutboxMessage> messages = dao.lock(config.getBatchSize(), config.getMaxAttempts(), now);
+        if (!messages.isEmpty()) {
+            dao.claim(messages.stream().map(OutboxMessage::getId).collect(Collectors.toList()),
+                now.plus(config.getClaimTimeout(), ChronoUnit.MILLIS));
+        }
+        return messages;
+    }
+
+    private boolean saturated() {
+        return backpressure != null && backpressure.isSaturated();
+    }
+
+    private int deliver(List<OutboxMessage> messages) {
+        List<String> delivered = new ArrayList<>(messages.size());
+        List<String> failed = new ArrayList<>();
+        for (OutboxMessage message : messages) {
+            try {
+                deliver(message);
+                delivered.add(message.getId());
+            } catch (Exception e) {
+                LOGGER.error(String.format("Failed to deliver the outbox message %s (attempt %d)", message.getId(),
+                    message.getAttempts() + 1), e);
+                failed.add(message.getId());
+            }
+        }
+        if (!delivered.isEmpty()) {
+            jdbi.useExtension(OutboxDao.class, dao -> dao.delivered(delivered));
+        }
+        if (!failed.isEmpty()) {
+            jdbi.useExtension(OutboxDao.class, dao -> dao.failed(failed));
+        }
+        return delivered.size();
+    }
+
+    private void deliver(OutboxMessage message) throws Exception {
+        switch (message.getKind()) {
+            case STANZA:
+                Stanza stanza = unmarshal(message.getPayload());
+                Tracer.mark(stanza.getId(), Stage.RELAYED);
+                xmppServer.send(stanza);
+                break;
+            case JOIN:
+                Tracer.mark(message.getId(), Stage.RELAYED);
+                matrixServer.getMatrixClient().userId(message.getRecipient()).room().joinByIdOrAlias(message.getPayload()).join();
+                Tracer.finish(message.getId(), Stage.SENT);
+                break;
+            default:
+                throw new IllegalStateException(String.format("Unknown outbox message kind: %s", message.getKind()));
+        }
+    }
+
+    private String marshal(Stanza stanza) {
+        try {
+            StringWriter writer = new StringWriter();
+            marshaller.get().marshal(stanza, writer);
+            return writer.toString();
+        } catch (JAXBException e) {
+            LOGGER.error("Unable to serialize stanza.", e);
+            throw new DataBindingException(e);
+        }
+    }
+
+    private Stanza unmarshal(String payload) throws JAXBException {
+        return (Stanza) unmarshaller.get().unmarshal(new StringReader(payload));
+    }
+
+    @Override
+    public void close() throws Exception {
+        executor.shutdown();
+        if (!executor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            LOGGER.warn("The outbox relay didn't finish the batch, the claimed messages are delivered after the claim timeout.");
+        }
+    }
+}
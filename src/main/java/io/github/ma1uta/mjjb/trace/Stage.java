@@ -0,0 +1,68 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.trace;
+
+/**
+ * Trace stages.
+ */
+public enum Stage {
+
+    /**
+     * Event or stanza was received (appservice transaction or incoming xmpp session).
+     */
+    RECEIVED,
+
+    /**
+     * Routing was started.
+     */
+    ROUTED,
+
+    /**
+     * Side effect was saved in the outbox.
+     */
+    ENQUEUED,
+
+    /**
+     * Side effect was taken from the outbox by the relay.
+     */
+    RELAYED,
+
+    /**
+     * Stanza was put to the outgoing session queue.
+     */
+    QUEUED,
+
+    /**
+     * Stanza was taken from the outgoing session queue.
+     */
+    DEQUEUED,
+
+    /**
+     * Stanza was encoded.
+     */
+    ENCODED,
+
+    /**
+     * Stanza was written to the socket. Final stage of the Matrix to XMPP direction.
+     */
+    WRITTEN,
+
+    /**
+     * Request to the homeserver was completed. Final stage of the XMPP to Matrix direction.
+     */
+    SENT
+}
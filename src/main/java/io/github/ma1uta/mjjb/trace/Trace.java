@@ -0,0 +1,107 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.trace;
+
+import io.prometheus.client.Summary;
+
+import java.util.Arrays;
+
+/**
+ * Trace of the one bridged message.
+ * <p/>
+ * Stages are marked sequentially, possibly from the different threads, with hand-off through the concurrent
+ * queues and the database, so the marks don't need extra synchronization.
+ */
+public class Trace {
+
+    /**
+     * Stage wasn't reached.
+     */
+    public static final long NOT_REACHED = -1L;
+
+    private final Direction direction;
+    private final long start;
+    private final long wallStart;
+    private final long[] stages = new long[Stage.values().length];
+    private long last;
+    private String id;
+
+    Trace(Direction direction, long start) {
+        this.direction = direction;
+        this.start = start;
+        this.wallStart = System.currentTimeMillis() - (System.nanoTime() - start) / Tracer.NANOS_PER_MILLI;
+        Arrays.fill(stages, NOT_REACHED);
+        stages[Stage.RECEIVED.ordinal()] = 0L;
+    }
+
+    void mark(Stage stage, Summary.Child[] summaries) {
+        long elapsed = System.nanoTime() - start;
+        stages[stage.ordinal()] = elapsed;
+        summaries[stage.ordinal()].observe((elapsed - last) / Tracer.NANOS_PER_SECOND);
+        last = elapsed;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getWallStart() {
+        return wallStart;
+    }
+
+    /**
+     * Time of the stage since the start.
+     *
+     * @param stage stage.
+     * @return nanoseconds since the start or {@link #NOT_REACHED}.
+     */
+    public long getStage(Stage stage) {
+        return stages[stage.ordinal()];
+    }
+
+    public long getTotal() {
+        return last;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    void setId(String id) {
+        this.id = id;
+    }
+
+    /**
+     * Bridging direction.
+     */
+    public enum Direction {
+
+        /**
+         * From the homeserver to the remote xmpp server.
+         */
+        MATRIX_TO_XMPP,
+
+        /**
+         * From the remote xmpp server to the homeserver.
+         */
+        XMPP_TO_MATRIX
+    }
+}
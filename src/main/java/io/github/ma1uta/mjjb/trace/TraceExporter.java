@@ -0,0 +1,155 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.trace;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.TraceConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes finished traces to the file as json lines and drops expired unfinished traces.
+ * <p/>
+ * Each line: {@code {"id":"...","direction":"matrix_to_xmpp","start":<epoch millis>,"total":<us>,"stages":{"received":0,...}}},
+ * stage times are microseconds since the start.
+ */
+public class TraceExporter implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    private static final long POLL_TIMEOUT = 1000L;
+    private static final long NANOS_PER_MICRO = 1000L;
+
+    private final TraceConfig config;
+    private final Map<String, Trace> active;
+    private final BlockingQueue<Trace> queue;
+    private final Thread thread;
+    private final Writer writer;
+    private volatile boolean running = true;
+
+    TraceExporter(TraceConfig config, Map<String, Trace> active) {
+        this.config = config;
+        this.active = active;
+        this.queue = new ArrayBlockingQueue<>(config.getMaxActive());
+        this.writer = openWriter(config.getFile());
+        this.thread = new Thread(this::loop, "trace-exporter");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private static Writer openWriter(String file) {
+        if (file == null) {
+            return null;
+        }
+        try {
+            return Files.newBufferedWriter(Paths.get(file), StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            LOGGER.error(String.format("Unable to open trace file %s", file), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Export the finished trace.
+     *
+     * @param trace finished trace.
+     */
+    public void export(Trace trace) {
+        if (writer != null && !queue.offer(trace)) {
+            LOGGER.debug("Trace queue is full, drop {}", trace.getId());
+        }
+    }
+
+    private void loop() {
+        List<Trace> batch = new ArrayList<>();
+        while (running) {
+            try {
+                Trace trace = queue.poll(POLL_TIMEOUT, TimeUnit.MILLISECONDS);
+                if (trace != null) {
+                    batch.add(trace);
+                    queue.drainTo(batch);
+                    write(batch);
+                    batch.clear();
+                }
+                expire();
+            } catch (InterruptedException e) {
+                LOGGER.warn("Trace exporter was interrupted.");
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                LOGGER.error("Failed to export traces.", e);
+            }
+        }
+    }
+
+    private void expire() {
+        long deadline = System.nanoTime() - Tracer.timeoutNanos(config);
+        active.values().removeIf(trace -> trace.getStart() - deadline < 0);
+    }
+
+    private void write(List<Trace> traces) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (Trace trace : traces) {
+            line.setLength(0);
+            line.append("{\"id\":\"").append(trace.getId())
+                .append("\",\"direction\":\"").append(trace.getDirection().name().toLowerCase())
+                .append("\",\"start\":").append(trace.getWallStart())
+                .append(",\"total\":").append(trace.getTotal() / NANOS_PER_MICRO)
+                .append(",\"stages\":{");
+            boolean first = true;
+            for (Stage stage : Stage.values()) {
+                long time = trace.getStage(stage);
+                if (time != Trace.NOT_REACHED) {
+                    if (!first) {
+                        line.append(',');
+                    }
+                    line.append('"').append(stage.name().toLowerCase()).append("\":").append(time / NANOS_PER_MICRO);
+                    first = false;
+                }
+            }
+            line.append("}}\n");
+            writer.write(line.toString());
+        }
+        writer.flush();
+    }
+
+    @Override
+    public void close() throws Exception {
+        running = false;
+        thread.join();
+        if (writer != null) {
+            List<Trace> rest = new ArrayList<>();
+            queue.drainTo(rest);
+            write(rest);
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package io.github.ma1uta.mjjb.trace;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.TraceConfig;
+import io.prometheus.client.Summary;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end latency tracer.
+ * <p/>
+ * A sampled trace starts when the event or stanza is received and is kept in the thread local context while
+ * the message is routed. When the message gets an id (stanza id or outbox id) the trace is bound to this id and the
+ * next stages (outbox relay, outgoing queue, encoder, socket write) find it by the id. Unsampled messages have no trace,
+ * so the stages only check the thread local or look up an empty map.
+ * <p/>
+ * The time between the stages is observed by the per-stage summaries, finished traces are exported to the file.
+ */
+public final class Tracer {
+
+    /**
+     * Nanoseconds in the millisecond.
+     */
+    public static final long NANOS_PER_MILLI = 1_000_000L;
+
+    /**
+     * Nanoseconds in the second.
+     */
+    public static final double NANOS_PER_SECOND = 1_000_000_000D;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    private static final double MEDIAN = 0.5D;
+    private static final double MEDIAN_ERROR = 0.05D;
+    private static final double P90 = 0.9D;
+    private static final double P90_ERROR = 0.01D;
+    private static final double P99 = 0.99D;
+    private static final double P99_ERROR = 0.001D;
+
+    private static final Summary STAGE_TIME = Summary.build()
+        .name("mjjb_trace_stage_seconds")
+        .help("Time between the previous and the current stage of the sampled messages.")
+        .labelNames("direction", "stage")
+        .quantile(MEDIAN, MEDIAN_ERROR)
+        .quantile(P90, P90_ERROR)
+        .quantile(P99, P99_ERROR)
+        .register();
+
+    private static final Summary.Child[][] SUMMARIES = new Summary.Child[Trace.Direction.values().length][];
+
+    private static final ThreadLocal<Trace> CURRENT = new ThreadLocal<>();
+    private static final Map<String, Trace> ACTIVE = new ConcurrentHashMap<>();
+
+    private static volatile TraceConfig config;
+    private static volatile TraceExporter exporter;
+
+    static {
+        for (Trace.Direction direction : Trace.Direction.values()) {
+            Summary.Child[] children = new Summary.Child[Stage.values().length];
+            for (Stage stage : Stage.values()) {
+                children[stage.ordinal()] = STAGE_TIME.labels(direction.name().toLowerCase(), stage.name().toLowerCase());
+            }
+            SUMMARIES[direction.ordinal()] = children;
+        }
+    }
+
+    private Tracer() {
+        // singleton.
+    }
+
+    /**
+     * Enable tracing.
+     *
+     * @param traceConfig tracing configuration.
+     */
+    public static synchronized void init(TraceConfig traceConfig) {
+        if (!traceConfig.isEnabled()) {
+            return;
+        }
+        exporter = new TraceExporter(traceConfig, ACTIVE);
+        config = traceConfig;
+        LOGGER.info("Tracing of {} of the messages is enabled.", traceConfig.getSampleRate());
+    }
+
+    /**
+     * Disable tracing and stop exporter.
+     *
+     * @throws Exception when failed to stop exporter.
+     */
+    public static synchronized void close() throws Exception {
+        config = null;
+        if (exporter != null) {
+            exporter.close();
+            exporter = null;
+        }
+        ACTIVE.clear();
+    }
+
+    /**
+     * Start the trace of the received message in the current thread.
+     *
+     * @param direction bridging direction.
+     * @param received  receive time from {@link System#nanoTime()}.
+     */
+    public static void start(Trace.Direction direction, long received) {
+        TraceConfig current = config;
+        if (current != null && ThreadLocalRandom.current().nextDouble() < current.getSampleRate()) {
+            CURRENT.set(new Trace(direction, received));
+        }
+    }
+
+    /**
+     * Clear the trace of the current thread.
+     */
+    public static void clear() {
+        CURRENT.remove();
+    }
+
+    /**
+     * Bind the current thread trace to the message id and mark the stage.
+     *
+     * @param id    message id.
+     * @param stage stage.
+     */
+    public static void bind(String id, Stage stage) {
+        Trace trace = CURRENT.get();
+        TraceConfig current = config;
+        if (trace == null || id == null || current == null) {
+            return;
+        }
+        if (ACTIVE.size() >= current.getMaxActive()) {
+            LOGGER.debug("Too many active traces, skip {}", id);
+            return;
+        }
+        trace.setId(id);
+        record(trace, stage);
+        ACTIVE.put(id, trace);
+    }
+
+    /**
+     * Mark the stage of the current thread trace.
+     *
+     * @param stage stage.
+     */
+    public static void mark(Stage stage) {
+        Trace trace = CURRENT.get();
+        if (trace != null) {
+            record(trace, stage);
+        }
+    }
+
+    /**
+     * Mark the stage of the bound trace.
+     *
+     * @param id    message id.
+     * @param stage stage.
+     */
+    public static void mark(String id, Stage stage) {
+        if (id == null || ACTIVE.isEmpty()) {
+            return;
+        }
+        Trace trace = ACTIVE.get(id);
+        if (trace != null) {
+            record(trace, stage);
+        }
+    }
+
+    /**
+     * Mark the final stage of the bound trace and export it.
+     *
+     * @param id    message id.
+     * @param stage final stage.
+     */
+    public static void finish(String id, Stage stage) {
+        if (id == null || ACTIVE.isEmpty()) {
+            return;
+        }
+        Trace trace = ACTIVE.remove(id);
+        if (trace != null) {
+            record(trace, stage);
+            TraceExporter current = exporter;
+            if (current != null) {
+                current.export(trace);
+            }
+        }
+    }
+
+    /**
+     * Check that the message with the specified id is traced.
+     *
+     * @param id message id.
+     * @return {@code true} if traced, else {@code false}.
+     */
+    public static boolean isTraced(String id) {
+        return id != null && !ACTIVE.isEmpty() && ACTIVE.containsKey(id);
+    }
+
+    private static void record(Trace trace, Stage stage) {
+        trace.mark(stage, SUMMARIES[trace.getDirection().ordinal()]);
+    }
+
+    static long timeoutNanos(TraceConfig traceConfig) {
+        return TimeUnit.MILLISECONDS.toNanos(traceConfig.getTimeout());
+    }
+}
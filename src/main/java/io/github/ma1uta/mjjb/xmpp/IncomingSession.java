@@ -16,7 +16,19 @@
 
 package io.github.ma1uta.mjjb.xmpp;
 
+import io.github.ma1uta.mjjb.config.StreamManagementConfig;
+import io.github.ma1uta.mjjb.trace.Stage;
+import io.github.ma1uta.mjjb.trace.Trace;
+import io.github.ma1uta.mjjb.trace.Tracer;
+import io.github.ma1uta.mjjb.xmpp.bidi.Bidi;
+import io.github.ma1uta.mjjb.xmpp.bidi.BidiNegotiator;
 import io.github.ma1uta.mjjb.xmpp.dialback.ServerDialback;
+import io.github.ma1uta.mjjb.xmpp.queue.EgressFlow;
+import io.github.ma1uta.mjjb.xmpp.queue.EgressScheduler;
+import io.github.ma1uta.mjjb.xmpp.queue.OutgoingQueue;
+import io.github.ma1uta.mjjb.xmpp.sm.AckTracker;
+import io.github.ma1uta.mjjb.xmpp.sm.StreamManagementNegotiator;
+import io.netty.handler.timeout.IdleState;
 import rocks.xmpp.addr.Jid;
 import rocks.xmpp.core.XmppException;
 import rocks.xmpp.core.stanza.model.Stanza;
@@ -24,10 +36,15 @@ import rocks.xmpp.core.stream.StreamNegotiationResult;
 import rocks.xmpp.core.stream.model.StreamElement;
 import rocks.xmpp.core.stream.model.StreamError;
 import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.core.stream.model.StreamFeature;
 import rocks.xmpp.core.stream.model.StreamFeatures;
 import rocks.xmpp.core.stream.model.StreamHeader;
 import rocks.xmpp.core.stream.model.errors.Condition;
+import rocks.xmpp.extensions.compress.model.feature.CompressionFeature;
+import rocks.xmpp.extensions.sm.model.StreamManagement;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
 import java.util.UUID;
 import javax.xml.bind.JAXBException;
@@ -35,9 +52,22 @@ import javax.xml.namespace.QName;
 
 /**
  * XMPP S2S incoming session.
+ * <p/>
+ * The stanzas of the bidirectional session (XEP-0288) are sent as the stanzas of the outgoing sessions: by the priority queue in
+ * the turns of the egress scheduler with the backpressure. The sent stanzas are acknowledged by the stream management if the
+ * remote server confirms it, they are spooled to another route when the connection is closed.
  */
 public class IncomingSession extends Session {
 
+    private StreamManagementNegotiator streamManagement;
+    private BidiNegotiator bidi;
+    private volatile boolean bidirectional;
+    private volatile OutgoingQueue queue;
+    private final Flow flow = new Flow();
+    private volatile EgressScheduler egress;
+    private volatile AckTracker acks;
+    private volatile boolean closed;
+
     public IncomingSession(XmppServer xmppServer) throws JAXBException {
         super(xmppServer);
     }
@@ -54,7 +84,9 @@ public class IncomingSession extends Session {
         if (streamElement instanceof StreamHeader) {
             StreamHeader streamHeader = (StreamHeader) streamElement;
             setDomain(streamHeader.getFrom().getDomain());
-            String streamId = streamHeader.getId() != null ? streamHeader.getId() : UUID.randomUUID().toString();
+            // the id is always generated: the dialback keys and the verified keys are bound to it, the initiator can't choose it.
+            String streamId = UUID.randomUUID().toString();
+            streamOpened(streamId);
             // send stream header response
             send(StreamHeader.responseServerToServer(
                 Jid.of(getXmppServer().getConfig().getDomain()),
@@ -64,23 +96,239 @@ public class IncomingSession extends Session {
                 new QName(ServerDialback.NAMESPACE, "", ServerDialback.PREFIX)
             ));
             // send supported features.
-            send(new StreamFeatures(getStreamFeaturesManager().getStreamFeatures()));
+            send(new StreamFeatures(streamFeatures()));
             return false;
         }
 
+        if (acks != null && handleStreamManagement(streamElement)) {
+            return false;
+        }
         if (streamElement instanceof Stanza) {
-            getXmppServer().process((Stanza) streamElement);
+            Tracer.start(Trace.Direction.XMPP_TO_MATRIX, System.nanoTime());
+            try {
+                getXmppServer().process((Stanza) streamElement);
+            } finally {
+                Tracer.clear();
+            }
+            if (streamManagement != null) {
+                streamManagement.handled();
+            }
+        }
+        return false;
+    }
+
+    private List<StreamFeature> streamFeatures() {
+        List<StreamFeature> features = new ArrayList<>(getStreamFeaturesManager().getStreamFeatures());
+        features.removeIf(feature -> feature instanceof CompressionFeature
+            && !getXmppServer().compression().accept(getDomain(), getConnection().isSecure()));
+        // the stream management follows the SASL by the priority and is hidden by it, but the S2S streams are authenticated by
+        // the dialback too, so it is offered until enabled.
+        features.removeIf(feature -> feature instanceof StreamManagement || feature instanceof Bidi);
+        if (bidi != null && bidi.isOffered()) {
+            features.add(bidi.createStreamFeature());
+        }
+        if (streamManagement != null && !streamManagement.isEnabled()) {
+            features.add(streamManagement.createStreamFeature());
+        }
+        return features;
+    }
+
+    /**
+     * The answers of the remote server to the stream management of the stanzas sent by this bidirectional session.
+     */
+    private boolean handleStreamManagement(Object streamElement) {
+        if (streamElement instanceof StreamManagement.Enabled) {
+            acks.enabled((StreamManagement.Enabled) streamElement);
+            return true;
+        }
+        if (streamElement instanceof StreamManagement.Answer) {
+            acks.acked(((StreamManagement.Answer) streamElement).getLastHandledStanza());
+            // the resend buffer could be full, continue sending.
+            tryToSend();
+            return true;
+        }
+        if (streamElement instanceof StreamManagement.Failed) {
+            LOGGER.warn("Stream management is refused by {}.", getDomain());
+            // the tracker is disabled and isn't enabled again on this stream.
+            List<Stanza> unacked = acks.reset();
+            queue.requeue(unacked);
+            getMetrics().queue(getDomain()).inc(unacked.size());
+            tryToSend();
+            return true;
         }
         return false;
     }
 
     @Override
     public void send(StreamElement streamElement) {
-        getExecutor().execute(() -> getConnection().send(streamElement));
+        OutgoingQueue current = queue;
+        if (!(streamElement instanceof Stanza) || current == null) {
+            getExecutor().execute(() -> getConnection().send(streamElement));
+            return;
+        }
+        Tracer.mark(((Stanza) streamElement).getId(), Stage.QUEUED);
+        if (!current.offer(streamElement)) {
+            throw new IllegalStateException(String.format("The outgoing queue to %s is full.", getDomain()));
+        }
+        getMetrics().queue(getDomain()).inc();
+        if (closed && current.remove(streamElement)) {
+            // the session is closed concurrently and the queue is already spooled.
+            getMetrics().queue(getDomain()).dec();
+            throw new IllegalStateException(String.format("The bidirectional session from %s is closed.", getDomain()));
+        }
+        tryToSend();
+    }
+
+    /**
+     * Schedule the queued stanzas of the bidirectional session. The session without the scheduler (not a Netty channel) drains
+     * the whole queue by its executor.
+     */
+    public void tryToSend() {
+        EgressScheduler scheduler = egress;
+        OutgoingQueue current = queue;
+        if (current == null || current.isEmpty()) {
+            return;
+        }
+        if (scheduler != null) {
+            scheduler.schedule(flow);
+        } else {
+            getExecutor().execute(() -> flow.send(Long.MAX_VALUE, Integer.MAX_VALUE));
+        }
+    }
+
+    public void setEgress(EgressScheduler egress) {
+        this.egress = egress;
+    }
+
+    /**
+     * Enable the stream management of the sent stanzas before the first one. Called by the event loop of the channel.
+     */
+    private void enableStreamManagement() {
+        StreamManagementConfig sm = getXmppServer().getConfig().getStreamManagement();
+        if (acks == null && sm.isEnabled()) {
+            AckTracker tracker = new AckTracker(sm.getAckInterval(), sm.getMaxUnacked());
+            tracker.enable();
+            acks = tracker;
+            getConnection().write(new StreamManagement.Enable(false));
+        }
+    }
+
+    /**
+     * Outgoing flow of the bidirectional session.
+     */
+    private class Flow extends EgressFlow {
+
+        @Override
+        protected long send(long bytes, int elements) {
+            if (closed) {
+                return 0;
+            }
+            enableStreamManagement();
+            return drain(queue, acks, bytes, elements);
+        }
+
+        @Override
+        protected boolean hasPending() {
+            AckTracker current = acks;
+            return !closed && !isUnwritable() && queue.hasNext(current == null || !current.isFull());
+        }
     }
 
     @Override
     protected String direction() {
         return "income";
     }
+
+    @Override
+    public void idle(IdleState state) {
+        if (state == IdleState.READER_IDLE) {
+            LOGGER.info("Incoming session from {} is silent, closing.", getDomain());
+            // the session is closed when the channel becomes inactive.
+            getConnection().closeAsync();
+        } else if (state == IdleState.WRITER_IDLE && bidirectional) {
+            keepalive();
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (streamManagement != null) {
+            streamManagement.detach();
+        }
+        super.close();
+        spool();
+    }
+
+    /**
+     * Send the unacknowledged and the queued stanzas of the closed bidirectional session by another route of the stanza domain.
+     */
+    private void spool() {
+        OutgoingQueue current = queue;
+        if (current == null) {
+            return;
+        }
+        List<StreamElement> pending = new ArrayList<>();
+        if (acks != null) {
+            pending.addAll(acks.reset());
+        }
+        List<StreamElement> queued = current.drain();
+        pending.addAll(queued);
+        getMetrics().queue(getDomain()).dec(queued.size());
+        if (!pending.isEmpty()) {
+            LOGGER.info("Bidirectional session from {} is closed, {} pending stanzas are spooled.", getDomain(), pending.size());
+        }
+        for (StreamElement spooled : pending) {
+            // the stanza is routed by its own domain, the session domain is the route of the stanza without the address.
+            Jid to = Jid.ofDomain(getDomain());
+            if (spooled instanceof Stanza && ((Stanza) spooled).getTo() != null) {
+                to = ((Stanza) spooled).getTo();
+            }
+            try {
+                getXmppServer().send(to, spooled);
+            } catch (Exception e) {
+                LOGGER.error("Failed to spool the stream element.", e);
+            }
+        }
+    }
+
+    public StreamManagementNegotiator getStreamManagement() {
+        return streamManagement;
+    }
+
+    public void setStreamManagement(StreamManagementNegotiator streamManagement) {
+        this.streamManagement = streamManagement;
+    }
+
+    public BidiNegotiator getBidi() {
+        return bidi;
+    }
+
+    public void setBidi(BidiNegotiator bidi) {
+        this.bidi = bidi;
+    }
+
+    /**
+     * The initiating server requested the bidirectional stream (XEP-0288).
+     *
+     * @return {@code true} if the session sends the stanzas to the authenticated remote domains too.
+     */
+    public boolean isBidirectional() {
+        return bidirectional;
+    }
+
+    /**
+     * Set the bidirectional stream. The queue of the outgoing stanzas is created before the session is routed.
+     *
+     * @param bidirectional {@code true} if the initiating server requested the bidirectional stream.
+     */
+    public void setBidirectional(boolean bidirectional) {
+        if (bidirectional && queue == null) {
+            queue = new OutgoingQueue(getXmppServer().getConfig().getQueue(), getXmppServer().getBackpressure());
+        }
+        this.bidirectional = bidirectional;
+    }
 }
@@ -16,18 +16,36 @@
 
 package io.github.ma1uta.mjjb.xmpp;
 
+import io.github.ma1uta.mjjb.config.Cert;
+import io.github.ma1uta.mjjb.config.StreamManagementConfig;
+import io.github.ma1uta.mjjb.metrics.Metrics;
 import io.github.ma1uta.mjjb.netty.NettyBuilder;
+import io.github.ma1uta.mjjb.trace.Stage;
+import io.github.ma1uta.mjjb.trace.Trace;
+import io.github.ma1uta.mjjb.trace.Tracer;
+import io.github.ma1uta.mjjb.xmpp.babbler.netty.NettyChannelConnection;
+import io.github.ma1uta.mjjb.xmpp.bidi.Bidi;
+import io.github.ma1uta.mjjb.xmpp.bidi.BidiRequest;
+import io.github.ma1uta.mjjb.xmpp.bidi.PeerCertificate;
+import io.github.ma1uta.mjjb.xmpp.compress.CompressionPolicy;
 import io.github.ma1uta.mjjb.xmpp.dialback.Dialback;
 import io.github.ma1uta.mjjb.xmpp.dialback.ServerDialback;
+import io.github.ma1uta.mjjb.xmpp.dialback.Verify;
 import io.github.ma1uta.mjjb.xmpp.netty.XmppClientInitializer;
+import io.github.ma1uta.mjjb.xmpp.queue.EgressFlow;
+import io.github.ma1uta.mjjb.xmpp.queue.EgressScheduler;
+import io.github.ma1uta.mjjb.xmpp.queue.OutgoingQueue;
+import io.github.ma1uta.mjjb.xmpp.sm.AckTracker;
+import io.netty.handler.timeout.IdleState;
 import rocks.xmpp.addr.Jid;
 import rocks.xmpp.core.XmppException;
+import rocks.xmpp.core.net.TcpBinding;
 import rocks.xmpp.core.sasl.model.Abort;
 import rocks.xmpp.core.sasl.model.Auth;
 import rocks.xmpp.core.sasl.model.Failure;
 import rocks.xmpp.core.sasl.model.Mechanisms;
 import rocks.xmpp.core.sasl.model.Success;
-import rocks.xmpp.core.stream.StreamNegotiationException;
+import rocks.xmpp.core.stanza.model.Stanza;
 import rocks.xmpp.core.stream.model.StreamElement;
 import rocks.xmpp.core.stream.model.StreamError;
 import rocks.xmpp.core.stream.model.StreamErrorException;
@@ -38,13 +56,17 @@ import rocks.xmpp.core.tls.model.Proceed;
 import rocks.xmpp.core.tls.model.StartTls;
 import rocks.xmpp.extensions.compress.model.StreamCompression;
 import rocks.xmpp.extensions.compress.model.feature.CompressionFeature;
+import rocks.xmpp.extensions.sm.model.StreamManagement;
 
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import javax.net.ssl.SSLSession;
 import javax.xml.bind.JAXBException;
 import javax.xml.namespace.QName;
 
@@ -58,16 +80,49 @@ public class OutgoingSession extends Session {
      */
     public static final String EXTERNAL = "EXTERNAL";
 
+    /**
+     * Max count of the reconnections to resume the stream without the successful resumption between them.
+     */
+    private static final int MAX_RECONNECTS = 1;
+
+    /**
+     * Mask of the 32-bit counter.
+     */
+    private static final long COUNTER_MASK = 0xFFFF_FFFFL;
+
+    private final boolean dialbackEnabled;
     private String compressMethod;
+    private boolean compressionNegotiated;
+    private StreamFeatures features;
     private ServerDialback.State dialback;
     private Collection<String> supported;
     private AtomicBoolean initialized = new AtomicBoolean(false);
-    private final ConcurrentLinkedQueue<StreamElement> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean connecting = new AtomicBoolean(false);
+    private final OutgoingQueue queue;
+    private final Flow flow = new Flow();
+    private volatile EgressScheduler egress;
+    private final AckTracker acks;
+    private boolean smOffered;
+    private boolean bidi;
+    private boolean countReceived;
+    private long received;
+    private boolean resuming;
+    private int reconnects;
+    private volatile boolean closed;
+    private volatile TcpBinding abandoned;
+    private volatile boolean directTlsFailed;
+    private volatile TcpBinding failedHandshake;
+    private volatile long lastActivity = System.nanoTime();
 
     public OutgoingSession(XmppServer xmppServer, String domain, boolean dialback) throws JAXBException {
         super(xmppServer);
+        this.dialbackEnabled = dialback;
         this.dialback = dialback ? null : ServerDialback.State.DISABLED;
         setDomain(domain);
+        this.queue = new OutgoingQueue(xmppServer.getConfig().getQueue(), xmppServer.getBackpressure(), false);
+        // the verifying sessions (without the dialback) carry only <db:verify/>, there is nothing to acknowledge.
+        StreamManagementConfig sm = xmppServer.getConfig().getStreamManagement();
+        this.acks = dialback && sm.isEnabled() ? new AckTracker(sm.getAckInterval(), sm.getMaxUnacked()) : null;
     }
 
     /**
@@ -88,6 +143,15 @@ public class OutgoingSession extends Session {
         this.dialback = result;
     }
 
+    /**
+     * The stream is negotiated and authenticated (or doesn't require the dialback).
+     *
+     * @return {@code true} if the stream elements are sent immediately.
+     */
+    public boolean isInitialized() {
+        return initialized.get();
+    }
+
     public boolean isDialbackEnabled() {
         return dialback != ServerDialback.State.DISABLED;
     }
@@ -97,8 +161,14 @@ public class OutgoingSession extends Session {
         if (isStanzaInvalid(streamElement)) {
             throw new StreamErrorException(new StreamError(Condition.IMPROPER_ADDRESSING));
         }
+        if (streamElement instanceof Stanza && bidi) {
+            lastActivity = System.nanoTime();
+            processStanza((Stanza) streamElement);
+            return false;
+        }
         if (streamElement instanceof StreamHeader) {
             StreamHeader header = (StreamHeader) streamElement;
+            streamOpened(header.getId());
             List<QName> namespaces = header.getAdditionalNamespaces();
             for (QName namespace : namespaces) {
                 if (dialback() == null
@@ -121,7 +191,7 @@ public class OutgoingSession extends Session {
         }
         if (StreamCompression.COMPRESSED.equals(streamElement)) {
             try {
-                getConnection().compressConnection(compressMethod, null);
+                compressConnection(compressMethod, null);
                 handshake();
                 return true;
             } catch (Exception e) {
@@ -129,29 +199,39 @@ public class OutgoingSession extends Session {
                 throw new XmppException(e);
             }
         }
+        if (streamElement instanceof StreamCompression.Failure) {
+            // continue the negotiation of the current features without the compression.
+            LOGGER.warn("Compression {} refused by {}: {}", compressMethod, getDomain(),
+                ((StreamCompression.Failure) streamElement).getCondition());
+            compressMethod = null;
+            return features != null && handleStream(features);
+        }
+        if (handleReceivedStreamManagement(streamElement) || acks != null && handleStreamManagement(streamElement)) {
+            return false;
+        }
         if (streamElement instanceof StreamFeatures) {
-            StreamFeatures features = (StreamFeatures) streamElement;
-            if (dialback() == null) {
-                for (Object feature : features.getFeatures()) {
-                    if (feature instanceof Dialback) {
-                        dialback(ServerDialback.State.SUPPORT);
-                    }
+            features = (StreamFeatures) streamElement;
+            boolean bidiOffered = false;
+            for (Object feature : features.getFeatures()) {
+                if (dialback() == null && feature instanceof Dialback) {
+                    dialback(ServerDialback.State.SUPPORT);
                 }
+                smOffered |= feature instanceof StreamManagement;
+                bidiOffered |= feature instanceof Bidi;
+            }
+            if (bidiOffered && !bidi && dialbackEnabled && getXmppServer().getConfig().isBidi() && isCertified()) {
+                // before the authentication, the remote server sends its stanzas over this stream afterwards. Without the
+                // verified certificate the request isn't sent: the remote server uses its own stream authenticated by the dialback.
+                bidi = true;
+                sendDirect(BidiRequest.INSTANCE);
             }
             for (Object feature : features.getFeatures()) {
-                if (feature instanceof StartTls) {
+                if (feature instanceof StartTls && !getConnection().isSecure()) {
                     sendDirect(new StartTls());
                     return false;
                 }
-                if (feature instanceof CompressionFeature) {
-                    CompressionFeature compress = (CompressionFeature) feature;
-                    if (!compress.getMethods().isEmpty()) {
-                        compressMethod = compress.getMethods().get(0);
-                    }
-                    if (compressMethod != null) {
-                        sendDirect(new StreamCompression.Compress(compressMethod));
-                        return false;
-                    }
+                if (feature instanceof CompressionFeature && compress((CompressionFeature) feature)) {
+                    return false;
                 }
                 if (feature instanceof Mechanisms) {
                     Mechanisms mechanisms = (Mechanisms) feature;
@@ -163,14 +243,17 @@ public class OutgoingSession extends Session {
                 }
             }
         }
-        if (streamElement instanceof Success) {
-            initialized.set(true);
+        if (streamElement instanceof Success && !initialized.getAndSet(true)) {
+            authenticated(getDomain());
+            queue.setCounted(true);
+            startStreamManagement();
         }
         if (streamElement instanceof Abort || streamElement instanceof Failure) {
-            throw new StreamNegotiationException(new Failure(Failure.Condition.NOT_AUTHORIZED));
+            negotiationFailed("the authentication is refused");
+            return false;
         }
 
-        if (!initialized.get()) {
+        if (!initialized.get() || streamElement instanceof Verify) {
             switch (getXmppServer().dialback().negotiateOutgoing(this, streamElement)) {
                 case IN_PROCESS:
                 case FAILED:
@@ -181,8 +264,10 @@ public class OutgoingSession extends Session {
                     // nothing to do
             }
             // send all queued stanzas.
-            if (ServerDialback.State.DISABLED.equals(dialback()) || ServerDialback.State.TRUSTED.equals(dialback())) {
-                initialized.compareAndSet(false, true);
+            if ((ServerDialback.State.DISABLED.equals(dialback()) || ServerDialback.State.TRUSTED.equals(dialback()))
+                && initialized.compareAndSet(false, true)) {
+                queue.setCounted(true);
+                startStreamManagement();
             }
         }
         if (initialized.get()) {
@@ -191,22 +276,155 @@ public class OutgoingSession extends Session {
         return false;
     }
 
+    private boolean handleStreamManagement(Object streamElement) throws XmppException {
+        if (streamElement instanceof StreamManagement.Enabled) {
+            acks.enabled((StreamManagement.Enabled) streamElement);
+            return true;
+        }
+        if (streamElement instanceof StreamManagement.Answer) {
+            acks.acked(((StreamManagement.Answer) streamElement).getLastHandledStanza());
+            // the resend buffer could be full, continue sending.
+            tryToSend();
+            return true;
+        }
+        if (streamElement instanceof StreamManagement.Resumed) {
+            resuming = false;
+            reconnects = 0;
+            requeue(acks.resumed(((StreamManagement.Resumed) streamElement).getLastHandledStanza()));
+            Metrics.SM_RESUMPTIONS.labels(direction(), "resumed").inc();
+            LOGGER.info("Stream to {} is resumed.", getDomain());
+            tryToSend();
+            return true;
+        }
+        if (streamElement instanceof StreamManagement.Failed) {
+            requeue(acks.reset());
+            if (resuming) {
+                // enable the new stream management and send the unacknowledged stanzas again.
+                resuming = false;
+                Metrics.SM_RESUMPTIONS.labels(direction(), "failed").inc();
+                LOGGER.warn("Failed to resume the stream to {}: {}", getDomain(), ((StreamManagement.Failed) streamElement).getError());
+                enableStreamManagement();
+                tryToSend();
+            } else {
+                LOGGER.warn("Stream management is refused by {}.", getDomain());
+                tryToSend();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The remote server is authenticated by its certificate, so its stanzas are trusted on this stream.
+     * <br/>
+     * The chain must be validated by the trust store (not by the insecure trust manager of {@code disable_ssl_validation}) and
+     * issued for the remote domain, the host name of the SRV record or the route isn't enough.
+     *
+     * @return {@code true} if the certificate of the remote server is verified for its domain.
+     */
+    private boolean isCertified() {
+        Cert cert = getXmppServer().getConfig().getSsl();
+        if (cert == null || cert.isDisableValidation() || !(getConnection() instanceof NettyChannelConnection)) {
+            return false;
+        }
+        SSLSession ssl = ((NettyChannelConnection) getConnection()).getSslSession();
+        return ssl != null && PeerCertificate.isIssuedFor(ssl, getDomain());
+    }
+
+    /**
+     * The stream management of the stanzas received over the bidirectional stream: the remote server enables it without the
+     * resumption, its stanzas are spooled to another route when the stream is closed.
+     */
+    private boolean handleReceivedStreamManagement(Object streamElement) {
+        if (streamElement instanceof StreamManagement.Enable) {
+            if (bidi && !countReceived) {
+                countReceived = true;
+                received = 0;
+                sendDirect(new StreamManagement.Enabled(null, false));
+            } else {
+                sendDirect(new StreamManagement.Failed(rocks.xmpp.core.stanza.model.errors.Condition.UNEXPECTED_REQUEST));
+            }
+            return true;
+        }
+        if (streamElement instanceof StreamManagement.Request) {
+            // nothing is counted until the remote server enables the stream management.
+            sendDirect(new StreamManagement.Answer(countReceived ? received : 0));
+            return true;
+        }
+        return false;
+    }
+
+    private void processStanza(Stanza stanza) throws XmppException {
+        // the remote server of the bidirectional stream is trusted only for its own certified domain.
+        if (stanza.getFrom() == null || !getDomain().equals(stanza.getFrom().getDomain())) {
+            throw new StreamErrorException(new StreamError(Condition.INVALID_FROM));
+        }
+        Tracer.start(Trace.Direction.XMPP_TO_MATRIX, System.nanoTime());
+        try {
+            getXmppServer().process(stanza);
+        } finally {
+            Tracer.clear();
+        }
+        if (countReceived) {
+            received = (received + 1) & COUNTER_MASK;
+        }
+    }
+
+    /**
+     * The stream is secured and authenticated. Resume the previous stream if the connection was lost, else enable the new one.
+     * <br/>
+     * The remote server accepts the resumption only on the secure authenticated stream. Nothing is sent until the answer, so
+     * the unacknowledged stanzas go ahead of the queued ones.
+     */
+    private void startStreamManagement() {
+        if (acks != null && smOffered && acks.isResumable() && getConnection().isSecure()) {
+            resuming = true;
+            sendDirect(new StreamManagement.Resume(0, acks.getId()));
+        } else {
+            enableStreamManagement();
+        }
+    }
+
+    private void enableStreamManagement() {
+        if (acks != null && smOffered && !acks.isEnabled()) {
+            acks.enable();
+            sendDirect(new StreamManagement.Enable(true));
+        }
+    }
+
+    private void requeue(List<Stanza> stanzas) {
+        queue.requeue(stanzas);
+        getMetrics().queue(getDomain()).inc(stanzas.size());
+        Metrics.SM_RESENT.inc(stanzas.size());
+    }
+
+    private boolean compress(CompressionFeature feature) {
+        if (compressionNegotiated) {
+            return false;
+        }
+        // the only attempt, a restarted stream or a refused method aren't negotiated again.
+        compressionNegotiated = true;
+        CompressionPolicy policy = getXmppServer().compression();
+        if (policy.accept(getDomain(), getConnection().isSecure())) {
+            compressMethod = policy.choose(feature.getMethods());
+        }
+        if (compressMethod != null) {
+            sendDirect(new StreamCompression.Compress(compressMethod));
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Handshake with remote server.
      */
     public void handshake() {
-        StreamHeader header = isDialbackEnabled()
-            ? StreamHeader.initialServerToServer(
+        // the dialback namespace is declared on the verifying streams too, they carry <db:verify/>.
+        StreamHeader header = StreamHeader.initialServerToServer(
             Jid.ofDomain(getXmppServer().getConfig().getDomain()),
             Jid.ofDomain(getDomain()),
             Locale.ENGLISH,
-            new QName(ServerDialback.NAMESPACE, "", ServerDialback.PREFIX))
-
-            : StreamHeader.initialServerToServer(
-            Jid.ofDomain(getXmppServer().getConfig().getDomain()),
-            Jid.ofDomain(getDomain()),
-            Locale.ENGLISH
-        );
+            new QName(ServerDialback.NAMESPACE, "", ServerDialback.PREFIX));
         getExecutor().execute(() -> {
             try {
                 getConnection().open(header);
@@ -219,8 +437,23 @@ public class OutgoingSession extends Session {
 
     @Override
     public void send(StreamElement streamElement) {
-        queue.offer(streamElement);
-        tryToSend();
+        if (streamElement instanceof Stanza) {
+            Tracer.mark(((Stanza) streamElement).getId(), Stage.QUEUED);
+        }
+        lastActivity = System.nanoTime();
+        if (!queue.offer(streamElement)) {
+            throw new IllegalStateException(String.format("The outgoing queue to %s is full.", getDomain()));
+        }
+        getMetrics().queue(getDomain()).inc();
+        try {
+            tryToSend();
+        } catch (RuntimeException e) {
+            // the caller (e.g. the outbox) retries the element, the queued copy would be sent twice.
+            if (queue.remove(streamElement)) {
+                getMetrics().queue(getDomain()).dec();
+            }
+            throw e;
+        }
     }
 
     @Override
@@ -228,6 +461,54 @@ public class OutgoingSession extends Session {
         return "outcome";
     }
 
+    @Override
+    public void idle(IdleState state) {
+        if (state != IdleState.WRITER_IDLE || closed) {
+            return;
+        }
+        long timeout = getXmppServer().getConfig().getIdle().getOutgoingTimeout();
+        if (timeout > 0 && System.nanoTime() - lastActivity >= TimeUnit.MILLISECONDS.toNanos(timeout)) {
+            closeIdle();
+        } else if (initialized.get() && getXmppServer().getConfig().getIdle().getKeepaliveInterval() > 0) {
+            keepalive();
+        }
+    }
+
+    /**
+     * Close the idle session. The pending stanzas (a stuck negotiation or the unacknowledged ones) are spooled to a new session.
+     */
+    private void closeIdle() {
+        LOGGER.info("Outgoing session to {} is idle, closing.", getDomain());
+        // don't wait for the closing tag on the event loop which has to read it.
+        getConnection().closeAsync();
+        spool();
+    }
+
+    /**
+     * Close the session and send its unacknowledged and queued stanzas by a new session.
+     */
+    private void spool() {
+        closed = true;
+        getXmppServer().remove(this);
+        List<StreamElement> pending = new ArrayList<>();
+        if (acks != null) {
+            pending.addAll(acks.reset());
+        }
+        List<StreamElement> queued = queue.drain();
+        pending.addAll(queued);
+        getMetrics().queue(getDomain()).dec(queued.size());
+        if (!pending.isEmpty()) {
+            LOGGER.info("Outgoing session to {} is closed, {} pending stream elements are spooled.", getDomain(), pending.size());
+        }
+        for (StreamElement spooled : pending) {
+            try {
+                getXmppServer().send(Jid.ofDomain(getDomain()), spooled);
+            } catch (Exception e) {
+                LOGGER.error("Failed to spool the stream element.", e);
+            }
+        }
+    }
+
     /**
      * Send message bypassing outgoing queue.
      *
@@ -245,29 +526,189 @@ public class OutgoingSession extends Session {
 
     /**
      * Try to send all messages.
+     * <br/>
+     * The queue is drained by the egress scheduler of the event loop in the turns shared with the other sessions of the loop.
+     * The session without the scheduler (not a Netty channel) drains the whole queue by its executor.
      */
-    public synchronized void tryToSend() {
+    public void tryToSend() {
+        EgressScheduler scheduler = egress;
         if (initialized.get() && !queue.isEmpty()) {
-            getExecutor().execute(() -> {
-                while (!queue.isEmpty()) {
-                    try {
-                        getConnection().send(queue.poll());
-                    } catch (Exception e) {
-                        LOGGER.error("Failed to send message.", e);
-                    }
-                }
-            });
+            if (scheduler != null) {
+                scheduler.schedule(flow);
+            } else {
+                getExecutor().execute(() -> flow.send(Long.MAX_VALUE, Integer.MAX_VALUE));
+            }
         }
         if (!initialized.get()) {
             connect();
         }
     }
 
+    public void setEgress(EgressScheduler egress) {
+        this.egress = egress;
+    }
+
+    /**
+     * Outgoing flow of the session.
+     */
+    private class Flow extends EgressFlow {
+
+        @Override
+        protected long send(long bytes, int elements) {
+            return initialized.get() && !resuming ? drain(queue, acks, bytes, elements) : 0;
+        }
+
+        @Override
+        protected boolean hasPending() {
+            return initialized.get() && !resuming && !closed && !isUnwritable() && queue.hasNext(acks == null || !acks.isFull());
+        }
+    }
+
+    @Override
+    public void close() throws Exception {
+        closed = true;
+        if (acks != null) {
+            acks.reset();
+        }
+        getMetrics().queue(getDomain()).dec(queue.drain().size());
+        super.close();
+    }
+
     /**
      * Connect to the target domain.
+     * <p/>
+     * Only one connection is opened at a time, the stanzas sent while the session is negotiated are queued.
      */
     public void connect() {
-        getXmppServer().getSrvNameResolver().resolve(getDomain(),
-            (hostname, port) -> NettyBuilder.createClient(hostname, port, new XmppClientInitializer(getXmppServer(), this), null));
+        if (!connecting.compareAndSet(false, true)) {
+            return;
+        }
+        if (getXmppServer().inClientLoop()) {
+            // the new channel can be registered to this loop, the connection is opened by another thread.
+            CompletableFuture.runAsync(this::open).exceptionally(e -> {
+                LOGGER.error("Unable to connect to " + getDomain(), e);
+                return null;
+            });
+        } else {
+            open();
+        }
+    }
+
+    private void open() {
+        try {
+            getXmppServer().getSrvNameResolver().resolve(getDomain(), !directTlsFailed,
+                (hostname, port, directTls) -> NettyBuilder.createClient(getXmppServer().getClientGroup(), hostname, port,
+                    new XmppClientInitializer(getXmppServer(), this, directTls, port), null));
+        } catch (RuntimeException e) {
+            connecting.set(false);
+            throw e;
+        }
+    }
+
+    /**
+     * The stream error closes the connection only, the session is resumed or closed when the connection is lost.
+     *
+     * @param id stream id or the session hash code for the logs.
+     */
+    @Override
+    protected void closeOnError(String id) {
+        // don't wait for the closing tag on the event loop which has to read it.
+        getConnection().closeAsync();
+    }
+
+    /**
+     * The connection is closed. Reconnect and resume the stream if the remote server allowed it or connect with STARTTLS after
+     * the failed direct TLS handshake. Otherwise the session of the negotiated stream is closed and its pending stanzas are
+     * spooled to a new session, the session of the not negotiated stream keeps them for the next connection.
+     *
+     * @param connection closed connection.
+     */
+    public void connectionLost(TcpBinding connection) {
+        if (closed || connection != getConnection() || connection == abandoned) {
+            return;
+        }
+        if (connection == failedHandshake) {
+            reset();
+            LOGGER.warn("Direct TLS handshake with {} failed, connecting with STARTTLS.", getDomain());
+            reconnect();
+            return;
+        }
+        if (acks == null || !acks.isResumable() || reconnects >= MAX_RECONNECTS) {
+            if (initialized.get()) {
+                // the stanzas are sent again by a new stream.
+                spool();
+            } else {
+                // the stream wasn't negotiated, the stanzas are kept and the next stanza opens a new connection.
+                LOGGER.warn("Connection to {} is lost before the stream was negotiated.", getDomain());
+                if (acks != null) {
+                    requeue(acks.reset());
+                }
+                reset();
+            }
+            return;
+        }
+        reconnects++;
+        reset();
+        LOGGER.info("Connection to {} is lost, resuming the stream {}.", getDomain(), acks.getId());
+        reconnect();
+    }
+
+    /**
+     * Open a new connection of the session. If it fails the queued and the unacknowledged stanzas are kept, the next stanza opens
+     * a new connection.
+     */
+    private void reconnect() {
+        CompletableFuture.runAsync(this::connect).exceptionally(e -> {
+            LOGGER.error("Unable to reconnect to " + getDomain(), e);
+            return null;
+        });
+    }
+
+    /**
+     * The direct TLS handshake (XEP-0368) failed after the connection was opened. When the connection is closed the session
+     * connects again over the {@code _xmpp-server._tcp} records with STARTTLS, the queued and the unacknowledged stanzas are
+     * kept. The session falls back once, the next failure (e.g. of the static {@code tls://} route) is a lost connection.
+     *
+     * @param connection connection of the failed handshake.
+     */
+    public void directTlsFailed(TcpBinding connection) {
+        if (closed || directTlsFailed || connection != getConnection()) {
+            return;
+        }
+        directTlsFailed = true;
+        failedHandshake = connection;
+    }
+
+    /**
+     * The stream can't be negotiated, e.g. the dialback key or the authentication was rejected. The connection is closed and
+     * the queued stanzas are kept, the next stanza opens a new connection.
+     *
+     * @param reason failure reason.
+     */
+    public void negotiationFailed(String reason) {
+        LOGGER.warn("Failed to negotiate the stream to {}: {}", getDomain(), reason);
+        TcpBinding connection = getConnection();
+        abandoned = connection;
+        reset();
+        // don't wait for the closing tag on the event loop which has to read it.
+        connection.closeAsync();
+    }
+
+    /**
+     * Forget the negotiated state of the closed connection, so the next connection is negotiated from the start.
+     */
+    private void reset() {
+        initialized.set(false);
+        // the stanzas waiting for the new connection don't count in the backpressure.
+        queue.setCounted(false);
+        dialback = dialbackEnabled ? null : ServerDialback.State.DISABLED;
+        compressMethod = null;
+        compressionNegotiated = false;
+        features = null;
+        smOffered = false;
+        resuming = false;
+        bidi = false;
+        countReceived = false;
+        connecting.set(false);
     }
 }
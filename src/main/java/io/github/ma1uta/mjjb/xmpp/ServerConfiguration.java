@@ -16,6 +16,8 @@
 
 package io.github.ma1uta.mjjb.xmpp;
 
+import io.github.ma1uta.mjjb.xmpp.bidi.Bidi;
+import io.github.ma1uta.mjjb.xmpp.bidi.BidiRequest;
 import io.github.ma1uta.mjjb.xmpp.dialback.Dialback;
 import io.github.ma1uta.mjjb.xmpp.dialback.DialbackError;
 import io.github.ma1uta.mjjb.xmpp.dialback.Result;
@@ -29,6 +31,7 @@ import rocks.xmpp.core.stream.model.StreamError;
 import rocks.xmpp.core.stream.model.StreamFeatures;
 import rocks.xmpp.core.tls.model.StartTls;
 import rocks.xmpp.extensions.compress.model.StreamCompression;
+import rocks.xmpp.extensions.sm.model.StreamManagement;
 
 import javax.xml.bind.DataBindingException;
 import javax.xml.bind.JAXBContext;
@@ -56,6 +59,9 @@ public final class ServerConfiguration {
                 Mechanisms.class,
                 StartTls.class,
                 StreamCompression.class,
+                StreamManagement.class,
+                Bidi.class,
+                BidiRequest.class,
                 Dialback.class,
                 DialbackError.class,
                 Result.class,
@@ -17,18 +17,33 @@
 package io.github.ma1uta.mjjb.xmpp;
 
 import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.audit.StanzaAudit;
+import io.github.ma1uta.mjjb.metrics.SessionMetrics;
+import io.github.ma1uta.mjjb.trace.Stage;
+import io.github.ma1uta.mjjb.trace.Tracer;
+import io.github.ma1uta.mjjb.xmpp.babbler.netty.NettyChannelConnection;
 import io.github.ma1uta.mjjb.xmpp.dialback.Result;
 import io.github.ma1uta.mjjb.xmpp.dialback.Verify;
+import io.github.ma1uta.mjjb.xmpp.queue.Backpressure;
+import io.github.ma1uta.mjjb.xmpp.queue.OutgoingQueue;
+import io.github.ma1uta.mjjb.xmpp.sm.AckTracker;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.handler.timeout.IdleState;
+import io.prometheus.client.Gauge;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rocks.xmpp.core.XmppException;
 import rocks.xmpp.core.net.TcpBinding;
 import rocks.xmpp.core.stanza.model.Stanza;
 import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamError;
 import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.core.stream.model.errors.Condition;
 import rocks.xmpp.core.stream.server.ServerStreamFeaturesManager;
+import rocks.xmpp.extensions.sm.model.StreamManagement;
 
-import java.util.Objects;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
 import javax.xml.bind.JAXBException;
 import javax.xml.bind.Marshaller;
@@ -49,6 +64,10 @@ public abstract class Session implements AutoCloseable {
     private final ServerStreamFeaturesManager streamFeaturesManager = new ServerStreamFeaturesManager();
     private final XmppServer xmppServer;
     private String domain;
+    private volatile String streamId;
+    private final SessionMetrics metrics = new SessionMetrics();
+    private long written;
+    private boolean unwritable;
 
     public Session(XmppServer xmppServer) throws JAXBException {
         this.xmppServer = xmppServer;
@@ -80,6 +99,13 @@ public abstract class Session implements AutoCloseable {
      */
     public abstract void send(StreamElement streamElement);
 
+    /**
+     * The connection is idle.
+     *
+     * @param state nothing was read ({@link IdleState#READER_IDLE}) or written ({@link IdleState#WRITER_IDLE}).
+     */
+    public abstract void idle(IdleState state);
+
     /**
      * Session direction. Incoming or outgoing.
      *
@@ -94,31 +120,112 @@ public abstract class Session implements AutoCloseable {
      * @param element stanza.
      */
     public void onRead(String xml, StreamElement element) {
-        log(xml, element, " IN");
+        String remoteDomain = remoteDomain(element);
+        metrics.read(remoteDomain, element);
+        StanzaAudit audit = getXmppServer().getAudit();
+        if (audit.accept(remoteDomain)) {
+            audit.read(direction(), remoteDomain, streamId(), xml);
+        }
     }
 
     /**
      * Write handler.
+     * <br/>
+     * The buffer is valid only during the call, the encoded bytes are copied only when the stanza is audited.
      *
-     * @param xml     string representation of the stanza.
+     * @param buffer  encoded stanza.
      * @param element stanza.
      */
-    public void onWrite(String xml, StreamElement element) {
-        log(xml, element, "OUT");
+    public void onWrite(ByteBuf buffer, StreamElement element) {
+        // the elements are encoded synchronously by the event loop, so the turn of the queue counts its bytes.
+        written += buffer.readableBytes();
+        String remoteDomain = remoteDomain(element);
+        metrics.write(remoteDomain, element);
+        if (element instanceof Stanza) {
+            Tracer.mark(((Stanza) element).getId(), Stage.ENCODED);
+        }
+        StanzaAudit audit = getXmppServer().getAudit();
+        if (audit.accept(remoteDomain)) {
+            audit.write(direction(), remoteDomain, streamId(), ByteBufUtil.getBytes(buffer));
+        }
     }
 
-    protected void log(String xml, StreamElement element, String action) {
-        if (STANZA_LOGGER.isDebugEnabled()) {
-            String id = getConnection().getStreamId() != null ? getConnection().getStreamId() : "new";
-            String domain = getDomain();
-            if (domain == null && element instanceof Stanza) {
-                domain = ((Stanza) element).getFrom().getDomain();
+    /**
+     * Send the queued elements within the budget of the turn. The elements are written and flushed once.
+     * <br/>
+     * Called by the event loop of the channel.
+     *
+     * @param queue    outgoing queue.
+     * @param acks     stream management of the sent stanzas, may be {@code null}.
+     * @param bytes    byte budget.
+     * @param elements max count of the elements.
+     * @return count of the written bytes.
+     */
+    protected long drain(OutgoingQueue queue, AckTracker acks, long bytes, int elements) {
+        written = 0;
+        Gauge.Child queueDepth = getMetrics().queue(getDomain());
+        // the full outbound buffer of the channel stops the turn, the rest stays in the queue and counts in the backpressure.
+        for (int count = 0; count < elements && written < bytes && !unwritable; count++) {
+            // the full resend buffer pauses the sending of the stanzas until the next <a/>.
+            StreamElement element = queue.poll(acks == null || !acks.isFull());
+            if (element == null) {
+                break;
             }
-            if (domain == null) {
-                domain = "unknown";
+            queueDepth.dec();
+            try {
+                String id = element instanceof Stanza ? ((Stanza) element).getId() : null;
+                Tracer.mark(id, Stage.DEQUEUED);
+                CompletionStage<Void> result = connection.write(element);
+                if (Tracer.isTraced(id)) {
+                    result.thenRun(() -> Tracer.finish(id, Stage.WRITTEN));
+                }
+                if (acks != null && element instanceof Stanza && acks.sent((Stanza) element)) {
+                    connection.write(StreamManagement.REQUEST);
+                }
+            } catch (Exception e) {
+                LOGGER.error("Failed to send message.", e);
             }
-            STANZA_LOGGER.debug("[{} : {} : {}] {}: {}", direction(), domain, id, action, xml);
         }
+        if (acks != null && acks.flush()) {
+            connection.write(StreamManagement.REQUEST);
+        }
+        connection.flush();
+        return written;
+    }
+
+    /**
+     * Writability of the channel is changed. The queue isn't drained while the channel isn't writable, the writable channel
+     * should be followed by the new turn of the queue.
+     * <br/>
+     * Called by the event loop of the channel.
+     *
+     * @param writable {@code true} if the channel is writable.
+     */
+    public void writabilityChanged(boolean writable) {
+        if (unwritable == !writable) {
+            return;
+        }
+        unwritable = !writable;
+        Backpressure backpressure = getXmppServer().getBackpressure();
+        if (backpressure != null) {
+            backpressure.writabilityChanged(writable);
+        }
+    }
+
+    protected boolean isUnwritable() {
+        return unwritable;
+    }
+
+    private String streamId() {
+        return getStreamId() != null ? getStreamId() : "new";
+    }
+
+    private String remoteDomain(StreamElement element) {
+        String domain = getDomain();
+        if (domain == null && element instanceof Stanza && ((Stanza) element).getFrom() != null) {
+            domain = ((Stanza) element).getFrom().getDomain();
+        }
+        return domain;
     }
 
     /**
@@ -153,13 +260,22 @@ public abstract class Session implements AutoCloseable {
      * @param throwable exception.
      */
     public void onException(Throwable throwable) {
-        String id = getConnection().getStreamId() != null ? getConnection().getStreamId() : Integer.toString(hashCode());
+        String id = getStreamId() != null ? getStreamId() : Integer.toString(hashCode());
         LOGGER.error(String.format("[%s : %s : %s] XMPP exception: ", direction(), getDomain(), id), throwable);
         if (throwable instanceof StreamElement) {
             getConnection().send((StreamElement) throwable);
         } else if (throwable instanceof StreamErrorException) {
             getConnection().send(((StreamErrorException) throwable).getError());
         }
+        closeOnError(id);
+    }
+
+    /**
+     * Close the session after the exception.
+     *
+     * @param id stream id or the session hash code for the logs.
+     */
+    protected void closeOnError(String id) {
         try {
             close();
         } catch (Exception e) {
@@ -179,10 +295,54 @@ public abstract class Session implements AutoCloseable {
         this.connection = connection;
     }
 
+    /**
+     * Compress the connection.
+     * <br/>
+     * The Netty connections penalize the remote domain of this session if the compression ratio is poor.
+     *
+     * @param method    compression method.
+     * @param onSuccess invoked after the compression method has been chosen, but before compression is applied.
+     * @throws Exception if the connection can't be compressed.
+     */
+    public void compressConnection(String method, Runnable onSuccess) throws Exception {
+        if (connection instanceof NettyChannelConnection) {
+            ((NettyChannelConnection) connection).compressConnection(method, getDomain(), onSuccess);
+        } else {
+            connection.compressConnection(method, onSuccess);
+        }
+    }
+
+    /**
+     * The remote domain is authenticated for this session, the metrics of the connection are labelled by it.
+     *
+     * @param remoteDomain authenticated domain.
+     */
+    void authenticated(String remoteDomain) {
+        if (connection instanceof NettyChannelConnection) {
+            ((NettyChannelConnection) connection).authenticated(remoteDomain);
+        }
+    }
+
+    /**
+     * Send the whitespace keepalive.
+     */
+    protected void keepalive() {
+        if (connection instanceof NettyChannelConnection) {
+            ((NettyChannelConnection) connection).keepalive().exceptionally(e -> {
+                LOGGER.warn("Failed to send keepalive to {}: {}", getDomain(), e.getMessage());
+                return null;
+            });
+        }
+    }
+
     public XmppServer getXmppServer() {
         return xmppServer;
     }
 
+    public SessionMetrics getMetrics() {
+        return metrics;
+    }
+
     @Override
     public void close() throws Exception {
         getXmppServer().remove(this);
@@ -197,28 +357,37 @@ public abstract class Session implements AutoCloseable {
         this.domain = domain;
     }
 
-    public Executor getExecutor() {
-        return executor;
+    /**
+     * Stream id.
+     * <br/>
+     * The id which was sent in the header by the receiving server: generated by this server for the incoming sessions (the id
+     * of the initiating header is ignored) and chosen by the remote server for the outgoing ones. The dialback keys are
+     * bound to it.
+     *
+     * @return stream id or {@code null} if the stream isn't opened yet.
+     */
+    public String getStreamId() {
+        return streamId;
     }
 
-    public void setExecutor(Executor executor) {
-        this.executor = executor;
+    /**
+     * Set the stream id and index the session by it.
+     *
+     * @param streamId stream id.
+     * @throws StreamErrorException with the conflict if the id is taken by another session.
+     */
+    protected void streamOpened(String streamId) throws StreamErrorException {
+        if (!getXmppServer().getSessions().streamOpened(this, streamId)) {
+            throw new StreamErrorException(new StreamError(Condition.CONFLICT));
+        }
+        this.streamId = streamId;
     }
 
-    @Override
-    public boolean equals(Object o) {
-        if (this == o) {
-            return true;
-        }
-        if (!(o.getClass().equals(this.getClass()))) {
-            return false;
-        }
-        Session session = (Session) o;
-        return Objects.equals(connection, session.connection) && Objects.equals(domain, session.domain);
+    public Executor getExecutor() {
+        return executor;
     }
 
-    @Override
-    public int hashCode() {
-        return Objects.hash(connection, domain);
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
     }
 }
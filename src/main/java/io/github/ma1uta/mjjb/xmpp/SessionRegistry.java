@@ -0,0 +1,415 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp;
+
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import rocks.xmpp.core.net.TcpBinding;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * Registry of the XMPP sessions.
+ * <p/>
+ * Sessions are grouped by the remote address (incoming) and by the remote domain (outgoing). The bidirectional incoming sessions
+ * (XEP-0288) join the outgoing groups of the authenticated remote domains too. The groups are copy-on-write sets:
+ * there are only a few sessions per domain, they are iterated far more often than changed and the iteration never
+ * sees a concurrent modification. A group is created and dropped under the lock of its map bin, so a session is never
+ * added to the group which is being removed.
+ * <p/>
+ * Secondary indexes give O(1) lookup by the stream id and by the authenticated domain pair. The ids of the incoming streams
+ * are generated by this server and are unique. The ids of the outgoing streams are chosen by the remote servers and are unique
+ * only per remote server, so they are indexed by the remote domain and the id. An id which is already taken is rejected instead
+ * of replacing the other session. The keys of each session are
+ * kept in the registry and changed under the lock of the session entry, so the event loops of the different sessions
+ * don't contend and the removal always cleans the same keys which were added.
+ */
+public class SessionRegistry {
+
+    private final ConcurrentMap<Session, Keys> keys = new ConcurrentHashMap<>();
+    private final ConcurrentMap<InetSocketAddress, Set<IncomingSession>> incoming = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<Session>> outgoing = new ConcurrentHashMap<>();
+    private final ConcurrentMap<StreamKey, Session> incomingStreams = new ConcurrentHashMap<>();
+    private final ConcurrentMap<StreamKey, Session> outgoingStreams = new ConcurrentHashMap<>();
+    private final ConcurrentMap<DomainPair, Set<Session>> authenticated = new ConcurrentHashMap<>();
+
+    /**
+     * Register a new incoming session by the remote address.
+     *
+     * @param session incoming session.
+     */
+    public void addIncoming(IncomingSession session) {
+        Keys sessionKeys = new Keys();
+        sessionKeys.address = session.getConnection().getRemoteAddress();
+        if (keys.putIfAbsent(session, sessionKeys) == null) {
+            join(incoming, sessionKeys.address, session);
+            opened(session);
+        }
+    }
+
+    /**
+     * Register a new outgoing session by the remote domain.
+     *
+     * @param session outgoing session.
+     */
+    public void addOutgoing(OutgoingSession session) {
+        Keys sessionKeys = new Keys();
+        sessionKeys.domain = session.getDomain();
+        if (keys.putIfAbsent(session, sessionKeys) == null) {
+            join(outgoing, sessionKeys.domain, session);
+            opened(session);
+        }
+    }
+
+    /**
+     * Register the outgoing session as the route to its domain unless the domain already has a route.
+     * <br/>
+     * The route is checked and added under the lock of the domain group, so the concurrent senders to the same domain share
+     * one session. The session which lost the race isn't registered and is dropped.
+     *
+     * @param session a new outgoing session.
+     * @return the route to the domain: the registered session or the existing one.
+     */
+    public Session addRoute(OutgoingSession session) {
+        Keys sessionKeys = new Keys();
+        sessionKeys.domain = session.getDomain();
+        keys.put(session, sessionKeys);
+        Session[] route = new Session[1];
+        outgoing.compute(sessionKeys.domain, (groupKey, group) -> {
+            Set<Session> sessions = group != null ? group : new CopyOnWriteArraySet<>();
+            if (sessions.isEmpty()) {
+                sessions.add(session);
+                route[0] = session;
+            } else {
+                route[0] = sessions.iterator().next();
+            }
+            return sessions;
+        });
+        if (route[0] == session) {
+            opened(session);
+        } else {
+            keys.remove(session);
+        }
+        return route[0];
+    }
+
+    /**
+     * Index the session by the stream id.
+     * <br/>
+     * The previous id is dropped: the stream is restarted after the TLS and the compression with a new id.
+     * Sessions which aren't registered (the verifying ones) are ignored.
+     *
+     * @param session  session.
+     * @param streamId stream id.
+     * @return {@code false} if the id is taken by another session of the same direction (and of the same remote domain for the
+     *     outgoing sessions), the session isn't indexed then.
+     */
+    public boolean streamOpened(Session session, String streamId) {
+        ConcurrentMap<StreamKey, Session> streams = streams(session);
+        boolean[] indexed = {true};
+        keys.computeIfPresent(session, (key, sessionKeys) -> {
+            if (sessionKeys.streamId != null) {
+                streams.remove(sessionKeys.streamId, session);
+                sessionKeys.streamId = null;
+            }
+            if (streamId != null) {
+                StreamKey streamKey = new StreamKey(session instanceof IncomingSession ? null : session.getDomain(), streamId);
+                Session previous = streams.putIfAbsent(streamKey, session);
+                indexed[0] = previous == null || previous == session;
+                sessionKeys.streamId = indexed[0] ? streamKey : null;
+            }
+            return sessionKeys;
+        });
+        return indexed[0];
+    }
+
+    /**
+     * Index the session by the authenticated domain pair.
+     * <br/>
+     * An incoming session can carry the several domains (piggybacking), so a session can have more than one pair.
+     * The bidirectional incoming session is indexed as outgoing to the remote domain.
+     *
+     * @param session      session.
+     * @param localDomain  local domain.
+     * @param remoteDomain remote domain.
+     */
+    public void authenticate(Session session, String localDomain, String remoteDomain) {
+        keys.computeIfPresent(session, (key, sessionKeys) -> {
+            DomainPair pair = new DomainPair(localDomain, remoteDomain);
+            if (sessionKeys.pairs.isEmpty()) {
+                Metrics.AUTHENTICATED_SESSIONS.labels(session.direction()).inc();
+            }
+            if (sessionKeys.pairs.add(pair)) {
+                join(authenticated, pair, session);
+                session.authenticated(remoteDomain);
+            }
+            if (session instanceof IncomingSession && ((IncomingSession) session).isBidirectional()
+                && sessionKeys.routes.add(remoteDomain)) {
+                join(outgoing, remoteDomain, session);
+            }
+            return sessionKeys;
+        });
+    }
+
+    /**
+     * Remove the session from the all indexes.
+     *
+     * @param session session to remove.
+     */
+    public void remove(Session session) {
+        Keys sessionKeys = keys.remove(session);
+        if (sessionKeys == null) {
+            return;
+        }
+        leave(incoming, sessionKeys.address, session);
+        leave(outgoing, sessionKeys.domain, session);
+        for (String route : sessionKeys.routes) {
+            leave(outgoing, route, session);
+        }
+        if (sessionKeys.streamId != null) {
+            streams(session).remove(sessionKeys.streamId, session);
+        }
+        for (DomainPair pair : sessionKeys.pairs) {
+            leave(authenticated, pair, session);
+        }
+        if (!sessionKeys.pairs.isEmpty()) {
+            Metrics.AUTHENTICATED_SESSIONS.labels(session.direction()).dec();
+        }
+        Metrics.SESSIONS.labels(session.direction()).dec();
+    }
+
+    /**
+     * Find the outgoing session to the domain.
+     *
+     * @param domain remote domain.
+     * @return the outgoing session or {@code null}.
+     */
+    public OutgoingSession outgoing(String domain) {
+        Set<Session> sessions = outgoing.get(domain);
+        if (sessions != null) {
+            for (Session session : sessions) {
+                if (session instanceof OutgoingSession) {
+                    return (OutgoingSession) session;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the session to send the stanzas to the domain: the outgoing one or the bidirectional incoming one, which was
+     * registered first.
+     *
+     * @param domain remote domain.
+     * @return the session or {@code null}.
+     */
+    public Session route(String domain) {
+        Set<Session> sessions = outgoing.get(domain);
+        if (sessions != null) {
+            for (Session session : sessions) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the incoming sessions from the remote address.
+     *
+     * @param address remote address.
+     * @return unmodifiable set of the incoming sessions.
+     */
+    public Set<IncomingSession> incoming(InetSocketAddress address) {
+        Set<IncomingSession> sessions = incoming.get(address);
+        return sessions != null ? Collections.unmodifiableSet(sessions) : Collections.emptySet();
+    }
+
+    /**
+     * Find the incoming session of the connection.
+     *
+     * @param connection incoming connection.
+     * @return the incoming session or {@code null}.
+     */
+    public IncomingSession findIncoming(TcpBinding connection) {
+        for (IncomingSession session : incoming(connection.getRemoteAddress())) {
+            if (session.getConnection() == connection) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the incoming session by the stream id which was generated by this server.
+     *
+     * @param streamId stream id.
+     * @return the session or {@code null}.
+     */
+    public Session incomingByStreamId(String streamId) {
+        return streamId != null ? incomingStreams.get(new StreamKey(null, streamId)) : null;
+    }
+
+    /**
+     * Find the outgoing session by the stream id which was chosen by the remote server.
+     *
+     * @param domain   remote domain.
+     * @param streamId stream id.
+     * @return the session or {@code null}.
+     */
+    public Session outgoingByStreamId(String domain, String streamId) {
+        return streamId != null ? outgoingStreams.get(new StreamKey(domain, streamId)) : null;
+    }
+
+    /**
+     * Find the sessions authenticated for the domain pair.
+     *
+     * @param localDomain  local domain.
+     * @param remoteDomain remote domain.
+     * @return unmodifiable set of the sessions.
+     */
+    public Set<Session> authenticated(String localDomain, String remoteDomain) {
+        Set<Session> sessions = authenticated.get(new DomainPair(localDomain, remoteDomain));
+        return sessions != null ? Collections.unmodifiableSet(sessions) : Collections.emptySet();
+    }
+
+    /**
+     * Snapshot of the all registered sessions.
+     * <br/>
+     * The snapshot is safe to iterate while the sessions are closed and removed.
+     *
+     * @return registered sessions.
+     */
+    public List<Session> snapshot() {
+        return new ArrayList<>(keys.keySet());
+    }
+
+    /**
+     * Count of the registered sessions.
+     *
+     * @return count of the sessions.
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    private ConcurrentMap<StreamKey, Session> streams(Session session) {
+        return session instanceof IncomingSession ? incomingStreams : outgoingStreams;
+    }
+
+    private void opened(Session session) {
+        Metrics.SESSIONS.labels(session.direction()).inc();
+        Metrics.SESSIONS_OPENED.labels(session.direction()).inc();
+    }
+
+    private static <K, S> void join(ConcurrentMap<K, Set<S>> index, K key, S session) {
+        index.compute(key, (groupKey, group) -> {
+            Set<S> sessions = group != null ? group : new CopyOnWriteArraySet<>();
+            sessions.add(session);
+            return sessions;
+        });
+    }
+
+    private static <K, S> void leave(ConcurrentMap<K, Set<S>> index, K key, Session session) {
+        if (key == null) {
+            return;
+        }
+        index.computeIfPresent(key, (groupKey, group) -> {
+            group.remove(session);
+            return group.isEmpty() ? null : group;
+        });
+    }
+
+    /**
+     * Index keys of the session.
+     */
+    private static class Keys {
+        private InetSocketAddress address;
+        private String domain;
+        private final Set<String> routes = new HashSet<>();
+        private StreamKey streamId;
+        private final Set<DomainPair> pairs = new HashSet<>();
+    }
+
+    /**
+     * Authenticated pair of the local and remote domains.
+     */
+    private static final class DomainPair {
+        private final String localDomain;
+        private final String remoteDomain;
+
+        private DomainPair(String localDomain, String remoteDomain) {
+            this.localDomain = localDomain;
+            this.remoteDomain = remoteDomain;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DomainPair)) {
+                return false;
+            }
+            DomainPair pair = (DomainPair) o;
+            return Objects.equals(localDomain, pair.localDomain) && Objects.equals(remoteDomain, pair.remoteDomain);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(localDomain, remoteDomain);
+        }
+    }
+
+    /**
+     * Stream id, the remote domain is set for the outgoing streams which ids are chosen by the remote servers.
+     */
+    private static final class StreamKey {
+        private final String domain;
+        private final String id;
+
+        private StreamKey(String domain, String id) {
+            this.domain = domain;
+            this.id = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof StreamKey)) {
+                return false;
+            }
+            StreamKey key = (StreamKey) o;
+            return Objects.equals(domain, key.domain) && Objects.equals(id, key.id);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(domain, id);
+        }
+    }
+}
@@ -33,32 +33,104 @@ import org.slf4j.LoggerFactory;
 import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
-import java.util.function.BiConsumer;
 
 /**
  * XMPP SRV name resolver.
+ * <p/>
+ * When the direct TLS is enabled the {@code _xmpps-server._tcp} records (XEP-0368) are looked up too. The records of the both
+ * services are merged and sorted by the priority, the direct TLS record wins at the same priority because it saves the
+ * STARTTLS round trips. The direct TLS service is optional: a failed lookup of it (timeout, SERVFAIL) is treated as no
+ * records, so the {@code _xmpp-server._tcp} records are still used. The session whose direct TLS handshake failed resolves the
+ * domain again without the direct TLS records and connects with STARTTLS.
  */
-public class SrvNameResolver {
+public class SrvNameResolver implements AutoCloseable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
 
+    /**
+     * Prefix of the static routes which are connected with the direct TLS.
+     */
+    private static final String TLS_ROUTE = "tls://";
+
+    private final NioEventLoopGroup group = new NioEventLoopGroup(1);
     private DnsNameResolver resolver;
+    private final Map<String, String> routes;
+    private final boolean directTls;
 
-    public SrvNameResolver() {
-        this.resolver = new DnsNameResolverBuilder(new NioEventLoopGroup().next())
+    public SrvNameResolver(Map<String, String> routes, boolean directTls) {
+        this.routes = routes != null ? routes : Collections.emptyMap();
+        this.directTls = directTls;
+        this.resolver = new DnsNameResolverBuilder(group.next())
             .channelFactory(new ReflectiveChannelFactory<>(NioDatagramChannel.class)).build();
     }
 
     /**
      * Resolve domain address and invoke the action with resolved address and port.
      *
-     * @param domain   XMPP domain.
-     * @param consumer action to invoke.
+     * @param domain    XMPP domain.
+     * @param directTls {@code false} to skip the {@code _xmpps-server._tcp} records, e.g. after the failed direct TLS handshake.
+     *                  The static route is used as is.
+     * @param connector action to invoke.
      */
-    public void resolve(String domain, BiConsumer<String, Integer> consumer) {
-        String query = "_xmpp-server._tcp." + domain + ".";
+    public void resolve(String domain, boolean directTls, Connector connector) {
+        String route = routes.get(domain);
+        List<Record> records = route != null ? Collections.singletonList(route(route)) : lookup(domain, directTls);
+        Exception lastException = null;
+        for (Record record : records) {
+            try {
+                connector.connect(record.getHostname(), record.getPort(), record.isDirectTls());
+                lastException = null;
+                break;
+            } catch (Exception e) {
+                LOGGER.error(String.format("Unable to connect to the %s:%d", record.getHostname(), record.getPort()), e);
+                lastException = e;
+            }
+        }
+        if (lastException != null) {
+            LOGGER.error(String.format("Unable to connect to the \"%s\".", domain), lastException);
+            throw new RuntimeException(lastException);
+        }
+    }
+
+    @Override
+    public void close() {
+        resolver.close();
+        group.shutdownGracefully();
+    }
+
+    private Record route(String route) {
+        boolean tls = route.startsWith(TLS_ROUTE);
+        String address = tls ? route.substring(TLS_ROUTE.length()) : route;
+        int delim = address.lastIndexOf(':');
+        if (delim == -1) {
+            return new Record(0, 0, XmppServer.DEFAULT_S2S_PORT, address, tls);
+        }
+        return new Record(0, 0, Integer.parseInt(address.substring(delim + 1)), address.substring(0, delim), tls);
+    }
+
+    private List<Record> lookup(String domain, boolean withDirectTls) {
+        List<Record> records = new ArrayList<>();
+        if (directTls && withDirectTls) {
+            records.addAll(query("_xmpps-server._tcp." + domain + ".", true));
+        }
+        records.addAll(query("_xmpp-server._tcp." + domain + ".", false));
+
+        if (records.isEmpty()) {
+            records.add(new Record(0, 0, XmppServer.DEFAULT_S2S_PORT, domain, false));
+        } else {
+            records.sort(Comparator.comparingInt(Record::getPriority)
+                .thenComparing(Record::isDirectTls, Comparator.reverseOrder())
+                .thenComparingInt(Record::getWeight));
+        }
+        return records;
+    }
+
+    private List<Record> query(String query, boolean tls) {
         List<Record> records = new ArrayList<>();
         try {
             List<DnsRecord> srvRecords = resolver.resolveAll(new DefaultDnsQuestion(query, DnsRecordType.SRV)).get();
@@ -69,38 +141,23 @@ public class SrvNameResolver {
                     int priority = content.readUnsignedShort();
                     int weight = content.readUnsignedShort();
                     int port = content.readUnsignedShort();
-                    records.add(new Record(priority, weight, port, extractHostname(content)));
+                    records.add(new Record(priority, weight, port, extractHostname(content), tls));
                 }
             }
         } catch (InterruptedException | ExecutionException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            if (tls) {
+                LOGGER.warn(String.format("Unable to resolve SRV record: %s, skip the direct TLS.", query), e);
+                return Collections.emptyList();
+            }
             if (!(e.getCause() instanceof UnknownHostException)) {
                 LOGGER.error(String.format("Unable to resolve SRV record: %s", query), e);
                 throw new RuntimeException(e);
             }
         }
-
-        if (records.isEmpty()) {
-            records.add(new Record(0, 0, XmppServer.DEFAULT_S2S_PORT, domain));
-        } else {
-            records.sort((r1, r2) -> r1.getPriority() == r2.getPriority()
-                ? Integer.compare(r1.getWeight(), r2.getWeight())
-                : Integer.compare(r1.getPriority(), r2.getPriority()));
-        }
-        Exception lastException = null;
-        for (Record record : records) {
-            try {
-                consumer.accept(record.getHostname(), record.getPort());
-                lastException = null;
-                break;
-            } catch (Exception e) {
-                LOGGER.error(String.format("Unable to connect to the %s:%d", record.getHostname(), record.getPort()), e);
-                lastException = e;
-            }
-        }
-        if (lastException != null) {
-            LOGGER.error(String.format("Unable to connect to the \"%s\".", domain), lastException);
-            throw new RuntimeException(lastException);
-        }
+        return records;
     }
 
     private String extractHostname(ByteBuf content) {
@@ -115,17 +172,35 @@ public class SrvNameResolver {
         return hostnameBuilder.toString();
     }
 
+    /**
+     * Connection to the resolved address.
+     */
+    @FunctionalInterface
+    public interface Connector {
+
+        /**
+         * Connect to the address.
+         *
+         * @param hostname  host name.
+         * @param port      port.
+         * @param directTls {@code true} to start TLS from the first byte (XEP-0368), else plain connection with STARTTLS.
+         */
+        void connect(String hostname, int port, boolean directTls);
+    }
+
     private static class Record {
         private int priority;
         private int weight;
         private int port;
         private String hostname;
+        private boolean directTls;
 
-        Record(int priority, int weight, int port, String hostname) {
+        Record(int priority, int weight, int port, String hostname, boolean directTls) {
             this.priority = priority;
             this.weight = weight;
             this.port = port;
             this.hostname = hostname;
+            this.directTls = directTls;
         }
 
         int getPriority() {
@@ -143,5 +218,9 @@ public class SrvNameResolver {
         String getHostname() {
             return hostname;
         }
+
+        boolean isDirectTls() {
+            return directTls;
+        }
     }
 }
@@ -18,30 +18,37 @@ package io.github.ma1uta.mjjb.xmpp;
 
 import io.github.ma1uta.mjjb.NetworkServer;
 import io.github.ma1uta.mjjb.RouterFactory;
+import io.github.ma1uta.mjjb.audit.StanzaAudit;
+import io.github.ma1uta.mjjb.capture.TrafficCapture;
 import io.github.ma1uta.mjjb.config.Cert;
 import io.github.ma1uta.mjjb.config.XmppConfig;
 import io.github.ma1uta.mjjb.netty.NettyBuilder;
+import io.github.ma1uta.mjjb.xmpp.compress.CompressionPolicy;
 import io.github.ma1uta.mjjb.xmpp.dialback.ServerDialback;
+import io.github.ma1uta.mjjb.xmpp.ingress.IngressPolicy;
+import io.github.ma1uta.mjjb.xmpp.netty.NettyConnectionConfiguration;
 import io.github.ma1uta.mjjb.xmpp.netty.XmppServerInitializer;
+import io.github.ma1uta.mjjb.xmpp.queue.Backpressure;
+import io.github.ma1uta.mjjb.xmpp.queue.EgressScheduler;
 import io.github.ma1uta.mjjb.xmpp.router.DirectInviteRouter;
+import io.github.ma1uta.mjjb.xmpp.sm.StreamResumption;
 import io.netty.channel.Channel;
+import io.netty.channel.EventLoop;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.handler.ssl.SslContext;
+import io.netty.util.concurrent.EventExecutor;
 import org.jdbi.v3.core.Jdbi;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import rocks.xmpp.addr.Jid;
 import rocks.xmpp.core.net.ChannelEncryption;
-import rocks.xmpp.core.net.ConnectionConfiguration;
 import rocks.xmpp.core.stanza.model.Stanza;
 import rocks.xmpp.core.stream.model.StreamElement;
 
-import java.net.InetSocketAddress;
 import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.net.ssl.SSLContext;
 
 /**
@@ -56,16 +63,26 @@ public class XmppServer implements NetworkServer<XmppConfig> {
      */
     static final int DEFAULT_S2S_PORT = 5269;
 
-    private final Map<InetSocketAddress, Set<IncomingSession>> incoming = new ConcurrentHashMap<>();
-    private final Map<String, Set<OutgoingSession>> outgoing = new ConcurrentHashMap<>();
+    private final SessionRegistry sessions = new SessionRegistry();
     private ServerDialback dialback;
+    private CompressionPolicy compression;
+    private IngressPolicy ingress;
+    private StreamResumption streamResumption;
+    private EventLoopGroup clientGroup;
+    private final ConcurrentMap<EventLoop, EgressScheduler> egress = new ConcurrentHashMap<>();
     private Jdbi jdbi;
     private XmppConfig config;
     private RouterFactory routerFactory;
     private SSLContext sslContext;
+    private SslContext serverSslContext;
+    private SslContext clientSslContext;
     private Channel channel;
+    private Channel directTlsChannel;
     private SrvNameResolver srvNameResolver;
-    private final ConnectionConfiguration connectionConfig = new ConnectionConfiguration() {
+    private StanzaAudit audit;
+    private final TrafficCapture capture;
+    private final Backpressure backpressure;
+    private final NettyConnectionConfiguration connectionConfig = new NettyConnectionConfiguration() {
         @Override
         public ChannelEncryption getChannelEncryption() {
             return sslContext != null ? ChannelEncryption.REQUIRED : ChannelEncryption.DISABLED;
@@ -80,8 +97,33 @@ public class XmppServer implements NetworkServer<XmppConfig> {
                 throw new RuntimeException(e);
             }
         }
+
+        @Override
+        public SslContext getServerSslContext() {
+            return serverSslContext;
+        }
+
+        @Override
+        public SslContext getClientSslContext() {
+            return clientSslContext;
+        }
+
+        @Override
+        public CompressionPolicy getCompressionPolicy() {
+            return compression;
+        }
+
+        @Override
+        public IngressPolicy getIngressPolicy() {
+            return ingress;
+        }
     };
 
+    public XmppServer(TrafficCapture capture, Backpressure backpressure) {
+        this.capture = capture;
+        this.backpressure = backpressure;
+    }
+
     /**
      * Create new incoming session.
      *
@@ -89,7 +131,7 @@ public class XmppServer implements NetworkServer<XmppConfig> {
      */
     public void newIncomingSession(IncomingSession session) {
         LOGGER.debug("New incoming session.");
-        getIncoming().computeIfAbsent(session.getConnection().getRemoteAddress(), k -> new HashSet<>()).add(session);
+        sessions.addIncoming(session);
     }
 
     /**
@@ -99,15 +141,11 @@ public class XmppServer implements NetworkServer<XmppConfig> {
      */
     public void newOutgoingSession(OutgoingSession session) {
         LOGGER.debug("New outgoing session.");
-        getOutgoing().computeIfAbsent(session.getDomain(), k -> new HashSet<>()).add(session);
-    }
-
-    public Map<InetSocketAddress, Set<IncomingSession>> getIncoming() {
-        return incoming;
+        sessions.addOutgoing(session);
     }
 
-    public Map<String, Set<OutgoingSession>> getOutgoing() {
-        return outgoing;
+    public SessionRegistry getSessions() {
+        return sessions;
     }
 
     /**
@@ -115,7 +153,7 @@ public class XmppServer implements NetworkServer<XmppConfig> {
      *
      * @return server connection configuration.
      */
-    public ConnectionConfiguration getConnectionConfiguration() {
+    public NettyConnectionConfiguration getConnectionConfiguration() {
         return connectionConfig;
     }
 
@@ -125,10 +163,7 @@ public class XmppServer implements NetworkServer<XmppConfig> {
 
     @Override
     public void close() throws Exception {
-        List<Session> sessionsToRemove = new ArrayList<>();
-        getIncoming().values().forEach(sessionsToRemove::addAll);
-        getOutgoing().values().forEach(sessionsToRemove::addAll);
-        for (Session session : sessionsToRemove) {
+        for (Session session : sessions.snapshot()) {
             try {
                 session.close();
             } catch (Exception e) {
@@ -136,6 +171,18 @@ public class XmppServer implements NetworkServer<XmppConfig> {
             }
         }
         this.channel.close().sync();
+        if (directTlsChannel != null) {
+            directTlsChannel.close().sync();
+        }
+        if (audit != null) {
+            audit.close();
+        }
+        if (clientGroup != null) {
+            clientGroup.shutdownGracefully();
+        }
+        if (srvNameResolver != null) {
+            srvNameResolver.close();
+        }
     }
 
     /**
@@ -157,38 +204,44 @@ public class XmppServer implements NetworkServer<XmppConfig> {
      */
     public void send(Jid to, StreamElement streamElement) throws Exception {
         String domain = to.getDomain();
-        OutgoingSession session = getSession(domain);
+        // the bidirectional incoming session of the domain is used as well, so the second connection isn't opened.
+        Session session = sessions.route(domain);
         if (session == null) {
-            session = new OutgoingSession(this, to.getDomain(), true);
-            newOutgoingSession(session);
+            LOGGER.debug("New outgoing session.");
+            session = sessions.addRoute(new OutgoingSession(this, domain, true));
         }
         session.send(streamElement);
     }
 
-    private OutgoingSession getSession(String domain) {
-        Set<OutgoingSession> sessions = getOutgoing().get(domain);
-        return sessions != null && !sessions.isEmpty() ? sessions.iterator().next() : null;
-    }
-
     @Override
     public void init(Jdbi jdbi, XmppConfig config, RouterFactory routerFactory) throws Exception {
         this.jdbi = jdbi;
         this.config = config;
         this.routerFactory = routerFactory;
         this.dialback = new ServerDialback(this);
+        this.compression = new CompressionPolicy(config.getCompression());
+        this.ingress = new IngressPolicy(config.getIngress());
+        if (config.getStreamManagement().isEnabled()) {
+            this.streamResumption = new StreamResumption(config.getStreamManagement());
+        }
+        this.audit = new StanzaAudit(config.getAudit());
+        this.clientGroup = new NioEventLoopGroup();
         initSSL(config);
         initRouters();
         initDnsResolver();
     }
 
     private void initDnsResolver() {
-        this.srvNameResolver = new SrvNameResolver();
+        this.srvNameResolver = new SrvNameResolver(config.getRoutes(), clientSslContext != null);
     }
 
     private void initSSL(XmppConfig config) throws Exception {
         Cert cert = config.getSsl();
         if (cert != null) {
             this.sslContext = cert.createJavaContext();
+            // one context per role for the all connections, so the sessions are cached and resumed.
+            this.serverSslContext = cert.createNettyContext();
+            this.clientSslContext = cert.createNettyClientContext();
         }
     }
 
@@ -205,33 +258,82 @@ public class XmppServer implements NetworkServer<XmppConfig> {
         return dialback;
     }
 
+    /**
+     * Provides the stream compression policy.
+     *
+     * @return compression policy.
+     */
+    public CompressionPolicy compression() {
+        return compression;
+    }
+
+    /**
+     * Resumable incoming streams (XEP-0198).
+     *
+     * @return resumable streams or {@code null} if the stream management is disabled.
+     */
+    public StreamResumption getStreamResumption() {
+        return streamResumption;
+    }
+
+    /**
+     * Event loops of the outgoing connections.
+     * <br/>
+     * The loops are shared by the all outgoing sessions, so the sessions of the different domains are served by the same
+     * {@link EgressScheduler}.
+     *
+     * @return event loop group of the clients.
+     */
+    public EventLoopGroup getClientGroup() {
+        return clientGroup;
+    }
+
+    /**
+     * The current thread is an event loop of the outgoing connections, it can't wait for a new connection.
+     *
+     * @return {@code true} if called by a client event loop.
+     */
+    public boolean inClientLoop() {
+        for (EventExecutor executor : clientGroup) {
+            if (executor.inEventLoop()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Egress scheduler of the event loop.
+     *
+     * @param loop event loop.
+     * @return scheduler of the outgoing sessions of the loop.
+     */
+    public EgressScheduler egress(EventLoop loop) {
+        return egress.computeIfAbsent(loop, key -> new EgressScheduler(key, config.getEgress()));
+    }
+
     @Override
     public void run() {
-        this.channel = NettyBuilder.createServer(config.getDomain(), config.getPort(), new XmppServerInitializer(this), null);
+        this.channel = NettyBuilder.createServer(config.getDomain(), config.getPort(), new XmppServerInitializer(this, false), null);
+        if (config.getDirectTlsPort() > 0) {
+            if (serverSslContext != null) {
+                this.directTlsChannel = NettyBuilder.createServer(config.getDomain(), config.getDirectTlsPort(),
+                    new XmppServerInitializer(this, true), null);
+            } else {
+                LOGGER.warn("The direct TLS port is ignored because the certificate isn't configured.");
+            }
+        }
     }
 
     /**
      * Remove closed session.
+     * <br/>
+     * The verifying sessions aren't registered, so they are ignored.
      *
      * @param session session to remove.
      */
     public void remove(Session session) {
-        if (session instanceof OutgoingSession) {
-            if (!((OutgoingSession) session).isDialbackEnabled()) {
-                return;
-            }
-            Set<OutgoingSession> sessions = getOutgoing().get(session.getDomain());
-            if (sessions != null) {
-                sessions.remove(session);
-            }
-        } else if (session instanceof IncomingSession) {
-            Set<IncomingSession> sessions = getIncoming().get(session.getConnection().getRemoteAddress());
-            if (sessions != null) {
-                sessions.remove(session);
-            }
-        } else {
-            LOGGER.error("Unknown session.");
-        }
+        sessions.remove(session);
     }
 
     /**
@@ -243,6 +345,18 @@ public class XmppServer implements NetworkServer<XmppConfig> {
         routerFactory.process(stanza);
     }
 
+    public StanzaAudit getAudit() {
+        return audit;
+    }
+
+    public TrafficCapture getCapture() {
+        return capture;
+    }
+
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
     public SrvNameResolver getSrvNameResolver() {
         return srvNameResolver;
     }
@@ -16,6 +16,14 @@
 
 package io.github.ma1uta.mjjb.xmpp.babbler.netty;
 
+import io.github.ma1uta.mjjb.netty.TlsHandlers;
+import io.github.ma1uta.mjjb.xmpp.compress.CompressionMeter;
+import io.github.ma1uta.mjjb.xmpp.compress.CompressionPolicy;
+import io.github.ma1uta.mjjb.xmpp.ingress.IngressLimiter;
+import io.github.ma1uta.mjjb.xmpp.ingress.IngressPolicy;
+import io.github.ma1uta.mjjb.xmpp.netty.NettyConnectionConfiguration;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandler;
@@ -43,7 +51,7 @@ import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
-import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 
@@ -54,10 +62,17 @@ import javax.xml.bind.Unmarshaller;
  */
 public class NettyChannelConnection extends AbstractConnection implements TcpBinding {
 
+    /**
+     * Whitespace keepalive, the duplicates are written.
+     */
+    private static final ByteBuf WHITESPACE = Unpooled.unreleasableBuffer(Unpooled.wrappedBuffer(new byte[] {' '}));
+
     protected final Channel channel;
 
     private final NettyXmppDecoder decoder;
 
+    private final IngressLimiter limiter;
+
     private final BiConsumer<String, StreamElement> onRead;
 
     protected SessionOpen sessionOpen;
@@ -70,7 +85,7 @@ public class NettyChannelConnection extends AbstractConnection implements TcpBin
                                   final StreamHandler streamHandler,
                                   final BiConsumer<String, StreamElement> onRead,
                                   final Supplier<Unmarshaller> unmarshallerSupplier,
-                                  final BiConsumer<String, StreamElement> onWrite,
+                                  final BiConsumer<ByteBuf, StreamElement> onWrite,
                                   final Supplier<Marshaller> marshallerSupplier,
                                   final Consumer<Throwable> onException,
                                   final ConnectionConfiguration connectionConfiguration) {
@@ -79,7 +94,11 @@ public class NettyChannelConnection extends AbstractConnection implements TcpBin
         this.onRead = onRead;
         this.streamHandler = streamHandler;
         this.onException = onException;
-        this.decoder = new NettyXmppDecoder(this::onRead, unmarshallerSupplier, onException);
+        final IngressPolicy ingress = connectionConfiguration instanceof NettyConnectionConfiguration
+            ? ((NettyConnectionConfiguration) connectionConfiguration).getIngressPolicy()
+            : null;
+        this.limiter = ingress != null ? ingress.newLimiter() : null;
+        this.decoder = new NettyXmppDecoder(this::onRead, unmarshallerSupplier, onException, limiter);
         channel.pipeline().addLast(decoder, new NettyXmppEncoder(onWrite, marshallerSupplier, onException));
     }
 
@@ -144,6 +163,21 @@ public class NettyChannelConnection extends AbstractConnection implements TcpBin
         return write(streamElement, channel::writeAndFlush);
     }
 
+    /**
+     * Sends the whitespace keepalive (RFC 6120, 4.6.1). It passes the XML encoder and is compressed and encrypted as the
+     * stream.
+     *
+     * @return write result.
+     */
+    public final CompletionStage<Void> keepalive() {
+        if (isClosed()) {
+            final CompletableFuture<Void> completableFuture = new CompletableFuture<>();
+            completableFuture.completeExceptionally(new IllegalStateException("Connection closed"));
+            return completableFuture;
+        }
+        return completableFutureFromNettyFuture(channel.writeAndFlush(WHITESPACE.duplicate()));
+    }
+
     @Override
     public final void flush() {
         channel.flush();
@@ -151,10 +185,13 @@ public class NettyChannelConnection extends AbstractConnection implements TcpBin
 
     @Override
     public void secureConnection() throws Exception {
-        final SSLContext sslContext = getConfiguration().getSSLContext();
-        SslContext sslCtx = new JdkSslContext(sslContext, false, ClientAuth.NONE);
-        final SslHandler handler = new SslHandler(sslCtx.newEngine(channel.alloc()), true);
-        channel.pipeline().addFirst("SSL", handler);
+        SslContext sslContext = getConfiguration() instanceof NettyConnectionConfiguration
+            ? ((NettyConnectionConfiguration) getConfiguration()).getServerSslContext()
+            : null;
+        if (sslContext == null) {
+            sslContext = new JdkSslContext(getConfiguration().getSSLContext(), false, ClientAuth.NONE);
+        }
+        channel.pipeline().addFirst("SSL", TlsHandlers.newHandler(sslContext, channel, TlsHandlers.XMPP_SERVER, true));
     }
 
     /**
@@ -166,30 +203,44 @@ public class NettyChannelConnection extends AbstractConnection implements TcpBin
      */
     @Override
     public final void compressConnection(final String method, final Runnable onSuccess) {
-        final ZlibWrapper zlibWrapper;
-        switch (method) {
-            case "zlib":
-                zlibWrapper = ZlibWrapper.ZLIB;
-                break;
-            case "deflate":
-                zlibWrapper = ZlibWrapper.NONE;
-                break;
-            case "gzip":
-                zlibWrapper = ZlibWrapper.GZIP;
-                break;
-            default:
-                throw new IllegalArgumentException("Compression method '" + method + "' not supported");
-        }
+        compressConnection(method, null, onSuccess);
+    }
+
+    /**
+     * Compresses the connection with the handlers of the {@link CompressionPolicy} and reports the statistics when the connection
+     * is closed.
+     *
+     * @param method    The compression method. Supported methods are: "zlib", "deflate" and "gzip".
+     * @param domain    The remote domain which is penalized for the poor compression ratio, may be {@code null}.
+     * @param onSuccess Invoked after the compression method has been chosen, but before compression is applied.
+     * @throws IllegalArgumentException If the compression method is unknown.
+     */
+    public final void compressConnection(final String method, final String domain, final Runnable onSuccess) {
+        final ZlibWrapper zlibWrapper = CompressionPolicy.wrapper(method);
+        final CompressionPolicy policy = getConfiguration() instanceof NettyConnectionConfiguration
+            ? ((NettyConnectionConfiguration) getConfiguration()).getCompressionPolicy()
+            : null;
         if (onSuccess != null) {
             onSuccess.run();
         }
+        final ChannelHandler compressor;
+        final ChannelHandler decompressor;
+        if (policy != null) {
+            final CompressionMeter meter = policy.newMeter(domain, method);
+            compressor = policy.newEncoder(method, meter);
+            decompressor = policy.newDecoder(method, meter);
+            channel.closeFuture().addListener(f -> meter.report());
+        } else {
+            compressor = new JdkZlibEncoder(zlibWrapper);
+            decompressor = new JdkZlibDecoder(zlibWrapper);
+        }
         final ChannelHandler channelHandler = channel.pipeline().get("SSL");
         if (channelHandler != null) {
-            channel.pipeline().addAfter("SSL", "decompressor", new JdkZlibDecoder(zlibWrapper));
-            channel.pipeline().addAfter("SSL", "compressor", new JdkZlibEncoder(zlibWrapper));
+            channel.pipeline().addAfter("SSL", "decompressor", decompressor);
+            channel.pipeline().addAfter("SSL", "compressor", compressor);
         } else {
-            channel.pipeline().addFirst("decompressor", new JdkZlibDecoder(zlibWrapper));
-            channel.pipeline().addFirst("compressor", new JdkZlibEncoder(zlibWrapper));
+            channel.pipeline().addFirst("decompressor", decompressor);
+            channel.pipeline().addFirst("compressor", compressor);
         }
     }
 
@@ -198,6 +249,30 @@ public class NettyChannelConnection extends AbstractConnection implements TcpBin
         return channel.pipeline().toMap().containsKey("SSL");
     }
 
+    /**
+     * The remote domain is authenticated, the ingress metrics of the connection are labelled by it.
+     *
+     * @param domain authenticated remote domain.
+     */
+    public final void authenticated(String domain) {
+        if (limiter != null) {
+            limiter.authenticated(domain);
+        }
+    }
+
+    /**
+     * TLS session of the connection.
+     *
+     * @return the session of the completed handshake or {@code null} if the connection isn't secured yet.
+     */
+    public final SSLSession getSslSession() {
+        ChannelHandler handler = channel.pipeline().get("SSL");
+        if (!(handler instanceof SslHandler) || !((SslHandler) handler).handshakeFuture().isSuccess()) {
+            return null;
+        }
+        return ((SslHandler) handler).engine().getSession();
+    }
+
     @Override
     protected void restartStream() {
         decoder.restart();
@@ -16,11 +16,16 @@
 
 package io.github.ma1uta.mjjb.xmpp.babbler.netty;
 
+import io.github.ma1uta.mjjb.metrics.Metrics;
 import io.github.ma1uta.mjjb.xmpp.babbler.xml.XmppStreamDecoder;
+import io.github.ma1uta.mjjb.xmpp.ingress.IngressLimiter;
 import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.DecoderException;
 import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamErrorException;
+import rocks.xmpp.core.stream.model.errors.Condition;
 
 import java.nio.ByteBuffer;
 import java.util.List;
@@ -46,6 +51,8 @@ final class NettyXmppDecoder extends ByteToMessageDecoder {
 
     private final Consumer<Throwable> onFailure;
 
+    private final IngressLimiter limiter;
+
     /**
      * Creates the decoder.
      *
@@ -54,30 +61,53 @@ final class NettyXmppDecoder extends ByteToMessageDecoder {
      * @param unmarshallerSupplier Supplies the unmarshaller, e.g. via a {@code ThreadLocal<Unmarshaller>}
      * @param onFailure            Called when an exception in the pipeline has occurred. If null, the exception is propagated
      *                             to next handler. If non-null this callback is called instead.
+     * @param limiter              Ingress limits of the connection, may be {@code null}.
      */
     NettyXmppDecoder(final BiConsumer<String, StreamElement> onRead, final Supplier<Unmarshaller> unmarshallerSupplier,
-                     final Consumer<Throwable> onFailure) {
+                     final Consumer<Throwable> onFailure, final IngressLimiter limiter) {
         this.onRead = onRead;
-        this.xmppStreamDecoder = new XmppStreamDecoder(unmarshallerSupplier);
+        this.xmppStreamDecoder = new XmppStreamDecoder(unmarshallerSupplier, limiter != null ? limiter.getMaxStanzaSize() : 0);
         this.onFailure = onFailure;
+        this.limiter = limiter;
     }
 
     @Override
     protected void decode(final ChannelHandlerContext ctx, final ByteBuf byteBuf, final List<Object> list) throws Exception {
+        final long start = System.nanoTime();
         final ByteBuffer byteBuffer = byteBuf.nioBuffer();
-        this.xmppStreamDecoder.decode(byteBuffer, (s, streamElement) -> {
-            list.add(streamElement);
-            if (onRead != null) {
-                onRead.accept(s, streamElement);
+        if (limiter != null) {
+            limiter.read(byteBuffer.remaining());
+        }
+        try {
+            this.xmppStreamDecoder.decode(byteBuffer, (s, streamElement) -> {
+                list.add(streamElement);
+                if (limiter != null) {
+                    limiter.decoded(streamElement);
+                }
+                if (onRead != null) {
+                    onRead.accept(s, streamElement);
+                }
+            });
+        } catch (StreamErrorException e) {
+            if (limiter != null && e.getCondition() == Condition.POLICY_VIOLATION) {
+                limiter.violated(ctx.channel(), "size");
             }
-        });
+            throw e;
+        }
         byteBuf.readerIndex(byteBuffer.position());
+        if (limiter != null) {
+            limiter.throttle(ctx.channel());
+        }
+        Metrics.DECODE_TIME.observe(Metrics.since(start));
     }
 
     @Override
     public void exceptionCaught(final ChannelHandlerContext ctx, final Throwable cause) throws Exception {
         if (onFailure != null) {
-            onFailure.accept(cause);
+            // pass the stream error, so it is sent to the peer.
+            onFailure.accept(cause instanceof DecoderException && cause.getCause() instanceof StreamErrorException
+                ? cause.getCause()
+                : cause);
         } else {
             super.exceptionCaught(ctx, cause);
         }
@@ -16,6 +16,7 @@
 
 package io.github.ma1uta.mjjb.xmpp.babbler.netty;
 
+import io.github.ma1uta.mjjb.metrics.Metrics;
 import io.github.ma1uta.mjjb.xmpp.babbler.xml.XmppStreamEncoder;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufOutputStream;
@@ -24,7 +25,6 @@ import io.netty.handler.codec.MessageToByteEncoder;
 import rocks.xmpp.core.stream.model.StreamElement;
 
 import java.io.OutputStream;
-import java.nio.charset.StandardCharsets;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -41,7 +41,7 @@ import javax.xml.stream.XMLOutputFactory;
  */
 final class NettyXmppEncoder extends MessageToByteEncoder<StreamElement> {
 
-    private final BiConsumer<String, StreamElement> onWrite;
+    private final BiConsumer<ByteBuf, StreamElement> onWrite;
 
     private final XmppStreamEncoder xmppStreamEncoder;
 
@@ -50,12 +50,13 @@ final class NettyXmppEncoder extends MessageToByteEncoder<StreamElement> {
     /**
      * Constructor.
      *
-     * @param onWrite            The first parameter of this callback is the encoded XML element, the second one is the marshalled element.
+     * @param onWrite            The first parameter of this callback is the buffer with the encoded XML element (valid only during
+     *                           the callback, it must not be retained), the second one is the marshalled element.
      * @param marshallerSupplier Supplies the marshaller, e.g. via a {@code ThreadLocal<Marshaller>}
      * @param onFailure          Called when an exception in the pipeline has occurred. If null, the exception is propagated
      *                           to next handler. If non-null this callback is called instead.
      */
-    NettyXmppEncoder(final BiConsumer<String, StreamElement> onWrite, final Supplier<Marshaller> marshallerSupplier,
+    NettyXmppEncoder(final BiConsumer<ByteBuf, StreamElement> onWrite, final Supplier<Marshaller> marshallerSupplier,
                      final Consumer<Throwable> onFailure) {
         this.onWrite = onWrite;
         this.xmppStreamEncoder = new XmppStreamEncoder(XMLOutputFactory.newFactory(), marshallerSupplier, Function.identity());
@@ -66,9 +67,11 @@ final class NettyXmppEncoder extends MessageToByteEncoder<StreamElement> {
     protected void encode(final ChannelHandlerContext ctx, final StreamElement streamElement, final ByteBuf byteBuf) throws
         Exception {
         try (OutputStream outputStream = new ByteBufOutputStream(byteBuf)) {
+            final long start = System.nanoTime();
             xmppStreamEncoder.encode(streamElement, outputStream);
+            Metrics.ENCODE_TIME.observe(Metrics.since(start));
             if (onWrite != null) {
-                onWrite.accept(byteBuf.toString(StandardCharsets.UTF_8), streamElement);
+                onWrite.accept(byteBuf, streamElement);
             }
         }
     }
@@ -66,12 +66,16 @@ public final class XmppStreamDecoder {
 
     private final StringBuilder xmlStream = new StringBuilder();
 
+    private final int maxElementSize;
+
     private AsyncXMLStreamReader<AsyncByteBufferFeeder> xmlStreamReader;
 
     private String streamHeader;
 
     private long elementEnd;
 
+    private long fed;
+
     /**
      * Creates the XMPP decoder.
      * <br/>
@@ -81,7 +85,18 @@ public final class XmppStreamDecoder {
      * @param unmarshaller Supplies the unmarshaller which will convert XML to objects.
      */
     public XmppStreamDecoder(final Supplier<Unmarshaller> unmarshaller) {
+        this(unmarshaller, 0);
+    }
+
+    /**
+     * Creates the XMPP decoder with the limited size of the stream header and the top-level elements.
+     *
+     * @param unmarshaller   Supplies the unmarshaller which will convert XML to objects.
+     * @param maxElementSize Max size of an element in bytes, a larger element is the policy violation. 0 means unlimited.
+     */
+    public XmppStreamDecoder(final Supplier<Unmarshaller> unmarshaller, final int maxElementSize) {
         this.unmarshaller = unmarshaller;
+        this.maxElementSize = maxElementSize;
         XML_INPUT_FACTORY.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
         this.restart();
     }
@@ -91,10 +106,13 @@ public final class XmppStreamDecoder {
      *
      * @param in  The byte buffer which was read from the channel. It must be ready to read, i.e. flipped.
      * @param out Consumes any decoded elements as string and as unmarshalled object.
-     * @throws StreamErrorException If parsing XML fails or any other stream error occurred (e.g. invalid XML).
+     * @throws StreamErrorException If parsing XML fails or any other stream error occurred (e.g. invalid XML) or the element is
+     *                              too large.
      */
     public synchronized void decode(final ByteBuffer in, final BiConsumer<String, StreamElement> out) throws StreamErrorException {
 
+        fed += in.remaining();
+
         // Append the buffer to stream
         xmlStream.append(StandardCharsets.UTF_8.decode(in));
 
@@ -182,6 +200,7 @@ public final class XmppStreamDecoder {
                                 final long end = xmlStreamReader.getLocationInfo().getEndingByteOffset();
                                 // Then determine the element length (offset since the last end element)
                                 final int elementLength = (int) (end - elementEnd);
+                                checkSize(elementLength);
                                 // Store the new end position for the next iteration.
                                 elementEnd = end;
 
@@ -229,6 +248,8 @@ public final class XmppStreamDecoder {
                 }
                 type = xmlStreamReader.next();
             }
+            // The rest is an incomplete element, don't buffer it beyond the limit.
+            checkSize(fed - elementEnd);
         } catch (StreamErrorException e) {
             throw e;
         } catch (XMLStreamException e) {
@@ -242,6 +263,13 @@ public final class XmppStreamDecoder {
         }
     }
 
+    private void checkSize(final long size) throws StreamErrorException {
+        if (maxElementSize > 0 && size > maxElementSize) {
+            throw new StreamErrorException(
+                new StreamError(Condition.POLICY_VIOLATION, "Element exceeds " + maxElementSize + " bytes", Locale.US));
+        }
+    }
+
     /**
      * Restarts the stream, i.e. a new reader will be created.
      */
@@ -249,5 +277,6 @@ public final class XmppStreamDecoder {
         xmlStream.setLength(0);
         xmlStreamReader = XML_INPUT_FACTORY.createAsyncForByteBuffer();
         elementEnd = 0;
+        fed = 0;
     }
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.bidi;
+
+import rocks.xmpp.core.stream.model.StreamElement;
+import rocks.xmpp.core.stream.model.StreamFeature;
+
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Bidirectional streams feature.
+ */
+@XmlRootElement(name = "bidi", namespace = Bidi.FEATURE_NAMESPACE)
+@XmlType(factoryMethod = "create")
+public class Bidi extends StreamFeature implements StreamElement {
+
+    /**
+     * Namespace of the feature.
+     */
+    public static final String FEATURE_NAMESPACE = "urn:xmpp:features:bidi";
+
+    /**
+     * The {@code <bidi/>} feature.
+     */
+    public static final Bidi INSTANCE = new Bidi();
+
+    @Override
+    public String toString() {
+        return "Bidi";
+    }
+
+    /**
+     * Create the element.
+     *
+     * @return the {@code <bidi/>} feature.
+     */
+    public static Bidi create() {
+        return INSTANCE;
+    }
+}
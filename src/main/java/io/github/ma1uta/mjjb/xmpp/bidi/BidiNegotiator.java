@@ -0,0 +1,72 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.bidi;
+
+import io.github.ma1uta.mjjb.xmpp.IncomingSession;
+import rocks.xmpp.core.stream.StreamNegotiationResult;
+import rocks.xmpp.core.stream.server.ServerStreamFeatureNegotiator;
+
+/**
+ * Bidirectional streams (XEP-0288) negotiator of the incoming sessions.
+ * <p/>
+ * The request is accepted only on the secured stream. The initiating server trusts the stanzas of this server without the dialback
+ * in the reverse direction only if it verified the certificate of this server for its domain (see {@link PeerCertificate}),
+ * otherwise it must not send the request and this server is authenticated by the dialback on its own stream. The session is
+ * used for the outgoing stanzas after the initiating server is authenticated.
+ */
+public class BidiNegotiator extends ServerStreamFeatureNegotiator<Bidi> {
+
+    private final IncomingSession session;
+
+    /**
+     * Constructs the negotiator.
+     *
+     * @param session incoming session.
+     */
+    public BidiNegotiator(IncomingSession session) {
+        super(Bidi.class);
+        this.session = session;
+    }
+
+    @Override
+    public Bidi createStreamFeature() {
+        return Bidi.INSTANCE;
+    }
+
+    /**
+     * The feature is offered on the secured stream until the request is received.
+     *
+     * @return {@code true} to offer the feature.
+     */
+    public boolean isOffered() {
+        return session.getConnection().isSecure() && !session.isBidirectional();
+    }
+
+    @Override
+    public StreamNegotiationResult processNegotiation(Object element) {
+        if (element instanceof BidiRequest && isOffered()) {
+            session.setBidirectional(true);
+        }
+        return StreamNegotiationResult.IGNORE;
+    }
+
+    @Override
+    public boolean canProcess(Object element) {
+        return element instanceof BidiRequest;
+    }
+}
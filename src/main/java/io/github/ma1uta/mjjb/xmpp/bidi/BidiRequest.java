@@ -0,0 +1,55 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.bidi;
+
+import rocks.xmpp.core.stream.model.StreamElement;
+
+import javax.xml.bind.annotation.XmlRootElement;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Request of the initiating server to use the stream in the both directions.
+ */
+@XmlRootElement(name = "bidi", namespace = BidiRequest.NAMESPACE)
+@XmlType(factoryMethod = "create")
+public class BidiRequest implements StreamElement {
+
+    /**
+     * Namespace of the request.
+     */
+    public static final String NAMESPACE = "urn:xmpp:bidi";
+
+    /**
+     * The {@code <bidi/>} request.
+     */
+    public static final BidiRequest INSTANCE = new BidiRequest();
+
+    @Override
+    public String toString() {
+        return "BidiRequest";
+    }
+
+    /**
+     * Create the element.
+     *
+     * @return the {@code <bidi/>} request.
+     */
+    public static BidiRequest create() {
+        return INSTANCE;
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.bidi;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateParsingException;
+import java.security.cert.X509Certificate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+
+/**
+ * Identity of the remote server in its certificate (RFC 6120, 13.7.1.2 and RFC 6125).
+ * <p/>
+ * The TLS engines don't identify the endpoint and are bound to the SRV target, so the domain is matched here with the
+ * subject alternative names: the {@code dNSName} (the wildcard replaces the leftmost label only) and the {@code id-on-xmppAddr}.
+ * The common name isn't used.
+ */
+public final class PeerCertificate {
+
+    /**
+     * DER encoding of the {@code id-on-xmppAddr} object identifier (1.3.6.1.5.5.7.8.5).
+     */
+    private static final byte[] XMPP_ADDR = {0x06, 0x08, 0x2B, 0x06, 0x01, 0x05, 0x05, 0x07, 0x08, 0x05};
+
+    private static final Integer OTHER_NAME = 0;
+    private static final Integer DNS_NAME = 2;
+
+    private static final int SEQUENCE_TAG = 0x30;
+    private static final int EXPLICIT_TAG = 0xA0;
+    private static final int UTF8_STRING_TAG = 0x0C;
+    private static final int LONG_LENGTH = 0x80;
+    private static final int MAX_LENGTH_BYTES = 2;
+    private static final int BYTE_MASK = 0xFF;
+    private static final int BYTE_BITS = 8;
+
+    private PeerCertificate() {
+        // singleton.
+    }
+
+    /**
+     * Check the certificate of the remote server.
+     * <br/>
+     * The chain should be validated by the trust manager, only the name is checked.
+     *
+     * @param session TLS session.
+     * @param domain  remote domain.
+     * @return {@code true} if the certificate is issued for the domain.
+     */
+    public static boolean isIssuedFor(SSLSession session, String domain) {
+        Certificate[] chain;
+        try {
+            chain = session.getPeerCertificates();
+        } catch (SSLPeerUnverifiedException e) {
+            return false;
+        }
+        if (chain.length == 0 || !(chain[0] instanceof X509Certificate)) {
+            return false;
+        }
+        Collection<List<?>> names;
+        try {
+            names = ((X509Certificate) chain[0]).getSubjectAlternativeNames();
+        } catch (CertificateParsingException e) {
+            return false;
+        }
+        if (names == null) {
+            return false;
+        }
+        for (List<?> name : names) {
+            Object value = name.get(1);
+            if (DNS_NAME.equals(name.get(0)) && value instanceof String && matches((String) value, domain)) {
+                return true;
+            }
+            if (OTHER_NAME.equals(name.get(0)) && value instanceof byte[] && domain.equalsIgnoreCase(xmppAddr((byte[]) value))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean matches(String name, String domain) {
+        if (name.startsWith("*.")) {
+            int dot = domain.indexOf('.');
+            return dot > 0 && domain.substring(dot + 1).equalsIgnoreCase(name.substring(2));
+        }
+        return name.equalsIgnoreCase(domain);
+    }
+
+    /**
+     * Decode the {@code xmppAddr} from the DER encoded {@code [0] {type-id OID, value [0] EXPLICIT UTF8String}}.
+     *
+     * @param encoded the other name.
+     * @return the address or {@code null} if it's another name or malformed.
+     */
+    private static String xmppAddr(byte[] encoded) {
+        try {
+            ByteBuffer der = ByteBuffer.wrap(encoded);
+            if (length(der, EXPLICIT_TAG, SEQUENCE_TAG) < 0) {
+                return null;
+            }
+            byte[] type = new byte[XMPP_ADDR.length];
+            der.get(type);
+            if (!Arrays.equals(type, XMPP_ADDR) || length(der, EXPLICIT_TAG, EXPLICIT_TAG) < 0) {
+                return null;
+            }
+            int length = length(der, UTF8_STRING_TAG, UTF8_STRING_TAG);
+            if (length < 0) {
+                return null;
+            }
+            byte[] value = new byte[length];
+            der.get(value);
+            return new String(value, StandardCharsets.UTF_8);
+        } catch (BufferUnderflowException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Read the tag and the length of the DER element.
+     *
+     * @return the length of the content or -1 if the tag is unexpected or the content is truncated.
+     */
+    private static int length(ByteBuffer der, int tag, int alternativeTag) {
+        int actual = der.get() & BYTE_MASK;
+        if (actual != tag && actual != alternativeTag) {
+            return -1;
+        }
+        int length = der.get() & BYTE_MASK;
+        if (length >= LONG_LENGTH) {
+            int bytes = length - LONG_LENGTH;
+            if (bytes == 0 || bytes > MAX_LENGTH_BYTES) {
+                return -1;
+            }
+            length = 0;
+            for (int i = 0; i < bytes; i++) {
+                length = (length << BYTE_BITS) | (der.get() & BYTE_MASK);
+            }
+        }
+        return length <= der.remaining() ? length : -1;
+    }
+}
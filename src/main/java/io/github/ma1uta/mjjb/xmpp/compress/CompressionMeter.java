@@ -0,0 +1,136 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.compress;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import io.prometheus.client.Counter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of the compressed connection.
+ * <p/>
+ * Used by the compression handlers on the event loop of the channel, so the counters aren't synchronized. The bytes and the time
+ * are added to the shared metrics immediately, the per-connection summary is logged when the connection is closed.
+ */
+public class CompressionMeter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    private static final Counter.Child RAW_OUT = Metrics.COMPRESSION_BYTES.labels("out", "raw");
+    private static final Counter.Child COMPRESSED_OUT = Metrics.COMPRESSION_BYTES.labels("out", "compressed");
+    private static final Counter.Child RAW_IN = Metrics.COMPRESSION_BYTES.labels("in", "raw");
+    private static final Counter.Child COMPRESSED_IN = Metrics.COMPRESSION_BYTES.labels("in", "compressed");
+    private static final Counter.Child DEFLATE_TIME = Metrics.COMPRESSION_TIME.labels("out");
+    private static final Counter.Child INFLATE_TIME = Metrics.COMPRESSION_TIME.labels("in");
+
+    private final CompressionPolicy policy;
+    private final String domain;
+    private final String method;
+
+    private long rawOut;
+    private long compressedOut;
+    private long rawIn;
+    private long compressedIn;
+    private long deflateNanos;
+    private long inflateNanos;
+    private boolean probed;
+    private boolean reported;
+
+    CompressionMeter(CompressionPolicy policy, String domain, String method) {
+        this.policy = policy;
+        this.domain = domain;
+        this.method = method;
+    }
+
+    /**
+     * Outgoing bytes were compressed.
+     *
+     * @param raw        uncompressed bytes.
+     * @param compressed compressed bytes.
+     * @param nanos      time to compress.
+     */
+    void deflated(int raw, int compressed, long nanos) {
+        rawOut += raw;
+        compressedOut += compressed;
+        deflateNanos += nanos;
+        RAW_OUT.inc(raw);
+        COMPRESSED_OUT.inc(compressed);
+        DEFLATE_TIME.inc(nanos / Metrics.NANOS_PER_SECOND);
+        probe();
+    }
+
+    /**
+     * Incoming bytes were decompressed.
+     *
+     * @param compressed compressed bytes.
+     * @param raw        uncompressed bytes.
+     * @param nanos      time to decompress.
+     */
+    void inflated(int compressed, int raw, long nanos) {
+        compressedIn += compressed;
+        rawIn += raw;
+        inflateNanos += nanos;
+        COMPRESSED_IN.inc(compressed);
+        RAW_IN.inc(raw);
+        INFLATE_TIME.inc(nanos / Metrics.NANOS_PER_SECOND);
+        probe();
+    }
+
+    /**
+     * Ratio of the uncompressed bytes to the compressed ones in the both directions.
+     *
+     * @return compression ratio or 0 if nothing was compressed yet.
+     */
+    public double ratio() {
+        long compressed = compressedOut + compressedIn;
+        return compressed > 0 ? (double) (rawOut + rawIn) / compressed : 0D;
+    }
+
+    /**
+     * Bytes which weren't sent or received thanks to the compression.
+     *
+     * @return saved bytes, negative if the compression made the stream bigger.
+     */
+    public long saved() {
+        return rawOut + rawIn - compressedOut - compressedIn;
+    }
+
+    /**
+     * Log the summary of the connection. Only the first call is logged.
+     */
+    public void report() {
+        if (reported) {
+            return;
+        }
+        reported = true;
+        LOGGER.info(String.format("Compression (%s) of the %s stream: out %d -> %d bytes in %d ms, in %d -> %d bytes in %d ms, "
+                + "ratio %.2f, saved %d bytes", method, domain, rawOut, compressedOut, TimeUnit.NANOSECONDS.toMillis(deflateNanos),
+            compressedIn, rawIn, TimeUnit.NANOSECONDS.toMillis(inflateNanos), ratio(), saved()));
+    }
+
+    private void probe() {
+        if (!probed && rawOut + rawIn >= policy.getProbeBytes()) {
+            probed = true;
+            policy.measured(domain, ratio());
+        }
+    }
+}
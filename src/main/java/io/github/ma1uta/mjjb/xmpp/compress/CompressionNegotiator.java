@@ -0,0 +1,91 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.compress;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.xmpp.Session;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rocks.xmpp.core.net.TcpBinding;
+import rocks.xmpp.core.stream.StreamNegotiationResult;
+import rocks.xmpp.core.stream.server.ServerStreamFeatureNegotiator;
+import rocks.xmpp.extensions.compress.model.StreamCompression;
+import rocks.xmpp.extensions.compress.model.feature.CompressionFeature;
+
+/**
+ * Stream compression negotiator of the incoming sessions.
+ * <p/>
+ * Unlike the babbler one it offers the methods of the {@link CompressionPolicy} and refuses the compression which isn't allowed
+ * by the policy.
+ */
+public class CompressionNegotiator extends ServerStreamFeatureNegotiator<CompressionFeature> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    private final Session session;
+    private final CompressionPolicy policy;
+    private final CompressionFeature feature;
+
+    /**
+     * Constructs the negotiator.
+     *
+     * @param session incoming session.
+     * @param policy  compression policy.
+     */
+    public CompressionNegotiator(Session session, CompressionPolicy policy) {
+        super(CompressionFeature.class);
+        this.session = session;
+        this.policy = policy;
+        this.feature = new CompressionFeature(policy.getMethods());
+    }
+
+    @Override
+    public CompressionFeature createStreamFeature() {
+        return feature;
+    }
+
+    @Override
+    public StreamNegotiationResult processNegotiation(Object element) {
+        if (!(element instanceof StreamCompression.Compress)) {
+            return StreamNegotiationResult.IGNORE;
+        }
+        String method = ((StreamCompression.Compress) element).getMethod();
+        TcpBinding connection = session.getConnection();
+        if (!policy.getMethods().contains(method)) {
+            connection.send(new StreamCompression.Failure(StreamCompression.Failure.Condition.UNSUPPORTED_METHOD));
+            return StreamNegotiationResult.IGNORE;
+        }
+        if (!policy.allows(session.getDomain(), connection.isSecure())) {
+            connection.send(new StreamCompression.Failure(StreamCompression.Failure.Condition.SETUP_FAILED));
+            return StreamNegotiationResult.IGNORE;
+        }
+        try {
+            session.compressConnection(method, () -> connection.send(StreamCompression.COMPRESSED));
+            return StreamNegotiationResult.RESTART;
+        } catch (Exception e) {
+            LOGGER.error("Failed to compress session.", e);
+            connection.send(new StreamCompression.Failure(StreamCompression.Failure.Condition.SETUP_FAILED));
+            return StreamNegotiationResult.IGNORE;
+        }
+    }
+
+    @Override
+    public boolean canProcess(Object element) {
+        return element instanceof StreamCompression.Compress;
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.compress;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.CompressionConfig;
+import io.github.ma1uta.mjjb.metrics.CacheMetrics;
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.codec.compression.ZlibWrapper;
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Stream compression (XEP-0138) policy.
+ * <p/>
+ * Decides whether the stream of the remote domain is compressed, which method is used and creates the compression handlers.
+ * The streams aren't compressed over TLS (unless enabled), for the disabled domains and for the domains which streams had the
+ * poor compression ratio recently. The ratio is measured after the first {@code probe_bytes} of the stream, the stream itself
+ * remains compressed (XEP-0138 can't turn it off), but the next streams of this domain aren't compressed until the ttl expires.
+ */
+public class CompressionPolicy {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    /**
+     * Domains with the poor ratio to remember.
+     */
+    private static final long POOR_RATIO_CAPACITY = 10_000L;
+
+    private static final int MIN_WINDOW_BITS = 9;
+    private static final int MAX_WINDOW_BITS = 15;
+    private static final int MAX_MEM_LEVEL = 9;
+
+    private final CompressionConfig config;
+    private final List<String> methods;
+    private final boolean jzlib;
+    private final Cache<String, Double> poorRatio;
+
+    public CompressionPolicy(CompressionConfig config) {
+        this.config = config;
+        if (config.getLevel() < Deflater.NO_COMPRESSION || config.getLevel() > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Compression level must be from 0 to 9: " + config.getLevel());
+        }
+        if (config.getWindowBits() < MIN_WINDOW_BITS || config.getWindowBits() > MAX_WINDOW_BITS) {
+            throw new IllegalArgumentException("Compression window bits must be from 9 to 15: " + config.getWindowBits());
+        }
+        if (config.getMemLevel() < 1 || config.getMemLevel() > MAX_MEM_LEVEL) {
+            throw new IllegalArgumentException("Compression memory level must be from 1 to 9: " + config.getMemLevel());
+        }
+        List<String> supported = new ArrayList<>();
+        for (String method : config.getMethods()) {
+            String name = method.toLowerCase(Locale.ROOT);
+            wrapper(name);
+            supported.add(name);
+        }
+        this.methods = Collections.unmodifiableList(supported);
+
+        boolean custom = config.getWindowBits() != CompressionConfig.DEFAULT_WINDOW_BITS
+            || config.getMemLevel() != CompressionConfig.DEFAULT_MEM_LEVEL;
+        this.jzlib = custom && ZlibCodecs.isJZlibAvailable();
+        if (custom && !jzlib) {
+            LOGGER.warn("The compression window and memory level require the JZlib library, the native zlib defaults are used.");
+        }
+
+        this.poorRatio = new Cache2kBuilder<String, Double>() {
+        }
+            .name("compressionPoorRatio")
+            .entryCapacity(POOR_RATIO_CAPACITY)
+            .expireAfterWrite(config.getPoorRatioTtl(), TimeUnit.MILLISECONDS)
+            .build();
+        CacheMetrics.monitor(poorRatio);
+    }
+
+    /**
+     * Zlib wrapper of the compression method.
+     *
+     * @param method compression method: "zlib", "deflate" or "gzip".
+     * @return zlib wrapper.
+     * @throws IllegalArgumentException If the compression method is unknown.
+     */
+    public static ZlibWrapper wrapper(String method) {
+        switch (method) {
+            case "zlib":
+                return ZlibWrapper.ZLIB;
+            case "deflate":
+                return ZlibWrapper.NONE;
+            case "gzip":
+                return ZlibWrapper.GZIP;
+            default:
+                throw new IllegalArgumentException("Compression method '" + method + "' not supported");
+        }
+    }
+
+    /**
+     * Supported compression methods by the preference.
+     *
+     * @return compression methods.
+     */
+    public List<String> getMethods() {
+        return methods;
+    }
+
+    /**
+     * Check that the stream of the remote domain can be compressed.
+     *
+     * @param domain remote domain, may be {@code null} if unknown.
+     * @param secure {@code true} if the stream is secured by TLS.
+     * @return {@code true} if the compression is allowed.
+     */
+    public boolean allows(String domain, boolean secure) {
+        return skipReason(domain, secure) == null;
+    }
+
+    /**
+     * Check that the stream of the remote domain can be compressed and count the rejected stream.
+     *
+     * @param domain remote domain, may be {@code null} if unknown.
+     * @param secure {@code true} if the stream is secured by TLS.
+     * @return {@code true} if the compression is allowed.
+     */
+    public boolean accept(String domain, boolean secure) {
+        String reason = skipReason(domain, secure);
+        if (reason != null) {
+            LOGGER.debug("Don't compress the stream of {}: {}", domain, reason);
+            Metrics.COMPRESSION_SKIPPED.labels(reason).inc();
+            return false;
+        }
+        return true;
+    }
+
+    private String skipReason(String domain, boolean secure) {
+        Boolean enabled = domain != null ? config.getDomains().get(domain) : null;
+        if (enabled != null) {
+            if (!enabled) {
+                return "domain";
+            }
+        } else if (!config.isEnabled()) {
+            return "disabled";
+        }
+        if (methods.isEmpty()) {
+            return "disabled";
+        }
+        if (secure && !config.isOverTls()) {
+            return "tls";
+        }
+        if (domain != null && poorRatio.containsKey(domain)) {
+            return "ratio";
+        }
+        return null;
+    }
+
+    /**
+     * Choose the most preferred method offered by the remote server.
+     *
+     * @param offered offered methods.
+     * @return compression method or {@code null} if there is no common method.
+     */
+    public String choose(List<String> offered) {
+        for (String method : methods) {
+            if (offered.contains(method)) {
+                return method;
+            }
+        }
+        Metrics.COMPRESSION_SKIPPED.labels("method").inc();
+        return null;
+    }
+
+    /**
+     * Create the statistics of the compressed connection.
+     *
+     * @param domain remote domain, may be {@code null} if unknown.
+     * @param method compression method.
+     * @return connection statistics.
+     */
+    public CompressionMeter newMeter(String domain, String method) {
+        return new CompressionMeter(this, domain, method);
+    }
+
+    /**
+     * Create the compressor of the connection.
+     *
+     * @param method compression method.
+     * @param meter  connection statistics.
+     * @return compressor.
+     */
+    public ChannelHandler newEncoder(String method, CompressionMeter meter) {
+        if (jzlib) {
+            return ZlibCodecs.jzlibEncoder(wrapper(method), config.getLevel(), config.getWindowBits(), config.getMemLevel(), meter);
+        }
+        return ZlibCodecs.jdkEncoder(wrapper(method), config.getLevel(), meter);
+    }
+
+    /**
+     * Create the decompressor of the connection. The output of a received buffer is limited by the {@code max_inflated_size}.
+     *
+     * @param method compression method.
+     * @param meter  connection statistics.
+     * @return decompressor.
+     */
+    public ChannelHandler newDecoder(String method, CompressionMeter meter) {
+        return ZlibCodecs.decoder(wrapper(method), config.getMaxInflatedSize(), meter);
+    }
+
+    long getProbeBytes() {
+        return config.getProbeBytes();
+    }
+
+    /**
+     * The compression ratio of the stream was measured.
+     *
+     * @param domain remote domain, may be {@code null} if unknown.
+     * @param ratio  ratio of the uncompressed bytes to the compressed ones.
+     */
+    void measured(String domain, double ratio) {
+        if (domain != null && ratio < config.getMinRatio()) {
+            LOGGER.info(String.format("Poor compression ratio %.2f of the %s stream, the next streams aren't compressed.", ratio,
+                domain));
+            poorRatio.put(domain, ratio);
+        }
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.compress;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.compression.DecompressionException;
+import io.netty.handler.codec.compression.JZlibEncoder;
+import io.netty.handler.codec.compression.JdkZlibDecoder;
+import io.netty.handler.codec.compression.JdkZlibEncoder;
+import io.netty.handler.codec.compression.ZlibDecoder;
+import io.netty.handler.codec.compression.ZlibEncoder;
+import io.netty.handler.codec.compression.ZlibWrapper;
+
+import java.util.List;
+
+/**
+ * Zlib codecs which report to the {@link CompressionMeter}.
+ * <p/>
+ * The JDK codecs call the native zlib, the JZlib (pure java) encoder is used only for the custom window and memory level, which
+ * the JDK doesn't expose.
+ */
+final class ZlibCodecs {
+
+    private ZlibCodecs() {
+        // singleton.
+    }
+
+    /**
+     * Check that the JZlib library is in the classpath.
+     *
+     * @return {@code true} if the JZlib encoder can be created.
+     */
+    static boolean isJZlibAvailable() {
+        try {
+            Class.forName("com.jcraft.jzlib.Deflater", false, ZlibCodecs.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Create the native (JDK) encoder.
+     *
+     * @param wrapper compression method.
+     * @param level   deflate level.
+     * @param meter   connection statistics.
+     * @return encoder.
+     */
+    static ZlibEncoder jdkEncoder(ZlibWrapper wrapper, int level, CompressionMeter meter) {
+        return new MeteredJdkEncoder(wrapper, level, meter);
+    }
+
+    /**
+     * Create the JZlib encoder.
+     *
+     * @param wrapper    compression method.
+     * @param level      deflate level.
+     * @param windowBits deflate window.
+     * @param memLevel   deflate memory level.
+     * @param meter      connection statistics.
+     * @return encoder.
+     */
+    static ZlibEncoder jzlibEncoder(ZlibWrapper wrapper, int level, int windowBits, int memLevel, CompressionMeter meter) {
+        return new MeteredJZlibEncoder(wrapper, level, windowBits, memLevel, meter);
+    }
+
+    /**
+     * Create the native (JDK) decoder. It inflates the streams of the any window size.
+     *
+     * @param wrapper     compression method.
+     * @param maxInflated max count of the bytes inflated from a received buffer, 0 if unlimited.
+     * @param meter       connection statistics.
+     * @return decoder.
+     */
+    static ZlibDecoder decoder(ZlibWrapper wrapper, int maxInflated, CompressionMeter meter) {
+        return new MeteredDecoder(wrapper, maxInflated, meter);
+    }
+
+    private static final class MeteredJdkEncoder extends JdkZlibEncoder {
+
+        private final CompressionMeter meter;
+
+        private MeteredJdkEncoder(ZlibWrapper wrapper, int level, CompressionMeter meter) {
+            super(wrapper, level);
+            this.meter = meter;
+        }
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, ByteBuf uncompressed, ByteBuf out) throws Exception {
+            int raw = uncompressed.readableBytes();
+            int start = out.writerIndex();
+            long time = System.nanoTime();
+            super.encode(ctx, uncompressed, out);
+            meter.deflated(raw, out.writerIndex() - start, System.nanoTime() - time);
+        }
+    }
+
+    private static final class MeteredJZlibEncoder extends JZlibEncoder {
+
+        private final CompressionMeter meter;
+
+        private MeteredJZlibEncoder(ZlibWrapper wrapper, int level, int windowBits, int memLevel, CompressionMeter meter) {
+            super(wrapper, level, windowBits, memLevel);
+            this.meter = meter;
+        }
+
+        @Override
+        protected void encode(ChannelHandlerContext ctx, ByteBuf uncompressed, ByteBuf out) throws Exception {
+            int raw = uncompressed.readableBytes();
+            int start = out.writerIndex();
+            long time = System.nanoTime();
+            super.encode(ctx, uncompressed, out);
+            meter.deflated(raw, out.writerIndex() - start, System.nanoTime() - time);
+        }
+    }
+
+    /**
+     * The JDK decoder inflates the whole input into one buffer without a limit, so the input is fed by the slices: the output of a
+     * slice is bounded by the max deflate ratio and the inflated bytes are counted before the next slice.
+     */
+    private static final class MeteredDecoder extends JdkZlibDecoder {
+
+        /**
+         * Max ratio of the deflate stream, 258 bytes from a 2-bit code.
+         */
+        private static final int MAX_RATIO = 1032;
+
+        private final int maxInflated;
+        private final int sliceSize;
+        private final CompressionMeter meter;
+
+        private MeteredDecoder(ZlibWrapper wrapper, int maxInflated, CompressionMeter meter) {
+            super(wrapper);
+            this.maxInflated = maxInflated;
+            this.sliceSize = maxInflated > 0 ? Math.max(1, maxInflated / MAX_RATIO) : Integer.MAX_VALUE;
+            this.meter = meter;
+        }
+
+        @Override
+        protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out) throws Exception {
+            int compressed = in.readableBytes();
+            int first = out.size();
+            long time = System.nanoTime();
+            int raw = 0;
+            int length = sliceSize;
+            while (in.isReadable()) {
+                ByteBuf slice = in.slice(in.readerIndex(), Math.min(in.readableBytes(), length));
+                int produced = out.size();
+                super.decode(ctx, slice, out);
+                in.skipBytes(slice.readerIndex());
+                for (int i = produced; i < out.size(); i++) {
+                    raw += ((ByteBuf) out.get(i)).readableBytes();
+                }
+                if (maxInflated > 0 && raw > maxInflated) {
+                    throw new DecompressionException(String.format("More than %d bytes are inflated from the received buffer.",
+                        maxInflated));
+                }
+                if (slice.readerIndex() == 0 && produced == out.size()) {
+                    if (slice.writerIndex() == in.readableBytes()) {
+                        // the incomplete header or footer, wait for the next buffer.
+                        break;
+                    }
+                    // the gzip header is longer than the slice.
+                    length = length > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : length * 2;
+                } else {
+                    length = sliceSize;
+                }
+            }
+            meter.inflated(compressed - in.readableBytes(), raw, System.nanoTime() - time);
+        }
+    }
+}
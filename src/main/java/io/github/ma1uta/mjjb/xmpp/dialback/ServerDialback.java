@@ -17,9 +17,11 @@
 package io.github.ma1uta.mjjb.xmpp.dialback;
 
 import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.DialbackConfig;
+import io.github.ma1uta.mjjb.metrics.CacheMetrics;
+import io.github.ma1uta.mjjb.xmpp.IncomingSession;
 import io.github.ma1uta.mjjb.xmpp.OutgoingSession;
 import io.github.ma1uta.mjjb.xmpp.XmppServer;
-import org.apache.commons.lang3.RandomStringUtils;
 import org.cache2k.Cache;
 import org.cache2k.Cache2kBuilder;
 import org.slf4j.Logger;
@@ -28,12 +30,14 @@ import rocks.xmpp.addr.Jid;
 import rocks.xmpp.core.net.TcpBinding;
 
 import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.util.Base64;
 import java.util.UUID;
 import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
 
 /**
  * Server ServerDialback.
@@ -54,41 +58,67 @@ public class ServerDialback {
      */
     public static final String PREFIX = "db";
 
-    private static final long CACHE_CAPACITY = 100L;
-    private static final int KEY_LENGTH = 12;
+    private static final String HMAC = "HmacSHA256";
+    private static final int SECRET_LENGTH = 32;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final int NIBBLE = 4;
+    private static final int NIBBLE_MASK = 0x0F;
 
     private final XmppServer server;
-    private final SecureRandom random = new SecureRandom();
-    private MessageDigest digest;
 
-    private Cache<String, String> keyCache;
-    private Cache<String, OutgoingSession> waitingConnections;
-    private Cache<OutgoingSession, TcpBinding> verifyingConnections;
+    /**
+     * The keyed MAC isn't thread-safe, each event loop has own instance initialized with the node secret.
+     */
+    private final ThreadLocal<Mac> mac;
+
+    private Cache<String, PendingVerification> verifyingConnections;
+    private Cache<String, String> verifiedKeys;
 
     public ServerDialback(XmppServer server) {
         this.server = server;
-        this.keyCache = new Cache2kBuilder<String, String>() {
+        DialbackConfig config = server.getConfig().getDialback();
+        // the pending verifications live only during the negotiation, the entries are keyed by the domains and the stream id.
+        this.verifyingConnections = new Cache2kBuilder<String, PendingVerification>() {
         }
-            .name("dialbackKeys")
-            .entryCapacity(CACHE_CAPACITY)
-            .expireAfterWrite(1L, TimeUnit.HOURS)
+            .name("verifyingConnections")
+            .entryCapacity(config.getPendingCapacity())
+            .expireAfterWrite(config.getPendingTtl(), TimeUnit.MILLISECONDS)
             .build();
-        this.waitingConnections = new Cache2kBuilder<String, OutgoingSession>() {
+        this.verifiedKeys = new Cache2kBuilder<String, String>() {
         }
-            .name("waitingConnections")
-            .entryCapacity(CACHE_CAPACITY)
-            .expireAfterWrite(1L, TimeUnit.HOURS)
+            .name("verifiedKeys")
+            .entryCapacity(config.getVerifiedCapacity())
+            .expireAfterWrite(config.getVerifiedTtl(), TimeUnit.MILLISECONDS)
             .build();
+        CacheMetrics.monitor(verifyingConnections);
+        CacheMetrics.monitor(verifiedKeys);
 
-        this.verifyingConnections = new Cache2kBuilder<OutgoingSession, TcpBinding>() {
-        }
-            .name("verifyingConnections")
-            .entryCapacity(CACHE_CAPACITY)
-            .expireAfterWrite(1L, TimeUnit.HOURS)
-            .build();
+        SecretKeySpec secret = new SecretKeySpec(secret(config.getSecret()), HMAC);
+        this.mac = ThreadLocal.withInitial(() -> {
+            try {
+                Mac instance = Mac.getInstance(HMAC);
+                instance.init(secret);
+                return instance;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        // fail fast if the JRE doesn't support the HMAC-SHA256.
+        mac.get();
+    }
 
+    private static byte[] secret(String nodeSecret) {
+        byte[] secret;
+        if (nodeSecret != null && !nodeSecret.isEmpty()) {
+            secret = nodeSecret.getBytes(StandardCharsets.UTF_8);
+        } else {
+            LOGGER.warn("The dialback secret isn't configured, the random one is used. "
+                + "The keys can't be verified by the other nodes and after the restart.");
+            secret = new byte[SECRET_LENGTH];
+            new SecureRandom().nextBytes(secret);
+        }
         try {
-            digest = MessageDigest.getInstance("SHA-256");
+            return MessageDigest.getInstance("SHA-256").digest(secret);
         } catch (NoSuchAlgorithmException e) {
             LOGGER.error("JRE doesn't support the SHA-256.", e);
             throw new RuntimeException(e);
@@ -101,34 +131,40 @@ public class ServerDialback {
 
     /**
      * Generate a new dialback key.
+     * <br/>
+     * https://xmpp.org/extensions/xep-0185.html: HEX(HMAC-SHA256(SHA256(Secret), Receiving Server + ' ' + Originating Server
+     * + ' ' + Stream ID)). The key is derived from the node secret, so nothing is stored per stream.
      *
-     * @param streamId stream id.
+     * @param receivingServer   receiving server domain.
+     * @param originatingServer originating server domain.
+     * @param streamId          stream id.
      * @return dialback key.
      */
-    public String newKey(String streamId) {
-        String secretKey = RandomStringUtils.random(KEY_LENGTH, 0, 0, true, true, null, this.random);
-        keyCache.put(streamId, secretKey);
-        return genKey(streamId, secretKey);
+    public String newKey(String receivingServer, String originatingServer, String streamId) {
+        byte[] digest = mac.get().doFinal((receivingServer + ' ' + originatingServer + ' ' + streamId).getBytes(StandardCharsets.UTF_8));
+        char[] key = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            key[i * 2] = HEX[(digest[i] >> NIBBLE) & NIBBLE_MASK];
+            key[i * 2 + 1] = HEX[digest[i] & NIBBLE_MASK];
+        }
+        return new String(key);
     }
 
     /**
      * Verify the dialback key.
      *
-     * @param streamId stream id.
-     * @param key      stream secret key.
+     * @param receivingServer   receiving server domain.
+     * @param originatingServer originating server domain.
+     * @param streamId          stream id.
+     * @param key               dialback key.
      * @return {@code true} if domain is passed verification, else {@code false}.
      */
-    public boolean verify(String streamId, String key) {
-        String secretKey = keyCache.peek(streamId);
-        if (secretKey == null) {
+    public boolean verify(String receivingServer, String originatingServer, String streamId, String key) {
+        if (streamId == null || key == null) {
             return false;
         }
-        return genKey(streamId, secretKey).equals(key);
-    }
-
-    protected synchronized String genKey(String streamId, String secretKey) {
-        digest.update(streamId.getBytes(StandardCharsets.UTF_8));
-        return Base64.getEncoder().encodeToString(digest.digest(secretKey.getBytes(StandardCharsets.UTF_8)));
+        return MessageDigest.isEqual(newKey(receivingServer, originatingServer, streamId).getBytes(StandardCharsets.UTF_8),
+            key.getBytes(StandardCharsets.UTF_8));
     }
 
     /**
@@ -141,6 +177,33 @@ public class ServerDialback {
     public DialbackNegotiationResult negotiateOutgoing(OutgoingSession session, Object streamElement) {
         State status = session.dialback();
 
+        // receive <db:verify/> with answer and send <db:result/> with answer.
+        // The answer comes either on the authenticated session which is reused for the verification or on the session
+        // initialized without dialback, so the answer is checked before the state.
+        // Only the authoritative server of the originating domain can answer: the session must be connected to that domain.
+        if (streamElement instanceof Verify) {
+            Verify verify = (Verify) streamElement;
+            PendingVerification pending = null;
+            String request = null;
+            if (verify.getFrom() != null && verify.getTo() != null && session.getDomain().equals(verify.getFrom().getDomain())) {
+                request = request(verify.getFrom().getDomain(), verify.getTo().getDomain(), verify.getId());
+                pending = verifyingConnections.peek(request);
+            }
+            if (pending != null && pending.domain.equals(session.getDomain()) && verifyingConnections.removeIfEquals(request, pending)) {
+                // authenticate before the answer, the remote server can enable or resume the stream management right after it.
+                if (DialbackElement.DialbackType.valid.name().equals(verify.getType())) {
+                    verifiedKeys.put(request, pending.key);
+                    authenticate(pending.connection, verify.getTo().getDomain(), verify.getFrom().getDomain());
+                }
+                pending.connection.send(new Result(verify.getId(), verify.getFrom(), verify.getTo(), null, verify.getType()));
+            }
+            if (!session.isDialbackEnabled()) {
+                // don't wait for the closing tag on the event loop which has to read it.
+                session.getConnection().closeAsync();
+            }
+            return DialbackNegotiationResult.FAILED;
+        }
+
         // pass if trusted or disable.
         if (State.TRUSTED == status || State.DISABLED == status) {
             return DialbackNegotiationResult.SUCCESS;
@@ -149,39 +212,25 @@ public class ServerDialback {
         // send an initial <db:result/> element.
         if (State.SUPPORT == status) {
             session.dialback(State.SENT);
-            waitingConnections.put(session.getDomain(), session);
+            String localDomain = getServer().getConfig().getDomain();
             session.sendDirect(new Result(
-                UUID.randomUUID().toString(),                       // id
-                Jid.of(session.getDomain()),                        // to
-                Jid.of(getServer().getConfig().getDomain()),        // from
-                newKey(session.getConnection().getStreamId()),      // key
+                UUID.randomUUID().toString(),                                       // id
+                Jid.of(session.getDomain()),                                        // to
+                Jid.of(localDomain),                                                // from
+                newKey(session.getDomain(), localDomain, session.getStreamId()),    // key
                 null));
             return DialbackNegotiationResult.IN_PROCESS;
         }
 
         // check <db:result> with answer
-        if (State.SENT == status && streamElement instanceof Result) {
+        if (State.SENT == status && streamElement instanceof Result && ((Result) streamElement).getType() != null) {
             Result result = (Result) streamElement;
-            if (DialbackElement.DialbackType.valid == DialbackElement.DialbackType.valueOf(result.getType())) {
+            if (DialbackElement.DialbackType.valid.name().equals(result.getType())) {
                 session.dialback(State.TRUSTED);
-                waitingConnections.remove(result.getFrom().getDomain());
+                getServer().getSessions().authenticate(session, getServer().getConfig().getDomain(), session.getDomain());
                 return DialbackNegotiationResult.SUCCESS;
             }
-        }
-
-        // receive <db:verify/> with answer and send <db:result/> with answer
-        if (streamElement instanceof Verify) {
-            Verify verify = (Verify) streamElement;
-            TcpBinding incomingSession = verifyingConnections.get(session);
-            if (incomingSession != null) {
-                verifyingConnections.remove(session);
-                incomingSession.send(new Result(verify.getId(), verify.getFrom(), verify.getTo(), null, verify.getType()));
-                try {
-                    session.close();
-                } catch (Exception e) {
-                    LOGGER.error(String.format("Failed close session without dialback to \'%s\'", session.getDomain()), e);
-                }
-            }
+            session.negotiationFailed("the dialback key is " + result.getType());
         }
 
         return DialbackNegotiationResult.FAILED;
@@ -198,13 +247,35 @@ public class ServerDialback {
         // receive <db:result/> and send <db:verify/>.
         if (streamElement instanceof Result) {
             Result result = (Result) streamElement;
-            String id = result.getId() != null ? result.getId() : UUID.randomUUID().toString();
+            // the key was generated for the id of the stream which was sent to the originating server.
+            IncomingSession incoming = getServer().getSessions().findIncoming(connection);
+            String id = incoming != null && incoming.getStreamId() != null ? incoming.getStreamId() : UUID.randomUUID().toString();
+            String originatingDomain = result.getFrom().getDomain();
+            String receivingDomain = result.getTo().getDomain();
+            String request = request(originatingDomain, receivingDomain, id);
+
+            // the same key of the same stream was already verified.
+            if (result.getText() != null && result.getText().equals(verifiedKeys.peek(request))) {
+                authenticate(connection, receivingDomain, originatingDomain);
+                connection.send(new Result(id, result.getFrom(), result.getTo(), null, DialbackElement.DialbackType.valid.name()));
+                return DialbackNegotiationResult.IN_PROCESS;
+            }
+
+            verifyingConnections.put(request, new PendingVerification(connection, originatingDomain, result.getText()));
+            Verify verify = new Verify(id, result.getFrom(), result.getTo(), result.getText(), null);
+            // piggyback on the authenticated stream to the authoritative server if it exists.
+            OutgoingSession authenticated = getServer().getSessions().outgoing(originatingDomain);
+            if (authenticated != null && authenticated.isInitialized()) {
+                // the control class of the outgoing queue, it goes ahead of the queued stanzas.
+                authenticated.send(verify);
+                return DialbackNegotiationResult.IN_PROCESS;
+            }
             try {
-                OutgoingSession session = new OutgoingSession(getServer(), result.getFrom().getDomain(), false);
-                verifyingConnections.put(session, connection);
-                session.send(new Verify(id, result.getFrom(), result.getTo(), result.getText(), null));
+                OutgoingSession session = new OutgoingSession(getServer(), originatingDomain, false);
+                session.send(verify);
             } catch (Exception e) {
                 LOGGER.error("Unable to send message", e);
+                verifyingConnections.remove(request);
                 return DialbackNegotiationResult.FAILED;
             }
             return DialbackNegotiationResult.IN_PROCESS;
@@ -213,16 +284,11 @@ public class ServerDialback {
         // check <db:verify/> and answer with <db:verify/>
         if (streamElement instanceof Verify) {
             Verify verify = (Verify) streamElement;
-            OutgoingSession outgoingSession = waitingConnections.get(verify.getFrom().getDomain());
-            if (outgoingSession == null) {
-                sendVerify(connection, verify, DialbackElement.DialbackType.invalid);
-                return DialbackNegotiationResult.FAILED;
-            }
-            String streamId = outgoingSession.getConnection().getStreamId();
-            DialbackElement.DialbackType type = verify(streamId, verify.getText())
+            // the id of the request is the stream id which the key was generated for, the key is checked without any state.
+            boolean valid = verify(verify.getFrom().getDomain(), verify.getTo().getDomain(), verify.getId(), verify.getText());
+            DialbackElement.DialbackType type = valid
                 ? DialbackElement.DialbackType.valid
                 : DialbackElement.DialbackType.invalid;
-            keyCache.remove(streamId);
             sendVerify(connection, verify, type);
             return type == DialbackElement.DialbackType.valid ? DialbackNegotiationResult.IN_PROCESS : DialbackNegotiationResult.FAILED;
         }
@@ -230,6 +296,20 @@ public class ServerDialback {
         return DialbackNegotiationResult.IGNORED;
     }
 
+    private void authenticate(TcpBinding connection, String localDomain, String remoteDomain) {
+        IncomingSession incoming = getServer().getSessions().findIncoming(connection);
+        if (incoming != null) {
+            getServer().getSessions().authenticate(incoming, localDomain, remoteDomain);
+        }
+    }
+
+    /**
+     * Key of the verification request. A connection can carry the several domains, so the stream id isn't enough.
+     */
+    private static String request(String originatingDomain, String receivingDomain, String streamId) {
+        return originatingDomain + ' ' + receivingDomain + ' ' + streamId;
+    }
+
     protected void sendVerify(TcpBinding connection, Verify verify, DialbackElement.DialbackType type) {
         connection.send(
             new Verify(
@@ -242,6 +322,24 @@ public class ServerDialback {
         );
     }
 
+    /**
+     * Incoming connection which waits for the answer of the authoritative server.
+     */
+    private static final class PendingVerification {
+        private final TcpBinding connection;
+        /**
+         * Originating domain, the verify answer is accepted only from the session to its authoritative server.
+         */
+        private final String domain;
+        private final String key;
+
+        private PendingVerification(TcpBinding connection, String domain, String key) {
+            this.connection = connection;
+            this.domain = domain;
+            this.key = key;
+        }
+    }
+
     /**
      * Dialback states.
      */
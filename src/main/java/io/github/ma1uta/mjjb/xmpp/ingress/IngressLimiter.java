@@ -0,0 +1,170 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.ingress;
+
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import io.netty.channel.Channel;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.core.stream.model.StreamElement;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ingress limits of a connection.
+ * <p/>
+ * Two token buckets (bytes and stanzas) hold a second of their rate. The received data is always accepted and may put a bucket
+ * into the debt, then the auto read of the channel is turned off until the debt is paid, so the peer is slowed down by TCP.
+ * The limiter is used by the event loop of the channel only.
+ * <p/>
+ * The metrics are labelled by the first authenticated remote domain, not by the stream header: the unauthenticated peers are
+ * counted as {@code unknown}, so they can't create the unbounded count of the label values.
+ */
+public class IngressLimiter {
+
+    private static final String UNKNOWN = "unknown";
+
+    private final int maxStanzaSize;
+    private final Bucket bytes;
+    private final Bucket stanzas;
+    private volatile String domain = UNKNOWN;
+    private boolean paused;
+
+    IngressLimiter(int maxStanzaSize, int bytesPerSecond, int stanzasPerSecond) {
+        this.maxStanzaSize = maxStanzaSize;
+        this.bytes = bytesPerSecond > 0 ? new Bucket(bytesPerSecond) : null;
+        this.stanzas = stanzasPerSecond > 0 ? new Bucket(stanzasPerSecond) : null;
+    }
+
+    /**
+     * Max size of a top-level stream element.
+     *
+     * @return max size in bytes or 0 if unlimited.
+     */
+    public int getMaxStanzaSize() {
+        return maxStanzaSize;
+    }
+
+    /**
+     * Counts the received bytes.
+     *
+     * @param count received bytes.
+     */
+    public void read(int count) {
+        if (bytes != null) {
+            bytes.take(count);
+        }
+    }
+
+    /**
+     * Counts the decoded element.
+     *
+     * @param element decoded element.
+     */
+    public void decoded(StreamElement element) {
+        if (element instanceof Stanza && stanzas != null) {
+            stanzas.take(1);
+        }
+    }
+
+    /**
+     * The remote domain is authenticated. Called by any thread, e.g. the event loop of the authoritative server session.
+     *
+     * @param remoteDomain authenticated domain.
+     */
+    public void authenticated(String remoteDomain) {
+        if (UNKNOWN.equals(domain)) {
+            domain = remoteDomain;
+        }
+    }
+
+    /**
+     * Pauses the reading of the channel if any bucket is in the debt.
+     *
+     * @param channel connection channel.
+     */
+    public void throttle(Channel channel) {
+        if (paused) {
+            return;
+        }
+        long delay = 0;
+        if (bytes != null && bytes.debt() > 0) {
+            Metrics.INGRESS_THROTTLED.labels(domain, "bytes").inc();
+            delay = bytes.debt();
+        }
+        if (stanzas != null && stanzas.debt() > 0) {
+            Metrics.INGRESS_THROTTLED.labels(domain, "stanzas").inc();
+            delay = Math.max(delay, stanzas.debt());
+        }
+        if (delay == 0) {
+            return;
+        }
+        paused = true;
+        channel.config().setAutoRead(false);
+        final long start = System.nanoTime();
+        channel.eventLoop().schedule(() -> {
+            paused = false;
+            Metrics.INGRESS_PAUSE_TIME.labels(domain).inc(Metrics.since(start));
+            // turning the auto read on requests the next read.
+            channel.config().setAutoRead(true);
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops the reading of the channel which violated the policy, the stream error is sent and the connection is closed by the session.
+     *
+     * @param channel connection channel.
+     * @param reason  violated limit.
+     */
+    public void violated(Channel channel, String reason) {
+        Metrics.INGRESS_VIOLATIONS.labels(domain, reason).inc();
+        channel.config().setAutoRead(false);
+    }
+
+    /**
+     * Token bucket with the capacity of a second of the rate.
+     */
+    private static class Bucket {
+
+        private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+        private final long rate;
+        private double tokens;
+        private long updated = System.nanoTime();
+
+        Bucket(long rate) {
+            this.rate = rate;
+            this.tokens = rate;
+        }
+
+        void take(long count) {
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (double) (now - updated) * rate / NANOS_PER_SECOND);
+            updated = now;
+            tokens -= count;
+        }
+
+        /**
+         * Time to pay the debt.
+         *
+         * @return nanoseconds or 0 if there is no debt.
+         */
+        long debt() {
+            return tokens < 0 ? (long) Math.ceil(-tokens * NANOS_PER_SECOND / rate) : 0;
+        }
+    }
+}
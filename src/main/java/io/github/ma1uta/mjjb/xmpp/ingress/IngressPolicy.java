@@ -0,0 +1,56 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.ingress;
+
+import io.github.ma1uta.mjjb.config.IngressConfig;
+
+/**
+ * Ingress limits of the S2S connections.
+ * <p/>
+ * The size of a top-level element is limited by the stream decoder, the rates are enforced by the {@link IngressLimiter} of each
+ * connection.
+ */
+public class IngressPolicy {
+
+    private final IngressConfig config;
+
+    public IngressPolicy(IngressConfig config) {
+        if (config.getMaxStanzaSize() < 0 || config.getBytesPerSecond() < 0 || config.getStanzasPerSecond() < 0) {
+            throw new IllegalArgumentException("Ingress limits must not be negative.");
+        }
+        this.config = config;
+    }
+
+    /**
+     * Max size of a top-level stream element.
+     *
+     * @return max size in bytes or 0 if unlimited.
+     */
+    public int getMaxStanzaSize() {
+        return config.getMaxStanzaSize();
+    }
+
+    /**
+     * Creates the limiter of a new connection.
+     *
+     * @return connection limiter.
+     */
+    public IngressLimiter newLimiter() {
+        return new IngressLimiter(config.getMaxStanzaSize(), config.getBytesPerSecond(), config.getStanzasPerSecond());
+    }
+}
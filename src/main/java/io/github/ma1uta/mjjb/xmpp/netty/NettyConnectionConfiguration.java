@@ -0,0 +1,57 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.netty;
+
+import io.github.ma1uta.mjjb.xmpp.compress.CompressionPolicy;
+import io.github.ma1uta.mjjb.xmpp.ingress.IngressPolicy;
+import io.netty.handler.ssl.SslContext;
+import rocks.xmpp.core.net.ConnectionConfiguration;
+
+/**
+ * Connection configuration with the shared Netty TLS contexts, the compression and the ingress policies.
+ */
+public interface NettyConnectionConfiguration extends ConnectionConfiguration {
+
+    /**
+     * TLS context of the incoming connections.
+     *
+     * @return server TLS context or {@code null} if TLS is disabled.
+     */
+    SslContext getServerSslContext();
+
+    /**
+     * TLS context of the outgoing connections.
+     *
+     * @return client TLS context or {@code null} if TLS is disabled.
+     */
+    SslContext getClientSslContext();
+
+    /**
+     * Stream compression policy.
+     *
+     * @return compression policy.
+     */
+    CompressionPolicy getCompressionPolicy();
+
+    /**
+     * Ingress limits.
+     *
+     * @return ingress policy or {@code null} if unlimited.
+     */
+    IngressPolicy getIngressPolicy();
+}
@@ -16,12 +16,13 @@
 
 package io.github.ma1uta.mjjb.xmpp.netty;
 
+import io.github.ma1uta.mjjb.netty.TlsHandlers;
 import io.github.ma1uta.mjjb.xmpp.babbler.netty.NettyChannelConnection;
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.Channel;
 import io.netty.handler.ssl.ClientAuth;
 import io.netty.handler.ssl.JdkSslContext;
 import io.netty.handler.ssl.SslContext;
-import io.netty.handler.ssl.SslHandler;
 import rocks.xmpp.core.net.ConnectionConfiguration;
 import rocks.xmpp.core.stream.StreamHandler;
 import rocks.xmpp.core.stream.model.StreamElement;
@@ -29,7 +30,6 @@ import rocks.xmpp.core.stream.model.StreamElement;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
-import javax.net.ssl.SSLContext;
 import javax.xml.bind.Marshaller;
 import javax.xml.bind.Unmarshaller;
 
@@ -41,7 +41,7 @@ public class NettyOutgoingChannelConnection extends NettyChannelConnection {
     public NettyOutgoingChannelConnection(Channel channel, StreamHandler streamHandler,
                                           BiConsumer<String, StreamElement> onRead,
                                           Supplier<Unmarshaller> unmarshallerSupplier,
-                                          BiConsumer<String, StreamElement> onWrite,
+                                          BiConsumer<ByteBuf, StreamElement> onWrite,
                                           Supplier<Marshaller> marshallerSupplier,
                                           Consumer<Throwable> onException,
                                           ConnectionConfiguration connectionConfiguration) {
@@ -50,9 +50,12 @@ public class NettyOutgoingChannelConnection extends NettyChannelConnection {
 
     @Override
     public void secureConnection() throws Exception {
-        final SSLContext sslContext = getConfiguration().getSSLContext();
-        SslContext sslCtx = new JdkSslContext(sslContext, true, ClientAuth.NONE);
-        final SslHandler handler = new SslHandler(sslCtx.newEngine(channel.alloc()), false);
-        channel.pipeline().addFirst("SSL", handler);
+        SslContext sslContext = getConfiguration() instanceof NettyConnectionConfiguration
+            ? ((NettyConnectionConfiguration) getConfiguration()).getClientSslContext()
+            : null;
+        if (sslContext == null) {
+            sslContext = new JdkSslContext(getConfiguration().getSSLContext(), true, ClientAuth.NONE);
+        }
+        channel.pipeline().addFirst("SSL", TlsHandlers.newHandler(sslContext, channel, TlsHandlers.XMPP_CLIENT, false));
     }
 }
@@ -17,14 +17,19 @@
 package io.github.ma1uta.mjjb.xmpp.netty;
 
 import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.IdleConfig;
+import io.github.ma1uta.mjjb.netty.TlsHandlers;
 import io.github.ma1uta.mjjb.xmpp.OutgoingSession;
 import io.github.ma1uta.mjjb.xmpp.XmppServer;
 import io.netty.channel.Channel;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.ssl.SslHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 /**
  * XMPP server netty channel initializer.
  */
@@ -33,14 +38,32 @@ public class XmppClientInitializer extends XmppNettyInitializer<Channel, Outgoin
     private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
 
     private final OutgoingSession session;
+    private final boolean directTls;
+    private final int port;
 
-    public XmppClientInitializer(XmppServer xmppServer, OutgoingSession session) {
+    /**
+     * Constructs the initializer.
+     *
+     * @param xmppServer server.
+     * @param session    outgoing session.
+     * @param directTls  {@code true} to start TLS from the first byte (XEP-0368).
+     * @param port       remote port.
+     */
+    public XmppClientInitializer(XmppServer xmppServer, OutgoingSession session, boolean directTls, int port) {
         super(xmppServer);
         this.session = session;
+        this.directTls = directTls;
+        this.port = port;
     }
 
     @Override
     protected void initChannel(Channel ch) throws Exception {
+        IdleConfig idle = getServer().getConfig().getIdle();
+        // the idle outgoing session is checked when the keepalive is due.
+        long keepalive = idle.getKeepaliveInterval();
+        long timeout = idle.getOutgoingTimeout();
+        addIdleHandlers(ch, session, 0, keepalive > 0 && timeout > 0 ? Math.min(keepalive, timeout) : Math.max(keepalive, timeout),
+            "outcome");
         NettyOutgoingChannelConnection connection = new NettyOutgoingChannelConnection(
             ch,
             session::handleStream,
@@ -53,20 +76,49 @@ public class XmppClientInitializer extends XmppNettyInitializer<Channel, Outgoin
         );
         session.setConnection(connection);
         session.setExecutor(ch.eventLoop());
+        session.setEgress(getServer().egress(ch.eventLoop()));
+        AtomicBoolean active = new AtomicBoolean(false);
+        if (directTls) {
+            // the stream header is held by the handler until the handshake is done, the SNI is the domain (XEP-0368).
+            SslHandler sslHandler = TlsHandlers.newClientHandler(getServer().getConnectionConfiguration().getClientSslContext(),
+                ch, TlsHandlers.XMPP_CLIENT, session.getDomain(), port);
+            sslHandler.handshakeFuture().addListener(future -> {
+                // the failed connect is retried by the resolver, the failed handshake of the open connection falls back to STARTTLS.
+                if (!future.isSuccess() && active.get()) {
+                    session.directTlsFailed(connection);
+                }
+            });
+            ch.pipeline().addFirst("SSL", sslHandler);
+        }
         ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
             @Override
             public void channelActive(ChannelHandlerContext ctx) throws Exception {
+                active.set(true);
                 session.handshake();
             }
 
             @Override
             public void channelInactive(ChannelHandlerContext ctx) throws Exception {
-                session.close();
+                // the closed channel doesn't hold the queue anymore.
+                session.writabilityChanged(true);
+                session.connectionLost(connection);
+            }
+
+            @Override
+            public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+                boolean writable = ctx.channel().isWritable();
+                session.writabilityChanged(writable);
+                if (writable) {
+                    session.tryToSend();
+                }
+                super.channelWritabilityChanged(ctx);
             }
 
             @Override
             public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
-                session.close();
+                LOGGER.error("Outgoing session failed.", cause);
+                // the session is closed or resumed when the channel becomes inactive.
+                ctx.close();
             }
 
             @Override
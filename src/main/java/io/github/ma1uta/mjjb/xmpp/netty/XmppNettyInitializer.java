@@ -16,10 +16,17 @@
 
 package io.github.ma1uta.mjjb.xmpp.netty;
 
+import io.github.ma1uta.mjjb.metrics.Metrics;
 import io.github.ma1uta.mjjb.xmpp.Session;
 import io.github.ma1uta.mjjb.xmpp.XmppServer;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.ChannelInitializer;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+
+import java.util.concurrent.TimeUnit;
 
 /**
  * Netty initializer.
@@ -38,4 +45,43 @@ public abstract class XmppNettyInitializer<C extends Channel, S extends Session>
     public XmppServer getServer() {
         return server;
     }
+
+    /**
+     * Track the idle connection of the session and count the open connections.
+     * <br/>
+     * The handlers are added before the XML codec, so the whitespaces and the encoded stanzas are seen by the idle checks.
+     *
+     * @param ch           channel.
+     * @param session      session.
+     * @param readerIdle   reader idle time in milliseconds, 0 to disable.
+     * @param writerIdle   writer idle time in milliseconds, 0 to disable.
+     * @param direction    direction of the connection (income, outcome).
+     */
+    protected void addIdleHandlers(C ch, S session, long readerIdle, long writerIdle, String direction) {
+        if (readerIdle > 0 || writerIdle > 0) {
+            // the timeouts are scheduled on the event loop of the channel, no timer thread is required.
+            ch.pipeline().addLast("idle", new IdleStateHandler(readerIdle, writerIdle, 0, TimeUnit.MILLISECONDS));
+        }
+        ch.pipeline().addLast("idleSession", new ChannelInboundHandlerAdapter() {
+            @Override
+            public void channelActive(ChannelHandlerContext ctx) throws Exception {
+                Metrics.CONNECTIONS.labels(direction).inc();
+                super.channelActive(ctx);
+            }
+
+            @Override
+            public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+                Metrics.CONNECTIONS.labels(direction).dec();
+                super.channelInactive(ctx);
+            }
+
+            @Override
+            public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+                if (evt instanceof IdleStateEvent) {
+                    session.idle(((IdleStateEvent) evt).state());
+                }
+                super.userEventTriggered(ctx, evt);
+            }
+        });
+    }
 }
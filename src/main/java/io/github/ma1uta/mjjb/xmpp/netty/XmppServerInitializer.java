@@ -17,18 +17,23 @@
 package io.github.ma1uta.mjjb.xmpp.netty;
 
 import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.capture.CaptureHandler;
+import io.github.ma1uta.mjjb.capture.TrafficCapture;
+import io.github.ma1uta.mjjb.config.IdleConfig;
+import io.github.ma1uta.mjjb.netty.TlsHandlers;
 import io.github.ma1uta.mjjb.xmpp.IncomingSession;
 import io.github.ma1uta.mjjb.xmpp.XmppServer;
 import io.github.ma1uta.mjjb.xmpp.babbler.netty.NettyChannelConnection;
+import io.github.ma1uta.mjjb.xmpp.bidi.BidiNegotiator;
+import io.github.ma1uta.mjjb.xmpp.compress.CompressionNegotiator;
 import io.github.ma1uta.mjjb.xmpp.dialback.DialbackNegotiator;
 import io.github.ma1uta.mjjb.xmpp.sasl.SaslNegotiator;
+import io.github.ma1uta.mjjb.xmpp.sm.StreamManagementNegotiator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.compression.ZlibWrapper;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import rocks.xmpp.core.extensions.compress.server.CompressionNegotiator;
 import rocks.xmpp.core.net.ChannelEncryption;
 import rocks.xmpp.core.tls.server.StartTlsNegotiator;
 
@@ -39,13 +44,33 @@ public class XmppServerInitializer extends XmppNettyInitializer<SocketChannel, I
 
     private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
 
-    public XmppServerInitializer(XmppServer xmppServer) {
+    private final boolean directTls;
+
+    /**
+     * Constructs the initializer.
+     *
+     * @param xmppServer server.
+     * @param directTls  {@code true} for the direct TLS listener (XEP-0368), else the STARTTLS is offered.
+     */
+    public XmppServerInitializer(XmppServer xmppServer, boolean directTls) {
         super(xmppServer);
+        this.directTls = directTls;
     }
 
     @Override
     protected void initChannel(SocketChannel ch) throws Exception {
         IncomingSession session = new IncomingSession(getServer());
+        if (directTls) {
+            ch.pipeline().addLast("SSL", TlsHandlers.newHandler(getServer().getConnectionConfiguration().getServerSslContext(), ch,
+                TlsHandlers.XMPP_SERVER, false));
+        }
+        TrafficCapture capture = getServer().getCapture();
+        if (capture != null && capture.isXmpp()) {
+            // the first handler after the direct TLS, the STARTTLS and compression handlers are added in front of it.
+            ch.pipeline().addLast(new CaptureHandler(capture));
+        }
+        IdleConfig idle = getServer().getConfig().getIdle();
+        addIdleHandlers(ch, session, idle.getIncomingTimeout(), idle.getKeepaliveInterval(), "income");
         NettyChannelConnection connection = new NettyChannelConnection(
             ch,
             session::handleStream,
@@ -58,21 +83,42 @@ public class XmppServerInitializer extends XmppNettyInitializer<SocketChannel, I
         );
         session.setConnection(connection);
         session.setExecutor(ch.eventLoop());
-        if (getServer().getConnectionConfiguration().getChannelEncryption() == ChannelEncryption.REQUIRED) {
+        session.setEgress(getServer().egress(ch.eventLoop()));
+        if (!directTls && getServer().getConnectionConfiguration().getChannelEncryption() == ChannelEncryption.REQUIRED) {
             session.getStreamFeaturesManager().registerStreamFeatureNegotiator(new StartTlsNegotiator(connection));
         }
-        session.getStreamFeaturesManager().registerStreamFeatureNegotiator(new CompressionNegotiator(connection,
-            ZlibWrapper.GZIP.name().toLowerCase(), ZlibWrapper.ZLIB.name().toLowerCase()));
+        session.getStreamFeaturesManager().registerStreamFeatureNegotiator(new CompressionNegotiator(session,
+            getServer().compression()));
         session.getStreamFeaturesManager().registerStreamFeatureNegotiator(new DialbackNegotiator(connection, getServer()));
         session.getStreamFeaturesManager().registerStreamFeatureNegotiator(new SaslNegotiator(session));
+        if (getServer().getConfig().isBidi()) {
+            session.setBidi(new BidiNegotiator(session));
+            session.getStreamFeaturesManager().registerStreamFeatureNegotiator(session.getBidi());
+        }
+        if (getServer().getStreamResumption() != null) {
+            session.setStreamManagement(new StreamManagementNegotiator(session, getServer().getStreamResumption()));
+            session.getStreamFeaturesManager().registerStreamFeatureNegotiator(session.getStreamManagement());
+        }
         getServer().newIncomingSession(session);
         ch.pipeline().addLast(new ChannelInboundHandlerAdapter() {
 
             @Override
             public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+                // the closed channel doesn't hold the queue anymore.
+                session.writabilityChanged(true);
                 session.close();
             }
 
+            @Override
+            public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+                boolean writable = ctx.channel().isWritable();
+                session.writabilityChanged(writable);
+                if (writable) {
+                    session.tryToSend();
+                }
+                super.channelWritabilityChanged(ctx);
+            }
+
             @Override
             public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
                 session.close();
@@ -0,0 +1,167 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.queue;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.BackpressureConfig;
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Global pressure of the XMPP egress.
+ * <p/>
+ * The outgoing queues report the queued stream elements, a session stops draining its queue while the channel isn't writable,
+ * so a slow remote server is seen as the growing queue. The sessions which are connecting or reconnecting don't report their
+ * queues, a dead domain is limited by its own queue and doesn't block the others. The bridge is saturated when the queued
+ * elements reach the high water mark and is released when they fall to the low water mark. While saturated the outbox relay
+ * pauses and the appservice transactions wait, so the homeserver retries them later instead of the bridge buffering the stanzas.
+ */
+public class Backpressure implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    private final BackpressureConfig config;
+    private final AtomicLong queued = new AtomicLong();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "backpressure");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean saturated;
+    private CompletableFuture<Void> release = new CompletableFuture<>();
+
+    public Backpressure(BackpressureConfig config) {
+        if (config.getHighWater() > 0 && (config.getLowWater() < 0 || config.getLowWater() >= config.getHighWater())) {
+            throw new IllegalArgumentException("Backpressure low water mark must be from 0 to the high water mark.");
+        }
+        this.config = config;
+    }
+
+    public BackpressureConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Counts the queued stream elements.
+     *
+     * @param delta added (positive) or removed (negative) elements.
+     */
+    public void queued(long delta) {
+        long value = queued.addAndGet(delta);
+        Metrics.BACKPRESSURE_QUEUED.inc(delta);
+        if (config.getHighWater() <= 0) {
+            return;
+        }
+        if (!saturated && value >= config.getHighWater()) {
+            saturate();
+        } else if (saturated && value <= config.getLowWater()) {
+            release();
+        }
+    }
+
+    /**
+     * Counts the outgoing channels which aren't writable.
+     *
+     * @param writable new writability of the channel.
+     */
+    public void writabilityChanged(boolean writable) {
+        if (writable) {
+            Metrics.BACKPRESSURE_UNWRITABLE.dec();
+        } else {
+            Metrics.BACKPRESSURE_UNWRITABLE.inc();
+        }
+    }
+
+    public boolean isSaturated() {
+        return saturated;
+    }
+
+    /**
+     * Adds the listener called when the saturated bridge is released.
+     *
+     * @param listener release listener.
+     */
+    public void onRelease(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Waits for the release of the saturated bridge.
+     *
+     * @param timeout max time to wait in milliseconds.
+     * @return {@code true} when the bridge isn't saturated or is released, {@code false} after the timeout.
+     */
+    public CompletableFuture<Boolean> await(long timeout) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        synchronized (this) {
+            if (!saturated) {
+                result.complete(true);
+                return result;
+            }
+            release.thenRun(() -> result.complete(true));
+        }
+        timer.schedule(() -> result.complete(false), timeout, TimeUnit.MILLISECONDS);
+        return result;
+    }
+
+    private synchronized void saturate() {
+        if (saturated || queued.get() < config.getHighWater()) {
+            return;
+        }
+        saturated = true;
+        Metrics.BACKPRESSURE_SATURATED.set(1);
+        Metrics.BACKPRESSURE_SATURATIONS.inc();
+        LOGGER.warn("The XMPP egress is saturated: {} queued stream elements.", queued.get());
+    }
+
+    private void release() {
+        CompletableFuture<Void> released;
+        synchronized (this) {
+            if (!saturated || queued.get() > config.getLowWater()) {
+                return;
+            }
+            saturated = false;
+            released = release;
+            release = new CompletableFuture<>();
+        }
+        Metrics.BACKPRESSURE_SATURATED.set(0);
+        LOGGER.info("The XMPP egress is released: {} queued stream elements.", queued.get());
+        // the waiting transactions and the listeners don't run on the thread which dequeued the element (e.g. an event loop).
+        timer.execute(() -> {
+            released.complete(null);
+            for (Runnable listener : listeners) {
+                listener.run();
+            }
+        });
+    }
+
+    @Override
+    public void close() throws Exception {
+        timer.shutdownNow();
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.queue;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Outgoing flow of a session which is served by the {@link EgressScheduler}.
+ */
+public abstract class EgressFlow {
+
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private long deficit;
+
+    /**
+     * Send the queued elements within the budget. Called by the event loop of the scheduler.
+     *
+     * @param bytes    byte budget, nothing is sent if it isn't positive.
+     * @param elements max count of the elements.
+     * @return count of the written bytes.
+     */
+    protected abstract long send(long bytes, int elements);
+
+    /**
+     * The flow has elements which can be sent now.
+     *
+     * @return {@code true} if the flow should get the next turn.
+     */
+    protected abstract boolean hasPending();
+
+    AtomicBoolean scheduled() {
+        return scheduled;
+    }
+
+    long getDeficit() {
+        return deficit;
+    }
+
+    void setDeficit(long deficit) {
+        this.deficit = deficit;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.queue;
+
+import io.github.ma1uta.mjjb.config.EgressConfig;
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import io.netty.channel.EventLoop;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Deficit round robin of the outgoing flows of an event loop.
+ * <p/>
+ * A turn serves each active flow once: the quantum is added to its deficit and the flow sends while the deficit is positive and
+ * the count of the elements is below the limit. The flow with the elements left goes to the tail and the next turn is a new task
+ * of the event loop, so a busy domain can't monopolize the loop and the reads of the other channels run between the turns.
+ * <p/>
+ * The flows are scheduled by any thread, the active list is changed only by the event loop.
+ */
+public class EgressScheduler {
+
+    private final EventLoop loop;
+    private final int quantum;
+    private final int turnElements;
+    private final Deque<EgressFlow> active = new ArrayDeque<>();
+    private boolean running;
+
+    /**
+     * Constructs the scheduler.
+     *
+     * @param loop   event loop.
+     * @param config budget of the turn.
+     */
+    public EgressScheduler(EventLoop loop, EgressConfig config) {
+        this.loop = loop;
+        this.quantum = Math.max(1, config.getQuantumBytes());
+        this.turnElements = Math.max(1, config.getTurnStanzas());
+    }
+
+    /**
+     * Serve the flow until it has no pending elements.
+     *
+     * @param flow outgoing flow.
+     */
+    public void schedule(EgressFlow flow) {
+        if (flow.scheduled().compareAndSet(false, true)) {
+            if (loop.inEventLoop()) {
+                activate(flow);
+            } else {
+                loop.execute(() -> activate(flow));
+            }
+        }
+    }
+
+    private void activate(EgressFlow flow) {
+        active.addLast(flow);
+        if (!running) {
+            running = true;
+            loop.execute(this::turn);
+        }
+    }
+
+    private void turn() {
+        for (int i = active.size(); i > 0; i--) {
+            EgressFlow flow = active.pollFirst();
+            long deficit = flow.getDeficit() + quantum;
+            deficit -= flow.send(deficit, turnElements);
+            if (flow.hasPending()) {
+                flow.setDeficit(deficit);
+                active.addLast(flow);
+                Metrics.EGRESS_DEFERRED.inc();
+            } else {
+                flow.setDeficit(0);
+                flow.scheduled().set(false);
+                // an element could be offered after the check, its schedule() lost the race.
+                if (flow.hasPending() && flow.scheduled().compareAndSet(false, true)) {
+                    active.addLast(flow);
+                }
+            }
+        }
+        if (active.isEmpty()) {
+            running = false;
+        } else {
+            loop.execute(this::turn);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.queue;
+
+import io.github.ma1uta.mjjb.config.QueueConfig;
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Histogram;
+import rocks.xmpp.core.stream.model.StreamElement;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outgoing queue of the session with the priority classes.
+ * <p/>
+ * The {@link StanzaClass#CONTROL} elements are drained first, the other classes are drained by the weighted round robin: a round
+ * takes up to the weight of the elements from each class, so a burst of the presences doesn't delay the IQs and the messages and
+ * isn't starved by them. Each class is limited, the new elements of the full class are rejected.
+ * <p/>
+ * The elements are offered by any thread and polled by the event loop of the session. The count of the queued elements is
+ * reported to the {@link Backpressure} only while the session is connected: the queue of a session which can't reach the remote
+ * server (e.g. a dead domain) doesn't saturate the bridge for the other domains.
+ */
+public class OutgoingQueue {
+
+    private static final StanzaClass[] CLASSES = StanzaClass.values();
+    private static final Histogram.Child[] DELAY = new Histogram.Child[CLASSES.length];
+    private static final Counter.Child[] REJECTED = new Counter.Child[CLASSES.length];
+
+    static {
+        for (StanzaClass stanzaClass : CLASSES) {
+            DELAY[stanzaClass.ordinal()] = Metrics.QUEUE_DELAY.labels(stanzaClass.label());
+            REJECTED[stanzaClass.ordinal()] = Metrics.QUEUE_REJECTED.labels(stanzaClass.label());
+        }
+    }
+
+    private final List<Deque<Entry>> queues = new ArrayList<>(CLASSES.length);
+    private final AtomicInteger[] sizes = new AtomicInteger[CLASSES.length];
+    private final int[] weights = new int[CLASSES.length];
+    private final int[] limits = new int[CLASSES.length];
+    private final AtomicInteger size = new AtomicInteger();
+    private final Backpressure backpressure;
+    private boolean counted;
+    private int pending;
+
+    private int current = StanzaClass.IQ.ordinal();
+    private int credit;
+
+    /**
+     * Constructs the queue of the connected session.
+     *
+     * @param config       weights and limits of the classes.
+     * @param backpressure global pressure, may be {@code null}.
+     */
+    public OutgoingQueue(QueueConfig config, Backpressure backpressure) {
+        this(config, backpressure, true);
+    }
+
+    /**
+     * Constructs the queue.
+     *
+     * @param config       weights and limits of the classes.
+     * @param backpressure global pressure, may be {@code null}.
+     * @param counted      {@code true} to report the queued elements to the backpressure from the start.
+     */
+    public OutgoingQueue(QueueConfig config, Backpressure backpressure, boolean counted) {
+        this.backpressure = backpressure;
+        this.counted = counted;
+        for (int i = 0; i < CLASSES.length; i++) {
+            queues.add(new ConcurrentLinkedDeque<>());
+            sizes[i] = new AtomicInteger();
+        }
+        weights[StanzaClass.IQ.ordinal()] = Math.max(1, config.getIqWeight());
+        weights[StanzaClass.MESSAGE.ordinal()] = Math.max(1, config.getMessageWeight());
+        weights[StanzaClass.PRESENCE.ordinal()] = Math.max(1, config.getPresenceWeight());
+        limits[StanzaClass.CONTROL.ordinal()] = Integer.MAX_VALUE;
+        limits[StanzaClass.IQ.ordinal()] = config.getIqLimit();
+        limits[StanzaClass.MESSAGE.ordinal()] = config.getMessageLimit();
+        limits[StanzaClass.PRESENCE.ordinal()] = config.getPresenceLimit();
+        credit = weights[current];
+    }
+
+    /**
+     * Queue the element.
+     *
+     * @param element stream element.
+     * @return {@code false} if the class of the element is full.
+     */
+    public boolean offer(StreamElement element) {
+        int index = StanzaClass.of(element).ordinal();
+        if (sizes[index].incrementAndGet() > limits[index]) {
+            sizes[index].decrementAndGet();
+            REJECTED[index].inc();
+            return false;
+        }
+        queues.get(index).offerLast(new Entry(element));
+        size.incrementAndGet();
+        pressure(1);
+        return true;
+    }
+
+    /**
+     * Remove the queued element, e.g. the caller retries it.
+     *
+     * @param element queued element.
+     * @return {@code true} if the element was removed.
+     */
+    public synchronized boolean remove(StreamElement element) {
+        int index = StanzaClass.of(element).ordinal();
+        if (queues.get(index).removeIf(entry -> entry.element == element)) {
+            sizes[index].decrementAndGet();
+            size.decrementAndGet();
+            pressure(-1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Return the elements to the head of their classes in the same order, e.g. the unacknowledged stanzas. The limits aren't
+     * checked, the elements were already accepted.
+     *
+     * @param elements elements to send again.
+     */
+    public void requeue(List<? extends StreamElement> elements) {
+        for (int i = elements.size() - 1; i >= 0; i--) {
+            StreamElement element = elements.get(i);
+            int index = StanzaClass.of(element).ordinal();
+            sizes[index].incrementAndGet();
+            queues.get(index).offerFirst(new Entry(element));
+            size.incrementAndGet();
+        }
+        pressure(elements.size());
+    }
+
+    /**
+     * Take the next element.
+     *
+     * @param stanzas {@code false} to take only the {@link StanzaClass#CONTROL} elements, e.g. the resend buffer is full.
+     * @return the next element or {@code null}.
+     */
+    public synchronized StreamElement poll(boolean stanzas) {
+        Entry entry = take(StanzaClass.CONTROL.ordinal());
+        if (entry == null && stanzas) {
+            // at most one full cycle: every class gets its weight or is empty.
+            for (int i = 0; i < CLASSES.length && entry == null; i++) {
+                if (credit > 0) {
+                    entry = take(current);
+                }
+                if (entry != null) {
+                    credit--;
+                } else {
+                    next();
+                }
+            }
+        }
+        return entry != null ? entry.element : null;
+    }
+
+    /**
+     * Remove the all queued elements.
+     *
+     * @return removed elements by the priority.
+     */
+    public synchronized List<StreamElement> drain() {
+        List<StreamElement> elements = new ArrayList<>(size.get());
+        for (int i = 0; i < CLASSES.length; i++) {
+            Entry entry;
+            while ((entry = queues.get(i).pollFirst()) != null) {
+                sizes[i].decrementAndGet();
+                size.decrementAndGet();
+                elements.add(entry.element);
+            }
+        }
+        pressure(-elements.size());
+        return elements;
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * The queue has the elements which can be taken now.
+     *
+     * @param stanzas {@code false} to check only the {@link StanzaClass#CONTROL} elements.
+     * @return {@code true} if {@link #poll(boolean)} returns an element.
+     */
+    public boolean hasNext(boolean stanzas) {
+        return stanzas ? size.get() > 0 : sizes[StanzaClass.CONTROL.ordinal()].get() > 0;
+    }
+
+    /**
+     * Count of the queued elements.
+     *
+     * @return count of the elements.
+     */
+    public int size() {
+        return size.get();
+    }
+
+    private Entry take(int index) {
+        Entry entry = queues.get(index).pollFirst();
+        if (entry != null) {
+            sizes[index].decrementAndGet();
+            size.decrementAndGet();
+            pressure(-1);
+            DELAY[index].observe(Metrics.since(entry.enqueued));
+        }
+        return entry;
+    }
+
+    /**
+     * Start or stop reporting the queued elements to the backpressure, e.g. the session is connected or the connection is lost.
+     *
+     * @param counted {@code true} to report the elements.
+     */
+    public void setCounted(boolean counted) {
+        if (backpressure == null) {
+            return;
+        }
+        synchronized (this) {
+            if (this.counted == counted) {
+                return;
+            }
+            this.counted = counted;
+            if (pending != 0) {
+                backpressure.queued(counted ? pending : -pending);
+            }
+        }
+    }
+
+    private void pressure(int delta) {
+        if (backpressure == null || delta == 0) {
+            return;
+        }
+        // the count is updated with the flag, so the elements queued concurrently with the change are reported once.
+        synchronized (this) {
+            pending += delta;
+            if (counted) {
+                backpressure.queued(delta);
+            }
+        }
+    }
+
+    private void next() {
+        current = current == CLASSES.length - 1 ? StanzaClass.IQ.ordinal() : current + 1;
+        credit = weights[current];
+    }
+
+    /**
+     * Queued element.
+     */
+    private static final class Entry {
+        private final StreamElement element;
+        private final long enqueued = System.nanoTime();
+
+        private Entry(StreamElement element) {
+            this.element = element;
+        }
+    }
+}
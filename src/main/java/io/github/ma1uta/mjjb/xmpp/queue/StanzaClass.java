@@ -0,0 +1,78 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.queue;
+
+import rocks.xmpp.core.stanza.model.Message;
+import rocks.xmpp.core.stanza.model.Stanza;
+
+import java.util.Locale;
+
+/**
+ * Priority classes of the outgoing stream elements, from the highest one.
+ */
+public enum StanzaClass {
+
+    /**
+     * Stream control and dialback elements, always sent first.
+     */
+    CONTROL,
+
+    /**
+     * IQs, the remote entities wait for the results.
+     */
+    IQ,
+
+    /**
+     * Messages with the body.
+     */
+    MESSAGE,
+
+    /**
+     * Presences and the messages without the body (chat states, receipts).
+     */
+    PRESENCE;
+
+    /**
+     * Classify the stream element.
+     *
+     * @param element stream element.
+     * @return class of the element.
+     */
+    public static StanzaClass of(Object element) {
+        if (!(element instanceof Stanza)) {
+            return CONTROL;
+        }
+        // the enum constant hides the class name.
+        if (element instanceof rocks.xmpp.core.stanza.model.IQ) {
+            return IQ;
+        }
+        if (element instanceof Message && ((Message) element).getBody() != null) {
+            return MESSAGE;
+        }
+        return PRESENCE;
+    }
+
+    /**
+     * Metric label.
+     *
+     * @return label of the class.
+     */
+    public String label() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
@@ -51,7 +51,7 @@ public class DirectInviteRouter extends AbstractRouter<Presence> {
         String target = extractMxidFromJid(jid);
         String sender = encodeJidToMxid(jid);
 
-        return getJdbi().inTransaction(h -> {
+        return inTransaction(h -> {
             RoomDao roomDao = h.attach(RoomDao.class);
             DirectRoom room = roomDao.findDirectRoomByJid(sender);
 
@@ -78,7 +78,7 @@ public class DirectInviteRouter extends AbstractRouter<Presence> {
 
                 room = roomDao.createDirectRoom(roomId, target, sender);
             }
-            matrixClient.userId(sender).room().joinByIdOrAlias(room.getRoomId()).join();
+            getOutbox().join(h, sender, room.getRoomId());
             roomDao.updateXmppSubscription(room.getRoomId(), true);
 
             return true;
@@ -0,0 +1,201 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.sm;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rocks.xmpp.core.stanza.model.Stanza;
+import rocks.xmpp.extensions.sm.model.StreamManagement;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Stream management (XEP-0198) of the outgoing session: counts the sent stanzas and keeps them until they are acknowledged.
+ * <p/>
+ * The counters are unsigned 32-bit as required by the XEP-0198 and wrap around. The stanzas are sent by the event loop of the
+ * current connection and the acks are handled by the same loop, but the connection is replaced after the resumption, so the
+ * methods are synchronized.
+ */
+public class AckTracker {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    /**
+     * Mask of the 32-bit counter.
+     */
+    private static final long COUNTER_MASK = 0xFFFF_FFFFL;
+
+    private final int ackInterval;
+    private final int maxUnacked;
+    private final Deque<Stanza> unacked = new ArrayDeque<>();
+
+    private boolean enabled;
+    private String id;
+    private boolean resumable;
+    private long acked;
+    private int sinceRequest;
+
+    /**
+     * Constructs the tracker.
+     *
+     * @param ackInterval count of the sent stanzas after which the ack is requested.
+     * @param maxUnacked  count of the unacknowledged stanzas after which the sending is paused.
+     */
+    public AckTracker(int ackInterval, int maxUnacked) {
+        this.ackInterval = ackInterval;
+        this.maxUnacked = maxUnacked;
+    }
+
+    /**
+     * The {@code <enable/>} is sent, count the stanzas from now.
+     */
+    public synchronized void enable() {
+        this.enabled = true;
+        this.acked = 0;
+        this.sinceRequest = 0;
+    }
+
+    /**
+     * The remote server confirmed the stream management.
+     *
+     * @param enabled answer of the remote server.
+     */
+    public synchronized void enabled(StreamManagement.Enabled enabled) {
+        this.id = enabled.getId();
+        this.resumable = enabled.isResume() && id != null;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The stream can be resumed after the connection is lost.
+     *
+     * @return {@code true} if the remote server gave the resumption id.
+     */
+    public synchronized boolean isResumable() {
+        return enabled && resumable;
+    }
+
+    public synchronized String getId() {
+        return id;
+    }
+
+    /**
+     * The resend buffer is full, the sending should wait for the ack.
+     *
+     * @return {@code true} if no more stanzas can be sent.
+     */
+    public synchronized boolean isFull() {
+        return enabled && unacked.size() >= maxUnacked;
+    }
+
+    /**
+     * The stanza is sent.
+     *
+     * @param stanza sent stanza.
+     * @return {@code true} if the ack should be requested.
+     */
+    public synchronized boolean sent(Stanza stanza) {
+        if (!enabled) {
+            return false;
+        }
+        unacked.addLast(stanza);
+        Metrics.SM_UNACKED.inc();
+        if (++sinceRequest >= ackInterval || unacked.size() >= maxUnacked) {
+            sinceRequest = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The batch of the stanzas is sent.
+     *
+     * @return {@code true} if the ack should be requested for the stanzas sent after the last request.
+     */
+    public synchronized boolean flush() {
+        if (sinceRequest > 0) {
+            sinceRequest = 0;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * The remote server acknowledged the stanzas.
+     *
+     * @param handled count of the handled stanzas from the {@code <a/>} or {@code <resumed/>}.
+     * @return count of the released stanzas.
+     */
+    public synchronized int acked(long handled) {
+        if (!enabled) {
+            return 0;
+        }
+        long count = (handled - acked) & COUNTER_MASK;
+        if (count > unacked.size()) {
+            LOGGER.warn("The remote server acknowledged {} stanzas, but only {} were sent.", count, unacked.size());
+            count = unacked.size();
+        }
+        for (long i = 0; i < count; i++) {
+            unacked.pollFirst();
+        }
+        Metrics.SM_UNACKED.dec(count);
+        acked = handled & COUNTER_MASK;
+        return (int) count;
+    }
+
+    /**
+     * The stream is resumed: release the acknowledged stanzas and return the other ones to send them again.
+     *
+     * @param handled count of the handled stanzas from the {@code <resumed/>}.
+     * @return stanzas to send again.
+     */
+    public synchronized List<Stanza> resumed(long handled) {
+        acked(handled);
+        return drain();
+    }
+
+    /**
+     * Disable the stream management, e.g. the resumption failed and the stream is negotiated from the scratch.
+     *
+     * @return unacknowledged stanzas.
+     */
+    public synchronized List<Stanza> reset() {
+        final List<Stanza> stanzas = drain();
+        enabled = false;
+        id = null;
+        resumable = false;
+        acked = 0;
+        sinceRequest = 0;
+        return stanzas;
+    }
+
+    private List<Stanza> drain() {
+        List<Stanza> stanzas = new ArrayList<>(unacked);
+        unacked.clear();
+        Metrics.SM_UNACKED.dec(stanzas.size());
+        return stanzas;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.sm;
+
+import io.github.ma1uta.mjjb.xmpp.IncomingSession;
+
+/**
+ * Stream management (XEP-0198) state of the incoming stream, which is kept after the connection is lost for the resumption.
+ */
+class InboundStream {
+
+    /**
+     * Mask of the 32-bit counter.
+     */
+    private static final long COUNTER_MASK = 0xFFFF_FFFFL;
+
+    private final String id;
+    private final String domain;
+    private volatile IncomingSession session;
+    private volatile long handled;
+
+    InboundStream(String id, String domain, IncomingSession session) {
+        this.id = id;
+        this.domain = domain;
+        this.session = session;
+    }
+
+    String getId() {
+        return id;
+    }
+
+    String getDomain() {
+        return domain;
+    }
+
+    IncomingSession getSession() {
+        return session;
+    }
+
+    void setSession(IncomingSession session) {
+        this.session = session;
+    }
+
+    long getHandled() {
+        return handled;
+    }
+
+    /**
+     * The stanza is handled. Called only by the event loop of the current connection.
+     */
+    void handled() {
+        handled = (handled + 1) & COUNTER_MASK;
+    }
+}
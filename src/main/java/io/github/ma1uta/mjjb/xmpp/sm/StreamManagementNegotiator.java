@@ -0,0 +1,146 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.sm;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.metrics.Metrics;
+import io.github.ma1uta.mjjb.xmpp.IncomingSession;
+import io.github.ma1uta.mjjb.xmpp.SessionRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rocks.xmpp.core.stanza.model.errors.Condition;
+import rocks.xmpp.core.stream.StreamNegotiationResult;
+import rocks.xmpp.core.stream.server.ServerStreamFeatureNegotiator;
+import rocks.xmpp.extensions.sm.model.StreamManagement;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stream management (XEP-0198) negotiator of the incoming sessions.
+ * <p/>
+ * The S2S stream is unidirectional, so the incoming session only counts and acknowledges the handled stanzas. The stream
+ * management is enabled only on the authenticated stream and the stream is resumed only on the secure stream which is
+ * authenticated for the same domain as the previous one.
+ */
+public class StreamManagementNegotiator extends ServerStreamFeatureNegotiator<StreamManagement> {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    private final IncomingSession session;
+    private final StreamResumption resumption;
+    private final StreamManagement feature = new StreamManagement();
+    private volatile InboundStream stream;
+
+    /**
+     * Constructs the negotiator.
+     *
+     * @param session    incoming session.
+     * @param resumption resumable streams.
+     */
+    public StreamManagementNegotiator(IncomingSession session, StreamResumption resumption) {
+        super(StreamManagement.class);
+        this.session = session;
+        this.resumption = resumption;
+    }
+
+    @Override
+    public StreamManagement createStreamFeature() {
+        return feature;
+    }
+
+    /**
+     * The stream management is enabled or the stream is resumed.
+     *
+     * @return {@code true} if the handled stanzas are counted.
+     */
+    public boolean isEnabled() {
+        return stream != null;
+    }
+
+    /**
+     * Count the handled stanza.
+     */
+    public void handled() {
+        InboundStream current = stream;
+        if (current != null) {
+            current.handled();
+        }
+    }
+
+    /**
+     * The connection is closed, keep the stream for the resumption.
+     */
+    public void detach() {
+        InboundStream current = stream;
+        if (current != null) {
+            resumption.detach(current, session);
+        }
+    }
+
+    @Override
+    public StreamNegotiationResult processNegotiation(Object element) {
+        if (element instanceof StreamManagement.Enable) {
+            enable();
+        } else if (element instanceof StreamManagement.Resume) {
+            resume((StreamManagement.Resume) element);
+        } else if (element instanceof StreamManagement.Request) {
+            InboundStream current = stream;
+            if (current != null) {
+                session.send(new StreamManagement.Answer(current.getHandled()));
+            }
+        }
+        // the negotiator isn't removed, it answers the ack requests until the stream is closed.
+        return StreamNegotiationResult.IGNORE;
+    }
+
+    private void enable() {
+        if (stream != null || !isAuthenticated()) {
+            session.send(new StreamManagement.Failed(Condition.UNEXPECTED_REQUEST));
+            return;
+        }
+        stream = resumption.open(session);
+        int max = (int) TimeUnit.MILLISECONDS.toSeconds(resumption.getConfig().getResumeTimeout());
+        session.send(new StreamManagement.Enabled(stream.getId(), true, max, null));
+    }
+
+    private void resume(StreamManagement.Resume resume) {
+        InboundStream resumed = stream == null ? resumption.resume(resume.getPreviousId(), session) : null;
+        if (resumed == null) {
+            Metrics.SM_RESUMPTIONS.labels("income", "failed").inc();
+            session.send(new StreamManagement.Failed(Condition.ITEM_NOT_FOUND));
+            return;
+        }
+        stream = resumed;
+        Metrics.SM_RESUMPTIONS.labels("income", "resumed").inc();
+        LOGGER.info("The stream of {} is resumed, {} stanzas were handled.", session.getDomain(), resumed.getHandled());
+        session.send(new StreamManagement.Resumed(resumed.getHandled(), resumed.getId()));
+    }
+
+    private boolean isAuthenticated() {
+        SessionRegistry sessions = session.getXmppServer().getSessions();
+        return sessions.authenticated(session.getXmppServer().getConfig().getDomain(), session.getDomain()).contains(session);
+    }
+
+    @Override
+    public boolean canProcess(Object element) {
+        return element instanceof StreamManagement.Enable
+            || element instanceof StreamManagement.Resume
+            || element instanceof StreamManagement.Request
+            || element instanceof StreamManagement.Answer;
+    }
+}
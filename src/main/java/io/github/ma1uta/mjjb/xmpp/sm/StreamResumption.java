@@ -0,0 +1,140 @@
+/*
+ * Copyright sablintolya@gmai.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package io.github.ma1uta.mjjb.xmpp.sm;
+
+import io.github.ma1uta.mjjb.Loggers;
+import io.github.ma1uta.mjjb.config.StreamManagementConfig;
+import io.github.ma1uta.mjjb.metrics.CacheMetrics;
+import io.github.ma1uta.mjjb.xmpp.IncomingSession;
+import org.cache2k.Cache;
+import org.cache2k.Cache2kBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resumable incoming streams (XEP-0198).
+ * <p/>
+ * The streams of the open connections are active. When the connection is closed the stream is detached and kept for the
+ * {@code resume_timeout}. The resumption takes the stream either from the detached ones or from the active one (the old connection
+ * is half-open and isn't closed yet), in the last case the old connection is closed.
+ * <p/>
+ * The resumption id is random and sent only to the authenticated remote server. The stream is resumed only on the secure
+ * stream which is already authenticated for the same domain, so a leaked id isn't enough to take the stream over.
+ */
+public class StreamResumption {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Loggers.LOGGER);
+
+    private final ConcurrentMap<String, InboundStream> active = new ConcurrentHashMap<>();
+    private final Cache<String, InboundStream> detached;
+    private final StreamManagementConfig config;
+
+    public StreamResumption(StreamManagementConfig config) {
+        this.config = config;
+        this.detached = new Cache2kBuilder<String, InboundStream>() {
+        }
+            .name("resumableStreams")
+            .entryCapacity(config.getResumeCapacity())
+            .expireAfterWrite(config.getResumeTimeout(), TimeUnit.MILLISECONDS)
+            .build();
+        CacheMetrics.monitor(detached);
+    }
+
+    public StreamManagementConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * Enable the stream management of the incoming session.
+     *
+     * @param session incoming session.
+     * @return the new stream.
+     */
+    InboundStream open(IncomingSession session) {
+        InboundStream stream = new InboundStream(UUID.randomUUID().toString(), session.getDomain(), session);
+        active.put(stream.getId(), stream);
+        return stream;
+    }
+
+    /**
+     * The connection of the session is closed, keep the stream for the resumption.
+     *
+     * @param stream  stream.
+     * @param session closed session.
+     */
+    void detach(InboundStream stream, IncomingSession session) {
+        boolean removed = active.remove(stream.getId(), stream);
+        if (removed && stream.getSession() == session) {
+            stream.setSession(null);
+            detached.put(stream.getId(), stream);
+        } else if (removed) {
+            // resumed by another session concurrently.
+            active.put(stream.getId(), stream);
+        }
+    }
+
+    /**
+     * Resume the stream in the new session.
+     *
+     * @param previousId resumption id.
+     * @param session    new incoming session.
+     * @return the resumed stream or {@code null} if the stream is unknown, expired, belongs to another domain or the new session
+     *     isn't secure and authenticated.
+     */
+    InboundStream resume(String previousId, IncomingSession session) {
+        if (previousId == null) {
+            return null;
+        }
+        String localDomain = session.getXmppServer().getConfig().getDomain();
+        if (!session.getConnection().isSecure()
+            || !session.getXmppServer().getSessions().authenticated(localDomain, session.getDomain()).contains(session)) {
+            LOGGER.warn("The {} tried to resume the stream on the unsecure or unauthenticated stream.", session.getDomain());
+            return null;
+        }
+        InboundStream stream = active.get(previousId);
+        if (stream == null) {
+            stream = detached.peekAndRemove(previousId);
+        }
+        if (stream == null) {
+            return null;
+        }
+        if (!stream.getDomain().equals(session.getDomain())) {
+            LOGGER.warn("The {} tried to resume the stream of the {}.", session.getDomain(), stream.getDomain());
+            if (stream.getSession() == null) {
+                detached.put(previousId, stream);
+            }
+            return null;
+        }
+        IncomingSession previous = stream.getSession();
+        stream.setSession(session);
+        active.put(previousId, stream);
+        if (previous != null && previous != session) {
+            try {
+                previous.close();
+            } catch (Exception e) {
+                LOGGER.error("Failed to close the previous connection of the resumed stream.", e);
+            }
+        }
+        return stream;
+    }
+}
@@ -0,0 +1,11 @@
+CREATE TABLE "outbox" (
+  "id" TEXT PRIMARY KEY,
+  "kind" TEXT NOT NULL,
+  "recipient" TEXT NOT NULL,
+  "payload" TEXT NOT NULL,
+  "attempts" INTEGER NOT NULL DEFAULT 0,
+  "claimed_until" TIMESTAMP WITH TIME ZONE,
+  "created" TIMESTAMP WITH TIME ZONE NOT NULL
+);
+
+CREATE INDEX "outbox_created_idx" ON "outbox" ("created");
@@ -0,0 +1 @@
+CREATE INDEX "transaction_started_idx" ON "transaction" ("started", "id");
@@ -0,0 +1,11 @@
+CREATE INDEX "direct_room_xmpp_user_idx" ON "direct_room" ("xmpp_user");
+
+CREATE INDEX "direct_room_room_id_idx" ON "direct_room" ("room_id");
+
+CREATE TABLE "message_map" (
+  "event_hash" BIGINT PRIMARY KEY,
+  "stanza_hash" BIGINT NOT NULL,
+  "created" TIMESTAMP WITH TIME ZONE NOT NULL
+);
+
+CREATE INDEX "message_map_created_idx" ON "message_map" ("created");